@@ -0,0 +1,114 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+/**
+ *  A single micro-benchmark. The {@link BenchmarkRunner} calls
+ *  {@link #setUp()} once, then calls {@link #op()} repeatedly for the warmup
+ *  and measurement periods and finally calls {@link #tearDown()}.
+ *
+ *  <p/>Implementations should return the result of each operation so that
+ *  the runner can consume it and the VM cannot discard the work.
+ */
+public abstract class Benchmark {
+
+    private final String name;
+
+    /**
+     *  Creates a new benchmark.
+     *
+     *  @param name the name of the benchmark, used in reports and baselines.
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /**
+     *  Returns the name of the benchmark.
+     *
+     *  @return the name of the benchmark.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     *  Prepares the state used by {@link #op()}.
+     *
+     *  @throws Exception if the benchmark cannot be prepared.
+     */
+    public void setUp() throws Exception {
+    }
+
+    /**
+     *  Releases the state used by {@link #op()}.
+     *
+     *  @throws Exception if the benchmark cannot be cleaned up.
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     *  Performs one operation.
+     *
+     *  @return the result of the operation.
+     *  @throws Exception if the operation fails.
+     */
+    public abstract Object op() throws Exception;
+}
@@ -0,0 +1,442 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ *  Runs the JXTA micro-benchmarks and optionally compares the results with,
+ *  or records them as, a baseline.
+ *
+ *  <p/>Usage :
+ *  <pre>
+ *  java net.jxta.bench.BenchmarkRunner [-warmup ms] [-time ms] [-iterations n]
+ *      [-baseline file] [-threshold percent] [-save file] [-list] [filter ...]
+ *  </pre>
+ *
+ *  <p/>Each benchmark is warmed up and then measured for a number of
+ *  iterations of fixed duration. The throughput of a benchmark is the median
+ *  of its iterations, in operations per second, and its noise is the median
+ *  absolute deviation of the iterations relative to the median. Only the
+ *  benchmarks whose name contains one of the filters are run.
+ *
+ *  <p/>Raw throughput depends on the machine, so the score of a benchmark is
+ *  its throughput divided by that of the {@link CalibrationBenchmark}, which
+ *  is sampled between the other benchmarks, times 1000. Baselines
+ *  record scores. If a baseline is given the difference with the baseline
+ *  score is reported and, if a threshold is also given, the runner exits with
+ *  status 1 when any benchmark is slower than the baseline by more than the
+ *  threshold and by more than twice its noise.
+ */
+public final class BenchmarkRunner {
+
+    private long warmup = 2000;
+    private long time = 1000;
+    private int iterations = 9;
+    private File baselineFile = null;
+    private File saveFile = null;
+    private double threshold = -1;
+    private boolean listOnly = false;
+    private final List filters = new ArrayList();
+
+    /**
+     *  Consumes the results of the operations.
+     */
+    private int sink = 0;
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     *  Returns all of the benchmarks.
+     *
+     *  @return all of the benchmarks.
+     */
+    static List allBenchmarks() {
+        List all = new ArrayList();
+
+        MessageBenchmarks.addTo(all);
+        DocumentBenchmarks.addTo(all);
+        CmBenchmarks.addTo(all);
+        AddressBenchmarks.addTo(all);
+
+        return all;
+    }
+
+    /**
+     *  The main program.
+     *
+     *  @param args the command line arguments.
+     *  @throws Exception if a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+
+        if (!runner.parseArgs(args)) {
+            System.err.println("Usage : BenchmarkRunner [-warmup ms] [-time ms] [-iterations n] [-baseline file] [-threshold percent] [-save file] [-list] [filter ...]");
+            System.exit(2);
+        }
+
+        System.exit(runner.run() ? 0 : 1);
+    }
+
+    private boolean parseArgs(String[] args) {
+        try {
+            for (int each = 0; each < args.length; each++) {
+                String arg = args[each];
+
+                if ("-warmup".equals(arg)) {
+                    warmup = Long.parseLong(args[++each]);
+                } else if ("-time".equals(arg)) {
+                    time = Long.parseLong(args[++each]);
+                } else if ("-iterations".equals(arg)) {
+                    iterations = Integer.parseInt(args[++each]);
+                } else if ("-baseline".equals(arg)) {
+                    baselineFile = new File(args[++each]);
+                } else if ("-threshold".equals(arg)) {
+                    threshold = Double.parseDouble(args[++each]);
+                } else if ("-save".equals(arg)) {
+                    saveFile = new File(args[++each]);
+                } else if ("-list".equals(arg)) {
+                    listOnly = true;
+                } else if (arg.startsWith("-")) {
+                    return false;
+                } else {
+                    filters.add(arg);
+                }
+            }
+        } catch (RuntimeException badArg) {
+            return false;
+        }
+
+        return (warmup >= 0) && (time > 0) && (iterations > 0);
+    }
+
+    private boolean run() throws Exception {
+        Properties baseline = new Properties();
+        Properties results = new Properties();
+        boolean passed = true;
+
+        if (null != baselineFile) {
+            InputStream in = new FileInputStream(baselineFile);
+
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        List selected = new ArrayList();
+        Iterator eachBenchmark = allBenchmarks().iterator();
+
+        while (eachBenchmark.hasNext()) {
+            Benchmark benchmark = (Benchmark) eachBenchmark.next();
+
+            if (!selected(benchmark.getName())) {
+                continue;
+            }
+
+            if (listOnly) {
+                System.out.println(benchmark.getName());
+            } else {
+                selected.add(benchmark);
+            }
+        }
+
+        if (selected.isEmpty()) {
+            return passed;
+        }
+
+        // The calibration is sampled between the benchmarks so that it
+        // follows the machine as its speed drifts during the run.
+        Benchmark calibration = new CalibrationBenchmark();
+        double[] calibrationSamples = new double[selected.size() + 1];
+        List measured = new ArrayList();
+
+        calibration.setUp();
+
+        try {
+            runFor(calibration, warmup);
+
+            for (int eachSelected = 0; eachSelected < selected.size(); eachSelected++) {
+                calibrationSamples[eachSelected] = sample(calibration);
+                measured.add(measure((Benchmark) selected.get(eachSelected)));
+            }
+
+            calibrationSamples[selected.size()] = sample(calibration);
+        } finally {
+            calibration.tearDown();
+        }
+
+        double calibrated = median(calibrationSamples);
+        double calibrationNoise = (calibrated > 0) ? (100.0 * medianDeviation(calibrationSamples, calibrated) / calibrated) : 0;
+
+        System.out.println(pad(calibration.getName(), 36) + pad(Long.toString(Math.round(calibrated)), -14) + " ops/s  +/-" + pad(format(calibrationNoise, 1), -6) + "%");
+
+        for (int eachMeasured = 0; eachMeasured < selected.size(); eachMeasured++) {
+            Benchmark benchmark = (Benchmark) selected.get(eachMeasured);
+            double[] throughputs = (double[]) measured.get(eachMeasured);
+            double median = median(throughputs);
+            double noise = (median > 0) ? (100.0 * medianDeviation(throughputs, median) / median) : 0;
+            double score = (calibrated > 0) ? (1000.0 * median / calibrated) : 0;
+
+            results.setProperty(benchmark.getName(), format(score, 3));
+
+            StringBuffer line = new StringBuffer();
+
+            line.append(pad(benchmark.getName(), 36));
+            line.append(pad(Long.toString(Math.round(median)), -14));
+            line.append(" ops/s  +/-");
+            line.append(pad(format(noise, 1), -6));
+            line.append("%  score");
+            line.append(pad(format(score, 3), -12));
+
+            String base = baseline.getProperty(benchmark.getName());
+
+            if (null != base) {
+                double baseScore = Double.parseDouble(base);
+                double delta = (baseScore > 0) ? (100.0 * (score - baseScore) / baseScore) : 0;
+
+                line.append("  baseline ");
+                line.append(pad(base, -12));
+                line.append(pad(((delta >= 0) ? "+" : "") + format(delta, 1), -8));
+                line.append("%");
+
+                if ((threshold >= 0) && (-delta > threshold) && (-delta > (2 * noise))) {
+                    line.append("  REGRESSION");
+                    passed = false;
+                }
+            }
+
+            System.out.println(line);
+        }
+
+        if ((null != saveFile) && !listOnly) {
+            // Written sorted so that changes to the baseline diff well.
+            PrintWriter out = new PrintWriter(new FileWriter(saveFile));
+
+            try {
+                out.println("# JXTA benchmark scores (throughput per 1000 calibration ops); warmup=" + warmup + "ms time=" + time + "ms iterations=" + iterations + " java.vm.version=" + System.getProperty("java.vm.version"));
+
+                Iterator eachResult = new TreeMap(results).entrySet().iterator();
+
+                while (eachResult.hasNext()) {
+                    Map.Entry result = (Map.Entry) eachResult.next();
+
+                    out.println(result.getKey() + "=" + result.getValue());
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        // Printing the sink keeps the results of the operations alive.
+        if (sink == 42) {
+            System.out.println();
+        }
+
+        return passed;
+    }
+
+    private boolean selected(String name) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+
+        Iterator eachFilter = filters.iterator();
+
+        while (eachFilter.hasNext()) {
+            if (name.indexOf((String) eachFilter.next()) != -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *  Warms up a benchmark then measures its throughput for each iteration.
+     */
+    private double[] measure(Benchmark benchmark) throws Exception {
+        double[] scores = new double[iterations];
+
+        benchmark.setUp();
+
+        try {
+            runFor(benchmark, warmup);
+
+            for (int each = 0; each < iterations; each++) {
+                scores[each] = sample(benchmark);
+            }
+        } finally {
+            benchmark.tearDown();
+        }
+
+        return scores;
+    }
+
+    /**
+     *  Measures the throughput of one iteration, in operations per second.
+     */
+    private double sample(Benchmark benchmark) throws Exception {
+        long start = System.currentTimeMillis();
+        long ops = runFor(benchmark, time);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        return (ops * 1000.0) / elapsed;
+    }
+
+    /**
+     *  Runs operations for at least the given duration. The clock is read
+     *  once per batch; batches grow until one takes a measurable time.
+     *
+     *  @return the number of operations performed.
+     */
+    private long runFor(Benchmark benchmark, long duration) throws Exception {
+        long end = System.currentTimeMillis() + duration;
+        long ops = 0;
+        int batch = 1;
+
+        while (true) {
+            long batchStart = System.currentTimeMillis();
+
+            for (int each = 0; each < batch; each++) {
+                Object result = benchmark.op();
+
+                sink ^= System.identityHashCode(result);
+            }
+
+            ops += batch;
+
+            long now = System.currentTimeMillis();
+
+            if (now >= end) {
+                return ops;
+            }
+
+            if (((now - batchStart) < 10) && (batch < (1 << 20))) {
+                batch <<= 1;
+            }
+        }
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = (double[]) values.clone();
+
+        Arrays.sort(sorted);
+
+        int middle = sorted.length / 2;
+
+        return (0 == (sorted.length % 2)) ? ((sorted[middle - 1] + sorted[middle]) / 2) : sorted[middle];
+    }
+
+    /**
+     *  The median of the absolute deviations from the median. Unlike the
+     *  standard deviation a single disturbed iteration barely changes it.
+     */
+    private static double medianDeviation(double[] values, double median) {
+        double[] deviations = new double[values.length];
+
+        for (int each = 0; each < values.length; each++) {
+            deviations[each] = Math.abs(values[each] - median);
+        }
+
+        return median(deviations);
+    }
+
+    private static String format(double value, int decimals) {
+        double scale = Math.pow(10, decimals);
+
+        return Double.toString(Math.round(value * scale) / scale);
+    }
+
+    /**
+     *  Pads a string to a width; a negative width right aligns.
+     */
+    private static String pad(String value, int width) {
+        StringBuffer padded = new StringBuffer();
+        int fill = Math.abs(width) - value.length();
+
+        if (width > 0) {
+            padded.append(value);
+        }
+
+        for (int each = 0; each < fill; each++) {
+            padded.append(' ');
+        }
+
+        if (width < 0) {
+            padded.append(value);
+        }
+
+        return padded.toString();
+    }
+}
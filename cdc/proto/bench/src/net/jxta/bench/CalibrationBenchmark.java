@@ -0,0 +1,113 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  A fixed amount of work which does not use JXTA. Its throughput measures
+ *  the speed of the machine and the VM running the benchmarks; scores are
+ *  divided by it so that baselines recorded on one machine remain meaningful
+ *  on another.
+ *
+ *  <p/>The mix, string building and encoding, hashing, array copying and
+ *  sorting and short lived allocations, is the same kind of work as the
+ *  JXTA benchmarks do.
+ */
+final class CalibrationBenchmark extends Benchmark {
+
+    private final int[] numbers = new int[64];
+
+    private final byte[] bytes = new byte[512];
+
+    private int seed = 17;
+
+    CalibrationBenchmark() {
+        super("calibration");
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public Object op() throws Exception {
+        Map map = new HashMap();
+        StringBuffer text = new StringBuffer();
+
+        for (int each = 0; each < numbers.length; each++) {
+            seed = seed * 1103515245 + 12345;
+            numbers[each] = seed >>> 8;
+
+            text.setLength(0);
+            text.append("urn:jxta:").append(Integer.toHexString(numbers[each]));
+            map.put(text.toString(), new Integer(each));
+        }
+
+        Arrays.sort(numbers);
+
+        byte[] encoded = text.toString().getBytes("UTF-8");
+
+        for (int offset = 0; offset + encoded.length <= bytes.length; offset += encoded.length) {
+            System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+        }
+
+        return map.get(text.toString());
+    }
+}
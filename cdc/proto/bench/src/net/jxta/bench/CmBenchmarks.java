@@ -0,0 +1,161 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+import java.util.List;
+
+import net.jxta.protocol.PeerAdvertisement;
+
+import net.jxta.impl.cm.Cm;
+
+/**
+ *  Benchmarks of the {@link Cm} advertisement cache.
+ */
+final class CmBenchmarks {
+
+    private static final String DIRECTORY = "Peers";
+
+    /**
+     *  Number of distinct advertisements used.
+     */
+    private static final int ADVERTISEMENTS = 256;
+
+    private CmBenchmarks() {
+    }
+
+    static void addTo(List benchmarks) {
+        benchmarks.add(new Benchmark("cm.save") {
+                           private Cm cm;
+                           private PeerAdvertisement[] advs;
+                           private int next = 0;
+
+                           public void setUp() {
+                               cm = new Cm(false, ADVERTISEMENTS, null);
+                               advs = samplePeerAdvs();
+                           }
+
+                           public void tearDown() {
+                               cm.stop();
+                           }
+
+                           public Object op() throws Exception {
+                               PeerAdvertisement adv = advs[next];
+
+                               next = (next + 1) % ADVERTISEMENTS;
+                               cm.save(DIRECTORY, adv.getID().getUniqueValue().toString(), adv);
+                               return adv;
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("cm.search.exact") {
+                           private Cm cm;
+                           private int next = 0;
+
+                           public void setUp() throws Exception {
+                               cm = filledCm();
+                           }
+
+                           public void tearDown() {
+                               cm.stop();
+                           }
+
+                           public Object op() {
+                               next = (next + 1) % ADVERTISEMENTS;
+                               return cm.search(DIRECTORY, "Name", "BenchPeer" + next, 1, null);
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("cm.search.wildcard") {
+                           private Cm cm;
+
+                           public void setUp() throws Exception {
+                               cm = filledCm();
+                           }
+
+                           public void tearDown() {
+                               cm.stop();
+                           }
+
+                           public Object op() {
+                               return cm.search(DIRECTORY, "Name", "BenchPeer1*", 10, null);
+                           }
+                       });
+    }
+
+    private static PeerAdvertisement[] samplePeerAdvs() {
+        PeerAdvertisement[] advs = new PeerAdvertisement[ADVERTISEMENTS];
+
+        for (int each = 0; each < ADVERTISEMENTS; each++) {
+            advs[each] = DocumentBenchmarks.samplePeerAdv(each);
+        }
+
+        return advs;
+    }
+
+    private static Cm filledCm() throws Exception {
+        Cm cm = new Cm(false, ADVERTISEMENTS, null);
+        PeerAdvertisement[] advs = samplePeerAdvs();
+
+        for (int each = 0; each < ADVERTISEMENTS; each++) {
+            cm.save(DIRECTORY, advs[each].getID().getUniqueValue().toString(), advs[each]);
+        }
+
+        return cm;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Vector;
+
+import net.jxta.document.Advertisement;
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.document.TextElement;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.pipe.PipeID;
+import net.jxta.pipe.PipeService;
+import net.jxta.protocol.AccessPointAdvertisement;
+import net.jxta.protocol.PeerAdvertisement;
+import net.jxta.protocol.PipeAdvertisement;
+import net.jxta.protocol.RouteAdvertisement;
+
+import net.jxta.impl.document.BinaryXMLDocument;
+
+/**
+ *  Benchmarks of the parsing and serialization of advertisements.
+ */
+final class DocumentBenchmarks {
+
+    static final PeerGroupID GROUP = (PeerGroupID) IDFactory.newPeerGroupID();
+
+    private DocumentBenchmarks() {
+    }
+
+    static void addTo(List benchmarks) {
+        addDocumentBenchmarks(benchmarks, "peer", samplePeerAdv(0));
+        addDocumentBenchmarks(benchmarks, "route", sampleRouteAdv());
+        addDocumentBenchmarks(benchmarks, "pipe", samplePipeAdv(0));
+    }
+
+    private static void addDocumentBenchmarks(List benchmarks, String name, final Advertisement adv) {
+        addDocumentBenchmarks(benchmarks, "document." + name, adv, MimeMediaType.XMLUTF8);
+        addDocumentBenchmarks(benchmarks, "document." + name + ".binary", adv, BinaryXMLDocument.MIMETYPE);
+    }
+
+    private static void addDocumentBenchmarks(List benchmarks, final String name, final Advertisement adv, final MimeMediaType encoding) {
+        benchmarks.add(new Benchmark(name + ".parse") {
+                           private byte[] bytes;
+
+                           public void setUp() throws Exception {
+                               bytes = toBytes(adv, encoding);
+
+                               if (!MimeMediaType.XMLUTF8.equals(encoding)) {
+                                   System.out.println(name + " : " + bytes.length + " bytes, XML " + toBytes(adv, MimeMediaType.XMLUTF8).length + " bytes");
+                               }
+                           }
+
+                           public Object op() throws Exception {
+                               TextElement doc = (TextElement) StructuredDocumentFactory.newStructuredDocument(encoding, new ByteArrayInputStream(bytes));
+
+                               return AdvertisementFactory.newAdvertisement(doc);
+                           }
+                       });
+
+        benchmarks.add(new Benchmark(name + ".serialize") {
+                           private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                           public Object op() throws Exception {
+                               out.reset();
+                               adv.getDocument(encoding).sendToStream(out);
+                               return out;
+                           }
+                       });
+    }
+
+    static PeerAdvertisement samplePeerAdv(int number) {
+        PeerAdvertisement adv = (PeerAdvertisement) AdvertisementFactory.newAdvertisement(PeerAdvertisement.getAdvertisementType());
+
+        adv.setPeerID(IDFactory.newPeerID(GROUP));
+        adv.setPeerGroupID(GROUP);
+        adv.setName("BenchPeer" + number);
+        adv.setDescription("Benchmark peer number " + number);
+
+        return adv;
+    }
+
+    static PipeAdvertisement samplePipeAdv(int number) {
+        PipeAdvertisement adv = (PipeAdvertisement) AdvertisementFactory.newAdvertisement(PipeAdvertisement.getAdvertisementType());
+
+        adv.setPipeID((PipeID) IDFactory.newPipeID(GROUP));
+        adv.setName("BenchPipe" + number);
+        adv.setType(PipeService.UnicastType);
+
+        return adv;
+    }
+
+    static RouteAdvertisement sampleRouteAdv() {
+        Vector hops = new Vector();
+
+        for (int each = 0; each < 3; each++) {
+            AccessPointAdvertisement hop = (AccessPointAdvertisement) AdvertisementFactory.newAdvertisement(AccessPointAdvertisement.getAdvertisementType());
+
+            hop.setPeerID(IDFactory.newPeerID(GROUP));
+            hop.addEndpointAddress("tcp://10.0.0." + each + ":9701");
+            hop.addEndpointAddress("http://10.0.0." + each + ":9700");
+            hops.add(hop);
+        }
+
+        return RouteAdvertisement.newRoute((PeerID) IDFactory.newPeerID(GROUP), hops);
+    }
+
+    static byte[] toBytes(Advertisement adv, MimeMediaType encoding) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        adv.getDocument(encoding).sendToStream(out);
+
+        return out.toByteArray();
+    }
+}
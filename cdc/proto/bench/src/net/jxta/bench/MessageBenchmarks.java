@@ -0,0 +1,210 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.bench;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.StringMessageElement;
+
+import net.jxta.impl.endpoint.WireFormatMessage;
+import net.jxta.impl.endpoint.WireFormatMessageFactory;
+
+/**
+ *  Benchmarks of {@link Message} manipulation and of the binary wire format.
+ */
+final class MessageBenchmarks {
+
+    private static final MimeMediaType APP_MSG = new MimeMediaType("application/x-jxta-msg");
+
+    private static final String NAMESPACE = "jxta";
+
+    /**
+     *  Number of elements in the sample message.
+     */
+    private static final int ELEMENTS = 8;
+
+    private MessageBenchmarks() {
+    }
+
+    static void addTo(List benchmarks) {
+        benchmarks.add(new Benchmark("message.wire.encode") {
+                           private Message msg;
+                           private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                           public void setUp() {
+                               msg = sampleMessage();
+                           }
+
+                           public Object op() throws Exception {
+                               out.reset();
+
+                               WireFormatMessage wire = WireFormatMessageFactory.toWire(msg, APP_MSG, (MimeMediaType[]) null);
+
+                               wire.sendToStream(out);
+                               return wire;
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("message.wire.decode") {
+                           private byte[] bytes;
+
+                           public void setUp() throws Exception {
+                               bytes = toBytes(sampleMessage());
+                           }
+
+                           public Object op() throws Exception {
+                               return WireFormatMessageFactory.fromWire(new ByteArrayInputStream(bytes), APP_MSG, null);
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("message.wire.decodeBuffer") {
+                           private byte[] bytes;
+
+                           public void setUp() throws Exception {
+                               bytes = toBytes(sampleMessage());
+                           }
+
+                           public Object op() throws Exception {
+                               return WireFormatMessageFactory.fromBuffer(bytes, 0, bytes.length, APP_MSG, null, null);
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("message.element.add") {
+                           private final StringMessageElement[] elements = new StringMessageElement[ELEMENTS];
+
+                           public void setUp() {
+                               for (int each = 0; each < ELEMENTS; each++) {
+                                   elements[each] = new StringMessageElement("element" + each, "value" + each, null);
+                               }
+                           }
+
+                           public Object op() {
+                               Message msg = new Message();
+
+                               for (int each = 0; each < ELEMENTS; each++) {
+                                   msg.addMessageElement(NAMESPACE, elements[each]);
+                               }
+
+                               return msg;
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("message.element.lookup") {
+                           private Message msg;
+                           private int next = 0;
+
+                           public void setUp() {
+                               msg = sampleMessage();
+                           }
+
+                           public Object op() {
+                               next = (next + 1) % ELEMENTS;
+
+                               return msg.getMessageElement(NAMESPACE, "element" + next);
+                           }
+                       });
+
+        benchmarks.add(new Benchmark("message.clone") {
+                           private Message msg;
+
+                           public void setUp() {
+                               msg = sampleMessage();
+                           }
+
+                           public Object op() {
+                               return msg.clone();
+                           }
+                       });
+    }
+
+    /**
+     *  Builds a message typical of the service messages: a few small string
+     *  elements and one binary payload.
+     */
+    static Message sampleMessage() {
+        Message msg = new Message();
+
+        for (int each = 0; each < ELEMENTS - 1; each++) {
+            msg.addMessageElement(NAMESPACE, new StringMessageElement("element" + each, "value of element " + each, null));
+        }
+
+        byte[] payload = new byte[1024];
+
+        for (int each = 0; each < payload.length; each++) {
+            payload[each] = (byte) each;
+        }
+
+        msg.addMessageElement(NAMESPACE, new ByteArrayMessageElement("element" + (ELEMENTS - 1), MimeMediaType.AOS, payload, null));
+
+        return msg;
+    }
+
+    static byte[] toBytes(Message msg) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        WireFormatMessageFactory.toWire(msg, APP_MSG, (MimeMediaType[]) null).sendToStream(out);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ *
+ * Copyright (c) 2003 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+package net.jxta.impl.util.pipe.reliable;
+
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ * A flow control module which adapts rwindow to the path in the manner of
+ * TCP Reno.
+ *
+ * <ul>
+ * <li>Slow start: starting from a small window, the window grows by one for
+ * each packet acknowledged, doubling every RTT, until it reaches the slow
+ * start threshold.</li>
+ * <li>Congestion avoidance: beyond the threshold the window grows by about
+ * one packet per RTT.</li>
+ * <li>Multiplicative decrease: a hole in a SACK list halves the window, at
+ * most once per RTT. An expired retransmission timer collapses the window
+ * to its minimum and restarts slow start.</li>
+ * <li>Slow start also ends early once the RTT rises well above the
+ * smallest RTT seen, a sign that queues are building along the path.</li>
+ * </ul>
+ *
+ * <p/>New packets are paced across the RTT rather than sent in bursts as
+ * the window opens.
+ */
+public class AdaptiveFlowControl extends FlowControl {
+
+    /**
+     * The smallest window we will use.
+     */
+    static final int MIN_RWINDOW = 2;
+
+    /**
+     * The initial window.
+     */
+    static final int INITIAL_RWINDOW = 4;
+
+    /**
+     * Slow start ends when the RTT exceeds the smallest RTT seen by this
+     * factor.
+     */
+    static final int RTT_INFLATION = 2;
+
+    /**
+     * Pacing gain during slow start, in tenths. New packets are spread over
+     * RTT / gain so that the window can still grow.
+     */
+    static final int SLOW_START_PACING_GAIN = 20;
+
+    /**
+     * Pacing gain during congestion avoidance, in tenths.
+     */
+    static final int AVOIDANCE_PACING_GAIN = 12;
+
+    /**
+     * The largest window we will use.
+     */
+    private final int maxRwindow;
+
+    /**
+     * The congestion window in packets. Fractional so that congestion
+     * avoidance can grow it by less than one packet per ack.
+     */
+    private double cwnd = INITIAL_RWINDOW;
+
+    /**
+     * The slow start threshold.
+     */
+    private int ssthresh;
+
+    /**
+     * The current recommendation; readable without synchronization.
+     */
+    private volatile int rwindow = INITIAL_RWINDOW;
+
+    /**
+     * The current pacing interval; readable without synchronization.
+     */
+    private volatile long pacingInterval = 0;
+
+    /**
+     * Number of packets acknowledged by the current ack event.
+     */
+    private int acked = 0;
+
+    /**
+     * Whether the current ack event reported a missing packet.
+     */
+    private boolean loss = false;
+
+    /**
+     * Absolute time in milliseconds of the last window reduction.
+     */
+    private long lastReduction = 0;
+
+    /**
+     * The smallest RTT sample seen or -1.
+     */
+    private long minRTT = -1;
+
+    /**
+     * Constructs an adaptive flow control module whose window may grow up to
+     * the size of the remote queue.
+     */
+    public AdaptiveFlowControl() {
+        this(Defs.MAXQUEUESIZE, Defs.MAXQUEUESIZE);
+    }
+
+    /**
+     * @param initialThreshold the window size at which slow start ends until
+     * the first loss.
+     * @param maxRwindow the largest window this module will recommend.
+     */
+    public AdaptiveFlowControl(int initialThreshold, int maxRwindow) {
+        if (maxRwindow < MIN_RWINDOW) {
+            throw new IllegalArgumentException("maxRwindow must be >= " + MIN_RWINDOW);
+        }
+
+        this.maxRwindow = maxRwindow;
+        this.ssthresh = Math.max(MIN_RWINDOW, Math.min(initialThreshold, maxRwindow));
+        this.cwnd = Math.min(INITIAL_RWINDOW, maxRwindow);
+        this.rwindow = (int) cwnd;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public int getRwindow() {
+        return rwindow;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public long getPacingInterval() {
+        return pacingInterval;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public void ackEventBegin() {
+        acked = 0;
+        loss = false;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public void packetACKed(int seqnum) {
+        acked++;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public void packetMissing(int seqnum) {
+        loss = true;
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public int ackEventEnd(int rQSize, long aveRTT, long lastRTT) {
+        long now = TimeUtils.timeNow();
+
+        if ((lastRTT > 0) && ((-1 == minRTT) || (lastRTT < minRTT))) {
+            minRTT = lastRTT;
+        }
+
+        if (loss) {
+            // A hole in the SACK list. The packets sent during the RTT
+            // following a reduction were sent with the larger window, their
+            // losses do not call for another reduction.
+            if (TimeUtils.toRelativeTimeMillis(now, lastReduction) > aveRTT) {
+                ssthresh = Math.max(MIN_RWINDOW, (int) (cwnd / 2));
+                cwnd = ssthresh;
+                lastReduction = now;
+            }
+        } else if (cwnd < ssthresh) {
+            cwnd = Math.min(cwnd + acked, ssthresh);
+
+            if ((lastRTT > 0) && (lastRTT > RTT_INFLATION * minRTT)) {
+                // Queues are building; leave slow start before they overflow.
+                ssthresh = (int) cwnd;
+            }
+        } else if (acked > 0) {
+            cwnd += ((double) acked) / cwnd;
+        }
+
+        return update(Math.min(rQSize, maxRwindow), aveRTT);
+    }
+
+    /**
+     * { @inheritDoc }
+     */
+    public int rtoExpired() {
+        ssthresh = Math.max(MIN_RWINDOW, (int) (cwnd / 2));
+        cwnd = MIN_RWINDOW;
+        lastReduction = TimeUtils.timeNow();
+
+        // Until ACKs flow again there is no RTT to pace by.
+        pacingInterval = 0;
+        rwindow = MIN_RWINDOW;
+
+        return rwindow;
+    }
+
+    private int update(int limit, long aveRTT) {
+        cwnd = Math.max(MIN_RWINDOW, Math.min(cwnd, Math.max(MIN_RWINDOW, limit)));
+        rwindow = (int) cwnd;
+
+        if (-1 == minRTT) {
+            // aveRTT is still the initial guess; do not pace by it.
+            pacingInterval = 0;
+        } else {
+            int gain = (cwnd < ssthresh) ? SLOW_START_PACING_GAIN : AVOIDANCE_PACING_GAIN;
+
+            pacingInterval = (10 * aveRTT) / (gain * rwindow);
+        }
+
+        return rwindow;
+    }
+}
@@ -102,9 +102,30 @@ public abstract class FlowControl {
      *
      * @param rQSize the last known value of the remote queue size.
      * @param aveRTT the latest estimate of the average RTT.
-     * @param lastRTT the RTT inferred from the most recent ACK message.
+     * @param lastRTT the RTT inferred from the most recent ACK message or
+     * 0 if the ACK message did not provide an RTT sample.
      * @return int the new recommended value for rwindow.
      */
 
     public abstract int ackEventEnd(int rQSize, long aveRTT, long lastRTT);
+
+    /**
+     * Indicates that the retransmission timer expired and unacknowledged
+     * packets were retransmitted.
+     *
+     * @return int the new recommended value for rwindow.
+     */
+    public int rtoExpired() {
+        return getRwindow();
+    }
+
+    /**
+     * Returns the minimum interval in milliseconds that this flow control
+     * module suggests between two new packets, or 0 if packets may be sent
+     * as soon as rwindow allows. Like getRwindow() this method may be called
+     * at any time without synchronization.
+     */
+    public long getPacingInterval() {
+        return 0;
+    }
 }
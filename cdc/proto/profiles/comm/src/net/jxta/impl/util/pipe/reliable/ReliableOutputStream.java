@@ -182,11 +182,19 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
     private volatile long sackRetransTime = 0;
 
     /**
-     *   The collection of messages available for re-transmission.
+     *  absolute time in milliseconds at which the most recent new message
+     *  was queued for sending.
+     */
+    private long lastSendTime = 0;
+
+    /**
+     *   The collection of messages available for re-transmission, indexed by
+     *   sequence number. Also the monitor on which writers wait for room in
+     *   the window; it is notified whenever room may have been made.
      *
      *   elements are {@link RetrQElt}
      */
-    protected List retrQ = new ArrayList();
+    private final RetransmitQueue retrQ = new RetransmitQueue();
 
     // running average of receipients Input Queue
     private int nIQTests = 0;
@@ -303,7 +311,10 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
             }
         }
 
-        retrQ.clear();
+        synchronized (retrQ) {
+            retrQ.clear();
+            retrQ.notifyAll();
+        }
     }
 
     /**
@@ -365,14 +376,28 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                     throw new IOException("broken connection");
                 }
                 if (retrQ.size() > Math.min(rwindow, mrrIQFreeSpace * 2)) {
+                    // ACKs, window changes and closing notify retrQ.
                     try {
-                        retrQ.wait(1000);
+                        retrQ.wait();
                     } catch (InterruptedException ignored) {}
                     continue;
                 }
+                // space the messages as suggested by fc
+                long pacing = fc.getPacingInterval();
+                if (pacing > 0) {
+                    long sinceLastSend = TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), lastSendTime);
+                    if ((sinceLastSend >= 0) && (sinceLastSend < pacing)) {
+                        try {
+                            retrQ.wait(pacing - sinceLastSend);
+                        } catch (InterruptedException ignored) {}
+                        continue;
+                    }
+                }
                 break;
             }
 
+            lastSendTime = TimeUtils.timeNow();
+
             ++sequenceNumber;
             MessageElement element =
                     new ByteArrayMessageElement(Integer.toString(sequenceNumber),
@@ -385,7 +410,7 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
             }
 
             // place copy on retransmission queue
-            retrQ.add(retrQel);
+            retrQ.add(sequenceNumber, retrQel);
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Retrans Enqueue added seqn#" + sequenceNumber + " retrQ.size()=" + retrQ.size());
             }
@@ -607,12 +632,13 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                 dumpRETRQ.append("\tRETRQ (size=" + retrQ.size() + ")");
                 if (LOG.isEnabledFor(Level.DEBUG)) {
                     dumpRETRQ.append(" : ");
-                    for (int y = 0; y < retrQ.size(); y++) {
-                        if (0 != y) {
+                    RetrQElt r = (RetrQElt) retrQ.first();
+                    while (null != r) {
+                        dumpRETRQ.append(r.seqnum);
+                        r = (RetrQElt) retrQ.next(r.seqnum + 1);
+                        if (null != r) {
                             dumpRETRQ.append(", ");
                         }
-                        RetrQElt r = (RetrQElt) retrQ.get(y);
-                        dumpRETRQ.append(r.seqnum);
                     }
                 }
                 if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -632,15 +658,11 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                 LOG.info(dumpRETRQ);
             }
 
-            Iterator eachRetryQueueEntry = retrQ.iterator();
-            // First remove monotonically increasing seq#s in retrans vector
-            while (eachRetryQueueEntry.hasNext()) {
-                RetrQElt r = (RetrQElt) eachRetryQueueEntry.next();
-                if (r.seqnum > seqnum) {
-                    break;
-                }
+            // First remove monotonically increasing seq#s in retrans queue
+            RetrQElt r;
+            while ((null != (r = (RetrQElt) retrQ.first())) && (r.seqnum <= seqnum)) {
                 // Acknowledged
-                eachRetryQueueEntry.remove();
+                retrQ.remove(r.seqnum);
 
                 // Update RTT, RTO. Use only those that where acked
                 // w/o retrans otherwise the number may be phony (ack
@@ -674,7 +696,6 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                 fc.packetACKed(r.seqnum);
                 r.msg.clear();
                 r.msg = null;
-                r = null;
                 numberACKed++;
             }
             // Update last accessed time in response to getting seq acks.
@@ -700,76 +721,67 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
 
             int retrans = 0;
             if (sackList.length > 0) {
-                Iterator eachRetrQElement = retrQ.iterator();
-                int currentSACK = 0;
-                while (eachRetrQElement.hasNext()) {
-                    RetrQElt r = (RetrQElt) eachRetrQElement.next();
-                    while (sackList[currentSACK] < r.seqnum) {
-                        currentSACK++;
-                        if (currentSACK == sackList.length) {
-                            break;
-                        }
-                    }
-                    if (currentSACK == sackList.length) {
-                        break;
+                // Remove the selectively acknowledged messages
+                for (int eachSAC = 0; eachSAC < sackList.length; eachSAC++) {
+                    r = (RetrQElt) retrQ.remove(sackList[eachSAC]);
+                    if (null == r) {
+                        continue;
                     }
-                    if (sackList[currentSACK] == r.seqnum) {
-                        fc.packetACKed(r.seqnum);
-                        numberACKed++;
-                        eachRetrQElement.remove();
-
-                        // Update RTT, RTO. Use only those that where acked w/o retrans
-                        // otherwise the number is completely phony.
-                        // Also, we keep the worst of the bunch we encounter.
-                        long enqueuetime = r.enqueuedAt;
-                        long dt = TimeUtils.toRelativeTimeMillis(lastACKTime, enqueuetime);
-                        // Update RTT, RTO
-                        if (r.marked == 0) {
-                            if (dt > rttCalcDt) {
-                                rttCalcDt = dt;
-                                rttCalcSeqnum = r.seqnum;
-                            }
-                        } else {
-                            // In case we find no good candidate, make
-                            // a guess by dividing by the number of attempts
-                            // and keep the worst of them too. Since we
-                            // know it may be too short, we will not use it
-                            // if shortens rtt.
-                            dt /= (r.marked + 1);
-                            if (dt > fallBackDt) {
-                                fallBackDt = dt;
-                                fallBackSeqnum = r.seqnum;
-                            }
+                    fc.packetACKed(r.seqnum);
+                    numberACKed++;
+
+                    // Update RTT, RTO. Use only those that where acked w/o retrans
+                    // otherwise the number is completely phony.
+                    // Also, we keep the worst of the bunch we encounter.
+                    long enqueuetime = r.enqueuedAt;
+                    long dt = TimeUtils.toRelativeTimeMillis(lastACKTime, enqueuetime);
+                    // Update RTT, RTO
+                    if (r.marked == 0) {
+                        if (dt > rttCalcDt) {
+                            rttCalcDt = dt;
+                            rttCalcSeqnum = r.seqnum;
                         }
-                        if (LOG.isEnabledFor(Level.DEBUG)) {
-                            LOG.debug("SACKD SEQN = " + r.seqnum);
+                    } else {
+                        // In case we find no good candidate, make
+                        // a guess by dividing by the number of attempts
+                        // and keep the worst of them too. Since we
+                        // know it may be too short, we will not use it
+                        // if shortens rtt.
+                        dt /= (r.marked + 1);
+                        if (dt > fallBackDt) {
+                            fallBackDt = dt;
+                            fallBackSeqnum = r.seqnum;
                         }
+                    }
+                    if (LOG.isEnabledFor(Level.DEBUG)) {
+                        LOG.debug("SACKD SEQN = " + r.seqnum);
+                    }
 
-                        // GC this stuff
-                        r.msg.clear();
-                        r.msg = null;
-                        r = null;
+                    // GC this stuff
+                    r.msg.clear();
+                    r.msg = null;
+                }
 
-                    } else {
-                        // Retransmit? Only if there is a hole in the selected
-                        // acknowledgement list. Otherwise let RTO deal.
-
-                        //    Given that this SACK acknowledged messages still
-                        //    in the retrQ:
-                        //      seqnum is the max consectively SACKD message.
-                        //      seqnum < r.seqnum means a message has not reached
-                        //      receiver. EG: sacklist == 10,11,13 seqnum == 11
-                        //                  We retransmit 12.
-                        if (seqnum < r.seqnum) {
-                            fc.packetMissing(r.seqnum);
-                            retrans++;
-                            if (LOG.isEnabledFor(Level.DEBUG)) {
-                                LOG.debug("RETR: Fill hole, SACK, seqn#" +
-                                        r.seqnum +
-                                        ", Window =" + retrans);
-                            }
-                        }
+                // Retransmit? Only if there is a hole in the selected
+                // acknowledgement list. Otherwise let RTO deal.
+
+                //    Given that this SACK acknowledged messages still
+                //    in the retrQ:
+                //      seqnum is the max consectively SACKD message.
+                //      Messages still queued below the highest SACK have
+                //      not reached the receiver. EG: sacklist == 10,11,13
+                //      seqnum == 11 We retransmit 12.
+                int highestSACK = sackList[sackList.length - 1];
+                r = (RetrQElt) retrQ.next(seqnum + 1);
+                while ((null != r) && (r.seqnum < highestSACK)) {
+                    fc.packetMissing(r.seqnum);
+                    retrans++;
+                    if (LOG.isEnabledFor(Level.DEBUG)) {
+                        LOG.debug("RETR: Fill hole, SACK, seqn#" +
+                                r.seqnum +
+                                ", Window =" + retrans);
                     }
+                    r = (RetrQElt) retrQ.next(r.seqnum + 1);
                 }
 
                 if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -790,8 +802,13 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                 rwindow = fc.ackEventEnd(rmaxQSize, aveRTT, rttCalcDt);
             } else if ((fallBackSeqnum != -1) && (fallBackDt > aveRTT)) {
                 calcRTT(fallBackDt, fallBackSeqnum);
-                // get fc to recompute rwindow
-                rwindow = fc.ackEventEnd(rmaxQSize, aveRTT, fallBackDt);
+                // The fall back is not a clean sample, it only feeds aveRTT.
+                // Passed as lastRTT it could end slow start early.
+                rwindow = fc.ackEventEnd(rmaxQSize, aveRTT, 0);
+            } else {
+                // No RTT sample but the ACK still tells fc about progress
+                // and holes.
+                rwindow = fc.ackEventEnd(rmaxQSize, aveRTT, 0);
             }
             retrQ.notifyAll();
         }
@@ -817,8 +834,8 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
             if (numberToRetrans > 0 && LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Number of messages pending retransmit =" + numberToRetrans);
             }
-            for (int j = 0; j < numberToRetrans; j++) {
-                RetrQElt r = (RetrQElt) retrQ.get(j);
+            RetrQElt r = (RetrQElt) retrQ.first();
+            for (int j = 0; j < numberToRetrans; j++, r = (RetrQElt) retrQ.next(r.seqnum + 1)) {
                 // Mark message as retransmission
                 // need to know if a msg was retr or not for RTT eval
                 if (r.marked == 0) {
@@ -963,9 +980,9 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                         } catch (IOException ignored) {}
                         continue;
                     }
-                    synchronized (retrQ) {
+                    synchronized (this) {
                         try {
-                            retrQ.wait(RTO);
+                            wait(RTO);
                         } catch (InterruptedException e) {}
                     }
                     if (closed) {
@@ -989,7 +1006,7 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                     long oldestInQueueWait;
                     synchronized (retrQ) {
                         if (retrQ.size() > 0) {
-                            RetrQElt elt = (RetrQElt) retrQ.get(0);
+                            RetrQElt elt = (RetrQElt) retrQ.first();
                             oldestInQueueWait =
                                     TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(),
                                     elt.enqueuedAt);
@@ -1035,6 +1052,12 @@ public class ReliableOutputStream extends OutputStream implements Incoming {
                         }
                         // retransmit
                         int retransed = retransmit(rwindow, TimeUtils.timeNow());
+                        if (retransed > 0) {
+                            synchronized (retrQ) {
+                                rwindow = fc.rtoExpired();
+                                retrQ.notifyAll();
+                            }
+                        }
                         // Total
                         nretransmitted += retransed;
                         // number at this RTO
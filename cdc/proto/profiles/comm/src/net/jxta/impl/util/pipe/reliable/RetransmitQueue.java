@@ -0,0 +1,291 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util.pipe.reliable;
+
+/**
+ * The retransmission queue of a {@link ReliableOutputStream}. Entries are
+ * kept in a ring buffer indexed by sequence number, so that looking up,
+ * acknowledging or selectively acknowledging a message takes constant time
+ * whatever the size of the window. A bitmap records which slots hold an
+ * unacknowledged message so that the holes left by selective
+ * acknowledgements are skipped a word at a time.
+ *
+ * <p/>Sequence numbers must be added in increasing order. The queue is not
+ * synchronized.
+ */
+final class RetransmitQueue {
+
+    /**
+     * Initial number of slots. Must be a power of two and a multiple of 64.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The entries, the entry for sequence number <code>s</code> is at
+     * <code>s & mask</code>.
+     */
+    private Object[] slots = new Object[INITIAL_CAPACITY];
+
+    /**
+     * One bit per slot, set if the slot holds an entry.
+     */
+    private long[] present = new long[INITIAL_CAPACITY / 64];
+
+    /**
+     * <code>slots.length - 1</code>.
+     */
+    private int mask = INITIAL_CAPACITY - 1;
+
+    /**
+     * Sequence number of the oldest entry. Meaningless if the queue is empty.
+     */
+    private int base = 0;
+
+    /**
+     * Sequence number following the newest entry.
+     */
+    private int limit = 0;
+
+    /**
+     * Number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if the queue holds no entries.
+     *
+     * @return <code>true</code> if the queue holds no entries.
+     */
+    boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param seqnum the sequence number of the entry. Must be greater than
+     * the sequence number of every entry added before.
+     * @param entry the entry.
+     */
+    void add(int seqnum, Object entry) {
+        if (0 == size) {
+            base = seqnum;
+        } else if (seqnum < limit) {
+            throw new IllegalArgumentException("Sequence number " + seqnum + " is not increasing");
+        }
+
+        while ((seqnum - base) >= slots.length) {
+            grow();
+        }
+
+        int slot = seqnum & mask;
+        slots[slot] = entry;
+        present[slot >>> 6] |= (1L << slot);
+        limit = seqnum + 1;
+        size++;
+    }
+
+    /**
+     * Returns the entry with the given sequence number.
+     *
+     * @param seqnum the sequence number.
+     * @return the entry or <code>null</code> if there is none.
+     */
+    Object get(int seqnum) {
+        if (!contains(seqnum)) {
+            return null;
+        }
+        return slots[seqnum & mask];
+    }
+
+    /**
+     * Removes the entry with the given sequence number.
+     *
+     * @param seqnum the sequence number.
+     * @return the entry removed or <code>null</code> if there was none.
+     */
+    Object remove(int seqnum) {
+        if (!contains(seqnum)) {
+            return null;
+        }
+
+        int slot = seqnum & mask;
+        Object entry = slots[slot];
+        slots[slot] = null;
+        present[slot >>> 6] &= ~(1L << slot);
+        size--;
+
+        if ((seqnum == base) && (size > 0)) {
+            base = nextSeqnum(seqnum + 1);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the oldest entry.
+     *
+     * @return the oldest entry or <code>null</code> if the queue is empty.
+     */
+    Object first() {
+        if (0 == size) {
+            return null;
+        }
+        return slots[base & mask];
+    }
+
+    /**
+     * Returns the oldest entry with a sequence number greater or equal to
+     * the given one.
+     *
+     * @param seqnum the sequence number from which to search.
+     * @return the entry or <code>null</code> if there is none.
+     */
+    Object next(int seqnum) {
+        if ((0 == size) || (seqnum >= limit)) {
+            return null;
+        }
+        if (seqnum < base) {
+            seqnum = base;
+        }
+        seqnum = nextSeqnum(seqnum);
+        if (seqnum >= limit) {
+            return null;
+        }
+        return slots[seqnum & mask];
+    }
+
+    /**
+     * Removes all of the entries.
+     */
+    void clear() {
+        for (int each = 0; each < slots.length; each++) {
+            slots[each] = null;
+        }
+        for (int each = 0; each < present.length; each++) {
+            present[each] = 0;
+        }
+        size = 0;
+    }
+
+    private boolean contains(int seqnum) {
+        if ((0 == size) || (seqnum < base) || (seqnum >= limit)) {
+            return false;
+        }
+        int slot = seqnum & mask;
+        return 0 != (present[slot >>> 6] & (1L << slot));
+    }
+
+    /**
+     * Finds the first entry at or after the given sequence number.
+     *
+     * @return the sequence number of the entry or {@link #limit} if there is
+     * none.
+     */
+    private int nextSeqnum(int seqnum) {
+        while (seqnum < limit) {
+            int slot = seqnum & mask;
+            long word = present[slot >>> 6] >>> (slot & 63);
+
+            if (0 != word) {
+                while (0 == (word & 1L)) {
+                    word >>>= 1;
+                    seqnum++;
+                }
+                return seqnum;
+            }
+
+            // nothing left in this word, move to the start of the next one.
+            seqnum += 64 - (slot & 63);
+        }
+
+        return limit;
+    }
+
+    /**
+     * Doubles the number of slots, keeping every entry at its sequence
+     * number.
+     */
+    private void grow() {
+        Object[] oldSlots = slots;
+        int oldMask = mask;
+
+        slots = new Object[oldSlots.length * 2];
+        present = new long[slots.length / 64];
+        mask = slots.length - 1;
+
+        for (int seqnum = base; seqnum < limit; seqnum++) {
+            Object entry = oldSlots[seqnum & oldMask];
+
+            if (null != entry) {
+                int slot = seqnum & mask;
+                slots[slot] = entry;
+                present[slot >>> 6] |= (1L << slot);
+            }
+        }
+    }
+}
@@ -86,7 +86,7 @@ import net.jxta.endpoint.StringMessageElement;
 import net.jxta.id.ID;
 import net.jxta.impl.util.UnbiasedQueue;
 import net.jxta.impl.util.pipe.reliable.Defs;
-import net.jxta.impl.util.pipe.reliable.FixedFlowControl;
+import net.jxta.impl.util.pipe.reliable.AdaptiveFlowControl;
 import net.jxta.impl.util.pipe.reliable.OutgoingMsgrAdaptor;
 import net.jxta.impl.util.pipe.reliable.ReliableInputStream;
 import net.jxta.impl.util.pipe.reliable.ReliableOutputStream;
@@ -150,6 +150,8 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
     protected final String instrLock  = new String("instrLock");
     protected final String finalLock  = new String("finalLock");
     protected boolean closed = false;
+    // true while close() sends held output data, guarded by closeLock.
+    private boolean closing = false;
     protected boolean bound = false;
     protected final UnbiasedQueue queue = UnbiasedQueue.synchronizedQueue(new UnbiasedQueue(windowSize, false));
     protected Credential credential = null;
@@ -162,7 +164,10 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
     protected ReliableOutputStream ros = null;
     protected boolean waiting;
     private int outputBufferSize = 16384;
+    private boolean tcpNoDelay = true;
+    private int flushDeadline = JxtaSocketOutputStream.DEFAULT_FLUSH_DEADLINE;
     private boolean osCreated = false;
+    private volatile JxtaSocketOutputStream coalescingStream = null;
     private InputStream currentMsgStream = null;
 
     /**
@@ -703,11 +708,15 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
                 outgoing = new OutgoingMsgrAdaptor(msgr, retryTimeout);
             }
             if (ros == null) {
-                ros = new ReliableOutputStream(outgoing, new FixedFlowControl(windowSize));
+                ros = new ReliableOutputStream(outgoing, new AdaptiveFlowControl(windowSize, Defs.MAXQUEUESIZE));
             }
         }
         osCreated = true;
-        return new JxtaSocketOutputStream(this, outputBufferSize);
+        if (tcpNoDelay) {
+            return new JxtaSocketOutputStream(this, outputBufferSize);
+        }
+        coalescingStream = new JxtaSocketOutputStream(this, outputBufferSize, flushDeadline);
+        return coalescingStream;
     }
 
     /**
@@ -716,7 +725,22 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
     public void close() throws IOException {
 
         synchronized (closeLock) {
+            if (closed || closing) {
+                return;
+            }
+            closing = true;
+        }
+
+        // Send the data held by a coalescing output stream while we still
+        // can. The socket is not closed yet so that the data may be written,
+        // and closing keeps any other close() out. Holding closeLock instead
+        // would keep the remote close from being processed meanwhile.
+        sendHeldOutput();
+
+        synchronized (closeLock) {
+            closing = false;
             if (closed) {
+                // closed from the remote side meanwhile.
                 return;
             }
             sendClose();
@@ -1034,6 +1058,13 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
         if (i != null && i.hasNext()) {
             if (ros != null) {
                 ros.recv(message);
+
+                // Data held for the acknowledgements need not wait for its
+                // flush deadline any longer.
+                JxtaSocketOutputStream held = coalescingStream;
+                if ((null != held) && !hasUnacknowledgedData()) {
+                    held.acknowledged();
+                }
             }
             return;
         }
@@ -1239,7 +1270,9 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
     }
 
     /**
-     *  When in reliable mode, gets the Reliable library window size
+     *  When in reliable mode, gets the Reliable library window size. The
+     *  window adapts to the path; this is the size at which its initial
+     *  slow start ends.
      *
      * @return                  The windowSize value
      * @exception  IOException  if an I/O error occurs
@@ -1249,7 +1282,9 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
     }
 
     /**
-     *  When in reliable mode, sets the Reliable library window size
+     *  When in reliable mode, sets the Reliable library window size. The
+     *  window adapts to the path; this is the size at which its initial
+     *  slow start ends.
      *
      * @param  windowSize              The new window size value
      * @exception  IOException  if an I/O error occurs
@@ -1261,6 +1296,91 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
         this.windowSize = windowSize;
     }
 
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>When disabled, data flushed to the output stream is held until
+     *  a full buffer of data is available, no data previously sent remains
+     *  unacknowledged or the flush deadline expires. Enabled by default.
+     *
+     * @see #setFlushDeadline
+     * @see #setOutputStreamBufferSize
+     */
+    public synchronized void setTcpNoDelay(boolean on) throws SocketException {
+        if (isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+        if (osCreated) {
+            throw new SocketException("Can not change TCP_NODELAY, OutputStream is already created");
+        }
+        tcpNoDelay = on;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized boolean getTcpNoDelay() throws SocketException {
+        if (isClosed()) {
+            throw new SocketException("Socket is closed");
+        }
+        return tcpNoDelay;
+    }
+
+    /**
+     *  Gets the longest time flushed data is held by the output stream when
+     *  TCP_NODELAY is disabled.
+     *
+     * @return    the flush deadline in milliseconds
+     */
+    public synchronized int getFlushDeadline() {
+        return flushDeadline;
+    }
+
+    /**
+     *  Sets the longest time flushed data is held by the output stream when
+     *  TCP_NODELAY is disabled.
+     *
+     * @param  flushDeadline           the flush deadline in milliseconds
+     * @exception  SocketException     if the output stream is already created
+     */
+    public synchronized void setFlushDeadline(int flushDeadline) throws SocketException {
+        if (flushDeadline < 1) {
+            throw new IllegalArgumentException("negative/zero flush deadline");
+        }
+        if (osCreated) {
+            throw new SocketException("Can not change flush deadline, OutputStream is already created");
+        }
+        this.flushDeadline = flushDeadline;
+    }
+
+    /**
+     * Sends the data held by a coalescing output stream, if any.
+     */
+    private void sendHeldOutput() {
+        JxtaSocketOutputStream held = coalescingStream;
+        if (null != held) {
+            try {
+                held.close();
+            } catch (IOException failed) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Failed to send held output data", failed);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if stream data written earlier has not been acknowledged
+     * by the remote yet.
+     *
+     * @return    true if stream data is unacknowledged
+     */
+    boolean hasUnacknowledgedData() {
+        ReliableOutputStream temp = ros;
+
+        return isStream && (null != temp) && (temp.getMaxAck() < temp.getSeqNumber());
+    }
+
     /**
      * Returns the closed state of the JxtaServerSocket.
      *
@@ -1561,6 +1681,7 @@ public class JxtaSocket extends Socket implements PipeMsgListener, OutputPipeLis
      *{@inheritDoc}
      */
     public void shutdownOutput() throws IOException {
+        sendHeldOutput();
         if (isStream) {
             long quitAt = System.currentTimeMillis() + timeout;
             while (true) {
@@ -58,6 +58,9 @@ package net.jxta.socket;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import net.jxta.impl.util.ScheduledTask;
+import net.jxta.impl.util.TimingWheel;
+
 /**
  *  This class implements a buffered output stream. By setting up such an output
  *  stream, an application can write bytes to the underlying output stream
@@ -65,9 +68,23 @@ import java.io.OutputStream;
  *  written. Data buffer is flushed to the underlaying stream, when it is full,
  *  or an explicit call to flush is made.
  *
+ *  <p/>With a flush deadline the stream coalesces small writes in the manner
+ *  of Nagle's algorithm: an explicit flush sends the buffer immediately only
+ *  if all of the data sent before has been acknowledged. Otherwise the data
+ *  is held until the buffer fills up, making a full segment, or until the
+ *  deadline expires or the socket reports that all of the data sent before
+ *  has been acknowledged. Each segment is sent with a single write to the
+ *  socket so the data on the wire is unchanged. Deferred flushes run in the
+ *  blocking pool of the shared {@link TimingWheel} since the write may wait
+ *  for the reliable window to open.
  */
 public class JxtaSocketOutputStream extends OutputStream {
 
+    /**
+     *  Default flush deadline in milliseconds.
+     */
+    final static int DEFAULT_FLUSH_DEADLINE = 100;
+
     /**
      *  Data buffer
      */
@@ -83,6 +100,22 @@ public class JxtaSocketOutputStream extends OutputStream {
      */
     protected JxtaSocket socket;
 
+    /**
+     *  Longest time in milliseconds flushed data may be held, 0 to send it
+     *  on flush.
+     */
+    private final long flushDeadline;
+
+    /**
+     *  Sends the buffer once the flush deadline expires, if scheduled.
+     */
+    private volatile FlushTask flushTask = null;
+
+    /**
+     *  Failure of a deferred flush, reported by the next operation.
+     */
+    private IOException flushFailure = null;
+
     /**
      *  Constructor for the JxtaSocketOutputStream object
      *
@@ -99,11 +132,27 @@ public class JxtaSocketOutputStream extends OutputStream {
      *@param  size    buffer size in bytes
      */
     public JxtaSocketOutputStream(JxtaSocket socket, int size) {
+        this(socket, size, 0);
+    }
+
+    /**
+     *  Constructor for the JxtaSocketOutputStream object
+     *
+     *@param  socket         JxtaSocket associated with this stream
+     *@param  size           buffer size in bytes, the size of the segments
+     *@param  flushDeadline  longest time in milliseconds flushed data may be
+     *                       held, 0 to send it on flush.
+     */
+    public JxtaSocketOutputStream(JxtaSocket socket, int size, long flushDeadline) {
         if (size <= 0) {
             throw new IllegalArgumentException("Buffer size <= 0");
         }
+        if (flushDeadline < 0) {
+            throw new IllegalArgumentException("Flush deadline < 0");
+        }
         buf = new byte[size];
         this.socket = socket;
+        this.flushDeadline = flushDeadline;
     }
 
     /**
@@ -112,6 +161,10 @@ public class JxtaSocketOutputStream extends OutputStream {
      *@exception  IOException  if an i/o error occurs
      */
     private void flushBuffer() throws IOException {
+        if (null != flushTask) {
+            flushTask.cancel();
+            flushTask = null;
+        }
         if (count > 0) {
             // send the message
             socket.write(buf, 0, count);
@@ -119,10 +172,24 @@ public class JxtaSocketOutputStream extends OutputStream {
         }
     }
 
+    /**
+     *  Throws the failure of a deferred flush, if any.
+     *
+     *@exception  IOException  the failure
+     */
+    private void checkFlushFailure() throws IOException {
+        if (null != flushFailure) {
+            IOException failure = flushFailure;
+            flushFailure = null;
+            throw failure;
+        }
+    }
+
     /**
      *  {@inheritDoc}
      */
     public synchronized void write(int b) throws IOException {
+        checkFlushFailure();
         if (count >= buf.length) {
             flushBuffer();
         }
@@ -133,6 +200,7 @@ public class JxtaSocketOutputStream extends OutputStream {
      *  {@inheritDoc}
      */
     public synchronized void write(byte b[], int off, int len)  throws IOException {
+        checkFlushFailure();
         int left = buf.length - count;
         if (len > left) {
             System.arraycopy(b, off, buf, count, left);
@@ -155,7 +223,79 @@ public class JxtaSocketOutputStream extends OutputStream {
      *  {@inheritDoc}
      */
     public synchronized void flush() throws IOException {
+        checkFlushFailure();
+        if ((0 == flushDeadline) || !socket.hasUnacknowledgedData()) {
+            flushBuffer();
+        } else if ((count > 0) && (null == flushTask)) {
+            flushTask = new FlushTask(null);
+            TimingWheel.getSharedInstance().schedule(flushTask, flushDeadline);
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>Sends any data held by the stream.
+     */
+    public synchronized void close() throws IOException {
+        checkFlushFailure();
         flushBuffer();
     }
-}
 
+    /**
+     *  Called by the socket once all of the data sent before has been
+     *  acknowledged. Sends the held data without waiting for the flush
+     *  deadline. Does not block since it is called while processing the
+     *  acknowledgements a blocked writer may be waiting for.
+     */
+    void acknowledged() {
+        FlushTask pending = flushTask;
+
+        // only the first acknowledgement brings the deadline forward.
+        if ((null != pending) && (null == pending.deadline) && pending.cancel()) {
+            TimingWheel.getSharedInstance().schedule(new FlushTask(pending), 0);
+        }
+    }
+
+    /**
+     *  Sends the held data once the flush deadline expires.
+     */
+    private class FlushTask extends ScheduledTask {
+
+        /**
+         *  The cancelled deadline task this task runs in place of, or null.
+         */
+        final FlushTask deadline;
+
+        FlushTask(FlushTask deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            synchronized (JxtaSocketOutputStream.this) {
+                if ((this != flushTask) && ((null == deadline) || (deadline != flushTask))) {
+                    return;
+                }
+                flushTask = null;
+
+                try {
+                    flushBuffer();
+                } catch (IOException failed) {
+                    flushFailure = failed;
+                }
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The write may wait for the reliable window to open.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+    }
+}
@@ -92,7 +92,7 @@ import net.jxta.impl.util.UnbiasedQueue;
 import net.jxta.impl.util.pipe.reliable.OutgoingMsgrAdaptor;
 import net.jxta.impl.util.pipe.reliable.ReliableInputStream;
 import net.jxta.impl.util.pipe.reliable.ReliableOutputStream;
-import net.jxta.impl.util.pipe.reliable.FixedFlowControl;
+import net.jxta.impl.util.pipe.reliable.AdaptiveFlowControl;
 import net.jxta.impl.util.pipe.reliable.Defs;
 
 import org.apache.log4j.Level;
@@ -392,7 +392,7 @@ public class JxtaBiDiPipe implements PipeMsgListener, OutputPipeListener,  Relia
                 outgoing = new OutgoingMsgrAdaptor(msgr, timeout);
             }
             if (ros == null) {
-                ros = new ReliableOutputStream(outgoing, new FixedFlowControl(20));
+                ros = new ReliableOutputStream(outgoing, new AdaptiveFlowControl(windowSize, Defs.MAXQUEUESIZE));
             }
             if (ris == null) {
                 ris = new ReliableInputStream(outgoing, timeout, this);
@@ -57,8 +57,11 @@
  */
 package net.jxta.document;
 
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import net.jxta.id.ID;
 
@@ -87,6 +90,18 @@ import net.jxta.id.ID;
  */
 public abstract class Advertisement extends Object {
 
+    /**
+     *  The SHA-1 digest of the XML form of this advertisement or
+     *  <code>null</code> if it has not been computed since the last change.
+     */
+    private transient byte[] contentDigest = null;
+
+    /**
+     *  Counts the calls to {@link #contentChanged()} so that a digest computed
+     *  while the advertisement was being changed is not kept.
+     */
+    private transient int contentGeneration = 0;
+
     /**
      *  {@inheritDoc}
      *
@@ -233,5 +248,53 @@ public abstract class Advertisement extends Object {
             }
         }
     }
-}
 
+    /**
+     *  Returns the SHA-1 digest of the UTF-8 XML form of this advertisement,
+     *  as returned by {@link #toString()}. Equal advertisements have equal
+     *  digests which makes the digest suitable for naming advertisements which
+     *  have no {@link #getID() ID}. <p/>
+     *
+     *  The digest is computed once and kept until {@link #contentChanged()}
+     *  is called. Sub-classes are responsible for calling it whenever their
+     *  content changes.
+     *
+     *@return    byte[] the digest of this advertisement.
+     */
+    public byte[] getContentDigest() {
+        byte[] digest;
+        int generation;
+
+        synchronized (this) {
+            digest = contentDigest;
+            generation = contentGeneration;
+        }
+
+        if (null == digest) {
+            try {
+                digest = MessageDigest.getInstance("SHA1").digest(toString().getBytes("UTF-8"));
+            } catch (NoSuchAlgorithmException noSHA1) {
+                throw new UndeclaredThrowableException(noSHA1);
+            } catch (UnsupportedEncodingException noUTF8) {
+                throw new UndeclaredThrowableException(noUTF8);
+            }
+
+            synchronized (this) {
+                if (generation == contentGeneration) {
+                    contentDigest = digest;
+                }
+            }
+        }
+
+        return digest.clone();
+    }
+
+    /**
+     *  Discards the digest returned by {@link #getContentDigest()}. Must be
+     *  called by sub-classes every time their content is changed.
+     */
+    protected synchronized void contentChanged() {
+        contentDigest = null;
+        contentGeneration++;
+    }
+}
@@ -269,6 +269,10 @@ public class AdvertisementFactory extends ClassFactory {
      * <code>InputStream</code>. The content type of the stream is declared via
      * the <code>mimetype</code> parameter.
      *
+     * <p/>The stream is handed directly to the document implementation
+     * registered for the mime type; for XML this is parsed in a single pass
+     * without first reading the whole text.
+     *
      * @param mimetype Specifies the mime media type of the stream being read.
      * @param stream imput stream used to read data to construct the advertisement
      * @return The instance of {@link Advertisement}
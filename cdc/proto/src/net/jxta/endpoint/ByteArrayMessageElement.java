@@ -62,6 +62,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;         // used in hashCode
 import java.util.zip.Checksum;
 
@@ -363,6 +364,18 @@ public class ByteArrayMessageElement extends MessageElement {
         sendTo.write(sending, sendingOffset, len);
     }
 
+    /**
+     *  Returns a read-only view of the contents of this element. The contents
+     *  are not copied, even if the element is a slice of a larger array. The
+     *  view shares the array of the element and must not be used once the
+     *  element has been discarded.
+     *
+     *  @return a buffer whose remaining bytes are the contents of this element.
+     */
+    public synchronized ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(b, offset, len).asReadOnlyBuffer();
+    }
+
     /**
      * Returns the contents of this element as a byte array. If this elements
      * was originally constructed from a intact byte array, the array returned
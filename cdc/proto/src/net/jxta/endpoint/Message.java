@@ -143,7 +143,13 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
     /**
      *  Incremented for each standalone message instance.
      */
-    private static transient volatile int messagenumber = 1;
+    private static transient int messagenumber = 1;
+
+    /**
+     *  Guards {@link #messagenumber}. A private lock rather than the class
+     *  so that numbering does not contend with anything else.
+     */
+    private static final transient Object messagenumberLock = new Object();
 
     /**
      *  This string identifies the namespace which is assumed when calls are
@@ -162,6 +168,8 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      *          </ul>
      *      </li>
      *  </ul>
+     *
+     *  <p/>May be shared with clones of this message, see {@link #sharing}.
      */
     protected transient Map namespaces = new HashMap();
 
@@ -171,9 +179,19 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      *  <ul>
      *      <li>values are {@link net.jxta.endpoint.Message.element}</li>
      *  </ul>
+     *
+     *  <p/>May be shared with clones of this message, see {@link #sharing}.
      */
     protected transient List elements = new ArrayList();
 
+    /**
+     *  Counts the messages which share {@link #elements} and
+     *  {@link #namespaces}. Cloning a message shares its elements with the
+     *  clone; the first of them to be modified afterwards makes itself a
+     *  private copy. See {@link #unshare()}.
+     */
+    private transient volatile Sharing sharing = new Sharing();
+
     /**
      *  Message properties HashMap
      *
@@ -185,11 +203,11 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
     protected transient Map properties = Collections.synchronizedMap(new HashMap());
 
     /**
-     *  A list of {@link java.lang.Integer} which details the lineage (history
-     *  of cloning) that produced this message. This message's number is index
-     *  0, all of the ancestors are in order at higher indexes.
+     *  The message numbers which detail the lineage (history of cloning) that
+     *  produced this message. This message's number is index 0, all of the
+     *  ancestors are in order at higher indexes.
      */
-    protected transient List lineage = new ArrayList();
+    protected transient int[] lineage;
 
     /**
      *  Modification count of this message. Can be used to detect message being
@@ -380,6 +398,8 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
                 throw new IllegalStateException("no current element, call next() or previous()");
             }
 
+            Message.this.unshare();
+
             ListIterator elsPosition = Message.this.elements.listIterator();
             ListIterator nsPosition = ((List)(namespaces.get(current.namespace))).listIterator();
 
@@ -455,6 +475,8 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
                 throw new IllegalStateException("no current element, call next() or previous()");
             }
 
+            Message.this.unshare();
+
             ListIterator elsPosition = Message.this.elements.listIterator();
             ListIterator nsPosition = ((List)(namespaces.get(current.namespace))).listIterator();
 
@@ -536,13 +558,23 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
         }
     }
 
+    /**
+     *  Counts the messages sharing a set of elements.
+     */
+    private static final class Sharing {
+        /**
+         *  Number of messages sharing. Guarded by this object.
+         */
+        int count = 1;
+    }
+
     /**
      *  Returns the next message number in sequence.
      *
      *  @return the next message number in sequence.
      */
     protected static int getNextMessageNumber() {
-        synchronized(Message.class) {
+        synchronized(messagenumberLock) {
             return messagenumber++;
         }
     }
@@ -572,7 +604,7 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
     protected Message(String defaultNamespace) {
         this.defaultNamespace = defaultNamespace;
 
-        lineage.add(new Integer(getNextMessageNumber()));
+        lineage = new int[] { getNextMessageNumber() };
 
         if (LOG_MODIFICATIONS) {
             modHistory = new ArrayList();
@@ -587,24 +619,36 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      * be freely modified without causing change to the originally cloned
      * message.
      *
+     * <p/>The elements are not copied right away. The clone shares them with
+     * this message until either of the two is modified.
+     *
      * @return Message a Message that is a copy of the original message
      */
     public Object clone() {
         Message clone = new Message(getDefaultNamespace());
 
-        clone.lineage.addAll(lineage);
-        clone.elements.addAll(elements);
+        int[] cloneLineage = new int[lineage.length + 1];
 
-        Iterator eachNamespace = namespaces.keySet().iterator();
+        cloneLineage[0] = clone.lineage[0];
+        System.arraycopy(lineage, 0, cloneLineage, 1, lineage.length);
+        clone.lineage = cloneLineage;
 
-        while(eachNamespace.hasNext()) {
-            String aNamespace = (String) eachNamespace.next();
+        while(true) {
+            Sharing shared = sharing;
 
-            List namespaceElements = (List) namespaces.get(aNamespace);
+            synchronized(shared) {
+                // unshare() may have switched this message to a private copy
+                // between our read of sharing and acquiring its lock.
+                if(shared != sharing) {
+                    continue;
+                }
 
-            List newNamespaceElements = new ArrayList(namespaceElements.size());
-            newNamespaceElements.addAll(namespaceElements);
-            clone.namespaces.put(aNamespace, newNamespaceElements);
+                clone.elements = elements;
+                clone.namespaces = namespaces;
+                clone.sharing = shared;
+                shared.count++;
+                break;
+            }
         }
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -695,12 +739,11 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
         toString.append(modCount);
         toString.append("){");
 
-        Iterator allLineage = getMessageLineage();
-        while(allLineage.hasNext()) {
-            toString.append(allLineage.next().toString());
-            if(allLineage.hasNext()) {
+        for(int eachAncestor = 0; eachAncestor < lineage.length; eachAncestor++) {
+            if(eachAncestor > 0) {
                 toString.append(',');
             }
+            toString.append(lineage[eachAncestor]);
         }
 
         toString.append('}');
@@ -743,15 +786,14 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
 
         namespaces = readMessage.namespaces;
         elements = readMessage.elements;
+        sharing = readMessage.sharing;
 
         if(elements.contains(defaultNamespace)) {
             throw new IOException("Corrupted Object--does not contain required namespace." );
         }
 
         properties = new HashMap();
-        lineage = new ArrayList();
-
-        lineage.add(new Integer(getNextMessageNumber()));
+        lineage = new int[] { getNextMessageNumber() };
 
         if (LOG_MODIFICATIONS) {
             modHistory = new ArrayList();
@@ -779,6 +821,44 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
         serialed.sendToStream(s);
     }
 
+    /**
+     *  Make sure that the elements of this message are not shared with any
+     *  other message. Must be called before any modification of
+     *  {@link #elements} or {@link #namespaces}.
+     *
+     *  <p/>The lists and {@link #sharing} are replaced while holding the lock
+     *  of the old sharing so that a concurrent {@link #clone()} sees either
+     *  the shared lists with their sharing or the private ones with theirs.
+     */
+    protected void unshare() {
+        Sharing shared = sharing;
+
+        synchronized(shared) {
+            if(1 == shared.count) {
+                return;
+            }
+
+            // copy while holding the lock so that no sharer may start
+            // modifying the lists, believing itself their only owner, before
+            // we are done.
+            List newElements = new ArrayList(elements);
+            Map newNamespaces = new HashMap();
+
+            Iterator eachNamespace = namespaces.entrySet().iterator();
+
+            while(eachNamespace.hasNext()) {
+                Map.Entry aNamespace = (Map.Entry) eachNamespace.next();
+
+                newNamespaces.put(aNamespace.getKey(), new ArrayList((List) aNamespace.getValue()));
+            }
+
+            elements = newElements;
+            namespaces = newNamespaces;
+            sharing = new Sharing();
+            shared.count--;
+        }
+    }
+
     /**
      * Return the default Namespace of this message.
      *
@@ -815,6 +895,8 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
             throw new IllegalArgumentException("Message Element must be non-null");
         }
 
+        unshare();
+
         elements.add(new element(namespace, add));
 
         List namespaceElements = (List) namespaces.get(namespace);
@@ -1195,11 +1277,24 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      *  clears any properties set for this message.
      */
     public void clear() {
-        elements.clear();
-        namespaces.clear();
+        Sharing shared = sharing;
+
+        synchronized(shared) {
+            if(1 == shared.count) {
+                elements.clear();
+                namespaces.clear();
+            } else {
+                // nothing worth copying, leave the shared lists to the others.
+                elements = new ArrayList();
+                namespaces = new HashMap();
+                sharing = new Sharing();
+                shared.count--;
+            }
+        }
+
         properties.clear();
         // a cleared message has no ancestors
-        lineage.retainAll(Collections.singletonList(lineage.get(0)));
+        lineage = new int[] { lineage[0] };
 
         incMessageModCount();
 
@@ -1316,7 +1411,7 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      *  @return int this message's message number.
      */
     public int getMessageNumber() {
-        return(((Integer) lineage.get(0)).intValue());
+        return lineage[0];
     }
 
     /**
@@ -1329,7 +1424,13 @@ public class Message extends AbstractSimpleSelectable implements Serializable {
      *  message number.
      */
     public Iterator getMessageLineage() {
-        return Collections.unmodifiableList(lineage).iterator();
+        List result = new ArrayList(lineage.length);
+
+        for(int eachAncestor = 0; eachAncestor < lineage.length; eachAncestor++) {
+            result.add(new Integer(lineage[eachAncestor]));
+        }
+
+        return Collections.unmodifiableList(result).iterator();
     }
 
     /**
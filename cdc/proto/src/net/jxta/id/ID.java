@@ -100,6 +100,12 @@ public abstract class ID implements java.io.Serializable {
      */
     public static final ID nullID = new NullID();
 
+    /**
+     *  The string representation of this ID, computed on first use. IDs are
+     *  immutable so it never changes.
+     */
+    private transient String asString = null;
+
     /**
      *
      * Creates an ID by parsing the given URI.
@@ -149,13 +155,20 @@ public abstract class ID implements java.io.Serializable {
      *  should be externalized as Java URI Objects via {@link #toURI()}.
      *
      *  <p/>The default implementation is the <code>toString()</code> of the ID
-     *  represented as a URI.
+     *  represented as a URI. It is computed once and then remembered.
      *
      *  @return String containing the URI
      *
      */
     public String toString() {
-        return toURI().toString();
+        String result = asString;
+
+        if (null == result) {
+            result = toURI().toString();
+            asString = result;
+        }
+
+        return result;
     }
 
     /**
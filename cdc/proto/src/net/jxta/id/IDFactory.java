@@ -60,6 +60,7 @@ import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.ResourceBundle;
 
@@ -99,6 +100,11 @@ import net.jxta.util.ClassFactory;
  *  for the ID Formats of interest to see how the seed information is used by
  *  each ID Format.
  *
+ *  <p/>IDs constructed from URIs or strings are interned: the factory keeps a
+ *  bounded cache of recently seen IDs and returns the same instance each
+ *  time a given ID is decoded. The size of the cache may be set with the
+ *  system property <code>net.jxta.id.IDFactory.internCacheSize</code>.
+ *
  *  @see net.jxta.id.ID
  *  @see net.jxta.util.ClassFactory
  *  @see <a href="http://spec.jxta.org/nonav/v1.0/docbook/JXTAProtocols.html#ids" target='_blank'>JXTA Protocols Specification : IDs</a>
@@ -424,6 +430,22 @@ public final class IDFactory extends ClassFactory {
      */
     private static IDFactory factory = new IDFactory();
 
+    /**
+     *  Default number of IDs kept by the intern cache.
+     */
+    private static final int DEFAULT_INTERN_CACHE_SIZE = 8192;
+
+    /**
+     *  Number of stripes of the intern cache. Each stripe has its own lock.
+     */
+    private static final int INTERN_STRIPES = 16;
+
+    /**
+     *  The intern cache. Each stripe maps strings containing the URI of IDs
+     *  to the canonical ID instance, least recently used first.
+     */
+    private static final Map[] interned = newInternCache();
+
     /**
      *  Standard Constructor. This class is a singleton so the only constructor
      *  is private.
@@ -576,6 +598,140 @@ public final class IDFactory extends ClassFactory {
      *  recognized JXTA URI.
      */
     public static ID fromURI(URI source) throws URISyntaxException {
+        String key = source.toString();
+        ID result = getInterned(key);
+
+        if (null == result) {
+            result = intern(key, decodeURI(source));
+        }
+
+        return result;
+    }
+
+    /**
+     *  Construct a new ID instance from a JXTA ID contained in a string
+     *  containing a URI. Unlike {@link #fromURI(URI)} no URI object is
+     *  constructed if the ID is already in the intern cache.
+     *
+     *  @param source  String containing a URI which will be decoded to create
+     *  a new ID instance.
+     *  @return  ID containing the new ID instance initialized from the string.
+     *  @throws URISyntaxException If the string provided is not a valid,
+     *  recognized JXTA URI.
+     */
+    public static ID fromURN(String source) throws URISyntaxException {
+        ID result = getInterned(source);
+
+        if (null == result) {
+            result = intern(source, decodeURI(new URI(source)));
+        }
+
+        return result;
+    }
+
+    /**
+     *  Returns the canonical instance of an ID. If an equal ID is already in
+     *  the intern cache it is returned, otherwise the provided ID becomes the
+     *  canonical instance.
+     *
+     *  @param id  the ID.
+     *  @return  the canonical instance of the ID.
+     */
+    public static ID intern(ID id) {
+        return intern(null, id);
+    }
+
+    /**
+     *  Returns the canonical instance of an ID and remembers it under its URI
+     *  and under the provided key.
+     *
+     *  @param key  the string from which the ID was decoded or
+     *  <code>null</code>.
+     *  @param id  the ID.
+     *  @return  the canonical instance of the ID.
+     */
+    private static ID intern(String key, ID id) {
+        String canonical = id.toString();
+        Map stripe = internStripe(canonical);
+        ID result;
+
+        synchronized (stripe) {
+            result = (ID) stripe.get(canonical);
+
+            if (null == result) {
+                result = id;
+                stripe.put(canonical, result);
+            }
+        }
+
+        if ((null != key) && !key.equals(canonical)) {
+            stripe = internStripe(key);
+
+            synchronized (stripe) {
+                stripe.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     *  Returns the ID remembered under a key or <code>null</code>.
+     */
+    private static ID getInterned(String key) {
+        Map stripe = internStripe(key);
+
+        synchronized (stripe) {
+            return (ID) stripe.get(key);
+        }
+    }
+
+    private static Map internStripe(String key) {
+        return interned[(key.hashCode() & 0x7FFFFFFF) % interned.length];
+    }
+
+    /**
+     *  Creates the stripes of the intern cache.
+     */
+    private static Map[] newInternCache() {
+        int size = DEFAULT_INTERN_CACHE_SIZE;
+
+        try {
+            String sizeStr = System.getProperty("net.jxta.id.IDFactory.internCacheSize");
+
+            if (null != sizeStr) {
+                size = Integer.parseInt(sizeStr.trim());
+
+                if (size <= 0) {
+                    throw new IllegalArgumentException("internCacheSize must be > 0");
+                }
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse internCacheSize system property, using default", e);
+            }
+
+            size = DEFAULT_INTERN_CACHE_SIZE;
+        }
+
+        final int perStripe = Math.max(1, size / INTERN_STRIPES);
+        Map[] stripes = new Map[INTERN_STRIPES];
+
+        for (int eachStripe = 0; eachStripe < stripes.length; eachStripe++) {
+            stripes[eachStripe] = new LinkedHashMap(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry eldest) {
+                    return size() > perStripe;
+                }
+            };
+        }
+
+        return stripes;
+    }
+
+    /**
+     *  Decode a JXTA ID contained in a URI.
+     */
+    private static ID decodeURI(URI source) throws URISyntaxException {
         ID result = null;
 
         // check the protocol
@@ -0,0 +1,308 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ *  The index of the values of one attribute within a {@link Cm} directory.
+ *  Values are case folded once when they are indexed. Exact matches are
+ *  resolved through a hash index, prefix and wildcard (<tt>*</tt>) matches
+ *  through a sorted index of the distinct values.
+ *
+ *  <p/>This class is not synchronized, {@link Cm} guards it with its
+ *  read/write lock.
+ */
+final class AttributeIndex {
+
+    /**
+     *  The wildcard character of queries.
+     */
+    static final char WILDCARD = '*';
+
+    /**
+     *  Upper bound for the keys of a prefix range.
+     */
+    private static final char MAX_CHAR = '\uffff';
+
+    /**
+     *  Decides which of the matching record names are collected.
+     */
+    interface Filter {
+
+        /**
+         *  Returns true if the record name should be collected.
+         *
+         *  @param name the record name.
+         *  @return true if the record name should be collected.
+         */
+        boolean accept(Object name);
+    }
+
+    /**
+     *  folded value -> Set of record names
+     */
+    private final Map exact = new HashMap();
+
+    /**
+     *  folded value -> Set of record names, same sets as in {@link #exact}.
+     */
+    private final TreeMap sorted = new TreeMap();
+
+    /**
+     *  Case fold a value or a query.
+     *
+     *  @param value the value
+     *  @return the folded value
+     */
+    static String fold(String value) {
+        return value.toUpperCase();
+    }
+
+    /**
+     *  Returns true if there are no values in this index.
+     *
+     *  @return true if there are no values in this index.
+     */
+    boolean isEmpty() {
+        return exact.isEmpty();
+    }
+
+    /**
+     *  Add a record name for the specified value.
+     *
+     *  @param value the attribute value, not folded.
+     *  @param name the record name.
+     */
+    void add(String value, String name) {
+        String folded = fold(value);
+        Set names = (Set) exact.get(folded);
+
+        if (null == names) {
+            names = new HashSet(2);
+            exact.put(folded, names);
+            sorted.put(folded, names);
+        }
+
+        names.add(name);
+    }
+
+    /**
+     *  Remove a record name for the specified value.
+     *
+     *  @param value the attribute value, not folded.
+     *  @param name the record name.
+     */
+    void remove(String value, String name) {
+        String folded = fold(value);
+        Set names = (Set) exact.get(folded);
+
+        if (null == names) {
+            return;
+        }
+
+        names.remove(name);
+
+        if (names.isEmpty()) {
+            exact.remove(folded);
+            sorted.remove(folded);
+        }
+    }
+
+    /**
+     *  Returns an iterator of the distinct (folded) values and their record
+     *  names as <code>Map.Entry</code>.
+     *
+     *  @return an iterator of <code>Map.Entry</code>
+     */
+    Iterator entries() {
+        return sorted.entrySet().iterator();
+    }
+
+    /**
+     *  Collect the names of the records whose value matches the query.
+     *
+     *  @param query the query, may contain <tt>*</tt> wildcards. If null, all
+     *  of the records are matched.
+     *  @param result the collection to which the record names are added.
+     *  @param threshold stop once <code>result</code> contains this many
+     *  names.
+     */
+    void collect(String query, Collection result, int threshold) {
+        collect(query, result, threshold, null);
+    }
+
+    /**
+     *  Collect the names of the records whose value matches the query and
+     *  which are accepted by the filter. Rejected names do not count towards
+     *  the threshold.
+     *
+     *  @param query the query, may contain <tt>*</tt> wildcards. If null, all
+     *  of the records are matched.
+     *  @param result the collection to which the record names are added.
+     *  @param threshold stop once <code>result</code> contains this many
+     *  names.
+     *  @param filter the filter of the names, may be null to accept all.
+     */
+    void collect(String query, Collection result, int threshold, Filter filter) {
+        if (result.size() >= threshold) {
+            return;
+        }
+
+        if (null == query) {
+            collectAll(sorted, result, threshold, filter);
+            return;
+        }
+
+        String folded = fold(query);
+        int firstWild = folded.indexOf(WILDCARD);
+
+        if (-1 == firstWild) {
+            Set names = (Set) exact.get(folded);
+
+            if (null != names) {
+                addAll(names, result, threshold, filter);
+            }
+            return;
+        }
+
+        // Restrict the candidates to the range sharing the literal prefix.
+        String prefix = folded.substring(0, firstWild);
+        SortedMap candidates = (0 == prefix.length()) ? sorted : sorted.subMap(prefix, prefix + MAX_CHAR);
+
+        if (firstWild == (folded.length() - 1)) {
+            // 'prefix*' : every candidate matches.
+            collectAll(candidates, result, threshold, filter);
+            return;
+        }
+
+        Iterator eachValue = candidates.entrySet().iterator();
+
+        while (eachValue.hasNext() && (result.size() < threshold)) {
+            Map.Entry anEntry = (Map.Entry) eachValue.next();
+
+            if (matches(folded, (String) anEntry.getKey())) {
+                addAll((Set) anEntry.getValue(), result, threshold, filter);
+            }
+        }
+    }
+
+    private static void collectAll(SortedMap values, Collection result, int threshold, Filter filter) {
+        Iterator eachSet = values.values().iterator();
+
+        while (eachSet.hasNext() && (result.size() < threshold)) {
+            addAll((Set) eachSet.next(), result, threshold, filter);
+        }
+    }
+
+    private static void addAll(Set names, Collection result, int threshold, Filter filter) {
+        Iterator eachName = names.iterator();
+
+        while (eachName.hasNext() && (result.size() < threshold)) {
+            Object name = eachName.next();
+
+            if ((null == filter) || filter.accept(name)) {
+                result.add(name);
+            }
+        }
+    }
+
+    /**
+     *  Match a value against a pattern in which <tt>*</tt> matches any
+     *  sequence of characters, including the empty sequence.
+     *
+     *  @param pattern the pattern.
+     *  @param value the value.
+     *  @return true if the value matches the pattern.
+     */
+    static boolean matches(String pattern, String value) {
+        int p = 0;
+        int v = 0;
+        int starAt = -1;
+        int starMatch = 0;
+
+        while (v < value.length()) {
+            if ((p < pattern.length()) && (pattern.charAt(p) != WILDCARD) && (pattern.charAt(p) == value.charAt(v))) {
+                p++;
+                v++;
+            } else if ((p < pattern.length()) && (pattern.charAt(p) == WILDCARD)) {
+                starAt = p++;
+                starMatch = v;
+            } else if (starAt != -1) {
+                // backtrack: let the last star absorb one more character.
+                p = starAt + 1;
+                v = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+
+        while ((p < pattern.length()) && (pattern.charAt(p) == WILDCARD)) {
+            p++;
+        }
+
+        return p == pattern.length();
+    }
+}
@@ -56,23 +56,26 @@
  */
 package net.jxta.impl.cm;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
-import net.jxta.id.ID;
 import net.jxta.discovery.DiscoveryService;
 import net.jxta.document.Advertisement;
 import net.jxta.document.StructuredDocument;
 import net.jxta.document.StructuredTextDocument;
+import net.jxta.impl.config.Config;
+import net.jxta.impl.util.CacheEntry;
+import net.jxta.impl.util.CacheEntryListener;
 import net.jxta.impl.util.JxtaHash;
+import net.jxta.impl.util.ReadWriteLock;
 import net.jxta.impl.util.TimeUtils;
 import net.jxta.protocol.PeerAdvertisement;
 import net.jxta.protocol.PeerGroupAdvertisement;
@@ -85,6 +88,21 @@ import org.apache.log4j.Logger;
  * intended to provide cache for services that have a need for cache
  * to search and exchange jxta documents.
  *
+ * <p/>Each directory holds at most a configured number of advertisements,
+ * the least recently used ones are evicted first. Every indexed attribute
+ * of a directory has an {@link AttributeIndex} which resolves exact, prefix
+ * and wildcard queries without visiting the records. Searches hold a read
+ * lock and may run concurrently, changes hold the write lock.
+ *
+ * <p/>The cache may optionally be backed by an append-only log on disk
+ * ({@link CmLog}) from which the unexpired advertisements are restored when
+ * the cache is created.
+ *
+ * <p/>The defaults may be changed with the system properties
+ * <tt>net.jxta.impl.cm.Cm.capacity</tt> (records per directory) and
+ * <tt>net.jxta.impl.cm.Cm.persistent</tt> (log the caches of the
+ * peer groups under <tt>JXTA_HOME/cm</tt>).
+ *
  * Only Core Services are intended to use this mechanism.
  */
 public final class Cm {
@@ -97,13 +115,42 @@ public final class Cm {
      *  adv types
      */
     private static final String[] DIRNAME = {"Peers", "Groups", "Adv", "Raw"};
+
+    /**
+     *  The default number of records per directory.
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("net.jxta.impl.cm.Cm.capacity", 50).intValue();
+
+    /**
+     *  If true then named caches are logged to disk by default.
+     */
+    public static final boolean DEFAULT_PERSISTENT = Boolean.getBoolean("net.jxta.impl.cm.Cm.persistent");
+
     private boolean stop = false;
     private boolean trackDeltas = false;
     private Map deltaMap = new HashMap(3);
-    private Map advMaps = new HashMap(4);
-    private Map indexMap = new HashMap(4);
-    private Map deltas  = new HashMap(4);
-    private transient int cacheSize = 50;
+
+    /**
+     *  dn -> Directory
+     */
+    private final Map directories = new HashMap(4);
+
+    /**
+     *  Guards the directories and their indexes.
+     */
+    private final ReadWriteLock lock = new ReadWriteLock();
+
+    /**
+     *  The on-disk log or null if the cache is not persistent.
+     */
+    private CmLog log = null;
+
+    /**
+     *  Incremented every time a record is stored or removed.
+     */
+    private volatile int generation = 0;
+
+    private final transient int cacheSize;
 
     /**
      * Constructor for cm
@@ -111,16 +158,79 @@ public final class Cm {
      * @param  trackDeltas     when true deltas are tracked 
      */
     public Cm(boolean trackDeltas) {
+        this(trackDeltas, DEFAULT_CAPACITY, null);
+    }
+
+    /**
+     * Constructor for a named cm. If persistence is enabled by default the
+     * cache is logged to <tt>JXTA_HOME/cm/</tt><code>storeName</code><tt>.log</tt>.
+     *
+     * @param  trackDeltas     when true deltas are tracked
+     * @param  storeName       the name of the cache
+     */
+    public Cm(boolean trackDeltas, String storeName) {
+        this(trackDeltas, DEFAULT_CAPACITY,
+             DEFAULT_PERSISTENT ? new File(Config.JXTA_HOME + "cm" + File.separator + storeName + ".log") : null);
+    }
+
+    /**
+     * Constructor for cm
+     *
+     * @param  trackDeltas     when true deltas are tracked
+     * @param  capacity        the maximum number of records per directory
+     * @param  logFile         the log file for a persistent cache or null
+     */
+    public Cm(boolean trackDeltas, int capacity, File logFile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
 
         this.trackDeltas = trackDeltas;
+        this.cacheSize = capacity;
         createCaches();
+
+        if (null != logFile) {
+            openLog(logFile);
+        }
     }
 
     private void createCaches() {
         for (int i=0; i<DIRNAME.length; i++) {
-            if (advMaps.get(DIRNAME[i]) == null) {
-                LRUCache lru = new LRUCache(cacheSize);
-                advMaps.put(DIRNAME[i], lru);
+            if (directories.get(DIRNAME[i]) == null) {
+                directories.put(DIRNAME[i], new Directory(DIRNAME[i]));
+            }
+        }
+    }
+
+    private void openLog(File logFile) {
+        CmLog newLog = new CmLog(logFile);
+
+        newLog.replay(new CmLog.Replay() {
+                          public void saved(String dn, String fn, Advertisement adv, long absoluteLifetime, long expiration) {
+                              Directory dir = (Directory) directories.get(dn);
+
+                              if (dir != null) {
+                                  dir.put(new Record(fn, adv, absoluteLifetime, expiration));
+                              }
+                          }
+
+                          public void removed(String dn, String fn) {
+                              Directory dir = (Directory) directories.get(dn);
+
+                              if (dir != null) {
+                                  dir.remove(fn);
+                              }
+                          }
+                      }
+                     );
+
+        try {
+            newLog.compact(allRecords());
+            log = newLog;
+        } catch (IOException failed) {
+            newLog.close();
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Cache will not be persistent, could not open " + logFile, failed);
             }
         }
     }
@@ -135,7 +245,9 @@ public final class Cm {
     }
 
     /**
-     * Generates a random file name using doc hashcode
+     * Generates a random file name using doc hashcode. The hash is computed
+     * over the UTF-8 encoding of the document text, whatever the default
+     * charset of the platform.
      *
      * @param  doc  to hash to generate a unique name
      * @return      String a random file name
@@ -144,7 +256,7 @@ public final class Cm {
         try {
             StringWriter out = new StringWriter();
             ((StructuredTextDocument) doc).sendToWriter(out);
-            JxtaHash digester = new JxtaHash(out.toString());
+            JxtaHash digester = new JxtaHash(JxtaHash.SHA1, out.toString().getBytes("UTF-8"));
             BigInteger hash = digester.getDigestInteger();
             if (hash.compareTo(BigInteger.ZERO) < 0) {
                 hash = hash.negate();
@@ -160,6 +272,23 @@ public final class Cm {
         return null;
     }
 
+    /**
+     * Generates the same name as {@link #createTmpName(StructuredDocument)}
+     * does for the XML document of the advertisement, but from the digest
+     * the advertisement keeps until it is changed. Both hash the UTF-8
+     * encoding of the document text.
+     *
+     * @param  adv  the advertisement to name
+     * @return      String the name of the advertisement
+     */
+    public static String createTmpName(Advertisement adv) {
+        BigInteger hash = new BigInteger(adv.getContentDigest());
+        if (hash.compareTo(BigInteger.ZERO) < 0) {
+            hash = hash.negate();
+        }
+        return "cm" + hash.toString(16);
+    }
+
     /**
      * Gets the list of all the files into the given folder
      *
@@ -172,29 +301,77 @@ public final class Cm {
                              int threshold,
                              Vector expirations,
                              boolean bytes) {
+        return getRecords(dn, threshold, expirations, null, bytes);
+    }
+
+    /**
+     * Gets the list of all the files into the given folder
+     *
+     * @param  dn           contains the name of the folder
+     * @param  threshold    the maximum number of documents returned
+     * @param  expirations  if not null, receives the expiration of each
+     *                      document as a Long
+     * @param  lifetimes    if not null, receives the absolute time at which
+     *                      the lifetime of each document ends as a Long
+     * @param  bytes        if true the documents are returned as Strings
+     *                      rather than Advertisements
+     * @return Vector of the documents
+     */
+    public Vector getRecords(String dn,
+                             int threshold,
+                             Vector expirations,
+                             Vector lifetimes,
+                             boolean bytes) {
 
-        LRUCache cache = (LRUCache) advMaps.get(dn);
         Vector result = new Vector();
-        if (cache!= null) {
-            Iterator it = cache.iterator(threshold);
-            while (it.hasNext()) {
-                Record record = (Record) it.next();
-                if (!bytes) {
-                    result.add(record.advertisement);
-                } else {
-                    result.add(record.advertisement.toString());
-                }
-                if (expirations != null) {
-                    expirations.add(new Long(record.expiration));
-                }
-                if (result.size() >= threshold) {
-                    break;
+        lock.readLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if (dir != null) {
+                long now = TimeUtils.timeNow();
+                Iterator it = dir.records.iterator(dir.records.size());
+                while (it.hasNext()) {
+                    Record record = (Record) it.next();
+                    if (record.isExpired(now)) {
+                        continue;
+                    }
+                    addResult(record, result, expirations, lifetimes, bytes);
+                    if (result.size() >= threshold) {
+                        break;
+                    }
                 }
             }
+        } finally {
+            lock.readUnlock();
         }
         return result;
     }
 
+    private static void addResult(Record record, Vector result, Vector expirations, Vector lifetimes, boolean bytes) {
+        if (!bytes) {
+            result.add(record.advertisement);
+        } else {
+            result.add(record.getSerialized());
+        }
+        if (expirations != null) {
+            expirations.add(new Long(record.expiration));
+        }
+        if (lifetimes != null) {
+            lifetimes.add(new Long(record.lifetime));
+        }
+    }
+
+    /**
+     *  Returns the number of times a record has been stored or removed. The
+     *  results of a search remain valid for as long as the generation does
+     *  not change and none of the returned records expires.
+     *
+     * @return the generation of the cache.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
     /**
      *  Returns the relative time in milliseconds at which the file
      *  will expire.
@@ -206,10 +383,9 @@ public final class Cm {
      * document will expire. -1 is returned if the file is not
      * recognized or already expired.
      */
-    public synchronized long getLifetime(String dn, String fn) {
-        LRUCache cache = (LRUCache) advMaps.get(dn);
-        if (cache!= null) {
-            Record record = (Record) cache.get(fn);
+    public long getLifetime(String dn, String fn) {
+        Record record = getRecord(dn, fn);
+        if (record != null) {
             return TimeUtils.toRelativeTimeMillis(record.lifetime);
         }
         return -1;
@@ -226,15 +402,27 @@ public final class Cm {
      * @return     number of milliseconds until the file expires or -1 if the
      * file is not recognized or already expired.
      */
-    public synchronized long getExpirationtime(String dn, String fn) {
-        LRUCache cache = (LRUCache) advMaps.get(dn);
-        if (cache!= null) {
-            Record record = (Record) cache.get(fn);
+    public long getExpirationtime(String dn, String fn) {
+        Record record = getRecord(dn, fn);
+        if (record != null) {
             return record.expiration;
         }
         return -1;
     }
 
+    private Record getRecord(String dn, String fn) {
+        lock.readLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if ((dir == null) || (fn == null)) {
+                return null;
+            }
+            return (Record) dir.records.peek(fn);
+        } finally {
+            lock.readUnlock();
+        }
+    }
+
     /**
      * Remove a file
      *
@@ -242,19 +430,24 @@ public final class Cm {
      * @param  fn            file name
      * @throws  IOException  if an I/O error occurs
      */
-    public synchronized void remove(String dn, String fn)
+    public void remove(String dn, String fn)
     throws IOException {
-        LRUCache cache = (LRUCache) advMaps.get(dn);
-        if (cache!= null) {
-            Record record = (Record) cache.get(fn);
-            if (fn != null && record != null) {
-                cache.remove(fn);
-                addDelta(dn, record.advertisement.getIndexMap(), 0);
+        if (fn == null) {
+            return;
+        }
+        lock.writeLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if (dir != null) {
+                Record record = dir.remove(fn);
+                if (record != null) {
+                    addDelta(dn, record.indexables, 0);
+                    logRemove(dn, fn);
+                }
             }
+        } finally {
+            lock.writeUnlock();
         }
-
-        //FIXME need to also remove memory indexes, however they will eventually
-        //be expungend since they're stored in an LRU cache
     }
 
     /**
@@ -280,7 +473,7 @@ public final class Cm {
      * @param  lifetime         document lifetime in ms
      * @exception  IOException  if an I/O error occurs
      */
-    public synchronized void save(String dn, String fn, Advertisement adv, long lifetime, long expiration)
+    public void save(String dn, String fn, Advertisement adv, long lifetime, long expiration)
     throws IOException {
         if (expiration < 0 || lifetime < 0) {
             throw new IllegalArgumentException("cannot store an advertisement with negative expiry");
@@ -293,49 +486,20 @@ public final class Cm {
         }
 
         long absoluteLifetime = TimeUtils.toAbsoluteTimeMillis(lifetime);
-        index(adv.getIndexMap(), dn, fn, lifetime);
-        Record record = new Record(adv, absoluteLifetime, expiration);
-        LRUCache cache = (LRUCache) advMaps.get(dn);
-        if (cache!= null) {
-            cache.put(fn, record);
-            index(adv.getIndexMap(), dn, fn, lifetime);
-        } else {
-            throw new IOException("unknown directory type");
-        }
-    }
-
+        Record record = new Record(fn, adv, absoluteLifetime, expiration);
 
-
-    private void index(Map indexables, String dn, String fn, long lifetime) {
-        if (LOG.isEnabledFor(Level.DEBUG)) {
-            LOG.debug("Indexing :"+fn);
-        }
-        Iterator it = indexables.keySet().iterator();
-        while (it.hasNext()) {
-            String key = (String) it.next();
-            IndexRecord indexRecord = new IndexRecord(fn, (String) indexables.get(key), lifetime);
-            if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("Adding index for :"+key +" + "+indexables.get(key));
-            }
-            Map keyTable = (Map) indexMap.get(dn);
-            if (keyTable != null) {
-                Set set = (Set) keyTable.get(key);
-                if (set != null) {
-                    set.add(indexRecord);
-                } else {
-                    set = new HashSet();
-                    set.add(indexRecord);
-                    keyTable.put(key, set);
-                }
-            } else {
-                keyTable = new HashMap();
-                Set set = new HashSet();
-                set.add(indexRecord);
-                keyTable.put(key, set);
-                indexMap.put(dn, keyTable);
+        lock.writeLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if (dir == null) {
+                throw new IOException("unknown directory type");
             }
+            dir.put(record);
+            addDelta(dn, record.indexables, lifetime);
+            logSave(dn, record);
+        } finally {
+            lock.writeUnlock();
         }
-        addDelta(dn, indexables, lifetime);
     }
 
     /**
@@ -361,6 +525,9 @@ public final class Cm {
      * Search and recovers documents that contains at least
      * a macthing pair of tag/value.
      *
+     * <p/>Values are compared without regard to case. The value may contain
+     * <tt>*</tt> wildcards which match any sequence of characters.
+     *
      * @param  dn         contains the name of the folder on which to 
      *                    perform the search
      * @param  value      contains the value to search on.
@@ -368,62 +535,96 @@ public final class Cm {
      * @param  threshold  threshold
      * @return            Enumeration containing of all the documents names
      */
-    public synchronized Vector search(String dn,
-                                      String attribute,
-                                      String value,
-                                      int threshold,
-                                      Vector expirations) {
+    public Vector search(String dn,
+                         String attribute,
+                         String value,
+                         int threshold,
+                         Vector expirations) {
+        return search(dn, attribute, value, threshold, expirations, false);
+    }
+
+    /**
+     * Search and recovers documents that contains at least
+     * a macthing pair of tag/value.
+     *
+     * @param  dn         contains the name of the folder on which to 
+     *                    perform the search
+     * @param  value      contains the value to search on.
+     * @param  attribute  attribute to search on
+     * @param  threshold  threshold
+     * @param  bytes      if true the documents are returned as Strings
+     *                    rather than Advertisements
+     * @return            Enumeration containing of all the documents names
+     */
+    public Vector search(String dn,
+                         String attribute,
+                         String value,
+                         int threshold,
+                         Vector expirations,
+                         boolean bytes) {
+        return search(dn, attribute, value, threshold, expirations, null, bytes);
+    }
+
+    /**
+     * Search and recovers documents that contains at least
+     * a macthing pair of tag/value.
+     *
+     * @param  dn           contains the name of the folder on which to
+     *                      perform the search
+     * @param  value        contains the value to search on.
+     * @param  attribute    attribute to search on
+     * @param  threshold    threshold
+     * @param  expirations  if not null, receives the expiration of each
+     *                      document as a Long
+     * @param  lifetimes    if not null, receives the absolute time at which
+     *                      the lifetime of each document ends as a Long
+     * @param  bytes        if true the documents are returned as Strings
+     *                      rather than Advertisements
+     * @return            Enumeration containing of all the documents names
+     */
+    public Vector search(String dn,
+                         String attribute,
+                         String value,
+                         int threshold,
+                         Vector expirations,
+                         Vector lifetimes,
+                         boolean bytes) {
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("Searching for :"+dn+" + "+attribute+" + "+value +" + "+threshold);
         }
         Vector res = new Vector();
-        LRUCache advmap = (LRUCache) advMaps.get(dn);
-        if (advmap == null || advmap.size() == 0) {
-            return res;
-        }
-        Map keyTable = (Map) indexMap.get(dn);
-        if (keyTable != null) {
-            Set set = (Set) keyTable.get(attribute);
-            if (set != null) {
-                if (LOG.isEnabledFor(Level.DEBUG)) {
-                    LOG.debug("Found a matching table for :"+attribute);
-                }
+        lock.readLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if (dir == null || dir.records.size() == 0) {
+                return res;
+            }
+            AttributeIndex index = (AttributeIndex) dir.attributes.get(attribute);
+            if (index == null) {
+                return res;
+            }
 
-                Iterator it = set.iterator();
-                while (it.hasNext()) {
-                    IndexRecord idx = (IndexRecord) it.next();
-                    if (value != null) {
-                if (LOG.isEnabledFor(Level.DEBUG)) {
-                    LOG.debug("Comparing "+idx.value +" to "+value);
+            // Expired records must not use up the threshold.
+            final LRUCache records = dir.records;
+            final long now = TimeUtils.timeNow();
+            List found = new ArrayList();
+            index.collect(value, found, threshold, new AttributeIndex.Filter() {
+                public boolean accept(Object name) {
+                    Record record = (Record) records.peek(name);
+                    return (record != null) && !record.isExpired(now);
                 }
-                        if (idx.value.toUpperCase().equals(value.toUpperCase())) {
-                            if (LOG.isEnabledFor(Level.DEBUG)) {
-                                LOG.debug("Found a matching record :"+idx.key);
-                            }
-                            Record record = (Record) advmap.get(idx.key);
-                            if (record != null) {
-                                res.add(record.advertisement);
-                                if (expirations != null) {
-                                    expirations.add(new Long(record.expiration));
-                                }
-                            }
-                        }
-
-                    } else {
-                        Record record = (Record) advmap.get(idx.key);
-                        if (record != null) {
-                            res.add(record.advertisement);
-                            if (expirations != null) {
-                                expirations.add(new Long(record.expiration));
-                            }
+            });
 
-                        }
-                    }
-                    if (res.size()>= threshold) {
-                        break;
-                    }
-                }
+            Iterator eachName = found.iterator();
+            while (eachName.hasNext()) {
+                Record record = (Record) records.peek(eachName.next());
+                addResult(record, res, expirations, lifetimes, bytes);
             }
+        } finally {
+            lock.readUnlock();
+        }
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("Found " + res.size() + " matching records");
         }
         return res;
     }
@@ -431,27 +632,48 @@ public final class Cm {
     /**
      * returns all entries that are cached
      *
+     * <p/>One entry is returned for each distinct attribute/value pair with
+     * the longest remaining lifetime of the records which have this value.
+     *
      * @param  dn  the relative dir name
      * @return     SrdiMessage.Entries
      */
-    public synchronized Vector getEntries(String dn, boolean clearDeltas) {
+    public Vector getEntries(String dn, boolean clearDeltas) {
         Vector res = new Vector();
-        Map keyTable = (Map) indexMap.get(dn);
-        if (keyTable == null) {
-            if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("Returning empty vector of entries");
-            }
-            return res;
-        }
-        Iterator it = keyTable.values().iterator();
-        while (it.hasNext()) {
-            Set set = (Set) it.next();
-            Iterator sets = set.iterator();
-            while (sets.hasNext()) {
-                IndexRecord record = (IndexRecord) sets.next();
-                SrdiMessage.Entry entry = new SrdiMessage.Entry(dn, record.key, (record.lifetime- System.currentTimeMillis()));
-                res.add(entry);
+        lock.readLock();
+        try {
+            Directory dir = (Directory) directories.get(dn);
+            if (dir != null) {
+                long now = TimeUtils.timeNow();
+                Iterator eachAttr = dir.attributes.entrySet().iterator();
+                while (eachAttr.hasNext()) {
+                    Map.Entry anAttr = (Map.Entry) eachAttr.next();
+                    String attr = (String) anAttr.getKey();
+                    Iterator eachValue = ((AttributeIndex) anAttr.getValue()).entries();
+                    while (eachValue.hasNext()) {
+                        Map.Entry aValue = (Map.Entry) eachValue.next();
+                        long remaining = 0;
+                        String value = null;
+                        Iterator eachName = ((Set) aValue.getValue()).iterator();
+                        while (eachName.hasNext()) {
+                            Record record = (Record) dir.records.peek(eachName.next());
+                            if (record == null) {
+                                continue;
+                            }
+                            long recordRemaining = TimeUtils.toRelativeTimeMillis(record.lifetime, now);
+                            if (recordRemaining > remaining) {
+                                remaining = recordRemaining;
+                                value = (String) record.indexables.get(attr);
+                            }
+                        }
+                        if (value != null) {
+                            res.add(new SrdiMessage.Entry(attr, value, remaining));
+                        }
+                    }
+                }
             }
+        } finally {
+            lock.readUnlock();
         }
         if (clearDeltas) {
             clearDeltas(dn);
@@ -523,55 +745,242 @@ public final class Cm {
     /**
      * stop the cm
      */
-    public synchronized void stop() {
-        stop = true;
-        deltas.clear();
-        deltaMap.clear();
-        indexMap.clear();
-        advMaps.clear();
+    public void stop() {
+        lock.writeLock();
+        try {
+            stop = true;
+            directories.clear();
+            generation++;
+            if (log != null) {
+                log.close();
+                log = null;
+            }
+        } finally {
+            lock.writeUnlock();
+        }
+        synchronized (this) {
+            deltaMap.clear();
+        }
+    }
+
+    /**
+     *  Log a save if we are persistent. Must be called with the write lock
+     *  held.
+     */
+    private void logSave(String dn, Record record) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.saved(dn, record.name, record.advertisement, record.lifetime, record.expiration);
+            if (log.needsCompaction(liveRecords())) {
+                log.compact(allRecords());
+            }
+        } catch (IOException failed) {
+            logFailed(failed);
+        }
+    }
+
+    /**
+     *  Log a remove if we are persistent. Must be called with the write lock
+     *  held.
+     */
+    private void logRemove(String dn, String fn) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.removed(dn, fn);
+        } catch (IOException failed) {
+            logFailed(failed);
+        }
     }
+
+    private void logFailed(IOException failed) {
+        if (LOG.isEnabledFor(Level.WARN)) {
+            LOG.warn("Cache log failed, the cache is no longer persistent", failed);
+        }
+        log.close();
+        log = null;
+    }
+
+    private int liveRecords() {
+        int live = 0;
+        Iterator eachDir = directories.values().iterator();
+        while (eachDir.hasNext()) {
+            live += ((Directory) eachDir.next()).records.size();
+        }
+        return live;
+    }
+
+    /**
+     *  Returns an iterator of <code>Object[] { dn, Record }</code> for all of
+     *  the unexpired records.
+     */
+    private Iterator allRecords() {
+        List all = new ArrayList();
+        long now = TimeUtils.timeNow();
+        Iterator eachDir = directories.values().iterator();
+        while (eachDir.hasNext()) {
+            Directory dir = (Directory) eachDir.next();
+            Iterator eachRecord = dir.records.iterator(dir.records.size());
+            while (eachRecord.hasNext()) {
+                Record record = (Record) eachRecord.next();
+                if (!record.isExpired(now)) {
+                    all.add(new Object[] { dir.name, record });
+                }
+            }
+        }
+        return all.iterator();
+    }
+
+    /**
+     *  The records of one directory and the indexes of their attributes.
+     *  Guarded by the read/write lock of the cm.
+     */
+    private class Directory implements CacheEntryListener {
+        final String name;
+
+        /**
+         *  fn -> Record
+         */
+        final LRUCache records;
+
+        /**
+         *  attribute -> AttributeIndex
+         */
+        final Map attributes = new HashMap();
+
+        Directory(String name) {
+            this.name = name;
+            records = new LRUCache(cacheSize, this);
+        }
+
+        /**
+         *  Store a record, replacing any previous record of the same name.
+         */
+        void put(Record record) {
+            generation++;
+            Record previous = (Record) records.put(record.name, record);
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(record);
+        }
+
+        /**
+         *  Remove a record.
+         */
+        Record remove(String fn) {
+            generation++;
+            Record record = (Record) records.remove(fn);
+            if (record != null) {
+                unindex(record);
+            }
+            return record;
+        }
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The least recently used record was evicted.
+         */
+        public void purged(CacheEntry evicted) {
+            Record record = (Record) evicted.getValue();
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("Evicting :" + record.name);
+            }
+            unindex(record);
+        }
+
+        private void index(Record record) {
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("Indexing :" + record.name);
+            }
+            Iterator eachIndex = record.indexables.entrySet().iterator();
+            while (eachIndex.hasNext()) {
+                Map.Entry anEntry = (Map.Entry) eachIndex.next();
+                String attr = (String) anEntry.getKey();
+                AttributeIndex index = (AttributeIndex) attributes.get(attr);
+                if (index == null) {
+                    index = new AttributeIndex();
+                    attributes.put(attr, index);
+                }
+                index.add((String) anEntry.getValue(), record.name);
+            }
+        }
+
+        private void unindex(Record record) {
+            Iterator eachIndex = record.indexables.entrySet().iterator();
+            while (eachIndex.hasNext()) {
+                Map.Entry anEntry = (Map.Entry) eachIndex.next();
+                String attr = (String) anEntry.getKey();
+                AttributeIndex index = (AttributeIndex) attributes.get(attr);
+                if (index != null) {
+                    index.remove((String) anEntry.getValue(), record.name);
+                    if (index.isEmpty()) {
+                        attributes.remove(attr);
+                    }
+                }
+            }
+        }
+    }
+
     public class Record {
+        public transient String name;
         public transient Advertisement advertisement;
         public transient long lifetime;
         public transient long expiration;
 
-        public Record(Advertisement advertisement, long lifetime, long expiration) {
+        /**
+         *  The attributes which were indexed for this record. Kept so that
+         *  the record can be unindexed even if the advertisement changes.
+         */
+        transient Map indexables;
+
+        /**
+         *  The XML form of the advertisement or null if not yet needed. A
+         *  republished advertisement gets a new record and so a new form.
+         */
+        private transient String serialized = null;
+
+        public Record(String name, Advertisement advertisement, long lifetime, long expiration) {
+            this.name = name;
             this.advertisement = advertisement;
             this.lifetime = lifetime;
             this.expiration = expiration;
+            Map indexMap = advertisement.getIndexMap();
+            this.indexables = (indexMap == null) ? new HashMap() : new HashMap(indexMap);
+        }
+
+        /**
+         *  Returns true if the lifetime of the record is over.
+         *
+         *  @param now the current absolute time in milliseconds.
+         */
+        boolean isExpired(long now) {
+            return TimeUtils.toRelativeTimeMillis(lifetime, now) < 0;
         }
+
+        /**
+         *  Returns the XML form of the advertisement, serializing it only
+         *  the first time it is requested.
+         */
+        synchronized String getSerialized() {
+            if (null == serialized) {
+                serialized = advertisement.toString();
+            }
+            return serialized;
+        }
+
         /**
          * {@inheritDoc}
          */
         public int hashCode() {
-            if (advertisement.getID() == null || advertisement.getID().equals(ID.nullID)) {
-                return advertisement.getID().hashCode();
-            } else {
-                return advertisement.hashCode();
-            }
+            return name.hashCode();
         }
         public String toString() {
             return advertisement.toString()+"  "+lifetime+" "+expiration;
         }
     }
-    public class IndexRecord implements Comparable {
-        public transient String key;
-        public transient String value;
-        public transient long lifetime;
-        public IndexRecord(String key, String value, long lifetime) {
-            this.key = key;
-            this.value = value;
-            this.lifetime = lifetime;
-        }
-        public boolean equals(Object obj) {
-            return key.equals(obj);
-        }
-        public int hashCode() {
-            return key.hashCode();
-        }
-        public int compareTo(Object obj) {
-            return key.compareTo((String)obj);
-        }
-    }
 }
-
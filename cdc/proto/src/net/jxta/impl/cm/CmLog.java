@@ -0,0 +1,345 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.document.Advertisement;
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.document.Document;
+import net.jxta.document.MimeMediaType;
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ *  An append-only log of the changes made to a {@link Cm}. Replaying the log
+ *  when the cache is created restores the advertisements which had not yet
+ *  expired, so that a restarted peer does not have to discover them again.
+ *
+ *  <p/>Each entry is either a save, with the advertisement in XML form and
+ *  its absolute lifetime and expiration, or a remove. The log is rewritten
+ *  from the live records when it contains too many superseded entries.
+ *
+ *  <p/>This class is not synchronized, {@link Cm} only uses it while
+ *  holding its write lock.
+ */
+final class CmLog {
+
+    /**
+     *  Log4J Logger
+     */
+    private final static Logger LOG = Logger.getLogger(CmLog.class.getName());
+
+    /**
+     *  Log file signature and version.
+     */
+    private static final int MAGIC = 0x4A434D31; // "JCM1"
+
+    private static final byte SAVE = 1;
+
+    private static final byte REMOVE = 2;
+
+    /**
+     *  The log is compacted once it holds this many more entries than there
+     *  are live records.
+     */
+    private static final int COMPACT_SLACK = 1000;
+
+    /**
+     *  The log file.
+     */
+    private final File file;
+
+    /**
+     *  The stream we append to.
+     */
+    private DataOutputStream out = null;
+
+    /**
+     *  Number of entries in the log file.
+     */
+    private int entries = 0;
+
+    /**
+     *  Receives the records replayed from the log.
+     */
+    interface Replay {
+
+        /**
+         *  An advertisement was saved.
+         */
+        void saved(String dn, String fn, Advertisement adv, long absoluteLifetime, long expiration);
+
+        /**
+         *  An advertisement was removed.
+         */
+        void removed(String dn, String fn);
+    }
+
+    /**
+     *  Creates a log for the specified file.
+     *
+     *  @param file the log file. Its parent directories are created as
+     *  needed.
+     */
+    CmLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     *  Replay the existing log, if any. The log must then be opened for
+     *  appending by a call to {@link #compact(Iterator)} with the records
+     *  which were retained.
+     *
+     *  @param replay receives the logged records.
+     */
+    void replay(Replay replay) {
+        File parent = file.getParentFile();
+
+        if ((null != parent) && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        if (file.exists()) {
+            replayFile(replay);
+        }
+    }
+
+    /**
+     *  Log a save.
+     */
+    void saved(String dn, String fn, Advertisement adv, long absoluteLifetime, long expiration) throws IOException {
+        write(out, dn, fn, adv, absoluteLifetime, expiration);
+        out.flush();
+        entries++;
+    }
+
+    /**
+     *  Log a remove.
+     */
+    void removed(String dn, String fn) throws IOException {
+        out.writeByte(REMOVE);
+        out.writeUTF(dn);
+        out.writeUTF(fn);
+        out.flush();
+        entries++;
+    }
+
+    /**
+     *  Returns true if the log should be compacted.
+     *
+     *  @param live the number of live records.
+     *  @return true if the log should be compacted.
+     */
+    boolean needsCompaction(int live) {
+        return entries > (2 * live + COMPACT_SLACK);
+    }
+
+    /**
+     *  Rewrite the log so that it only contains the provided records and
+     *  (re)open it for appending.
+     *
+     *  @param records an iterator of <code>Object[] { dn, Cm.Record }</code>.
+     */
+    void compact(Iterator records) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        int written = 0;
+
+        try {
+            tmpOut.writeInt(MAGIC);
+
+            while (records.hasNext()) {
+                Object[] each = (Object[]) records.next();
+                String dn = (String) each[0];
+                Cm.Record record = (Cm.Record) each[1];
+
+                write(tmpOut, dn, record.name, record.advertisement, record.lifetime, record.expiration);
+                written++;
+            }
+        } finally {
+            tmpOut.close();
+        }
+
+        close();
+
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.getPath(), true)));
+        entries = written;
+
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("Compacted " + file + " to " + written + " records");
+        }
+    }
+
+    /**
+     *  Close the log.
+     */
+    void close() {
+        if (null != out) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                ;
+            }
+            out = null;
+        }
+    }
+
+    private static void write(DataOutputStream to, String dn, String fn, Advertisement adv, long absoluteLifetime, long expiration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Document doc = adv.getDocument(MimeMediaType.XMLUTF8);
+
+        doc.sendToStream(bytes);
+
+        to.writeByte(SAVE);
+        to.writeUTF(dn);
+        to.writeUTF(fn);
+        to.writeLong(absoluteLifetime);
+        to.writeLong(expiration);
+        to.writeInt(bytes.size());
+        bytes.writeTo(to);
+    }
+
+    private void replayFile(Replay replay) {
+        DataInputStream in = null;
+        int replayed = 0;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (MAGIC != in.readInt()) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Ignoring unrecognized cache log " + file);
+                }
+                in.close();
+                in = null;
+                file.delete();
+                return;
+            }
+
+            while (true) {
+                byte op;
+
+                try {
+                    op = in.readByte();
+                } catch (EOFException done) {
+                    break;
+                }
+
+                String dn = in.readUTF();
+                String fn = in.readUTF();
+
+                if (REMOVE == op) {
+                    replay.removed(dn, fn);
+                } else if (SAVE == op) {
+                    long absoluteLifetime = in.readLong();
+                    long expiration = in.readLong();
+                    byte[] advBytes = new byte[in.readInt()];
+
+                    in.readFully(advBytes);
+
+                    if (TimeUtils.toRelativeTimeMillis(absoluteLifetime) > 0) {
+                        Advertisement adv = AdvertisementFactory.newAdvertisement(MimeMediaType.XMLUTF8, new ByteArrayInputStream(advBytes));
+
+                        replay.saved(dn, fn, adv, absoluteLifetime, expiration);
+                    }
+                } else {
+                    throw new IOException("Unknown log entry type " + op);
+                }
+
+                replayed++;
+            }
+        } catch (Exception failed) {
+            // A torn last entry is expected after a crash. Keep what we got.
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Cache log replay stopped after " + replayed + " entries of " + file, failed);
+            }
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    ;
+                }
+            }
+        }
+
+        entries = replayed;
+
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info("Replayed " + replayed + " entries from " + file);
+        }
+    }
+}
@@ -15,14 +15,23 @@
  */
 package net.jxta.impl.cm;
 
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.jxta.impl.util.CacheEntry;
+import net.jxta.impl.util.CacheEntryListener;
+
 /**
  *  This class implements a Generic LRU Cache
  *
+ *  <p/>All of the operations but {@link #peek(Object)} are synchronized.
+ *  <code>peek</code> may be used by readers which hold a read lock on a
+ *  containing structure which excludes the writers of the cache. It does
+ *  not reorder the list, it only marks the entry as referenced and the
+ *  entry is given a second chance before being evicted.
+ *
  *@author    Ignacio J. Ortega
  *@author    Mohamed Abdelaziz
  */
@@ -33,7 +42,12 @@ public class LRUCache {
     private transient int currentSize;
     private transient CacheNode first;
     private transient CacheNode last;
-    private transient Hashtable nodes;
+    private transient HashMap nodes;
+
+    /**
+     *  Notified of the entries which are evicted to make room for new ones.
+     */
+    private transient CacheEntryListener listener;
 
 
     /**
@@ -42,49 +56,95 @@ public class LRUCache {
      *@param  size  Description of the Parameter
      */
     public LRUCache(int size) {
+        this(size, null);
+    }
+
+    /**
+     *  Constructor for the LRUCache object
+     *
+     *@param  size  the maximum number of entries
+     *@param  listener  notified of the entries evicted from the cache, may
+     *  be null.
+     */
+    public LRUCache(int size, CacheEntryListener listener) {
         currentSize = 0;
         cacheSize = size;
-        nodes = new Hashtable(size);
+        nodes = new HashMap(size);
+        this.listener = listener;
     }
 
     /**
      *  clear the cache
      */
-    public void clear() {
+    public synchronized void clear() {
         first = null;
         last = null;
+        nodes.clear();
+        currentSize = 0;
     }
     /**
      *  returns the number of elements currently in cache
      * @retrun the number of elements in cache
      */
-    public int size() {
+    public synchronized int size() {
         return currentSize;
     }
 
+    /**
+     *  returns the maximum number of elements in cache
+     * @return the maximum number of elements in cache
+     */
+    public int capacity() {
+        return cacheSize;
+    }
+
     /**
      *  retrieve an object from cache
      *
      *@param  key  key
      *@return      object
      */
-    public Object get(Object key) {
+    public synchronized Object get(Object key) {
         CacheNode node = (CacheNode) nodes.get(key);
         if (node != null) {
+            node.referenced = false;
             moveToHead(node);
             return node.value;
         }
         return null;
     }
 
-    protected Iterator iterator(int size) {
-        List list = new ArrayList();
-        Iterator it = nodes.values().iterator();
-        while (it.hasNext()) {
-            list.add(((CacheNode)it.next()).value);
-            if (list.size() >= size) {
-                break;
+    /**
+     *  retrieve an object from cache without taking the lock of the cache.
+     *  The caller must exclude the concurrent modifications of the cache,
+     *  for instance with the read lock of the structure containing it.
+     *
+     *@param  key  key
+     *@return      object
+     */
+    public Object peek(Object key) {
+        CacheNode node = (CacheNode) nodes.get(key);
+        if (node != null) {
+            if (!node.referenced) {
+                node.referenced = true;
             }
+            return node.value;
+        }
+        return null;
+    }
+
+    /**
+     *  returns up to <code>size</code> values, most recently used first.
+     *
+     *@param  size  maximum number of values
+     *@return       iterator of the values
+     */
+    protected synchronized Iterator iterator(int size) {
+        List list = new ArrayList();
+        CacheNode node = first;
+        while ((node != null) && (list.size() < size)) {
+            list.add(node.value);
+            node = node.next;
         }
         return list.iterator();
     }
@@ -92,6 +152,19 @@ public class LRUCache {
         if (node == first) {
             return;
         }
+        unlink(node);
+        if (first != null) {
+            node.next = first;
+            first.prev = node;
+        }
+        first = node;
+        node.prev = null;
+        if (last == null) {
+            last = first;
+        }
+    }
+
+    private void unlink(CacheNode node) {
         if (node.prev != null) {
             node.prev.next = node.next;
         }
@@ -101,15 +174,11 @@ public class LRUCache {
         if (last == node) {
             last = node.prev;
         }
-        if (first != null) {
-            node.next = first;
-            first.prev = node;
+        if (first == node) {
+            first = node.next;
         }
-        first = node;
+        node.next = null;
         node.prev = null;
-        if (last == null) {
-            last = first;
-        }
     }
 
     /**
@@ -117,24 +186,46 @@ public class LRUCache {
      *
      *@param  key    key to store value by
      *@param  value  object to insert
+     *@return        the previous value stored by this key or null
      */
-    public void put(Object key, Object value) {
-        CacheNode node = (CacheNode) nodes.get(key);
-        if (node == null) {
-            if (currentSize >= cacheSize) {
-                if (last != null) {
-                    nodes.remove(last.key);
+    public Object put(Object key, Object value) {
+        CacheNode evicted = null;
+        Object previous = null;
+
+        synchronized (this) {
+            CacheNode node = (CacheNode) nodes.get(key);
+            if (node == null) {
+                if (currentSize >= cacheSize) {
+                    evicted = last;
+                    // second chance for the entries which were peeked
+                    while ((evicted != null) && evicted.referenced) {
+                        evicted.referenced = false;
+                        moveToHead(evicted);
+                        evicted = last;
+                    }
+                    if (evicted != null) {
+                        nodes.remove(evicted.key);
+                        unlink(evicted);
+                    }
+                } else {
+                    currentSize++;
                 }
-                removeLast();
+                node = new CacheNode();
             } else {
-                currentSize++;
+                previous = node.value;
             }
-            node = new CacheNode();
+            node.value = value;
+            node.key = key;
+            node.referenced = false;
+            moveToHead(node);
+            nodes.put(key, node);
         }
-        node.value = value;
-        node.key = key;
-        moveToHead(node);
-        nodes.put(key, node);
+
+        // Notify outside of our lock
+        if ((evicted != null) && (listener != null)) {
+            listener.purged(evicted);
+        }
+        return previous;
     }
 
     /**
@@ -143,53 +234,49 @@ public class LRUCache {
      *@param  key  key
      *@return      Object removed
      */
-    public Object remove(Object key) {
-        CacheNode node = (CacheNode) nodes.get(key);
+    public synchronized Object remove(Object key) {
+        CacheNode node = (CacheNode) nodes.remove(key);
         if (node != null) {
-            if (node.prev != null) {
-                node.prev.next = node.next;
-            }
-            if (node.next != null) {
-                node.next.prev = node.prev;
-            }
-            if (last == node) {
-                last = node.prev;
-            }
-            if (first == node) {
-                first = node.next;
-            }
-        }
-        return node;
-    }
-
-    /**
-     *  removes the last enry from cache
-     */
-    private void removeLast() {
-        if (last != null) {
-            if (last.prev != null) {
-                last.prev.next = null;
-            } else {
-                first = null;
-            }
-            last = last.prev;
+            unlink(node);
+            currentSize--;
+            return node.value;
         }
+        return null;
     }
 
     /**
      *  cache node object wrapper
      */
-    protected class CacheNode {
+    protected class CacheNode implements CacheEntry {
         Object key;
         CacheNode next;
 
         CacheNode prev;
         Object value;
 
+        /**
+         *  Set by {@link #peek(Object)}, cleared when the node is moved to
+         *  the head of the list.
+         */
+        volatile boolean referenced;
+
         /**
          *  Constructor for the CacheNode object
          */
         CacheNode() { }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public Object getKey() {
+            return key;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public Object getValue() {
+            return value;
+        }
     }
 }
-
@@ -55,19 +55,15 @@
  */
 package net.jxta.impl.cm;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Iterator;
 import java.util.Random;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Vector;
 import net.jxta.credential.Credential;
 import net.jxta.document.MimeMediaType;
 import net.jxta.document.StructuredDocument;
 import net.jxta.id.ID;
-import net.jxta.id.IDFactory;
-import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
 import net.jxta.impl.protocol.SrdiMessageImpl;
 import net.jxta.impl.util.JxtaHash;
 import net.jxta.membership.MembershipService;
@@ -75,7 +71,6 @@ import net.jxta.peer.PeerID;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.protocol.RdvAdvertisement;
 import net.jxta.protocol.ResolverQueryMsg;
-import net.jxta.protocol.ResolverSrdiMsg;
 import net.jxta.protocol.SrdiMessage;
 import net.jxta.rendezvous.RendezvousEvent;
 import net.jxta.rendezvous.RendezvousListener;
@@ -219,7 +214,11 @@ public class Srdi implements Runnable, RendezvousListener {
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("[" + group.getPeerGroupName() + " / " + handlername + "] Forwarding Query to " + peer);
         }
-        resolver.sendQuery(peer.toString(), query);
+        if (peer instanceof ID) {
+            resolver.sendQuery((ID) peer, query);
+        } else {
+            resolver.sendQuery(peer.toString(), query);
+        }
     }
 
     /**
@@ -241,12 +240,11 @@ public class Srdi implements Runnable, RendezvousListener {
         }
         for (int i = 0; i < peers.size(); i++) {
             PeerID peer = (PeerID) peers.elementAt(i);
-            String destPeer = peer.toString();
 
             if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("[" + group.getPeerGroupName() + " / " + handlername + "] Forwarding Query to " + destPeer);
+                LOG.debug("[" + group.getPeerGroupName() + " / " + handlername + "] Forwarding Query to " + peer);
             }
-            resolver.sendQuery(destPeer, query);
+            resolver.sendQuery(peer, query);
         }
     }
 
@@ -276,16 +274,13 @@ public class Srdi implements Runnable, RendezvousListener {
                                       value,
                                       expiration);
 
-            ResolverSrdiMsgImpl resSrdi = new ResolverSrdiMsgImpl(handlername,
-                                                                  credential,
-                                                                  srdi.toString());
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("[" + group.getPeerGroupName() +
                           " / " + handlername +
                           "] Forwarding a SRDI messsage of type " + primaryKey + 
                           " to " + peerid);
             }
-            resolver.sendSrdi(peerid.toString(), (ResolverSrdiMsg) resSrdi);
+            SrdiBatcher.getSharedInstance().push(resolver, handlername, credential, peerid, srdi);
         } catch (Exception e) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("Failed forwarding SRDI Message", e);
@@ -304,7 +299,8 @@ public class Srdi implements Runnable, RendezvousListener {
     public Vector getGlobalPeerView() {
 
         Vector global = new Vector();
-        SortedSet set = new TreeSet();
+        // sorted by the string form of the ids, which the ids remember.
+        SortedMap sorted = new TreeMap();
 
         try {
             // get the local peerview
@@ -312,24 +308,16 @@ public class Srdi implements Runnable, RendezvousListener {
             Iterator eachPVE = rpv.iterator();
             while (eachPVE.hasNext()) {
                 RdvAdvertisement padv = (RdvAdvertisement) eachPVE.next();
-                set.add(padv.getPeerID().toString());
+                PeerID id = padv.getPeerID();
+                sorted.put(id.toString(), id);
             }
 
             // add myself
-            set.add(group.getPeerID().toString());
+            PeerID self = group.getPeerID();
+            sorted.put(self.toString(), self);
+
             // produce a vector of Peer IDs
-            Iterator eachPeerID = set.iterator();
-
-            while (eachPeerID.hasNext()) {
-                try {
-                    PeerID id = (PeerID) IDFactory.fromURI(new URI((String) eachPeerID.next()));
-                    global.add(id);
-                } catch (URISyntaxException badID) {
-                    throw new IllegalArgumentException("Bad PeerID ID in advertisement");
-                } catch (ClassCastException badID) {
-                    throw new IllegalArgumentException("ID was not a peerID");
-                }
-            }
+            global.addAll(sorted.values());
         } catch (Exception ex) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("Failure generating the global view", ex);
@@ -342,6 +330,7 @@ public class Srdi implements Runnable, RendezvousListener {
     /**
      *  Push an SRDI message to a peer ttl is 1, and therefore services
      *  receiving this message could choose to replicate this message
+     *  The message is sent with the next batch of the {@link SrdiBatcher}.
      *
      *@param  peer  peer to push message to, if peer is null it is the message
      *      is propagated
@@ -349,12 +338,7 @@ public class Srdi implements Runnable, RendezvousListener {
      */
     public void pushSrdi(ID peer, SrdiMessage srdi) {
         try {
-            ResolverSrdiMsg resSrdi = new ResolverSrdiMsgImpl(handlername, credential, srdi.toString());
-            if (peer == null) {
-                resolver.sendSrdi(null, resSrdi);
-            } else {
-                resolver.sendSrdi(peer.toString(), resSrdi);
-            }
+            SrdiBatcher.getSharedInstance().push(resolver, handlername, credential, peer, srdi);
         } catch (Exception e) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("Failed to send srdi message", e);
@@ -482,6 +466,8 @@ public class Srdi implements Runnable, RendezvousListener {
         }
         stop = true;
         group.getRendezVousService().removeListener(this);
+        // send what we have pushed before the group goes away.
+        SrdiBatcher.getSharedInstance().flush(resolver);
         // wakeup and die
         notify();
     }
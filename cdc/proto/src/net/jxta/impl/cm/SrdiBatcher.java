@@ -0,0 +1,479 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.credential.Credential;
+import net.jxta.id.ID;
+import net.jxta.peer.PeerID;
+import net.jxta.protocol.SrdiMessage;
+import net.jxta.resolver.ResolverService;
+
+import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
+import net.jxta.impl.protocol.SrdiMessageImpl;
+import net.jxta.impl.util.ScheduledTask;
+import net.jxta.impl.util.TimingWheel;
+
+/**
+ *  Accumulates the SRDI messages pushed by the services of all of the peer
+ *  groups and sends them in batches. The entries pushed during an interval
+ *  are merged so that a single SRDI message is sent per destination, handler,
+ *  primary key and source peer. When the same entry is pushed more than once
+ *  during the interval only the latest push, with its expiration, is sent.
+ *
+ *  <p/>The messages sent are standard SRDI messages so that the batches are
+ *  understood by any rendezvous.
+ *
+ *  <p/>The interval may be set with the system property
+ *  <code>net.jxta.impl.cm.SrdiBatcher.interval</code> in milliseconds.
+ *  An interval of 0 disables batching; each message is then sent as soon as
+ *  it is pushed.
+ */
+public final class SrdiBatcher {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(SrdiBatcher.class.getName());
+
+    /**
+     *  Default interval at which batches are sent in milliseconds.
+     */
+    private static final long DEFAULT_INTERVAL = 1000;
+
+    /**
+     *  The maximum number of entries sent in a single SRDI message. Larger
+     *  batches are split.
+     */
+    private static final int MAX_ENTRIES_PER_MESSAGE = 500;
+
+    /**
+     *  The batcher shared by the services of this peer.
+     */
+    private static SrdiBatcher sharedBatcher = null;
+
+    /**
+     *  The interval at which batches are sent in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     *  The wheel on which the sending of batches is scheduled.
+     */
+    private final TimingWheel wheel;
+
+    /**
+     *  The pending batches.
+     *
+     *  <ul>
+     *      <li>keys are {@link BatchKey}</li>
+     *      <li>values are {@link Batch}</li>
+     *  </ul>
+     */
+    private Map batches = new HashMap();
+
+    /**
+     *  The task which will send the pending batches or <code>null</code> if
+     *  none is scheduled.
+     */
+    private FlushTask flushTask = null;
+
+    /**
+     *  Number of messages pushed.
+     */
+    private long pushed = 0;
+
+    /**
+     *  Number of SRDI messages sent.
+     */
+    private long sent = 0;
+
+    /**
+     *  Returns the batcher shared by the services of this peer.
+     *
+     *  @return the batcher shared by the services of this peer.
+     */
+    public static synchronized SrdiBatcher getSharedInstance() {
+        if (null == sharedBatcher) {
+            long interval = DEFAULT_INTERVAL;
+
+            try {
+                String intervalStr = System.getProperty("net.jxta.impl.cm.SrdiBatcher.interval");
+
+                if (null != intervalStr) {
+                    interval = Long.parseLong(intervalStr.trim());
+                }
+
+                if (interval < 0) {
+                    throw new IllegalArgumentException("SRDI batch interval must be >= 0");
+                }
+            } catch (Exception e) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Could not parse SRDI batch interval system property, using default", e);
+                }
+
+                interval = DEFAULT_INTERVAL;
+            }
+
+            sharedBatcher = new SrdiBatcher(interval, TimingWheel.getSharedInstance());
+        }
+
+        return sharedBatcher;
+    }
+
+    /**
+     *  Creates a new batcher.
+     *
+     *  @param interval the interval at which batches are sent in milliseconds.
+     *  @param wheel the wheel on which the sending of batches is scheduled.
+     */
+    SrdiBatcher(long interval, TimingWheel wheel) {
+        this.interval = interval;
+        this.wheel = wheel;
+    }
+
+    /**
+     *  Push an SRDI message. The message is sent with the next batch.
+     *
+     *  @param resolver the resolver through which the message is sent.
+     *  @param handlerName the SRDI handler name.
+     *  @param credential the credential to send with the message.
+     *  @param dest the destination peer or <code>null</code> to propagate.
+     *  @param srdi the message.
+     */
+    public void push(ResolverService resolver, String handlerName, Credential credential, ID dest, SrdiMessage srdi) {
+        if (0 == interval) {
+            synchronized (this) {
+                pushed++;
+                sent++;
+            }
+
+            send(resolver, handlerName, credential, dest, srdi);
+            return;
+        }
+
+        BatchKey key = new BatchKey(resolver, handlerName, dest, srdi.getPrimaryKey(), srdi.getPeerID(), srdi.getTTL());
+
+        synchronized (this) {
+            pushed++;
+
+            Batch batch = (Batch) batches.get(key);
+
+            if (null == batch) {
+                batch = new Batch();
+                batches.put(key, batch);
+            }
+
+            batch.credential = credential;
+
+            Iterator eachEntry = srdi.getEntries().iterator();
+
+            while (eachEntry.hasNext()) {
+                SrdiMessage.Entry entry = (SrdiMessage.Entry) eachEntry.next();
+
+                // entries are equal regardless of their expiration; replace
+                // any earlier push of the same entry.
+                batch.entries.remove(entry);
+                batch.entries.put(entry, entry);
+            }
+
+            if (null == flushTask) {
+                flushTask = new FlushTask();
+                wheel.schedule(flushTask, interval);
+            }
+        }
+    }
+
+    /**
+     *  Send all of the pending batches now.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     *  Send the pending batches of a resolver now.
+     *
+     *  @param resolver the resolver or <code>null</code> for all the
+     *  resolvers.
+     */
+    public void flush(ResolverService resolver) {
+        Map sending;
+
+        synchronized (this) {
+            if (batches.isEmpty()) {
+                return;
+            }
+
+            if (null == resolver) {
+                sending = batches;
+                batches = new HashMap();
+
+                if (null != flushTask) {
+                    flushTask.cancel();
+                    flushTask = null;
+                }
+            } else {
+                sending = new HashMap();
+
+                Iterator eachBatch = batches.entrySet().iterator();
+
+                while (eachBatch.hasNext()) {
+                    Map.Entry anEntry = (Map.Entry) eachBatch.next();
+
+                    if (((BatchKey) anEntry.getKey()).resolver == resolver) {
+                        sending.put(anEntry.getKey(), anEntry.getValue());
+                        eachBatch.remove();
+                    }
+                }
+            }
+        }
+
+        Iterator eachBatch = sending.entrySet().iterator();
+
+        while (eachBatch.hasNext()) {
+            Map.Entry anEntry = (Map.Entry) eachBatch.next();
+            BatchKey key = (BatchKey) anEntry.getKey();
+            Batch batch = (Batch) anEntry.getValue();
+            List entries = new ArrayList(batch.entries.values());
+
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("Sending " + entries.size() + " SRDI entries of type " + key.primaryKey + " for " + key.handlerName
+                          + " to " + ((null == key.dest) ? "propagate" : key.dest.toString()));
+            }
+
+            for (int from = 0; from < entries.size(); from += MAX_ENTRIES_PER_MESSAGE) {
+                List some = entries.subList(from, Math.min(entries.size(), from + MAX_ENTRIES_PER_MESSAGE));
+                SrdiMessage srdi = new SrdiMessageImpl(key.peerID, key.ttl, key.primaryKey, new ArrayList(some));
+
+                synchronized (this) {
+                    sent++;
+                }
+
+                send(key.resolver, key.handlerName, batch.credential, key.dest, srdi);
+            }
+        }
+    }
+
+    private void send(ResolverService resolver, String handlerName, Credential credential, ID dest, SrdiMessage srdi) {
+        try {
+            resolver.sendSrdi(dest, new ResolverSrdiMsgImpl(handlerName, credential, srdi.toString()));
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Failed to send srdi message", e);
+            }
+        }
+    }
+
+    /**
+     *  Returns the number of SRDI messages pushed.
+     *
+     *  @return the number of SRDI messages pushed.
+     */
+    public synchronized long getPushedCount() {
+        return pushed;
+    }
+
+    /**
+     *  Returns the number of SRDI messages sent.
+     *
+     *  @return the number of SRDI messages sent.
+     */
+    public synchronized long getSentCount() {
+        return sent;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized String toString() {
+        return "SrdiBatcher[interval=" + interval + " pending=" + batches.size() + " pushed=" + pushed + " sent=" + sent + "]";
+    }
+
+    /**
+     *  Sends the pending batches.
+     */
+    private class FlushTask extends ScheduledTask {
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>Sending the batches goes through the resolver and the endpoint.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            synchronized (SrdiBatcher.this) {
+                if (this != flushTask) {
+                    return;
+                }
+
+                flushTask = null;
+            }
+
+            try {
+                flush();
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.ERROR)) {
+                    LOG.error("Uncaught Throwable sending SRDI batches", all);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Identifies the SRDI messages which may be merged.
+     */
+    private static final class BatchKey {
+
+        final ResolverService resolver;
+
+        final String handlerName;
+
+        final ID dest;
+
+        final String primaryKey;
+
+        final PeerID peerID;
+
+        final int ttl;
+
+        BatchKey(ResolverService resolver, String handlerName, ID dest, String primaryKey, PeerID peerID, int ttl) {
+            this.resolver = resolver;
+            this.handlerName = handlerName;
+            this.dest = dest;
+            this.primaryKey = primaryKey;
+            this.peerID = peerID;
+            this.ttl = ttl;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public boolean equals(Object target) {
+            if (this == target) {
+                return true;
+            }
+
+            if (!(target instanceof BatchKey)) {
+                return false;
+            }
+
+            BatchKey likeMe = (BatchKey) target;
+
+            return (resolver == likeMe.resolver) && (ttl == likeMe.ttl) && same(handlerName, likeMe.handlerName)
+                   && same(dest, likeMe.dest) && same(primaryKey, likeMe.primaryKey) && same(peerID, likeMe.peerID);
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public int hashCode() {
+            int result = System.identityHashCode(resolver) ^ ttl;
+
+            if (null != handlerName) {
+                result = 31 * result + handlerName.hashCode();
+            }
+
+            if (null != dest) {
+                result = 31 * result + dest.hashCode();
+            }
+
+            if (null != primaryKey) {
+                result = 31 * result + primaryKey.hashCode();
+            }
+
+            return result;
+        }
+
+        private static boolean same(Object one, Object other) {
+            return (null == one) ? (null == other) : one.equals(other);
+        }
+    }
+
+    /**
+     *  The entries of a batch.
+     */
+    private static final class Batch {
+
+        /**
+         *  The credential most recently provided for the batch.
+         */
+        Credential credential = null;
+
+        /**
+         *  The entries in the order they were pushed. Keys and values are the
+         *  same {@link SrdiMessage.Entry}.
+         */
+        final Map entries = new LinkedHashMap();
+    }
+}
@@ -59,11 +59,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.NoSuchElementException;
 import java.util.ResourceBundle;
@@ -87,6 +90,7 @@ import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
 import net.jxta.impl.cm.Cm;
 import net.jxta.impl.cm.Srdi;
+import net.jxta.impl.peergroup.ModuleDependencies;
 import net.jxta.impl.peergroup.StdPeerGroup;
 import net.jxta.impl.protocol.DiscoveryConfigAdv;
 import net.jxta.impl.protocol.DiscoveryQuery;
@@ -99,6 +103,7 @@ import net.jxta.membership.MembershipService;
 import net.jxta.peer.PeerID;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
 import net.jxta.protocol.ConfigParams;
 import net.jxta.protocol.DiscoveryQueryMsg;
 import net.jxta.protocol.ModuleImplAdvertisement;
@@ -147,6 +152,7 @@ import org.apache.log4j.Logger;
 public class DiscoveryServiceImpl implements DiscoveryService,
             QueryHandler,
             RendezvousListener,
+            ModuleDependencies,
     Srdi.SrdiInterface {
 
     /**
@@ -174,6 +180,26 @@ public class DiscoveryServiceImpl implements DiscoveryService,
      */
     private final int MAX_RESPONSES = 50;
 
+    /**
+     *  The maximum number of responses kept in the response cache.
+     */
+    private final static int MAX_CACHED_RESPONSES = 64;
+
+    /**
+     *  Search results of recent queries, least recently used first.
+     *
+     *  <p/><ul>
+     *      <li>Keys are a {@link java.util.List} of the query type,
+     *      attribute, value and threshold</li>
+     *      <li>Values are {@link CachedResponse}</li>
+     *  </ul>
+     */
+    private final Map responseCache = new LinkedHashMap(16, 0.75f, true) {
+                                          protected boolean removeEldestEntry(Map.Entry eldest) {
+                                              return size() > MAX_CACHED_RESPONSES;
+                                          }
+                                      };
+
     private PeerGroup group = null;
 
     /**
@@ -410,6 +436,13 @@ public class DiscoveryServiceImpl implements DiscoveryService,
         }
     }
 
+    /**
+     *  {@inheritDoc}
+     */
+    public ModuleClassID[] getStartDependencies() {
+        return new ModuleClassID[] {PeerGroup.resolverClassID, PeerGroup.rendezvousClassID};
+    }
+
     /**
      *  {@inheritDoc}
      */
@@ -554,15 +587,13 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                 LOG.debug("Flushing adv " + advName + " of type " + dirname[type]);
             }
         } else {
-            StructuredDocument doc;
             try {
-                doc = (StructuredDocument) adv.getDocument(MimeMediaType.XMLUTF8);
+                advName = Cm.createTmpName(adv);
             } catch (Exception everything) {
                 IOException failure = new IOException("Failure removing Advertisement");
                 failure.initCause(everything);
                 throw failure;
             }
-            advName = Cm.createTmpName(doc);
         }
         if (advName != null) {
             cm.remove(dirname[type], advName);
@@ -623,10 +654,8 @@ public class DiscoveryServiceImpl implements DiscoveryService,
 
         // if we dont have a unique id for the adv, use the hash method
         if ((null == advID) || advID.equals(ID.nullID)) {
-            StructuredDocument doc;
-
             try {
-                doc = (StructuredDocument) adv.getDocument(MimeMediaType.XMLUTF8);
+                advName = Cm.createTmpName(adv);
             } catch (Exception everything) {
                 if (LOG.isEnabledFor(Level.WARN)) {
                     LOG.warn("Failed to generated document from advertisement", everything);
@@ -635,8 +664,6 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                 failure.initCause(everything);
                 throw failure;
             }
-
-            advName = Cm.createTmpName(doc);
         } else {
             advName = advID.getUniqueValue().toString();
         }
@@ -830,14 +857,36 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                 LOG.debug("Responding to query #" + query.getQueryId() + " in :" + (System.currentTimeMillis() - t0));
             }
             return ResolverService.OK;
-        } else {
-            if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("start local search query" + dq.getAttr() + " " + dq.getValue());
-            }
-            results = search(dq.getDiscoveryType(), dq.getAttr(), dq.getValue(), thresh, true, expirations);
+        }
+
+        if (dq.getDiscoveryType() == PEER) {
+            // may republish our peer advertisement
+            checkUpdatePeerAdv();
+        }
+
+        List key = Arrays.asList(new Object[] {
+                                     new Integer(dq.getDiscoveryType()), dq.getAttr(), dq.getValue(), new Integer(thresh)
+                                 });
+        int generation = cm.getGeneration();
+        long now = TimeUtils.timeNow();
+        CachedResponse cached = getCachedResponse(key, generation, now);
+
+        if (null != cached) {
+            respond(query, dq, cached.results, cached.getExpirations(now));
             if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("start local search pruned " + results.size());
+                LOG.debug("Responded to query #" + query.getQueryId() + " from cache in :" + (System.currentTimeMillis() - t0));
             }
+            return ResolverService.OK;
+        }
+
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("start local search query" + dq.getAttr() + " " + dq.getValue());
+        }
+        Vector lifetimes = new Vector();
+
+        results = search(dq.getDiscoveryType(), dq.getAttr(), dq.getValue(), thresh, true, expirations, lifetimes);
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("start local search pruned " + results.size());
         }
 
         /*
@@ -848,7 +897,18 @@ public class DiscoveryServiceImpl implements DiscoveryService,
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Responding to " + dirname[dq.getDiscoveryType()] + " Query : " + dq.getAttr() + " = " + dq.getValue());
             }
-            respond(query, dq, results, expirations);
+            CachedResponse response = new CachedResponse(results, expirations, lifetimes, generation);
+            Vector remaining = response.getExpirations(TimeUtils.timeNow());
+
+            if (null != remaining) {
+                synchronized (responseCache) {
+                    responseCache.put(key, response);
+                }
+            } else {
+                // an advertisement expired while we searched; answer anyway
+                remaining = expirations;
+            }
+            respond(query, dq, results, remaining);
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Responded to query #" + query.getQueryId() + " in :" + (System.currentTimeMillis() - t0));
             }
@@ -862,7 +922,19 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                          Vector results,
                          Vector expirations) {
 
-        ResolverResponseMsg response;
+        respond(query, makeResponse(dq, results, expirations));
+    }
+
+    /**
+     *  Returns the serialized discovery response to a query.
+     *
+     * @param  dq           the query
+     * @param  results      the matching advertisements as Strings
+     * @param  expirations  the expirations of the advertisements
+     * @return              the discovery response as XML
+     */
+    private String makeResponse(DiscoveryQuery dq, Vector results, Vector expirations) {
+
         DiscoveryResponse dresponse = new DiscoveryResponse();
 
         // peer adv is optional, skip
@@ -872,10 +944,50 @@ public class DiscoveryServiceImpl implements DiscoveryService,
         dresponse.setResponses(results);
         dresponse.setExpirations(expirations);
 
+        return dresponse.toString();
+    }
+
+    /**
+     *  Returns the cached search results for a query if they are still valid.
+     *  Results are no longer valid once the cm has changed or once the
+     *  lifetime of any of the advertisements has ended.
+     *
+     * @param  key         the query type, attribute, value and threshold
+     * @param  generation  the current generation of the cm
+     * @param  now         the current time
+     * @return             the cached results or null if there are no valid
+     *                     cached results
+     */
+    private CachedResponse getCachedResponse(List key, int generation, long now) {
+
+        synchronized (responseCache) {
+            CachedResponse cached = (CachedResponse) responseCache.get(key);
+
+            if (null == cached) {
+                return null;
+            }
+
+            if ((cached.generation != generation) || (null == cached.getExpirations(now))) {
+                responseCache.remove(key);
+                return null;
+            }
+
+            return cached;
+        }
+    }
+
+    /**
+     *  Sends a serialized discovery response to a query.
+     *
+     * @param  query      the query
+     * @param  dresponse  the discovery response as XML
+     */
+    private void respond(ResolverQueryMsg query, String dresponse) {
+
         // create a response from the query
-        response = query.makeResponse();
+        ResolverResponseMsg response = query.makeResponse();
         //response.setCredential(credentialDoc);
-        response.setResponse(dresponse.toString());
+        response.setResponse(dresponse);
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("Responding to " + query.getSrc());
@@ -958,6 +1070,30 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                           int threshold,
                           boolean bytes,
                           Vector expirations) {
+        return search(type, attr, value, threshold, bytes, expirations, null);
+    }
+
+    /**
+     *  Search for a doc, that matches attr, and value, also returning the
+     *  absolute time at which the lifetime of each result ends.
+     *
+     * @param  type         Discovery type PEER, GROUP, ADV
+     * @param  attr         attribute name to narrow disocvery to or null
+     * @param  value        Value
+     * @param  threshold    the upper limit of responses from one peer
+     * @param  bytes        flag to indicate how the results are returned-- advs, or bytes
+     * @param  expirations  vector containing the expirations associated with is returned
+     * @param  lifetimes    if not null, receives the lifetimes associated with
+     *                      is returned
+     * @return              vector of results either as docs, or Strings
+     */
+    private Vector search(int type,
+                          String attr,
+                          String value,
+                          int threshold,
+                          boolean bytes,
+                          Vector expirations,
+                          Vector lifetimes) {
 
         if( type == PEER ) {
             checkUpdatePeerAdv();
@@ -973,18 +1109,22 @@ public class DiscoveryServiceImpl implements DiscoveryService,
             expirations.clear();
         }
 
+        if (lifetimes != null) {
+            lifetimes.clear();
+        }
+
         if (attr != null) {
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Searching for " + threshold + " entries of type : " + dirname[type]);
             }
             // a discovery query with a specific search criteria.
-            results = cm.search(dirname[type], attr, value, threshold, expirations);
+            results = cm.search(dirname[type], attr, value, threshold, expirations, lifetimes, bytes);
         } else {
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Getting " + threshold + " entries of type : " + dirname[type]);
             }
             // Returning any entry that exists
-            results = cm.getRecords(dirname[type], threshold, expirations, bytes);
+            results = cm.getRecords(dirname[type], threshold, expirations, lifetimes, bytes);
         }
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -1051,16 +1191,14 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                 LOG.debug("attempting to getAdvExpirationTime on " + advName + " of type " + dirname[type]);
             }
         } else {
-            StructuredDocument doc;
             try {
-                doc = (StructuredDocument) adv.getDocument(MimeMediaType.XMLUTF8);
+                advName = Cm.createTmpName(adv);
             } catch (Exception everything) {
                 if (LOG.isEnabledFor(Level.WARN)) {
                     LOG.warn("Failed to get document", everything);
                 }
                 return -1;
             }
-            advName = Cm.createTmpName(doc);
         }
         return cm.getExpirationtime(dirname[type], advName);
     }
@@ -1080,17 +1218,14 @@ public class DiscoveryServiceImpl implements DiscoveryService,
                 LOG.debug("attempting to getAdvLifeTime " + advName + " of type " + dirname[type]);
             }
         } else {
-            StructuredDocument doc;
-
             try {
-                doc = (StructuredDocument) adv.getDocument(MimeMediaType.XMLUTF8);
+                advName = Cm.createTmpName(adv);
             } catch (Exception everything) {
                 if (LOG.isEnabledFor(Level.WARN)) {
                     LOG.warn("Failed to get document", everything);
                 }
                 return -1;
             }
-            advName = Cm.createTmpName(doc);
         }
         return cm.getLifetime(dirname[type], advName);
     }
@@ -1276,4 +1411,50 @@ public class DiscoveryServiceImpl implements DiscoveryService,
             LOG.info("Switched to a Edge peer role.");
         }
     }
+
+    /**
+     *  The search results for a query and the cm generation they were
+     *  computed from. The expirations are not cached as they were sent but
+     *  recomputed from the lifetimes of the advertisements for each response.
+     */
+    private static class CachedResponse {
+        final Vector results;
+        final long[] expirations;
+        final long[] lifetimes;
+        final int generation;
+
+        CachedResponse(Vector results, Vector expirations, Vector lifetimes, int generation) {
+            this.results = new Vector(results);
+            this.expirations = new long[expirations.size()];
+            this.lifetimes = new long[lifetimes.size()];
+            for (int each = 0; each < this.expirations.length; each++) {
+                this.expirations[each] = ((Long) expirations.get(each)).longValue();
+                this.lifetimes[each] = ((Long) lifetimes.get(each)).longValue();
+            }
+            this.generation = generation;
+        }
+
+        /**
+         *  Returns the expirations of the results at the given time, each
+         *  the cache expiration or the remaining lifetime of the
+         *  advertisement, whichever is less.
+         *
+         * @param  now  the current time
+         * @return      the expirations as Longs or null if the lifetime of any
+         *              of the advertisements has ended
+         */
+        Vector getExpirations(long now) {
+            Vector current = new Vector(expirations.length);
+
+            for (int each = 0; each < expirations.length; each++) {
+                long remaining = TimeUtils.toRelativeTimeMillis(lifetimes[each], now);
+
+                if (remaining <= 0) {
+                    return null;
+                }
+                current.add(new Long(Math.min(expirations[each], remaining)));
+            }
+            return current;
+        }
+    }
 }
@@ -0,0 +1,509 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.io.IOException;
+
+import net.jxta.document.Attribute;
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.StructuredDocumentFactory;
+
+
+/**
+ * A compact binary encoding of XML documents. The element model is that of
+ * {@link PullXMLDocument} and the documents may be used wherever an XML
+ * document is expected; only the byte form produced by {@link #getStream()}
+ * and {@link #sendToStream(OutputStream)} differs. The text form returned by
+ * {@link #toString()} and {@link #getReader()} remains XML.
+ *
+ * <p/>The encoding is :
+ *
+ * <pre>
+ *    document  := 'J' 'X' 'B' version dictionary doctype element
+ *    element   := symbol attrCount (symbol string)* text childCount element*
+ *    symbol    := varint
+ *    string    := varint(length) UTF-8 bytes
+ *    text      := varint(0) | varint(length + 1) UTF-8 bytes
+ *    doctype   := text
+ * </pre>
+ *
+ * <p/>Element and attribute names are symbols. Symbols below the size of the
+ * dictionary refer to the dictionary entries, the next value introduces a new
+ * name, given as a string, and larger values refer to the names introduced
+ * earlier in the document in order. The dictionary is selected by the
+ * encoder from the name of the root element so that the tags of the standard
+ * advertisements and resolver messages are never spelled out.
+ *
+ * <p/>Whitespace which only serves to indent the XML text form is not
+ * encoded.
+ **/
+public class BinaryXMLDocument extends PullXMLDocument {
+    
+    private final static class Instantiator implements StructuredDocumentFactory.Instantiator {
+        
+        private static final MimeMediaType[] myTypes = { MIMETYPE };
+        
+        // these are the file extensions which are likely to contain files of
+        // the type i like.
+        private static final ExtensionMapping[] myExtensions = {
+            new ExtensionMapping("jxb", myTypes[0])
+        };
+        
+        /**
+         * Creates new BinaryXMLDocumentInstantiator
+         **/
+        public Instantiator() {}
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public MimeMediaType[] getSupportedMimeTypes() {
+            return(myTypes);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public ExtensionMapping[] getSupportedFileExtensions() {
+            return(myExtensions);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, String doctype) {
+            return new BinaryXMLDocument(mimeType, doctype, null);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, String doctype, String value) {
+            return new BinaryXMLDocument(mimeType, doctype, value);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, InputStream source) throws IOException {
+            return new BinaryXMLDocument(mimeType, source);
+        }
+    }
+    
+    /**
+     *  The mime type of binary encoded XML documents.
+     **/
+    public static final MimeMediaType MIMETYPE = new MimeMediaType("application", "x-jxta-bxml");
+    
+    /**
+     *  The instantiator for instances of our documents.
+     **/
+    public static final StructuredDocumentFactory.Instantiator INSTANTIATOR = new Instantiator();
+    
+    /**
+     *  The version of the encoding.
+     **/
+    private static final int VERSION = 1;
+    
+    /**
+     *  The longest string we will accept.
+     **/
+    private static final int MAX_STRING = 1 << 22;
+    
+    /**
+     *  The deepest element nesting we will accept.
+     **/
+    private static final int MAX_DEPTH = 256;
+    
+    /**
+     *  Names which are common to all dictionaries.
+     **/
+    private static final String[] COMMON_NAMES = {
+        "xmlns:jxta", "type", "Name", "Desc", "PID", "jxta:RA", "DstPID", "Dst", "Hops", "jxta:APA", "EA"
+    };
+    
+    /**
+     *  The dictionaries. Dictionary 0 contains only the common names. The
+     *  first name of the other dictionaries is the name of the root element
+     *  for which they are used. The contents of the dictionaries are part of
+     *  the encoding and must never be changed, new dictionaries may be added.
+     **/
+    private static final String[][] DICTIONARIES = {
+        COMMON_NAMES,
+        withCommon(new String[] { "jxta:PA", "GID", "Svc", "MCID", "Parm", "isOff" }),
+        withCommon(new String[] { "jxta:RA" }),
+        withCommon(new String[] { "jxta:PipeAdvertisement", "Id", "Type" }),
+        withCommon(new String[] { "jxta:RdvAdvertisement", "RdvGroupId", "RdvPeerId", "RdvServiceName", "RdvRoute" }),
+        withCommon(new String[] { "jxta:ResolverQuery", "HandlerName", "jxta:Cred", "QueryID", "HC", "SrcPeerID", "SrcPeerRoute", "Query" }),
+        withCommon(new String[] { "jxta:ResolverResponse", "HandlerName", "jxta:Cred", "QueryID", "Response" })
+    };
+    
+    /**
+     *  Maps the root element names to dictionary indexes.
+     **/
+    private static final Map dictionaryForRoot = new HashMap();
+    
+    static {
+        for (int eachDict = 1; eachDict < DICTIONARIES.length; eachDict++) {
+            dictionaryForRoot.put(DICTIONARIES[eachDict][COMMON_NAMES.length], new Integer(eachDict));
+        }
+    }
+    
+    /**
+     *  Creates new BinaryXMLDocument with a textValue in the root element
+     **/
+    BinaryXMLDocument(MimeMediaType mimeType, String type, String textValue) {
+        super(mimeType, type, textValue);
+    }
+    
+    /**
+     *  Creates new BinaryXMLDocument from its binary encoding.
+     **/
+    BinaryXMLDocument(MimeMediaType mimeType, InputStream in) throws IOException {
+        super(mimeType);
+        
+        decode(new DataInputStream(new BufferedInputStream(in)));
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String getFileExtension() {
+        return TextDocumentCommon.Utils.getExtensionForMime(INSTANTIATOR.getSupportedFileExtensions(), getMimeType());
+    }
+    
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>Returns the binary encoding of the document.
+     **/
+    public InputStream getStream() throws IOException {
+        return new ByteArrayInputStream(encode());
+    }
+    
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>Sends the binary encoding of the document.
+     **/
+    public void sendToStream(OutputStream stream) throws IOException {
+        stream.write(encode());
+        stream.flush();
+    }
+    
+    /**
+     *  Returns the binary encoding of this document.
+     *
+     *  @return the binary encoding of this document.
+     **/
+    protected byte[] encode() throws IOException {
+        Encoder encoder = new Encoder(getName());
+        
+        encoder.out.write('J');
+        encoder.out.write('X');
+        encoder.out.write('B');
+        encoder.out.write(VERSION);
+        writeVarInt(encoder.out, encoder.dictionary);
+        writeText(encoder.out, getDocType());
+        
+        encoder.encodeElement(this, false);
+        
+        return encoder.out.toByteArray();
+    }
+    
+    private void decode(DataInputStream in) throws IOException {
+        if (('J' != in.readUnsignedByte()) || ('X' != in.readUnsignedByte()) || ('B' != in.readUnsignedByte())) {
+            throw new IOException("Not a binary XML document");
+        }
+        
+        int version = in.readUnsignedByte();
+        
+        if (VERSION != version) {
+            throw new IOException("Unsupported binary XML version : " + version);
+        }
+        
+        int dictionary = readVarInt(in);
+        
+        if (dictionary >= DICTIONARIES.length) {
+            throw new IOException("Unknown binary XML dictionary : " + dictionary);
+        }
+        
+        String docType = readText(in);
+        
+        startTable();
+        
+        decodeElement(in, DICTIONARIES[dictionary], new ArrayList(), -1, -1, 0);
+        
+        endTable(docType);
+    }
+    
+    private int decodeElement(DataInputStream in, String[] dictionary, List introduced, int parentNode, int previousSibling, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Binary XML document nested too deeply");
+        }
+        
+        int added = addNode(readSymbol(in, dictionary, introduced), parentNode, previousSibling);
+        
+        int attrs = readVarInt(in);
+        
+        for (int eachAttr = 0; eachAttr < attrs; eachAttr++) {
+            String attrName = readSymbol(in, dictionary, introduced);
+            
+            addNodeAttribute(added, attrName, readString(in));
+        }
+        
+        texts[added] = readText(in);
+        
+        int kids = readVarInt(in);
+        int lastChild = -1;
+        
+        for (int eachChild = 0; eachChild < kids; eachChild++) {
+            lastChild = decodeElement(in, dictionary, introduced, added, lastChild, depth + 1);
+        }
+        
+        return added;
+    }
+    
+    /**
+     *  Builds the binary encoding of a document.
+     **/
+    private static class Encoder {
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        
+        final int dictionary;
+        
+        /**
+         *  Maps names to their symbols.
+         **/
+        private final Map symbols = new HashMap();
+        
+        private int nextSymbol;
+        
+        Encoder(String rootName) {
+            Integer forRoot = (Integer) dictionaryForRoot.get(rootName);
+            
+            dictionary = (null == forRoot) ? 0 : forRoot.intValue();
+            
+            String[] names = DICTIONARIES[dictionary];
+            
+            for (int eachName = 0; eachName < names.length; eachName++) {
+                symbols.put(names[eachName], new Integer(eachName));
+            }
+            
+            // the symbol which introduces a new name.
+            nextSymbol = names.length + 1;
+        }
+        
+        void encodeElement(PullXMLElement element, boolean preserve) throws IOException {
+            writeSymbol(element.getName());
+            
+            List attrs = element.attributes();
+            
+            writeVarInt(out, attrs.size() / 2);
+            
+            for (Iterator eachAttr = attrs.iterator(); eachAttr.hasNext();) {
+                writeSymbol((String) eachAttr.next());
+                writeString(out, (String) eachAttr.next());
+            }
+            
+            writeText(out, preserve ? element.text : element.getTextValue());
+            
+            Attribute space = element.getAttribute("xml:space");
+            boolean childPreserve = (null != space) ? "preserve".equals(space.getValue()) : preserve;
+            
+            List kids = element.children();
+            
+            writeVarInt(out, kids.size());
+            
+            for (Iterator eachChild = kids.iterator(); eachChild.hasNext();) {
+                encodeElement((PullXMLElement) eachChild.next(), childPreserve);
+            }
+        }
+        
+        private void writeSymbol(String name) throws IOException {
+            Integer symbol = (Integer) symbols.get(name);
+            
+            if (null != symbol) {
+                writeVarInt(out, symbol.intValue());
+            } else {
+                writeVarInt(out, DICTIONARIES[dictionary].length);
+                writeString(out, name);
+                symbols.put(name, new Integer(nextSymbol++));
+            }
+        }
+    }
+    
+    private static String readSymbol(DataInputStream in, String[] dictionary, List introduced) throws IOException {
+        int symbol = readVarInt(in);
+        
+        if (symbol < dictionary.length) {
+            return dictionary[symbol];
+        }
+        
+        if (symbol == dictionary.length) {
+            String name = readString(in);
+            
+            introduced.add(name);
+            return name;
+        }
+        
+        symbol -= dictionary.length + 1;
+        
+        if (symbol >= introduced.size()) {
+            throw new IOException("Undefined binary XML symbol");
+        }
+        
+        return (String) introduced.get(symbol);
+    }
+    
+    private static void writeString(ByteArrayOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        return readBytes(in, readVarInt(in));
+    }
+    
+    private static void writeText(ByteArrayOutputStream out, String value) throws IOException {
+        if (null == value) {
+            writeVarInt(out, 0);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            
+            writeVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+    
+    private static String readText(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        
+        if (0 == length) {
+            return null;
+        }
+        
+        return readBytes(in, length - 1);
+    }
+    
+    private static String readBytes(DataInputStream in, int length) throws IOException {
+        if (length > MAX_STRING) {
+            throw new IOException("Binary XML string too long : " + length);
+        }
+        
+        byte[] bytes = new byte[length];
+        
+        in.readFully(bytes);
+        
+        return new String(bytes, "UTF-8");
+    }
+    
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        
+        out.write(value);
+    }
+    
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        
+        for (int shift = 0; shift < 32; shift += 7) {
+            int each = in.readUnsignedByte();
+            
+            result |= (each & 0x7F) << shift;
+            
+            if (0 == (each & 0x80)) {
+                if (result < 0) {
+                    break;
+                }
+                return result;
+            }
+        }
+        
+        throw new IOException("Invalid binary XML integer");
+    }
+    
+    private static String[] withCommon(String[] names) {
+        String[] result = new String[COMMON_NAMES.length + names.length];
+        
+        System.arraycopy(COMMON_NAMES, 0, result, 0, COMMON_NAMES.length);
+        System.arraycopy(names, 0, result, COMMON_NAMES.length, names.length);
+        
+        return result;
+    }
+}
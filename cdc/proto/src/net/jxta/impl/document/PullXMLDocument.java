@@ -0,0 +1,650 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.document.TextElement;
+
+
+/**
+ * An implementation of the StructuredDocument interface for XML documents
+ * which is built with a single pass of an event based parser.
+ *
+ * <p/>Unlike {@link LiteXMLDocument} the source text is never retained. The
+ * parser records each element in a compact node table (name, text, attributes
+ * and the indexes of its first child and next sibling) as the source is read.
+ * Element objects are only created from the table when the children of their
+ * parent are first accessed so that the parts of a document which are never
+ * examined cost little more than their text. Modifications are made to the
+ * element objects and never require rescanning or shifting of the document.
+ *
+ * <p/>Documents are written in the same layout as {@link LiteXMLDocument}.
+ * Since the source text is not kept, text is always written from its decoded
+ * value: '&amp;' and '&lt;' are escaped, '&gt;' is left as is, references in
+ * the source are not reproduced as written and CDATA sections are written as
+ * escaped text. Attribute values are decoded when read and escaped when
+ * written.
+ **/
+public class PullXMLDocument extends PullXMLElement implements XMLDocumentCommon {
+    
+    private final static class Instantiator implements StructuredDocumentFactory.TextInstantiator {
+        
+        // "x-" is a mime-type convention for indicating partial or provisional
+        // compliance to a standard
+        private static final MimeMediaType[] myTypes = {
+            MimeMediaType.XML_DEFAULTENCODING, new MimeMediaType("Text", "x-Xml"), new MimeMediaType("Application", "Xml"),
+            new MimeMediaType("Application", "x-Xml"),
+        };
+        
+        // these are the file extensions which are likely to contain files of
+        // the type i like.
+        private static final ExtensionMapping[] myExtensions = {
+            new ExtensionMapping("xml", myTypes[0]), new ExtensionMapping("xml", (MimeMediaType) null)
+        };
+        
+        /**
+         * Creates new PullXMLDocumentInstantiator
+         **/
+        public Instantiator() {}
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public MimeMediaType[] getSupportedMimeTypes() {
+            return(myTypes);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public ExtensionMapping[] getSupportedFileExtensions() {
+            return(myExtensions);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, String doctype) {
+            return new PullXMLDocument(mimeType, doctype);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, String doctype, String value) {
+            return new PullXMLDocument(mimeType, doctype, value);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, InputStream source) throws IOException {
+            return new PullXMLDocument(mimeType, source);
+        }
+        
+        /**
+         *  {@inheritDoc}
+         **/
+        public StructuredDocument newInstance(MimeMediaType mimeType, Reader source) throws IOException {
+            return new PullXMLDocument(mimeType, source);
+        }
+    }
+    
+    /**
+     *  The instantiator for instances of our documents.
+     **/
+    public static final StructuredDocumentFactory.TextInstantiator INSTANTIATOR = new Instantiator();
+    
+    /**
+     *  The mimetype of this document.
+     **/
+    private final MimeMediaType mimeType;
+    
+    /**
+     *  The name of the document type or <code>null</code>.
+     **/
+    private String docType = null;
+    
+    /**
+     *  Node table : the name of each element.
+     **/
+    String[] names;
+    
+    /**
+     *  Node table : the decoded, untrimmed text of each element or null.
+     **/
+    String[] texts;
+    
+    /**
+     *  Node table : the index of the first child of each element or -1.
+     **/
+    int[] firstChild;
+    
+    /**
+     *  Node table : the index of the next sibling of each element or -1.
+     **/
+    int[] nextSibling;
+    
+    /**
+     *  Node table : the index in {@link #attrs} of the first attribute of each
+     *  element.
+     **/
+    private int[] firstAttr;
+    
+    /**
+     *  Node table : the number of attributes of each element.
+     **/
+    private int[] attrCount;
+    
+    /**
+     *  The attribute names and values of all elements as pairs.
+     **/
+    private String[] attrs;
+    
+    /**
+     *  The number of nodes in the node table.
+     **/
+    private int count = 0;
+    
+    /**
+     *  The number of entries used in {@link #attrs}.
+     **/
+    private int attrsUsed = 0;
+    
+    /**
+     *  Creates new PullXMLDocument
+     **/
+    PullXMLDocument(MimeMediaType mimeType, String type) {
+        this(mimeType, type, "");
+    }
+    
+    /**
+     *  Creates new PullXMLDocument with a textValue in the root element
+     **/
+    PullXMLDocument(MimeMediaType mimeType, String type, String textValue) {
+        super(null, null, -1);
+        
+        for (int eachChar = type.length() - 1; eachChar >= 0; eachChar--) {
+            if (Character.isWhitespace(type.charAt(eachChar))) {
+                throw new IllegalArgumentException("Root tag may not contain spaces");
+            }
+        }
+        
+        parent = this;
+        
+        this.mimeType = mimeType;
+        
+        docType = type;
+        name = type;
+        text = ((null == textValue) || (0 == textValue.length())) ? null : textValue;
+    }
+    
+    /**
+     *  Creates new PullXMLDocument whose node table will be built by the
+     *  caller.
+     **/
+    PullXMLDocument(MimeMediaType mimeType) {
+        super(null, null, -1);
+        
+        parent = this;
+        
+        this.mimeType = mimeType;
+    }
+    
+    /**
+     *  Creates new PullXMLDocument
+     **/
+    PullXMLDocument(MimeMediaType mimeType, InputStream in) throws IOException {
+        super(null, null, -1);
+        
+        parent = this;
+        
+        this.mimeType = mimeType;
+        
+        String charset = mimeType.getParameter("charset");
+        
+        if (charset == null) {
+            init(new InputStreamReader(in));
+        } else {
+            init(new InputStreamReader(in, charset));
+        }
+    }
+    
+    /**
+     *  Creates new PullXMLDocument
+     **/
+    PullXMLDocument(MimeMediaType mimeType, Reader in) throws IOException {
+        super(null, null, -1);
+        
+        parent = this;
+        
+        this.mimeType = mimeType;
+        
+        init(in);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String toString() {
+        
+        try {
+            StringWriter stringOut = new StringWriter();
+            
+            sendToWriter(stringOut);
+            
+            stringOut.close();
+            
+            return stringOut.toString();
+        } catch (IOException caught) {
+            throw new UndeclaredThrowableException(caught);
+        }
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public MimeMediaType getMimeType() {
+        return mimeType;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String getFileExtension() {
+        return TextDocumentCommon.Utils.getExtensionForMime(INSTANTIATOR.getSupportedFileExtensions(), getMimeType());
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public net.jxta.document.Element createElement(Object key) {
+        return createElement(key, null);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public net.jxta.document.Element createElement(Object key, Object val) {
+        if (!(key instanceof String)) {
+            throw new ClassCastException(key.getClass().getName() + " not supported by createElement as key.");
+        }
+        
+        if ((null != val) && !(val instanceof String)) {
+            throw new ClassCastException(val.getClass().getName() + " not supported by createElement as value.");
+        }
+        
+        return (net.jxta.document.Element) createElement((String) key, (String) val);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public TextElement createElement(String name) {
+        return createElement(name, (String) null);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public TextElement createElement(String name, String val) {
+        return new PullXMLElement(this, name, val);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Reader getReader() {
+        return new StringReader(toString());
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public StructuredDocument getRoot() {
+        return this;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public InputStream getStream() throws IOException {
+        String charset = mimeType.getParameter("charset");
+        
+        if (charset == null) {
+            return new ByteArrayInputStream(toString().getBytes());
+        } else {
+            return new ByteArrayInputStream(toString().getBytes(charset));
+        }
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public void sendToWriter(Writer writer) throws IOException {
+        String charset = mimeType.getParameter("charset");
+        
+        if (charset == null) {
+            writer.write("<?xml version=\"1.0\"?>\n");
+        } else {
+            writer.write("<?xml version=\"1.0\" encoding=\"" + charset + "\"?>\n");
+        }
+        
+        if (null != docType) {
+            writer.write("<!DOCTYPE " + docType + ">\n");
+        }
+        
+        printNice(writer, 0, true);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public void sendToStream(OutputStream stream) throws IOException {
+        String charset = mimeType.getParameter("charset");
+        
+        Writer osw;
+        
+        if (charset == null) {
+            osw = new OutputStreamWriter(stream);
+        } else {
+            osw = new OutputStreamWriter(stream, charset);
+        }
+        
+        Writer out = new BufferedWriter(osw);
+        
+        sendToWriter(out);
+        out.flush();
+    }
+    
+    /**
+     *  The name of the document type or <code>null</code> if there is none.
+     **/
+    String getDocType() {
+        return docType;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    PullXMLDocument getDocument() {
+        return this;
+    }
+    
+    /**
+     *  Reads the source document in a single pass and builds the node table.
+     *  The root element is node 0.
+     **/
+    protected void init(Reader in) throws IOException {
+        XMLPullParser parser = new XMLPullParser(in);
+        
+        startTable();
+        
+        // the open elements, their last child and their accumulated text.
+        int[] open = new int[16];
+        int[] lastChild = new int[16];
+        StringBuffer[] openText = new StringBuffer[16];
+        int depth = 0;
+        
+        int event;
+        
+        while (XMLPullParser.END_DOCUMENT != (event = parser.next())) {
+            switch (event) {
+            case XMLPullParser.START_ELEMENT :
+                if ((0 == depth) && (0 != count)) {
+                    throw new IOException("Multiple root elements in source document.");
+                }
+                
+                int added;
+                
+                if (0 == depth) {
+                    added = addNode(parser.getName(), -1, -1);
+                } else {
+                    added = addNode(parser.getName(), open[depth - 1], lastChild[depth - 1]);
+                    lastChild[depth - 1] = added;
+                }
+                
+                for (int eachAttr = 0; eachAttr < parser.getAttributeCount(); eachAttr++) {
+                    addNodeAttribute(added, parser.getAttributeName(eachAttr), parser.getAttributeValue(eachAttr));
+                }
+                
+                if (depth == open.length) {
+                    open = grow(open, depth * 2);
+                    lastChild = grow(lastChild, depth * 2);
+                    
+                    StringBuffer[] bigger = new StringBuffer[depth * 2];
+                    
+                    System.arraycopy(openText, 0, bigger, 0, depth);
+                    openText = bigger;
+                }
+                
+                open[depth] = added;
+                lastChild[depth] = -1;
+                if (null == openText[depth]) {
+                    openText[depth] = new StringBuffer();
+                } else {
+                    openText[depth].setLength(0);
+                }
+                depth++;
+                break;
+                
+            case XMLPullParser.END_ELEMENT :
+                depth--;
+                
+                if (!names[open[depth]].equals(parser.getName())) {
+                    throw new IOException("Mismatched end tag </" + parser.getName() + "> for <" + names[open[depth]] + ">");
+                }
+                
+                if (0 != openText[depth].length()) {
+                    texts[open[depth]] = openText[depth].toString();
+                }
+                break;
+                
+            case XMLPullParser.TEXT :
+                // text outside of the root element is ignored.
+                if (depth > 0) {
+                    openText[depth - 1].append(parser.getText());
+                }
+                break;
+                
+            default :
+                throw new IllegalStateException("Unexpected parser event : " + event);
+            }
+        }
+        
+        endTable(parser.getDocType());
+    }
+    
+    /**
+     *  Prepares an empty node table.
+     **/
+    void startTable() {
+        int capacity = 16;
+        
+        names = new String[capacity];
+        texts = new String[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        firstAttr = new int[capacity];
+        attrCount = new int[capacity];
+        attrs = new String[capacity * 2];
+        count = 0;
+        attrsUsed = 0;
+    }
+    
+    /**
+     *  Adds an element to the node table. Elements must be added in document
+     *  order and their attributes must be added before any other element.
+     *
+     *  @param name The name of the element.
+     *  @param parentNode The parent of the element or -1 for the root.
+     *  @param previousSibling The previous child of the parent or -1.
+     *  @return the index of the new node.
+     **/
+    int addNode(String name, int parentNode, int previousSibling) {
+        if (count == names.length) {
+            int capacity = count * 2;
+            
+            names = grow(names, capacity);
+            texts = grow(texts, capacity);
+            firstChild = grow(firstChild, capacity);
+            nextSibling = grow(nextSibling, capacity);
+            firstAttr = grow(firstAttr, capacity);
+            attrCount = grow(attrCount, capacity);
+        }
+        
+        names[count] = name;
+        firstChild[count] = -1;
+        nextSibling[count] = -1;
+        firstAttr[count] = attrsUsed;
+        attrCount[count] = 0;
+        
+        if (-1 != previousSibling) {
+            nextSibling[previousSibling] = count;
+        } else if (-1 != parentNode) {
+            firstChild[parentNode] = count;
+        }
+        
+        return count++;
+    }
+    
+    /**
+     *  Adds an attribute to the most recently added node.
+     **/
+    void addNodeAttribute(int node, String name, String value) {
+        if ((attrsUsed + 2) > attrs.length) {
+            attrs = grow(attrs, attrs.length * 2);
+        }
+        
+        attrs[attrsUsed++] = name;
+        attrs[attrsUsed++] = value;
+        attrCount[node]++;
+    }
+    
+    /**
+     *  Completes the node table and makes node 0 the root of this document.
+     **/
+    void endTable(String docType) throws IOException {
+        if (0 == count) {
+            throw new IOException("Parsing error in source document.");
+        }
+        
+        this.docType = docType;
+        node = 0;
+        name = names[0];
+        text = texts[0];
+    }
+    
+    /**
+     *  Adds the attribute name, value pairs of a node to the provided list.
+     **/
+    void getAttributes(int node, List into) {
+        int end = firstAttr[node] + attrCount[node] * 2;
+        
+        for (int eachAttr = firstAttr[node]; eachAttr < end; eachAttr++) {
+            into.add(attrs[eachAttr]);
+        }
+    }
+    
+    /**
+     *  Returns the value of the named attribute of a node.
+     **/
+    String getAttributeValue(int node, String name) {
+        int end = firstAttr[node] + attrCount[node] * 2;
+        
+        for (int eachAttr = firstAttr[node]; eachAttr < end; eachAttr += 2) {
+            if (name.equals(attrs[eachAttr])) {
+                return attrs[eachAttr + 1];
+            }
+        }
+        
+        return null;
+    }
+    
+    private static String[] grow(String[] array, int size) {
+        String[] bigger = new String[size];
+        
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+    
+    private static int[] grow(int[] array, int size) {
+        int[] bigger = new int[size];
+        
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+}
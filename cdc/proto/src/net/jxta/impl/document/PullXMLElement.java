@@ -0,0 +1,600 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import java.io.IOException;
+
+import net.jxta.document.Attribute;
+import net.jxta.document.Element;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.TextElement;
+
+
+/**
+ * An element of a {@link PullXMLDocument}. Elements which were read from a
+ * source document are backed by the node table of their document and only
+ * build their children and attributes when these are first accessed.
+ **/
+public class PullXMLElement extends XMLElementCommon {
+    
+    /**
+     * The document associated with this Element.
+     **/
+    protected final transient PullXMLDocument doc;
+    
+    /**
+     *  Identifies the element which is the parent of this element. If <code>
+     *  this.parent == this</code> then this element is the root of the document.
+     *  If <code>null == parent</code> then this element has not yet been
+     *  inserted into the document.
+     **/
+    protected transient Element parent;
+    
+    /**
+     *  The index of this element in the node table of the document or -1 if
+     *  this element was not read from the source document.
+     **/
+    protected transient int node;
+    
+    /**
+     *  The name of this element.
+     **/
+    protected transient String name;
+    
+    /**
+     *  The decoded, untrimmed text of this element or <code>null</code>.
+     **/
+    protected transient String text;
+    
+    /**
+     *  The attributes of this element as name, value pairs. <code>null</code>
+     *  until the attributes are first accessed.
+     **/
+    private transient List attributes = null;
+    
+    /**
+     *  The child elements of this element. <code>null</code> until the
+     *  children are first accessed.
+     **/
+    private transient List children = null;
+    
+    /**
+     *  Creates new PullXMLElement for a node of the source document.
+     *
+     *  @param doc The {@link PullXMLDocument} which is the root of the document.
+     *  @param parent The parent of this element.
+     *  @param node The index of the element in the document node table.
+     **/
+    protected PullXMLElement(PullXMLDocument doc, Element parent, int node) {
+        this.doc = doc;
+        this.parent = parent;
+        this.node = node;
+        
+        if (-1 != node) {
+            name = doc.names[node];
+            text = doc.texts[node];
+        }
+    }
+    
+    /**
+     *  Creates new PullXMLElement
+     *
+     *  @param doc The {@link PullXMLDocument} which is the root of the document.
+     *  @param name The name of the element being created.
+     *  @param val The value of the element being created or null if there is no
+     *  content to the element.
+     **/
+    public PullXMLElement(PullXMLDocument doc, final String name, final String val) {
+        this(doc, null, -1);
+        
+        checkName(name, "Element");
+        
+        this.name = name;
+        this.text = ((null == val) || (0 == val.length())) ? null : val;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public boolean equals(Object element) {
+        if (this == element) {
+            return true;
+        }
+        
+        if (!(element instanceof PullXMLElement)) {
+            return false;
+        }
+        
+        PullXMLElement pullElement = (PullXMLElement) element;
+        
+        if (getDocument() != pullElement.getDocument()) {
+            return false;
+        }
+        
+        if (!getName().equals(pullElement.getName())) {
+            return false;
+        }
+        
+        String val1 = getTextValue();
+        String val2 = pullElement.getTextValue();
+        
+        if ((null == val1) && (null == val2)) {
+            return true;
+        }
+        
+        if ((null == val1) || (null == val2)) {
+            return false;
+        }
+        
+        return val1.equals(val2);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public int hashCode() {
+        return getName().hashCode();
+    }
+    
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>A toString implementation for debugging purposes.
+     **/
+    public String toString() {
+        String name = getName();
+        
+        if (name == null) {
+            name = "<<null name>>";
+        }
+        String value = getTextValue();
+        
+        if (value == null) {
+            value = "<<null value>>";
+        }
+        
+        if ((value.length() + name.length()) >= 60) {
+            int len = Math.max(20, 60 - name.length());
+            
+            value = value.substring(0, Math.min(len, value.length()));
+        }
+        
+        return super.toString() + " / " + name + " = " + value;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public StructuredDocument getRoot() {
+        return getDocument();
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Element getParent() {
+        return parent;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Enumeration getChildren() {
+        return Collections.enumeration(children());
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public void appendChild(TextElement element) {
+        if (!(element instanceof PullXMLElement)) {
+            throw new IllegalArgumentException("Element type not supported.");
+        }
+        
+        PullXMLElement newElement = (PullXMLElement) element;
+        
+        if (newElement.getDocument() != getDocument()) {
+            throw new IllegalArgumentException("Wrong document");
+        }
+        
+        if (null != newElement.parent) {
+            throw new IllegalArgumentException("New element is already in document");
+        }
+        
+        if (null == parent) {
+            throw new IllegalStateException("This element has not been added.");
+        }
+        
+        List kids = children();
+        
+        newElement.parent = this;
+        kids.add(newElement);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Enumeration getChildren(String name) {
+        List result = new ArrayList();
+        
+        for (Iterator eachChild = children().iterator(); eachChild.hasNext();) {
+            TextElement aChild = (TextElement) eachChild.next();
+            
+            if (name.equals(aChild.getName())) {
+                result.add(aChild);
+            }
+        }
+        
+        return Collections.enumeration(result);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String getTextValue() {
+        if (null == text) {
+            return null;
+        }
+        
+        int first = 0;
+        int last = text.length() - 1;
+        
+        while ((first <= last) && Character.isWhitespace(text.charAt(first))) {
+            first++;
+        }
+        
+        // did we find no non-whitespace?
+        if (first > last) {
+            return null;
+        }
+        
+        while (Character.isWhitespace(text.charAt(last))) {
+            last--;
+        }
+        
+        return text.substring(first, last + 1);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Enumeration getAttributes() {
+        List attrs = attributes();
+        List results = new ArrayList(attrs.size() / 2);
+        
+        for (int eachAttr = 0; eachAttr < attrs.size(); eachAttr += 2) {
+            results.add(new Attribute(this, (String) attrs.get(eachAttr), (String) attrs.get(eachAttr + 1)));
+        }
+        
+        return Collections.enumeration(results);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public Attribute getAttribute(String name) {
+        String value = null;
+        
+        if ((-1 != node) && (null == attributes)) {
+            value = getDocument().getAttributeValue(node, name);
+        } else {
+            List attrs = attributes();
+            
+            for (int eachAttr = 0; eachAttr < attrs.size(); eachAttr += 2) {
+                if (name.equals(attrs.get(eachAttr))) {
+                    value = (String) attrs.get(eachAttr + 1);
+                    break;
+                }
+            }
+        }
+        
+        if (null == value) {
+            return null;
+        }
+        
+        return new Attribute(this, name, value);
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String addAttribute(String name, String value) {
+        if (null == name) {
+            throw new IllegalArgumentException("name must not be null");
+        }
+        
+        if (null == value) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        
+        checkName(name, "Attribute");
+        
+        List attrs = attributes();
+        
+        for (int eachAttr = 0; eachAttr < attrs.size(); eachAttr += 2) {
+            if (name.equals(attrs.get(eachAttr))) {
+                return (String) attrs.set(eachAttr + 1, value);
+            }
+        }
+        
+        attrs.add(name);
+        attrs.add(value);
+        
+        return null;
+    }
+    
+    /**
+     *  {@inheritDoc}
+     **/
+    public String addAttribute(Attribute newAttrib) {
+        return addAttribute(newAttrib.getName(), newAttrib.getValue());
+    }
+    
+    /**
+     *  Write the contents of this element and optionally its children. The
+     *  writing is done to a provided <code>java.io.Writer</code>. The writing
+     *  can optionally be indented. The layout is that of
+     *  {@link LiteXMLElement}, text is written from its decoded value.
+     *
+     *  @param into The java.io.Writer that the output will be sent to.
+     *  @param indent   the number of tabs which will be inserted before each
+     *      line or -1 for no indentation.
+     *  @param recurse  if true then also print the children of this element.
+     **/
+    protected void printNice(Writer into, int indent, boolean recurse) throws IOException {
+        StringBuffer out = new StringBuffer();
+        
+        writeIndent(out, indent);
+        
+        out.append('<');
+        out.append(name);
+        
+        List attrs = attributes();
+        
+        for (int eachAttr = 0; eachAttr < attrs.size(); eachAttr += 2) {
+            out.append(' ');
+            out.append((String) attrs.get(eachAttr));
+            out.append("=\"");
+            encodeEscaped(out, (String) attrs.get(eachAttr + 1), true);
+            out.append('"');
+        }
+        
+        List kids = children();
+        
+        // print as an empty element if there is no content.
+        if (kids.isEmpty() && ((null == text) || (0 == text.length()))) {
+            out.append("/>");
+            
+            if (-1 != indent) {
+                out.append('\n');
+            }
+            
+            into.write(out.toString());
+            return;
+        }
+        
+        out.append('>');
+        
+        if (-1 != indent) {
+            out.append('\n');
+        }
+        
+        String itsValue = (-1 != indent) ? getTextValue() : text;
+        
+        // print node value
+        if (null != itsValue) {
+            writeIndent(out, (-1 != indent) ? indent + 1 : -1);
+            
+            encodeEscaped(out, itsValue, false);
+            
+            if (-1 != indent) {
+                out.append('\n');
+            }
+        }
+        
+        into.write(out.toString());
+        
+        // recurse as needed
+        if (recurse) {
+            int childIndent;
+            
+            Attribute space = getAttribute("xml:space");
+            
+            if (null != space) {
+                if ("preserve".equals(space.getValue())) {
+                    childIndent = -1;
+                } else {
+                    childIndent = indent + 1;
+                }
+            } else {
+                if (-1 != indent) {
+                    childIndent = indent + 1;
+                } else {
+                    childIndent = -1;
+                }
+            }
+            
+            for (Iterator eachChild = kids.iterator(); eachChild.hasNext();) {
+                PullXMLElement aChild = (PullXMLElement) eachChild.next();
+                
+                aChild.printNice(into, childIndent, recurse);
+            }
+        }
+        
+        // print end tag
+        out.setLength(0);
+        
+        writeIndent(out, indent);
+        
+        out.append("</");
+        out.append(name);
+        out.append('>');
+        
+        if (-1 != indent) {
+            out.append('\n');
+        }
+        
+        into.write(out.toString());
+    }
+    
+    /**
+     *  Returns the children of this element, building them from the node
+     *  table of the document the first time they are requested.
+     *
+     *  @return the list of children.
+     **/
+    protected synchronized List children() {
+        if (null == children) {
+            List built = new ArrayList();
+            
+            if (-1 != node) {
+                PullXMLDocument doc = getDocument();
+                
+                for (int eachChild = doc.firstChild[node]; -1 != eachChild; eachChild = doc.nextSibling[eachChild]) {
+                    built.add(new PullXMLElement(doc, this, eachChild));
+                }
+            }
+            
+            children = built;
+        }
+        
+        return children;
+    }
+    
+    /**
+     *  Returns the attributes of this element as name, value pairs, building
+     *  them from the node table of the document the first time they are
+     *  requested.
+     *
+     *  @return the list of attribute names and values.
+     **/
+    protected synchronized List attributes() {
+        if (null == attributes) {
+            List built = new ArrayList();
+            
+            if (-1 != node) {
+                getDocument().getAttributes(node, built);
+            }
+            
+            attributes = built;
+        }
+        
+        return attributes;
+    }
+    
+    /**
+     *  The document we are a part of.
+     **/
+    PullXMLDocument getDocument() {
+        return doc;
+    }
+    
+    /**
+     *  Append the escaped form of the provided text. Attribute values also
+     *  have their quotes escaped.
+     *
+     *  @param into The buffer to append to.
+     *  @param value The text to be escaped.
+     *  @param attribute If true then the value is an attribute value.
+     **/
+    static void encodeEscaped(StringBuffer into, String value, boolean attribute) {
+        for (int eachChar = 0; eachChar < value.length(); eachChar++) {
+            char c = value.charAt(eachChar);
+            
+            if ('&' == c) {
+                into.append("&amp;");
+            } else if ('<' == c) {
+                into.append("&lt;");
+            } else if (attribute && ('"' == c)) {
+                into.append("&quot;");
+            } else {
+                into.append(c);
+            }
+        }
+    }
+    
+    private static void writeIndent(StringBuffer into, int indent) {
+        for (int eachTab = 0; eachTab < indent; eachTab++) {
+            into.append('\t');
+        }
+    }
+    
+    private static void checkName(String name, String what) {
+        for (int eachChar = name.length() - 1; eachChar >= 0; eachChar--) {
+            if (Character.isWhitespace(name.charAt(eachChar))) {
+                throw new IllegalArgumentException(what + " names may not contain spaces.");
+            }
+        }
+    }
+}
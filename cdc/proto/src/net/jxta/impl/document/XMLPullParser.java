@@ -0,0 +1,619 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ *  A minimal single pass, event based XML parser. The parser reads its source
+ *  through a small fixed size window so that the document text is never held
+ *  in memory as a whole.
+ *
+ *  <p/>The parser understands the subset of XML used by JXTA documents:
+ *  elements, attributes, character data, the predefined and numeric
+ *  character references and CDATA sections. The XML declaration, processing
+ *  instructions and comments are skipped. The name of the document type is
+ *  reported, any internal subset is skipped.
+ *
+ *  <p/>Text is reported in decoded form with end of lines folded per
+ *  <a href="http://www.w3.org/TR/REC-xml#sec-line-ends"/>.
+ **/
+final class XMLPullParser {
+    
+    /**
+     *  The start of an element. The name and the attributes of the element
+     *  are available.
+     **/
+    static final int START_ELEMENT = 1;
+    
+    /**
+     *  The end of an element. The name of the element is available.
+     **/
+    static final int END_ELEMENT = 2;
+    
+    /**
+     *  Character data. The decoded text is available.
+     **/
+    static final int TEXT = 3;
+    
+    /**
+     *  The end of the source.
+     **/
+    static final int END_DOCUMENT = 4;
+    
+    /**
+     *  The source of the document.
+     **/
+    private final Reader in;
+    
+    /**
+     *  The read window.
+     **/
+    private final char[] window = new char[2048];
+    
+    /**
+     *  The location of the next unread character in the window.
+     **/
+    private int pos = 0;
+    
+    /**
+     *  The number of valid characters in the window.
+     **/
+    private int limit = 0;
+    
+    /**
+     *  Accumulates names and attribute values.
+     **/
+    private final StringBuffer scratch = new StringBuffer(64);
+    
+    /**
+     *  Accumulates character data.
+     **/
+    private final StringBuffer text = new StringBuffer(128);
+    
+    /**
+     *  The name of the element for the current event.
+     **/
+    private String name = null;
+    
+    /**
+     *  The attributes of the current start element as name, value pairs.
+     **/
+    private String[] attributes = new String[8];
+    
+    /**
+     *  The number of attributes of the current start element.
+     **/
+    private int attributeCount = 0;
+    
+    /**
+     *  If <code>true</code> then the current start element was an empty
+     *  element and an end element event is pending.
+     **/
+    private boolean pendingEnd = false;
+    
+    /**
+     *  The name of the document type or <code>null</code> if no document type
+     *  declaration has been seen.
+     **/
+    private String docType = null;
+    
+    /**
+     *  Number of elements currently open.
+     **/
+    private int depth = 0;
+    
+    /**
+     *  Creates a new parser.
+     *
+     *  @param in the source of the document.
+     **/
+    XMLPullParser(Reader in) {
+        this.in = in;
+    }
+    
+    /**
+     *  Advance to the next event.
+     *
+     *  @return the type of the event.
+     *  @throws IOException if the source could not be read or is not well
+     *  formed.
+     **/
+    int next() throws IOException {
+        attributeCount = 0;
+        
+        if (pendingEnd) {
+            pendingEnd = false;
+            depth--;
+            return END_ELEMENT;
+        }
+        
+        while (true) {
+            int c = read();
+            
+            if (-1 == c) {
+                if (0 != depth) {
+                    throw new IOException("Unexpected end of document inside <" + name + ">");
+                }
+                return END_DOCUMENT;
+            }
+            
+            if ('<' != c) {
+                unread();
+                readText();
+                return TEXT;
+            }
+            
+            c = require();
+            
+            if ('?' == c) {
+                skipPast("?>");
+            } else if ('!' == c) {
+                if (matches("--")) {
+                    skipPast("-->");
+                } else if (matches("[CDATA[")) {
+                    readCData();
+                    return TEXT;
+                } else if (matches("DOCTYPE")) {
+                    readDocType();
+                } else {
+                    throw new IOException("Unsupported markup declaration");
+                }
+            } else if ('/' == c) {
+                name = readName();
+                skipWhitespace();
+                if ('>' != require()) {
+                    throw new IOException("Malformed end tag </" + name + ">");
+                }
+                if (0 == depth) {
+                    throw new IOException("Unexpected end tag </" + name + ">");
+                }
+                depth--;
+                return END_ELEMENT;
+            } else {
+                unread();
+                readStartTag();
+                depth++;
+                return START_ELEMENT;
+            }
+        }
+    }
+    
+    /**
+     *  The name of the element for the current start or end element event.
+     *
+     *  @return the name of the element.
+     **/
+    String getName() {
+        return name;
+    }
+    
+    /**
+     *  The decoded text for the current text event.
+     *
+     *  @return the text.
+     **/
+    StringBuffer getText() {
+        return text;
+    }
+    
+    /**
+     *  The number of attributes of the current start element event.
+     *
+     *  @return the number of attributes.
+     **/
+    int getAttributeCount() {
+        return attributeCount;
+    }
+    
+    /**
+     *  The name of an attribute of the current start element event.
+     *
+     *  @param index index of the attribute.
+     *  @return the name of the attribute.
+     **/
+    String getAttributeName(int index) {
+        return attributes[index * 2];
+    }
+    
+    /**
+     *  The decoded value of an attribute of the current start element event.
+     *
+     *  @param index index of the attribute.
+     *  @return the value of the attribute.
+     **/
+    String getAttributeValue(int index) {
+        return attributes[index * 2 + 1];
+    }
+    
+    /**
+     *  The name of the document type if a document type declaration has been
+     *  seen.
+     *
+     *  @return the name of the document type or <code>null</code>.
+     **/
+    String getDocType() {
+        return docType;
+    }
+    
+    private void readStartTag() throws IOException {
+        name = readName();
+        
+        while (true) {
+            skipWhitespace();
+            
+            int c = require();
+            
+            if ('>' == c) {
+                return;
+            }
+            
+            if ('/' == c) {
+                if ('>' != require()) {
+                    throw new IOException("Malformed empty element <" + name + "/>");
+                }
+                pendingEnd = true;
+                return;
+            }
+            
+            unread();
+            
+            String attrName = readName();
+            
+            skipWhitespace();
+            if ('=' != require()) {
+                throw new IOException("Missing '=' for attribute " + attrName + " of <" + name + ">");
+            }
+            skipWhitespace();
+            
+            int quote = require();
+            
+            if (('"' != quote) && ('\'' != quote)) {
+                throw new IOException("Unquoted value for attribute " + attrName + " of <" + name + ">");
+            }
+            
+            scratch.setLength(0);
+            while (true) {
+                c = require();
+                
+                if (quote == c) {
+                    break;
+                }
+                
+                if ('&' == c) {
+                    readReference(scratch);
+                } else if ('<' == c) {
+                    throw new IOException("'<' in value of attribute " + attrName + " of <" + name + ">");
+                } else {
+                    scratch.append((char) c);
+                }
+            }
+            
+            if ((attributeCount * 2) == attributes.length) {
+                String[] bigger = new String[attributes.length * 2];
+                
+                System.arraycopy(attributes, 0, bigger, 0, attributes.length);
+                attributes = bigger;
+            }
+            
+            attributes[attributeCount * 2] = attrName;
+            attributes[attributeCount * 2 + 1] = scratch.toString();
+            attributeCount++;
+        }
+    }
+    
+    private void readText() throws IOException {
+        text.setLength(0);
+        
+        while (true) {
+            int c = read();
+            
+            if (-1 == c) {
+                return;
+            }
+            
+            if ('<' == c) {
+                unread();
+                return;
+            }
+            
+            if ('&' == c) {
+                readReference(text);
+            } else if ('\r' == c) {
+                // fold 0x0D and 0x0D 0x0A to 0x0A
+                text.append('\n');
+                c = read();
+                if ((-1 != c) && ('\n' != c)) {
+                    unread();
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+    
+    private void readCData() throws IOException {
+        text.setLength(0);
+        
+        while (true) {
+            int c = require();
+            
+            if ((']' == c) && matches("]>")) {
+                return;
+            }
+            
+            text.append((char) c);
+        }
+    }
+    
+    private void readDocType() throws IOException {
+        skipWhitespace();
+        docType = readName();
+        
+        // skip any external id and internal subset.
+        int nesting = 0;
+        
+        while (true) {
+            int c = require();
+            
+            if ('[' == c) {
+                nesting++;
+            } else if (']' == c) {
+                nesting--;
+            } else if (('>' == c) && (nesting <= 0)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     *  Decode a character reference. The leading '&' has been consumed.
+     *  References which are not understood are passed through unchanged.
+     **/
+    private void readReference(StringBuffer into) throws IOException {
+        int start = into.length();
+        
+        into.append('&');
+        
+        // only look 8 chars away.
+        for (int each = 0; each < 8; each++) {
+            int c = read();
+            
+            if (-1 == c) {
+                return;
+            }
+            
+            if ((';' != c) && !Character.isLetterOrDigit((char) c) && ('#' != c)) {
+                unread();
+                return;
+            }
+            
+            into.append((char) c);
+            
+            if (';' == c) {
+                break;
+            }
+        }
+        
+        if (';' != into.charAt(into.length() - 1)) {
+            return;
+        }
+        
+        String ref = into.substring(start + 1, into.length() - 1);
+        int decoded = -1;
+        
+        if ("amp".equals(ref)) {
+            decoded = '&';
+        } else if ("lt".equals(ref)) {
+            decoded = '<';
+        } else if ("gt".equals(ref)) {
+            decoded = '>';
+        } else if ("quot".equals(ref)) {
+            decoded = '"';
+        } else if ("apos".equals(ref)) {
+            decoded = '\'';
+        } else if (ref.startsWith("#x") && (ref.length() > 2)) {
+            try {
+                decoded = Integer.parseInt(ref.substring(2), 16);
+            } catch (NumberFormatException badref) {
+                // leave it as it was.
+                ;
+            }
+        } else if (ref.startsWith("#") && (ref.length() > 1)) {
+            try {
+                decoded = Integer.parseInt(ref.substring(1), 10);
+            } catch (NumberFormatException badref) {
+                // leave it as it was.
+                ;
+            }
+        }
+        
+        if ((decoded >= 0) && (decoded <= Character.MAX_VALUE)) {
+            into.setLength(start);
+            into.append((char) decoded);
+        }
+    }
+    
+    private String readName() throws IOException {
+        scratch.setLength(0);
+        
+        while (true) {
+            int c = read();
+            
+            if (-1 == c) {
+                break;
+            }
+            
+            if (Character.isWhitespace((char) c) || ('/' == c) || ('>' == c) || ('=' == c)) {
+                unread();
+                break;
+            }
+            
+            scratch.append((char) c);
+        }
+        
+        if (0 == scratch.length()) {
+            throw new IOException("Missing name");
+        }
+        
+        return scratch.toString();
+    }
+    
+    private void skipWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            
+            if (-1 == c) {
+                return;
+            }
+            
+            if (!Character.isWhitespace((char) c)) {
+                unread();
+                return;
+            }
+        }
+    }
+    
+    /**
+     *  Skip characters up to and including the terminator.
+     **/
+    private void skipPast(String terminator) throws IOException {
+        char first = terminator.charAt(0);
+        
+        while (true) {
+            if ((first == require()) && matches(terminator.substring(1))) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     *  Consume the expected characters if they are next in the source.
+     *  Characters are consumed only if all of them match.
+     **/
+    private boolean matches(String expected) throws IOException {
+        int length = expected.length();
+        
+        if (!ensure(length)) {
+            return false;
+        }
+        
+        for (int each = 0; each < length; each++) {
+            if (window[pos + each] != expected.charAt(each)) {
+                return false;
+            }
+        }
+        
+        pos += length;
+        return true;
+    }
+    
+    /**
+     *  Make at least <code>count</code> characters available in the window.
+     *
+     *  @return <code>false</code> if the source ends before.
+     **/
+    private boolean ensure(int count) throws IOException {
+        while ((limit - pos) < count) {
+            // keep the previous character so that unread() still works.
+            int keep = (pos > 0) ? pos - 1 : 0;
+            
+            System.arraycopy(window, keep, window, 0, limit - keep);
+            limit -= keep;
+            pos -= keep;
+            
+            int readCount = in.read(window, limit, window.length - limit);
+            
+            if (readCount < 0) {
+                return false;
+            }
+            
+            limit += readCount;
+        }
+        
+        return true;
+    }
+    
+    private int read() throws IOException {
+        if ((pos == limit) && !ensure(1)) {
+            return -1;
+        }
+        
+        return window[pos++];
+    }
+    
+    private int require() throws IOException {
+        int c = read();
+        
+        if (-1 == c) {
+            throw new IOException("Unexpected end of document");
+        }
+        
+        return c;
+    }
+    
+    /**
+     *  Push back the most recently read character.
+     **/
+    private void unread() {
+        pos--;
+    }
+}
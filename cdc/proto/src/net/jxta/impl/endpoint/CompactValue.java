@@ -0,0 +1,154 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ *  Compact binary form of the strings, mostly ids and addresses, carried by
+ *  the binary message headers.
+ *
+ *  <p/>A value is either a tag byte of 0 followed by a UTF string or a tag
+ *  byte of 1 followed by the raw bytes of a <code>uuid-</code> id (unsigned
+ *  byte length then bytes) and a UTF suffix. The reader and the writer agree
+ *  on a prefix, such as <code>jxta://</code> or <code>urn:jxta:</code>, which
+ *  precedes the id and is not sent.
+ */
+public final class CompactValue {
+
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_UUID = 1;
+
+    private static final String UUID_PREFIX = "uuid-";
+    private static final char[] HEXDIGITS = "0123456789ABCDEF".toCharArray();
+
+    private CompactValue() {}
+
+    /**
+     *  Writes a value. Values made of the prefix, a <code>uuid-</code> id
+     *  and an optional suffix are written as raw id bytes.
+     *
+     *  @param out the stream.
+     *  @param value the value.
+     *  @param prefix the prefix the value usually has.
+     *  @throws IOException if the value cannot be written.
+     */
+    public static void write(DataOutputStream out, String value, String prefix) throws IOException {
+        if (value.startsWith(prefix) && value.startsWith(UUID_PREFIX, prefix.length())) {
+            int start = prefix.length() + UUID_PREFIX.length();
+            int end = start;
+
+            while ((end < value.length()) && (Character.digit(value.charAt(end), 16) >= 0) && !Character.isLowerCase(value.charAt(end))) {
+                end++;
+            }
+
+            int length = (end - start) / 2;
+
+            if ((end > start) && (0 == ((end - start) % 2)) && (length <= 0xFF)) {
+                out.writeByte(VALUE_UUID);
+                out.writeByte(length);
+                for (int each = start; each < end; each += 2) {
+                    out.writeByte((Character.digit(value.charAt(each), 16) << 4) | Character.digit(value.charAt(each + 1), 16));
+                }
+                out.writeUTF(value.substring(end));
+                return;
+            }
+        }
+
+        out.writeByte(VALUE_STRING);
+        out.writeUTF(value);
+    }
+
+    /**
+     *  Reads a value written by {@link #write}.
+     *
+     *  @param in the stream.
+     *  @param prefix the prefix the value was written with.
+     *  @return the value.
+     *  @throws IOException if the value cannot be read.
+     */
+    public static String read(DataInputStream in, String prefix) throws IOException {
+        int tag = in.readUnsignedByte();
+
+        if (VALUE_STRING == tag) {
+            return in.readUTF();
+        }
+
+        if (VALUE_UUID != tag) {
+            throw new IOException("Invalid value tag : " + tag);
+        }
+
+        int length = in.readUnsignedByte();
+        StringBuffer value = new StringBuffer(prefix.length() + UUID_PREFIX.length() + 2 * length);
+
+        value.append(prefix);
+        value.append(UUID_PREFIX);
+        for (int each = 0; each < length; each++) {
+            int aByte = in.readUnsignedByte();
+
+            value.append(HEXDIGITS[aByte >>> 4]);
+            value.append(HEXDIGITS[aByte & 0x0F]);
+        }
+        value.append(in.readUTF());
+
+        return value.toString();
+    }
+}
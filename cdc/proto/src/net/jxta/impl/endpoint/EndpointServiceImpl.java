@@ -98,6 +98,7 @@ import net.jxta.exception.PeerGroupException;
 import net.jxta.id.ID;
 import net.jxta.impl.endpoint.relay.RelayClient;
 import net.jxta.impl.endpoint.router.EndpointRouter;
+import net.jxta.impl.peergroup.GenericPeerGroup;
 import net.jxta.impl.util.FastHashMap;
 import net.jxta.impl.util.SequenceIterator;
 import net.jxta.peergroup.PeerGroup;
@@ -270,6 +271,42 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
      */
     private int vmQueueSize = 20;
 
+    /**
+     *  tunable: the number of demux worker threads. If zero, incoming messages
+     *  are delivered by the thread of the transport which received them.
+     */
+    private int demuxThreads = 0;
+
+    /**
+     *  tunable: the demux queue size of each worker
+     */
+    private int demuxQueueSize = 100;
+
+    /**
+     *  The demux stage or null if messages are delivered by the transports'
+     *  threads.
+     */
+    private volatile ShardedDemultiplexer demuxStage = null;
+
+    /**
+     *  The number of workers of the stage which delivers the messages of the
+     *  transports which must not deliver them themselves, if no demux stage
+     *  is configured.
+     */
+    private static final int HANDOFF_DEMUX_THREADS = 2;
+
+    /**
+     *  The stage which delivers the messages of the transports which must not
+     *  deliver them themselves, such as selector loops, if no demux stage is
+     *  configured. Created when first needed.
+     */
+    private volatile ShardedDemultiplexer handoffStage = null;
+
+    /**
+     *  If true then stopApp() has been called, no hand-off stage is created.
+     */
+    private boolean handoffClosed = false;
+
 
     /**
      *  Create a new EndpointService.
@@ -471,6 +508,20 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
     }
 
 
+    /**
+     *  Returns the discovery service of the group without loading it on
+     *  demand. Discovery publishes the peer advertisement itself when it
+     *  starts, so there is nothing to update until then.
+     *
+     *@return    the discovery service or null if it is not loaded
+     */
+    private DiscoveryService getLoadedDiscoveryService() {
+        if ((group instanceof GenericPeerGroup) && !((GenericPeerGroup) group).isServiceLoaded(PeerGroup.discoveryClassID)) {
+            return null;
+        }
+        return group.getDiscoveryService();
+    }
+
     /**
      *  Adds a feature to the ProtoToAdv attribute of the EndpointServiceImpl
      *  object
@@ -574,7 +625,7 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             padv.putServiceParam(assignedID, newParam);
 
             // publish the new advertisement
-            DiscoveryService discovery = group.getDiscoveryService();
+            DiscoveryService discovery = getLoadedDiscoveryService();
             RouteAdvertisement routeCopy = (RouteAdvertisement) route.clone();
             routeCopy.setDestPeerID(padv.getPeerID());
             if (discovery != null) {
@@ -656,7 +707,7 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             padv.putServiceParam(assignedID, newParam);
 
             // publish the new advertisement
-            DiscoveryService discovery = group.getDiscoveryService();
+            DiscoveryService discovery = getLoadedDiscoveryService();
 
             if (discovery != null) {
                 discovery.publish(padv, DiscoveryService.INFINITE_LIFETIME, DiscoveryService.DEFAULT_EXPIRATION);
@@ -707,6 +758,84 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
      *@param  msg  The message to be delivered.
      */
     public void demux(Message msg) {
+        EndpointAddress[] addresses = removeAddresses(msg);
+
+        if (null == addresses) {
+            return;
+        }
+
+        ShardedDemultiplexer stage = demuxStage;
+
+        if (null != stage) {
+            stage.demux(msg, addresses[0], addresses[1]);
+        } else {
+            processIncomingMessage(msg, addresses[0], addresses[1]);
+        }
+    }
+
+    /**
+     *  Handles the given incoming message for a transport thread which must
+     *  not wait or deliver messages itself, such as a selector loop. The
+     *  message is delivered by the demux stage, or by a small hand-off stage
+     *  if none is configured. The messages for a given service name and
+     *  parameter are delivered in the order they are demultiplexed.
+     *
+     *@param  msg     The message to be delivered.
+     *@param  source  The connection the message was read from.
+     *@param  resume  If the method returns false, run once the message queue
+     *      has drained.
+     *@return         false if the caller should stop reading from the source
+     *      until <code>resume</code> is run.
+     */
+    public boolean demux(Message msg, Object source, Runnable resume) {
+        EndpointAddress[] addresses = removeAddresses(msg);
+
+        if (null == addresses) {
+            return true;
+        }
+
+        ShardedDemultiplexer stage = demuxStage;
+
+        if (null == stage) {
+            stage = handoffStage;
+
+            if (null == stage) {
+                stage = getHandoffStage();
+            }
+        }
+
+        if (null != stage) {
+            return stage.demux(msg, addresses[0], addresses[1], source, resume);
+        }
+
+        // We are stopping.
+        processIncomingMessage(msg, addresses[0], addresses[1]);
+        return true;
+    }
+
+    /**
+     *  Returns the stage which delivers the messages of the transports which
+     *  must not deliver them themselves, creating it if needed.
+     *
+     *@return    the stage or null if we are stopping.
+     */
+    private synchronized ShardedDemultiplexer getHandoffStage() {
+        if ((null == handoffStage) && !handoffClosed && (null != group)) {
+            handoffStage = new ShardedDemultiplexer(this, group.getHomeThreadGroup(), HANDOFF_DEMUX_THREADS, demuxQueueSize);
+        }
+
+        return handoffStage;
+    }
+
+    /**
+     *  Removes the source and destination address elements of an incoming
+     *  message.
+     *
+     *@param  msg  The message.
+     *@return      The source and destination addresses or null if the message
+     *      must be discarded.
+     */
+    private EndpointAddress[] removeAddresses(Message msg) {
 
         // Get the message destination
         MessageElement dstAddressElement = msg.getMessageElement(EndpointServiceImpl.MESSAGE_DESTINATION_NS,
@@ -717,7 +846,7 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn(msg + " has no destination address. Discarded");
             }
-            return;
+            return null;
         }
 
         msg.removeMessageElement(dstAddressElement);
@@ -730,12 +859,24 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn(msg + " has no source address. Discarded");
             }
-            return;
+            return null;
         }
         msg.removeMessageElement(srcAddressElement);
         EndpointAddress msgScrAddress = new EndpointAddress(srcAddressElement.toString());
         //MessageUtil.printMessageStats(msg,true);
-        processIncomingMessage(msg, msgScrAddress, dstAddress);
+
+        return new EndpointAddress[] { msgScrAddress, dstAddress };
+    }
+
+    /**
+     *  Returns the demux stage which delivers incoming messages, from which
+     *  its queue metrics may be read.
+     *
+     *@return    the demux stage or null if incoming messages are delivered by
+     *      the threads of the transports.
+     */
+    public ShardedDemultiplexer getDemuxStage() {
+        return demuxStage;
     }
 
     /**
@@ -1142,6 +1283,30 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
                 }
             }
 
+            param = paramBlock.getChildren("DemuxThreads");
+            if (param.hasMoreElements()) {
+                String textThreads = ((XMLElement) param.nextElement()).getTextValue();
+                try {
+                    demuxThreads = Math.max(0, Integer.parseInt(textThreads.trim()));
+                } catch (NumberFormatException e) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("could not parse DemuxThreads string", e);
+                    }
+                }
+            }
+
+            param = paramBlock.getChildren("DemuxQueueSize");
+            if (param.hasMoreElements()) {
+                String textQSz = ((XMLElement) param.nextElement()).getTextValue();
+                try {
+                    demuxQueueSize = Math.max(1, Integer.parseInt(textQSz.trim()));
+                } catch (NumberFormatException e) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("could not parse DemuxQueueSize string", e);
+                    }
+                }
+            }
+
             param = paramBlock.getChildren("UseParentEndpoint");
             if (param.hasMoreElements()) {
                 // if it's absent, the default is "true"
@@ -1157,6 +1322,10 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             parentEndpoint.addMessengerEventListener(this, EndpointService.LowPrecedence);
         }
 
+        if (demuxThreads > 0) {
+            demuxStage = new ShardedDemultiplexer(this, group.getHomeThreadGroup(), demuxThreads, demuxQueueSize);
+        }
+
         initialized = true;
         if (LOG.isEnabledFor(Level.INFO)) {
             StringBuffer configInfo = new StringBuffer("Configuring Endpoint Service : " + assignedID);
@@ -1176,10 +1345,19 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
                 configInfo.append("\n\t\tHome Group : " + parentGroup.getPeerGroupName() + " / " + parentGroup.getPeerGroupID());
             }
             configInfo.append("\n\t\tVirtual Messenger Queue Size : " + vmQueueSize);
+            if (null == demuxStage) {
+                configInfo.append("\n\t\tDemux Threads : (transport threads)");
+            } else {
+                configInfo.append("\n\t\tDemux Threads : " + demuxThreads);
+                configInfo.append("\n\t\tDemux Queue Size : " + demuxQueueSize);
+            }
             if (group.getPeerGroupID().equals(PeerGroupID.worldPeerGroupID)) {
                 configInfo.append("\n\tQuota Incoming Message Params :");
-                configInfo.append("\n\t\tMax message size : " + QuotaIncomingMessageListener.GmaxMsgSize);
-                configInfo.append("\n\t\tMax message senders : " + QuotaIncomingMessageListener.GmaxSenders);
+                SenderQuotaEngine quotas = QuotaIncomingMessageListener.getSenderQuotas();
+
+                configInfo.append("\n\t\tQueuing budget : " + quotas.getBudget());
+                configInfo.append("\n\t\tAccounting stripes : " + quotas.getStripeCount());
+                configInfo.append("\n\t\tAverage message size : " + quotas.getAverageMessageSize());
             }
             LOG.info(configInfo);
         }
@@ -1756,6 +1934,22 @@ public class EndpointServiceImpl implements EndpointService, MessengerEventListe
             parentEndpoint.removeMessengerEventListener(this, EndpointService.LowPrecedence);
         }
 
+        ShardedDemultiplexer stage = demuxStage;
+
+        if (null != stage) {
+            demuxStage = null;
+            stage.close();
+        }
+
+        synchronized (this) {
+            handoffClosed = true;
+
+            if (null != handoffStage) {
+                handoffStage.close();
+                handoffStage = null;
+            }
+        }
+
         // Clear up the passiveMessengersListeners
         for (int i = 0; i < 3; ++i) {
             List list = passiveMessengerListeners[i];
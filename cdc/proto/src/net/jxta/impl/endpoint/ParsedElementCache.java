@@ -0,0 +1,302 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+
+/**
+ *  Remembers, as a property of a message, the parsed form of the headers
+ *  the message carries so that the services which handle the message in turn
+ *  parse each header only once.
+ *
+ *  <p/>A parsed header is only returned for the very element it was parsed
+ *  from or encoded to. Replacing the element in the message by any other
+ *  means makes the cached form stale and it is ignored. A parsed header must
+ *  not be changed once it is cached other than just before it is written
+ *  back to the message with {@link #setElement}.
+ *
+ *  <p/>Headers which have both an XML and a binary form can be re-encoded
+ *  in a copy of the message for a particular destination with
+ *  {@link #encode}. Each form is encoded at most once per message.
+ */
+public final class ParsedElementCache {
+
+    /**
+     *  A parsed header.
+     */
+    public interface Parsed {
+
+        /**
+         *  Returns a copy of this header which may be changed independently.
+         *
+         *  @return a copy of this header.
+         */
+        Parsed copy();
+
+        /**
+         *  Returns a message element containing this header.
+         *
+         *  @param name the name of the element.
+         *  @param binary if <code>true</code> the binary form, otherwise XML.
+         *  @return the element.
+         *  @throws IOException if the header cannot be encoded.
+         */
+        MessageElement toElement(String name, boolean binary) throws IOException;
+
+        /**
+         *  Returns <code>true</code> if the element is in the binary form.
+         *
+         *  @param element the element.
+         *  @return <code>true</code> if the element is in the binary form.
+         */
+        boolean isBinary(MessageElement element);
+    }
+
+    /**
+     *  A header and its elements.
+     */
+    private static final class Entry {
+        final String namespace;
+        final String name;
+        final Parsed parsed;
+        MessageElement xml = null;
+        MessageElement binary = null;
+
+        Entry(String namespace, String name, Parsed parsed, MessageElement element) {
+            this.namespace = namespace;
+            this.name = name;
+            this.parsed = parsed;
+            if (parsed.isBinary(element)) {
+                binary = element;
+            } else {
+                xml = element;
+            }
+        }
+
+        boolean isFor(MessageElement element) {
+            return (null != element) && ((element == xml) || (element == binary));
+        }
+    }
+
+    private ParsedElementCache() {}
+
+    /**
+     *  Returns the parsed form of a header of the message if it is known.
+     *
+     *  @param msg the message.
+     *  @param namespace the namespace of the header element.
+     *  @param name the name of the header element.
+     *  @return the parsed header or <code>null</code> if it is not known.
+     */
+    public static Parsed get(Message msg, String namespace, String name) {
+        Map entries = entries(msg, false);
+
+        if (null == entries) {
+            return null;
+        }
+
+        Entry entry;
+
+        synchronized (entries) {
+            entry = (Entry) entries.get(key(namespace, name));
+        }
+
+        if ((null != entry) && entry.isFor(msg.getMessageElement(namespace, name))) {
+            return entry.parsed;
+        }
+
+        return null;
+    }
+
+    /**
+     *  Remembers the parsed form of a header element of the message.
+     *
+     *  @param msg the message.
+     *  @param namespace the namespace of the header element.
+     *  @param element the header element.
+     *  @param parsed the parsed header.
+     */
+    public static void put(Message msg, String namespace, MessageElement element, Parsed parsed) {
+        Map entries = entries(msg, true);
+
+        synchronized (entries) {
+            entries.put(key(namespace, element.getElementName()), new Entry(namespace, element.getElementName(), parsed, element));
+        }
+    }
+
+    /**
+     *  Writes a header to the message, replacing any element of the same
+     *  name, and remembers its parsed form.
+     *
+     *  @param msg the message.
+     *  @param namespace the namespace of the header element.
+     *  @param name the name of the header element.
+     *  @param parsed the header.
+     *  @param binary if <code>true</code> the binary form, otherwise XML.
+     *  @throws IOException if the header cannot be encoded.
+     */
+    public static void setElement(Message msg, String namespace, String name, Parsed parsed, boolean binary) throws IOException {
+        MessageElement element = parsed.toElement(name, binary);
+
+        msg.replaceMessageElement(namespace, element);
+        put(msg, namespace, element, parsed);
+    }
+
+    /**
+     *  Copies the known parsed headers of a message to a copy of the message.
+     *  The parsed headers are copied too so that they may be changed
+     *  independently.
+     *
+     *  @param from the message.
+     *  @param to the copy of the message.
+     */
+    public static void copy(Message from, Message to) {
+        Map entries = entries(from, false);
+
+        if (null == entries) {
+            return;
+        }
+
+        synchronized (entries) {
+            Iterator eachEntry = entries.values().iterator();
+
+            while (eachEntry.hasNext()) {
+                Entry entry = (Entry) eachEntry.next();
+                MessageElement element = to.getMessageElement(entry.namespace, entry.name);
+
+                if (entry.isFor(element)) {
+                    put(to, entry.namespace, element, entry.parsed.copy());
+                }
+            }
+        }
+    }
+
+    /**
+     *  Encodes the known headers of a message in the form a destination
+     *  accepts. The elements are replaced in a copy of the message, the
+     *  message itself is unchanged.
+     *
+     *  @param from the message.
+     *  @param to the copy of the message which will be sent.
+     *  @param binary if <code>true</code> the destination accepts the binary
+     *  form, otherwise it is sent XML.
+     */
+    public static void encode(Message from, Message to, boolean binary) {
+        Map entries = entries(from, false);
+
+        if (null == entries) {
+            return;
+        }
+
+        synchronized (entries) {
+            Iterator eachEntry = entries.values().iterator();
+
+            while (eachEntry.hasNext()) {
+                Entry entry = (Entry) eachEntry.next();
+                MessageElement element = to.getMessageElement(entry.namespace, entry.name);
+
+                if (!entry.isFor(element)) {
+                    continue;
+                }
+
+                try {
+                    if (binary) {
+                        if (null == entry.binary) {
+                            entry.binary = entry.parsed.toElement(entry.name, true);
+                        }
+                        element = entry.binary;
+                    } else {
+                        if (null == entry.xml) {
+                            entry.xml = entry.parsed.toElement(entry.name, false);
+                        }
+                        element = entry.xml;
+                    }
+                } catch (IOException failed) {
+                    // keep the element as it is.
+                    continue;
+                }
+
+                to.replaceMessageElement(entry.namespace, element);
+            }
+        }
+    }
+
+    private static String key(String namespace, String name) {
+        return namespace + ":" + name;
+    }
+
+    private static Map entries(Message msg, boolean create) {
+        synchronized (msg) {
+            Map entries = (Map) msg.getMessageProperty(ParsedElementCache.class);
+
+            if ((null == entries) && create) {
+                entries = new HashMap(4);
+                msg.setMessageProperty(ParsedElementCache.class, entries);
+            }
+
+            return entries;
+        }
+    }
+}
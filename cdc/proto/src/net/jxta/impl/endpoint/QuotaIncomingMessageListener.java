@@ -67,9 +67,6 @@ import net.jxta.endpoint.Message;
 import net.jxta.impl.util.UnbiasedQueue;
 import net.jxta.impl.util.ResourceDispatcher;
 import net.jxta.impl.util.ResourceAccount;
-import net.jxta.impl.util.Cache;
-import net.jxta.impl.util.CacheEntry;
-import net.jxta.impl.util.CacheEntryListener;
 import net.jxta.impl.util.TimeUtils;
 
 
@@ -93,9 +90,16 @@ public class QuotaIncomingMessageListener implements EndpointListener {
      */
     private final static Logger LOG = Logger.getLogger(QuotaIncomingMessageListener.class.getName());
 
+    /**
+     * The default number of additional un-reserved threads.
+     */
+    private final static int DEFAULT_EXTRA_THREADS = 150;
+
     /**
      * All QuotaIncomingMessageListener share one global resource manager for
-     * threads. Its budget is hardcoded for now.
+     * threads. Its budget is hardcoded for now, except for the number of
+     * additional un-reserved threads which may be set with the system property
+     * <code>net.jxta.impl.endpoint.QuotaIncomingMessageListener.extraThreads</code>.
      *
      * <p/>Parameters read as follows:
      *
@@ -127,111 +131,15 @@ public class QuotaIncomingMessageListener implements EndpointListener {
      * available.
      */
     static private ResourceDispatcher threadDispatcher =
-        new ResourceDispatcher(100, 1, 3, 150, 6, 5, true, "threadDispatcher");
-
-
-    /*
-       All next hop peers that send us messages share one global resource
-       manager for message queing. Its budget is hardcoded for now.
-       If you tune only the first two values, the derived ones
-       compute to a total commitment of GmaxSenders * GmaxMsgSize * 10
-     
-       Examples:
-       150 senders * 20K messages * 10 max allocation => 30M
-       350 senders * 300K messages * 10 max allocation => 1G
-       3500 senders * 8k messages * 10 max allocation => 280M
-       10000 senders * 8k messages * 20 max allocation => 1.6GB
-     */
-
-    /**
-     * Max guaranteed supported message size (bytes). This is a theoretical
-     * maximum message size and should reflect the maximum size of messages
-     * used in relevant protocols. All other calculations assume this as the
-     * "default" message size. If message size is very variable then this should
-     *  be the median message size rather than the maximum.
-     */
-    static int GmaxMsgSize = 4 * 1024;
-
-    /**
-     * Max guaranteed senders (integer). Expected number of message sources
-     * amongst whom resouces are to be shared.
-     */
-    static int GmaxSenders = 150;
+        new ResourceDispatcher(100, 1, 3, extraThreads(), 6, 5, true, "threadDispatcher");
 
-    /**
-     * Every sender account will always be granted 2 messages worth of queue
-     * size.
-     */
-    static int GminResPerSender = 2 * GmaxMsgSize;
-
-    /**
-     * Every sender account can over allocate up to 5 messages worth of queue
-     * size if the space is available. If peers are very bursty with messages
-     * then this should be higher.
-     */
-    static int GmaxResPerSender = 2 * GminResPerSender;
-
-    /**
-     * Additional resources in reserve, to be allocated on the fly. Available
-     * reservations beyond GminResPerSender are taken from there, so, we
-     * must have enough. This space is fairly shared by all senders who are
-     * over their minumum reserved allocation.
-     */
-    static int TotalExtra = 2 * GmaxResPerSender * GmaxSenders;
 
     /**
-     * There is a limit to the amount of on-the-fly that a single sender can
-     * hog. If peers are very bursty with messages then this should be higher.
+     * All next hop peers that send us messages share one global quota for
+     * message queuing. Its budget is derived from the heap size and the size
+     * of the messages observed. See {@link SenderQuotaEngine}.
      */
-    static int MaxExtraPerSender = 10 * GmaxResPerSender;
-
-    /**
-     * There is a part of the non-reserved resources that we will never use for
-     * reservation by senders in excess of GmaxSenders even if the number of
-     * accounts is way beyond the max garaunteed. Instead we'll prefer to grant
-     * 0 reserved items to additional senders.
-     */
-    static int NeverReserved = TotalExtra / 8;
-
-
-    private final static ResourceDispatcher messageDispatcher =
-        new ResourceDispatcher(GmaxSenders,
-                               GminResPerSender,
-                               GmaxResPerSender,
-                               TotalExtra,
-                               MaxExtraPerSender,
-                               NeverReserved,
-                               false,                // No RoundRobin
-                               "messageDispatcher");
-
-
-    /**
-     * A canonical mapping of all the message originators.
-     * This is a cache, since peers can disappear silently.
-     *
-     * <p/>Note: a number of accounts might not be the best criterion though.
-     * since just a few stale accounts could hog a lot of resources.
-     * May be we should just make that cache sensitive to the inconvenience
-     * endured by live accounts.
-     */
-    static class MyCacheListener implements CacheEntryListener {
-        // This may only be called when something gets added to the
-        // cache or when an item is made purgeable. In our case that means
-        // all the synchro we need is already there.
-        public void purged(CacheEntry entry) {
-            ((ResourceAccount) entry.getValue()).close();
-        }
-    }
-
-    /**
-     * We put a large hard limit on the cache because we detect the
-     * need for purging normaly before that limit is reached, and we purge
-     * it explicitly.
-     *
-     * <p/>The number 100 is the maximum number of idle accounts that
-     * we keep around in case the peer comes back.
-     */
-    private final static Cache allSources = new Cache(100, new MyCacheListener());
+    private final static SenderQuotaEngine senderQuotas = SenderQuotaEngine.newInstance();
 
     private final UnbiasedQueue messageQueue = new UnbiasedQueue(Integer.MAX_VALUE, false, new LinkedList());
 
@@ -259,12 +167,12 @@ public class QuotaIncomingMessageListener implements EndpointListener {
         final Message msg;
         final EndpointAddress srcAddress;
         final EndpointAddress destAddress;
-        final ResourceAccount src;
+        final SenderQuotaEngine.SenderAccount src;
         final long timeReceived;
         final long size;
 
         MessageFromSource(Message msg, EndpointAddress srcAddress,
-                          EndpointAddress destAddress, ResourceAccount src, long timeReceived,
+                          EndpointAddress destAddress, SenderQuotaEngine.SenderAccount src, long timeReceived,
                           long size) {
             this.msg = msg;
             this.src = src;
@@ -472,6 +380,43 @@ public class QuotaIncomingMessageListener implements EndpointListener {
         Thread.yield();
     }
 
+    /**
+     * Returns the number of additional un-reserved threads shared by all the
+     * listeners. May be set with the system property
+     * <code>net.jxta.impl.endpoint.QuotaIncomingMessageListener.extraThreads</code>.
+     */
+    private static int extraThreads() {
+        try {
+            String threadsStr = System.getProperty("net.jxta.impl.endpoint.QuotaIncomingMessageListener.extraThreads");
+
+            if (null != threadsStr) {
+                int threads = Integer.parseInt(threadsStr.trim());
+
+                if (threads <= 0) {
+                    throw new IllegalArgumentException("extraThreads must be > 0");
+                }
+
+                return threads;
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse extraThreads system property, using default", e);
+            }
+        }
+
+        return DEFAULT_EXTRA_THREADS;
+    }
+
+    /**
+     * Returns the quota engine shared by all the listeners, from which the
+     * queuing and drop metrics of each sender may be obtained.
+     *
+     * @return the quota engine shared by all the listeners.
+     */
+    public static SenderQuotaEngine getSenderQuotas() {
+        return senderQuotas;
+    }
+
     /**
      *  {@inheritDoc}
      *
@@ -538,25 +483,14 @@ public class QuotaIncomingMessageListener implements EndpointListener {
 
         Thread.yield();
 
-        synchronized(messageDispatcher) {
-
-            // Explicitly release each message in the queue
-            // so that the per-peer accounting is maintained.
-            while (! rmdMessages.isEmpty()) {
+        // Explicitly release each message in the queue
+        // so that the per-peer accounting is maintained.
+        while (! rmdMessages.isEmpty()) {
 
-                MessageFromSource mfs =
-                    (MessageFromSource) rmdMessages.removeFirst();
+            MessageFromSource mfs =
+                (MessageFromSource) rmdMessages.removeFirst();
 
-                mfs.src.inNeed(false);
-                mfs.src.releaseQuantity(mfs.size);
-                // Check src account idleness here. Idleness status is
-                // stable under messageDispatcher synchronization.
-                if (mfs.src.isIdle()) {
-                    allSources.stickyCacheEntry(
-                        (CacheEntry) mfs.src.getUserObject(),
-                        false);
-                }
-            }
+            senderQuotas.release(mfs.src, mfs.size);
         }
 
         rmdMessages = null;
@@ -587,17 +521,7 @@ public class QuotaIncomingMessageListener implements EndpointListener {
             // what resources are going to be kept, freed, allocated in
             // relation to that message or not, until the listener comes
             // back. We cannot assume anything.
-            synchronized(messageDispatcher) {
-                mfs.src.inNeed(false); // Make sure we won't get to keep it.
-                mfs.src.releaseQuantity(mfs.size);
-                // Check idleness here. Idleness is stable under
-                // messageDispatcher synchronization.
-                if (mfs.src.isIdle()) {
-                    allSources.stickyCacheEntry(
-                        (CacheEntry) mfs.src.getUserObject(),
-                        false);
-                }
-            }
+            senderQuotas.release(mfs.src, mfs.size);
 
             long timeDequeued = 0;
 
@@ -657,71 +581,26 @@ public class QuotaIncomingMessageListener implements EndpointListener {
         }
 
         long timeReceived = 0;
-        ResourceAccount msgSrcAccount;
         // XXX 20040930 bondolo why not use UnmodifiableEndpointAddress as key?
         String srcAddrStr = srcAddr.toString();
-        CacheEntry ce = null;
         long msgSize = message.getByteLength();
 
-        int attempt = 0;
-        while (true) {
-            if (attempt > 0) {
-                // Give some cpu to upper layers.
-                Thread.yield();
-            }
+        SenderQuotaEngine.SenderAccount msgSrcAccount = senderQuotas.obtain(srcAddrStr, msgSize, false);
 
-            synchronized(messageDispatcher) {
-
-                ce = allSources.getCacheEntry(srcAddrStr);
-
-                if (ce == null) {
-                    // Cross-ref the cache entry as the cookie in the account.
-                    // we'll need it to efficiently manipulate the purgeability
-                    // of the cache entry. Each time we need the cache entry, it
-                    // cost us a lookup. Rather do it just once.
-                    // At first the user object in the account is just a string
-                    // for traces.
-                    // We change it when we know what to set.
-                    msgSrcAccount = (ResourceAccount)
-                                    messageDispatcher.newAccount(4*10240, -1, srcAddrStr);
-                    if (msgSrcAccount.getNbReserved() < 1) {
-                        // That's bad ! We must get rid of some stale
-                        // accounts. Purge 1/10 of the idle accounts.
-                        msgSrcAccount.close();
-                        allSources.purge(10);
-                        msgSrcAccount = (ResourceAccount)
-                                        messageDispatcher.newAccount(4*10240, -1, "retrying:" + srcAddrStr);
-                    }
-
-                    allSources.put(srcAddrStr, msgSrcAccount);
+        if (null == msgSrcAccount) {
+            // During the retry, we'll give up the cpu. It helps a lot because otherwise input threads can run non-stop
+            // and nothing runs up-top.
+            Thread.yield();
 
-                    ce = allSources.getCacheEntry(srcAddrStr);
-                    msgSrcAccount.setUserObject(ce);
+            msgSrcAccount = senderQuotas.obtain(srcAddrStr, msgSize, true);
 
-                } else {
-                    msgSrcAccount = (ResourceAccount) ce.getValue();
+            if (null == msgSrcAccount) {
+                // Too many backloged messages from there.
+                // discard right away.
+                if (LOG.isEnabledFor(Level.INFO)) {
+                    LOG.info("Peer exceeds queuing limits; msg discarded : " + senderQuotas.getSenderMetrics(srcAddrStr));
                 }
-
-
-                if (! msgSrcAccount.obtainQuantity(msgSize)) {
-                    if (++attempt < 2) {
-                        // During the retry, we'll give up the cpu. It helps a lot because otherwise input threads can run non-stop
-                        // and nothing runs up-top.
-                        continue;
-                    }
-
-                    // Too many backloged messages from there.
-                    // discard right away.
-                    if (LOG.isEnabledFor(Level.INFO)) {
-                        LOG.info("Peer exceeds queuing limits; msg discarded.");
-                    }
-                    return;
-                }
-
-                // Now, we hold a message resource for that source, so it
-                // cannot be purged from the cache.
-                allSources.stickyCacheEntry(ce, true);
-                break;
+                return;
             }
         }
 
@@ -758,20 +637,9 @@ public class QuotaIncomingMessageListener implements EndpointListener {
 
         if (! pushed) {
             // We need to release the resources that we have obtained.
-            // The acount cannot have possibly been purged; it is marked
-            // sticky and we hold resources. So, we can re-use the cache
-            // entry we obtained the last time we had the messageDispatcher
-            // modnitor.
-            synchronized(messageDispatcher) {
-                msgSrcAccount.inNeed(false); // Make sure we won't get to keep it.
-                msgSrcAccount.releaseQuantity(msgSize);
-
-                // Check idleness here. Idleness is stable under
-                // messageDispatcher synchronization.
-                if (msgSrcAccount.isIdle()) {
-                    allSources.stickyCacheEntry(ce, false);
-                }
-            }
+            // The account cannot have possibly been forgotten; we hold
+            // resources.
+            senderQuotas.release(msgSrcAccount, msgSize);
 
             return;
         }
@@ -0,0 +1,681 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ *  Accounts for the bytes of the incoming messages which are queued on behalf
+ *  of each sender, and decides whether a new message from a sender may be
+ *  queued or must be dropped.
+ *
+ *  <p/>The total budget is derived from the heap: by default a fraction of
+ *  the maximum heap size. Each sender is entitled to a fair share of the
+ *  budget among the senders which currently have messages queued and is
+ *  guaranteed room for a couple of messages of the average observed size. A
+ *  sender may burst beyond its fair share as long as part of the budget
+ *  remains available for the other senders. A sender with nothing queued may
+ *  always queue one message if the budget is not exhausted.
+ *
+ *  <p/>Senders are spread over a number of stripes, each with its own lock,
+ *  so that messages from different senders are accounted for concurrently.
+ *  The totals used for admission are summed from the stripes without locking
+ *  and may be slightly stale.
+ *
+ *  <p/>Idle senders are remembered, along with their counters, until the
+ *  number of tracked senders exceeds a limit; the least recently active ones
+ *  are then forgotten.
+ *
+ *  <p/>The engine may be configured with the following system properties:
+ *
+ *  <ul>
+ *      <li><code>net.jxta.impl.endpoint.SenderQuotaEngine.heapFraction</code>
+ *      the fraction of the maximum heap size used as budget. Default 0.1.</li>
+ *      <li><code>net.jxta.impl.endpoint.SenderQuotaEngine.budget</code>
+ *      the budget in bytes. Overrides the heap fraction.</li>
+ *      <li><code>net.jxta.impl.endpoint.SenderQuotaEngine.stripes</code>
+ *      the number of stripes. Default 16.</li>
+ *      <li><code>net.jxta.impl.endpoint.SenderQuotaEngine.maxSenders</code>
+ *      the number of senders tracked. Default 16384.</li>
+ *  </ul>
+ */
+public final class SenderQuotaEngine {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(SenderQuotaEngine.class.getName());
+
+    /**
+     *  Default fraction of the maximum heap size used as budget.
+     */
+    private static final double DEFAULT_HEAP_FRACTION = 0.1;
+
+    /**
+     *  Default number of stripes.
+     */
+    private static final int DEFAULT_STRIPES = 16;
+
+    /**
+     *  Default number of senders tracked.
+     */
+    private static final int DEFAULT_MAX_SENDERS = 16384;
+
+    /**
+     *  The smallest budget we will use, whatever the heap size.
+     */
+    private static final long MIN_BUDGET = 1024L * 1024L;
+
+    /**
+     *  The message size we assume until we have seen some messages.
+     */
+    private static final long INITIAL_MSG_SIZE = 4 * 1024;
+
+    /**
+     *  The number of average sized messages each sender is guaranteed.
+     */
+    private static final int GUARANTEED_MESSAGES = 2;
+
+    /**
+     *  The multiple of its fair share a sender may use when bursting.
+     */
+    private static final int BURST_FACTOR = 4;
+
+    /**
+     *  The part of the budget (1/n) that senders beyond their guarantee may
+     *  never use.
+     */
+    private static final int RESERVE_DIVISOR = 8;
+
+    /**
+     *  The total number of bytes which may be queued.
+     */
+    private final long budget;
+
+    /**
+     *  The part of the budget kept for senders within their guarantee.
+     */
+    private final long reserve;
+
+    /**
+     *  The stripes.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     *  The number of senders tracked per stripe.
+     */
+    private final int maxSendersPerStripe;
+
+    /**
+     *  Moving average of the size of the accepted messages. Updated without
+     *  locking; a lost update is harmless.
+     */
+    private volatile long averageMsgSize = INITIAL_MSG_SIZE;
+
+    /**
+     *  Creates an engine configured from the system properties.
+     *
+     *  @return the new engine.
+     */
+    static SenderQuotaEngine newInstance() {
+        double heapFraction = DEFAULT_HEAP_FRACTION;
+        long budget = -1;
+        int stripes = DEFAULT_STRIPES;
+        int maxSenders = DEFAULT_MAX_SENDERS;
+
+        try {
+            String fractionStr = System.getProperty("net.jxta.impl.endpoint.SenderQuotaEngine.heapFraction");
+
+            if (null != fractionStr) {
+                heapFraction = Double.parseDouble(fractionStr.trim());
+            }
+
+            String budgetStr = System.getProperty("net.jxta.impl.endpoint.SenderQuotaEngine.budget");
+
+            if (null != budgetStr) {
+                budget = Long.parseLong(budgetStr.trim());
+            }
+
+            String stripesStr = System.getProperty("net.jxta.impl.endpoint.SenderQuotaEngine.stripes");
+
+            if (null != stripesStr) {
+                stripes = Integer.parseInt(stripesStr.trim());
+            }
+
+            String sendersStr = System.getProperty("net.jxta.impl.endpoint.SenderQuotaEngine.maxSenders");
+
+            if (null != sendersStr) {
+                maxSenders = Integer.parseInt(sendersStr.trim());
+            }
+
+            if ((heapFraction <= 0.0) || (heapFraction > 1.0) || (stripes <= 0) || (maxSenders <= 0)) {
+                throw new IllegalArgumentException("Sender quota parameters out of range");
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse sender quota system properties, using defaults", e);
+            }
+
+            heapFraction = DEFAULT_HEAP_FRACTION;
+            budget = -1;
+            stripes = DEFAULT_STRIPES;
+            maxSenders = DEFAULT_MAX_SENDERS;
+        }
+
+        if (budget <= 0) {
+            long heap = Runtime.getRuntime().maxMemory();
+
+            if (Long.MAX_VALUE == heap) {
+                heap = Runtime.getRuntime().totalMemory();
+            }
+
+            budget = (long) (heap * heapFraction);
+        }
+
+        return new SenderQuotaEngine(budget, stripes, maxSenders);
+    }
+
+    /**
+     *  Creates a new engine.
+     *
+     *  @param budget the total number of bytes which may be queued.
+     *  @param nbStripes the number of stripes.
+     *  @param maxSenders the number of senders tracked.
+     */
+    SenderQuotaEngine(long budget, int nbStripes, int maxSenders) {
+        if ((nbStripes < 1) || (maxSenders < 1)) {
+            throw new IllegalArgumentException("At least one stripe and one sender are required");
+        }
+
+        this.budget = Math.max(budget, MIN_BUDGET);
+        reserve = this.budget / RESERVE_DIVISOR;
+        maxSendersPerStripe = Math.max(1, maxSenders / nbStripes);
+
+        stripes = new Stripe[nbStripes];
+
+        for (int eachStripe = 0; eachStripe < nbStripes; eachStripe++) {
+            stripes[eachStripe] = new Stripe();
+        }
+    }
+
+    /**
+     *  Obtain room for a message from a sender.
+     *
+     *  @param sender the sender of the message.
+     *  @param size the size of the message in bytes.
+     *  @param lastAttempt if <code>true</code> a refusal is counted as a drop.
+     *  @return the account of the sender to which the room must be released
+     *  once the message is no longer queued or <code>null</code> if the
+     *  message may not be queued.
+     */
+    SenderAccount obtain(String sender, long size, boolean lastAttempt) {
+        Stripe stripe = stripeFor(sender);
+        long queued = getQueuedBytes();
+        int active = getActiveSenders();
+        SenderAccount account;
+
+        synchronized (stripe) {
+            account = (SenderAccount) stripe.senders.get(sender);
+
+            if (null == account) {
+                trim(stripe);
+                account = new SenderAccount(sender, stripe);
+                stripe.senders.put(sender, account);
+                stripe.accounts.put(sender, account);
+            }
+
+            boolean idle = (0 == account.queuedMessages);
+
+            if (!admit(account, size, queued, idle ? active + 1 : active)) {
+                if (lastAttempt) {
+                    account.dropped++;
+                    stripe.dropped++;
+                }
+
+                return null;
+            }
+
+            account.queuedBytes += size;
+            account.queuedMessages++;
+            account.accepted++;
+            account.lastActivity = TimeUtils.timeNow();
+
+            if (account.queuedBytes > account.peakQueuedBytes) {
+                account.peakQueuedBytes = account.queuedBytes;
+            }
+
+            stripe.queuedBytes += size;
+
+            if (idle) {
+                stripe.active++;
+            }
+        }
+
+        long average = averageMsgSize;
+
+        averageMsgSize = average + (size - average) / 8;
+
+        return account;
+    }
+
+    /**
+     *  Release the room held by a message.
+     *
+     *  @param account the account returned by {@link #obtain}.
+     *  @param size the size of the message in bytes.
+     */
+    void release(SenderAccount account, long size) {
+        Stripe stripe = account.stripe;
+
+        synchronized (stripe) {
+            account.queuedBytes -= size;
+            account.queuedMessages--;
+            stripe.queuedBytes -= size;
+
+            if (0 == account.queuedMessages) {
+                stripe.active--;
+            }
+        }
+    }
+
+    /**
+     *  Decide whether a message may be queued. Called with the stripe lock
+     *  held.
+     */
+    private boolean admit(SenderAccount account, long size, long queued, int active) {
+        if (queued + size > budget) {
+            return false;
+        }
+
+        if (0 == account.queuedMessages) {
+            return true;
+        }
+
+        long after = account.queuedBytes + size;
+        long fairShare = budget / Math.max(1, active);
+        long guaranteed = Math.min(GUARANTEED_MESSAGES * averageMsgSize, fairShare);
+
+        if (after <= guaranteed) {
+            return true;
+        }
+
+        return (after <= fairShare * BURST_FACTOR) && (queued + size <= budget - reserve);
+    }
+
+    /**
+     *  Forget the least recently active idle senders of a stripe so that
+     *  there is room for one more. Called with the stripe lock held.
+     */
+    private void trim(Stripe stripe) {
+        Iterator eachSender = stripe.senders.values().iterator();
+
+        while ((stripe.senders.size() >= maxSendersPerStripe) && eachSender.hasNext()) {
+            SenderAccount account = (SenderAccount) eachSender.next();
+
+            if (0 == account.queuedMessages) {
+                eachSender.remove();
+                stripe.accounts.remove(account.sender);
+            }
+        }
+    }
+
+    private Stripe stripeFor(String sender) {
+        return stripes[(sender.hashCode() & 0x7FFFFFFF) % stripes.length];
+    }
+
+    /**
+     *  Returns the total number of bytes which may be queued.
+     *
+     *  @return the total number of bytes which may be queued.
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     *  Returns the number of stripes.
+     *
+     *  @return the number of stripes.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     *  Returns the moving average of the size of the accepted messages.
+     *
+     *  @return the average message size in bytes.
+     */
+    public long getAverageMessageSize() {
+        return averageMsgSize;
+    }
+
+    /**
+     *  Returns the number of bytes currently queued for all senders.
+     *
+     *  @return the number of bytes currently queued.
+     */
+    public long getQueuedBytes() {
+        long total = 0;
+
+        for (int eachStripe = 0; eachStripe < stripes.length; eachStripe++) {
+            total += stripes[eachStripe].queuedBytes;
+        }
+
+        return total;
+    }
+
+    /**
+     *  Returns the number of senders which currently have messages queued.
+     *
+     *  @return the number of senders which currently have messages queued.
+     */
+    public int getActiveSenders() {
+        int total = 0;
+
+        for (int eachStripe = 0; eachStripe < stripes.length; eachStripe++) {
+            total += stripes[eachStripe].active;
+        }
+
+        return total;
+    }
+
+    /**
+     *  Returns the number of messages dropped for all senders.
+     *
+     *  @return the number of messages dropped.
+     */
+    public long getDroppedCount() {
+        long total = 0;
+
+        for (int eachStripe = 0; eachStripe < stripes.length; eachStripe++) {
+            total += stripes[eachStripe].dropped;
+        }
+
+        return total;
+    }
+
+    /**
+     *  Returns the metrics of a sender.
+     *
+     *  @param sender the sender.
+     *  @return the metrics of the sender or <code>null</code> if the sender is
+     *  not tracked.
+     */
+    public SenderMetrics getSenderMetrics(String sender) {
+        Stripe stripe = stripeFor(sender);
+
+        synchronized (stripe) {
+            SenderAccount account = (SenderAccount) stripe.accounts.get(sender);
+
+            return (null == account) ? null : new SenderMetrics(account);
+        }
+    }
+
+    /**
+     *  Returns the metrics of all the senders tracked.
+     *
+     *  @return the metrics of all the senders tracked.
+     */
+    public SenderMetrics[] getSenderMetrics() {
+        List result = new ArrayList();
+
+        for (int eachStripe = 0; eachStripe < stripes.length; eachStripe++) {
+            Stripe stripe = stripes[eachStripe];
+
+            synchronized (stripe) {
+                Iterator eachSender = stripe.senders.values().iterator();
+
+                while (eachSender.hasNext()) {
+                    result.add(new SenderMetrics((SenderAccount) eachSender.next()));
+                }
+            }
+        }
+
+        return (SenderMetrics[]) result.toArray(new SenderMetrics[result.size()]);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String toString() {
+        return "SenderQuotaEngine[budget=" + budget + " queued=" + getQueuedBytes() + " active=" + getActiveSenders()
+               + " avgMsgSize=" + averageMsgSize + " dropped=" + getDroppedCount() + "]";
+    }
+
+    /**
+     *  A set of senders sharing a lock.
+     */
+    private static final class Stripe {
+
+        /**
+         *  The senders, least recently active first.
+         */
+        final LinkedHashMap senders = new LinkedHashMap(16, 0.75f, true);
+
+        /**
+         *  The same senders. Looking a sender up here, unlike in
+         *  {@link #senders}, does not make it the most recently active.
+         */
+        final Map accounts = new HashMap();
+
+        /**
+         *  Bytes queued for the senders of this stripe.
+         */
+        volatile long queuedBytes = 0;
+
+        /**
+         *  Senders of this stripe with messages queued.
+         */
+        volatile int active = 0;
+
+        /**
+         *  Messages dropped for the senders of this stripe.
+         */
+        volatile long dropped = 0;
+    }
+
+    /**
+     *  The accounting of a sender. All fields are guarded by the lock of the
+     *  stripe.
+     */
+    static final class SenderAccount {
+
+        final String sender;
+
+        final Stripe stripe;
+
+        long queuedBytes = 0;
+
+        int queuedMessages = 0;
+
+        long peakQueuedBytes = 0;
+
+        long accepted = 0;
+
+        long dropped = 0;
+
+        long lastActivity = 0;
+
+        SenderAccount(String sender, Stripe stripe) {
+            this.sender = sender;
+            this.stripe = stripe;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public String toString() {
+            return sender;
+        }
+    }
+
+    /**
+     *  A snapshot of the accounting of a sender.
+     */
+    public static final class SenderMetrics {
+
+        private final String sender;
+
+        private final long queuedBytes;
+
+        private final int queuedMessages;
+
+        private final long peakQueuedBytes;
+
+        private final long accepted;
+
+        private final long dropped;
+
+        private final long lastActivity;
+
+        SenderMetrics(SenderAccount account) {
+            sender = account.sender;
+            queuedBytes = account.queuedBytes;
+            queuedMessages = account.queuedMessages;
+            peakQueuedBytes = account.peakQueuedBytes;
+            accepted = account.accepted;
+            dropped = account.dropped;
+            lastActivity = account.lastActivity;
+        }
+
+        /**
+         *  Returns the sender.
+         *
+         *  @return the address of the sender.
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         *  Returns the number of bytes queued for the sender.
+         *
+         *  @return the number of bytes queued.
+         */
+        public long getQueuedBytes() {
+            return queuedBytes;
+        }
+
+        /**
+         *  Returns the number of messages queued for the sender.
+         *
+         *  @return the number of messages queued.
+         */
+        public int getQueuedMessages() {
+            return queuedMessages;
+        }
+
+        /**
+         *  Returns the largest number of bytes ever queued for the sender.
+         *
+         *  @return the largest number of bytes queued.
+         */
+        public long getPeakQueuedBytes() {
+            return peakQueuedBytes;
+        }
+
+        /**
+         *  Returns the number of messages accepted from the sender.
+         *
+         *  @return the number of messages accepted.
+         */
+        public long getAcceptedCount() {
+            return accepted;
+        }
+
+        /**
+         *  Returns the number of messages from the sender which were dropped.
+         *
+         *  @return the number of messages dropped.
+         */
+        public long getDroppedCount() {
+            return dropped;
+        }
+
+        /**
+         *  Returns the time at which a message from the sender was last
+         *  accepted.
+         *
+         *  @return the time in absolute milliseconds or 0 if no message was
+         *  ever accepted.
+         */
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public String toString() {
+            return sender + " queued=" + queuedBytes + "/" + queuedMessages + " peak=" + peakQueuedBytes
+                   + " accepted=" + accepted + " dropped=" + dropped;
+        }
+    }
+}
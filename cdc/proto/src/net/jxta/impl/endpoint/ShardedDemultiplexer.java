@@ -0,0 +1,500 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+
+import net.jxta.impl.util.UnbiasedQueue;
+
+/**
+ *  Hands incoming messages from the transports over to a fixed set of worker
+ *  threads which deliver them to their listeners. Messages are assigned to a
+ *  worker by hashing the service name and parameter of their destination, so
+ *  that the messages of each service are delivered in order, by the same
+ *  worker, while a slow listener only holds up the services which share its
+ *  worker.
+ *
+ *  <p/>The messages a connection carries for different services may be
+ *  delivered in a different order than they were received. Each service
+ *  still sees the messages of a connection in the order they were received.
+ *  Services which must not wait on one another should be given enough
+ *  workers that they are unlikely to share one.
+ *
+ *  <p/>The queue of each worker is bounded. When it is full a transport
+ *  thread delivering a message waits for room, slowing down the reading of
+ *  its connection rather than dropping messages. Callers which must not wait,
+ *  such as selector loops, are told to stop reading from the connection
+ *  until the queue has drained.
+ */
+public class ShardedDemultiplexer {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(ShardedDemultiplexer.class.getName());
+
+    /**
+     *  The endpoint which delivers the messages.
+     */
+    private final EndpointServiceImpl endpoint;
+
+    /**
+     *  The workers.
+     */
+    private final Worker[] workers;
+
+    /**
+     *  The number of messages queued per worker above which transports wait
+     *  or stop reading.
+     */
+    private final int queueSize;
+
+    /**
+     *  Number of enqueues which found a queue full.
+     */
+    private long stalls = 0;
+
+    /**
+     *  The largest depth any of the queues reached.
+     */
+    private int maxDepth = 0;
+
+    /**
+     *  Create a new demultiplexer and start its workers.
+     *
+     *  @param endpoint the endpoint which delivers the messages.
+     *  @param threadGroup the thread group of the workers.
+     *  @param nbWorkers the number of workers.
+     *  @param queueSize the maximum number of messages queued per worker.
+     */
+    ShardedDemultiplexer(EndpointServiceImpl endpoint, ThreadGroup threadGroup, int nbWorkers, int queueSize) {
+        if (nbWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be > 0");
+        }
+
+        this.endpoint = endpoint;
+        this.queueSize = queueSize;
+
+        workers = new Worker[nbWorkers];
+
+        for (int eachWorker = 0; eachWorker < nbWorkers; eachWorker++) {
+            workers[eachWorker] = new Worker(threadGroup, eachWorker);
+        }
+
+        for (int eachWorker = 0; eachWorker < nbWorkers; eachWorker++) {
+            workers[eachWorker].thread.start();
+        }
+    }
+
+    /**
+     *  Queue a message received by the calling thread. Waits if the queue of
+     *  the thread's worker is full. Messages demultiplexed by a worker thread
+     *  itself, for example loopback messages sent by a listener, are queued
+     *  without waiting since the worker could be waiting for itself.
+     *
+     *  @param msg the message.
+     *  @param srcAddress the source of the message.
+     *  @param dstAddress the destination of the message.
+     */
+    void demux(Message msg, EndpointAddress srcAddress, EndpointAddress dstAddress) {
+        Worker worker = workers[shard(dstAddress)];
+
+        worker.enqueue(new Object[] { msg, srcAddress, dstAddress }, !isWorker(Thread.currentThread()), null);
+    }
+
+    /**
+     *  Queue a message without waiting.
+     *
+     *  @param msg the message.
+     *  @param srcAddress the source of the message.
+     *  @param dstAddress the destination of the message.
+     *  @param source the connection the message was read from.
+     *  @param resume if the queue is full, run once it has drained.
+     *  @return <code>false</code> if the queue is full and the caller should
+     *  stop reading from the source until <code>resume</code> is run.
+     */
+    boolean demux(Message msg, EndpointAddress srcAddress, EndpointAddress dstAddress, Object source, Runnable resume) {
+        Worker worker = workers[shard(dstAddress)];
+
+        return worker.enqueue(new Object[] { msg, srcAddress, dstAddress }, false, resume);
+    }
+
+    /**
+     *  Stop the workers once they have delivered the messages already queued.
+     */
+    void close() {
+        for (int eachWorker = 0; eachWorker < workers.length; eachWorker++) {
+            workers[eachWorker].close();
+        }
+
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info("Demultiplexer closing : " + this);
+        }
+    }
+    /**
+     *  Returns the number of workers.
+     *
+     *  @return the number of workers.
+     */
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     *  Returns the number of messages waiting in the queue of a worker.
+     *
+     *  @param worker the worker index.
+     *  @return the number of messages waiting.
+     */
+    public int getQueueDepth(int worker) {
+        return workers[worker].queue.getCurrentInQueue();
+    }
+
+    /**
+     *  Returns the average number of messages waiting in the queue of a
+     *  worker when a message was queued.
+     *
+     *  @param worker the worker index.
+     *  @return the average queue depth or NaN if no message was queued.
+     */
+    public double getAverageQueueDepth(int worker) {
+        return workers[worker].queue.getAvgInQueueAtEnqueue();
+    }
+
+    /**
+     *  Returns the number of messages queued for a worker.
+     *
+     *  @param worker the worker index.
+     *  @return the number of messages queued.
+     */
+    public long getEnqueuedCount(int worker) {
+        return workers[worker].queue.getNumEnqueued();
+    }
+
+    /**
+     *  Returns the largest number of messages any queue held.
+     *
+     *  @return the largest queue depth reached.
+     */
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     *  Returns the number of times a transport had to wait or stop reading
+     *  because a queue was full.
+     *
+     *  @return the number of stalls.
+     */
+    public synchronized long getStallCount() {
+        return stalls;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String toString() {
+        StringBuffer result = new StringBuffer();
+
+        result.append(workers.length).append(" workers, depths [");
+
+        for (int eachWorker = 0; eachWorker < workers.length; eachWorker++) {
+            if (eachWorker > 0) {
+                result.append(' ');
+            }
+            result.append(getQueueDepth(eachWorker));
+        }
+
+        result.append("], max depth ").append(getMaxQueueDepth()).append(", stalls ").append(getStallCount());
+
+        return result.toString();
+    }
+
+    /**
+     *  Returns true if the thread is one of our workers.
+     */
+    private boolean isWorker(Thread thread) {
+        for (int eachWorker = 0; eachWorker < workers.length; eachWorker++) {
+            if (thread == workers[eachWorker].thread) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *  Records the depth of a queue after an enqueue.
+     */
+    private synchronized void enqueued(int depth, boolean full) {
+        if (full) {
+            stalls++;
+        }
+
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    /**
+     *  Select the worker for a destination, from its service name and
+     *  parameter.
+     *
+     *  @param dstAddress the destination of a message.
+     *  @return the worker index.
+     */
+    int shard(EndpointAddress dstAddress) {
+        String serviceName = dstAddress.getServiceName();
+        String serviceParam = dstAddress.getServiceParameter();
+        int hash = (null == serviceName) ? 0 : serviceName.hashCode();
+
+        hash = 31 * hash + ((null == serviceParam) ? 0 : serviceParam.hashCode());
+
+        // spread the bits a little.
+        hash ^= (hash >>> 16);
+
+        return (hash & 0x7FFFFFFF) % workers.length;
+    }
+
+    /**
+     *  A worker and its queue.
+     */
+    private class Worker implements Runnable {
+
+        /**
+         *  The queue itself is unbounded, {@link #queueSize} is enforced by
+         *  the worker so that a message is never refused and never delivered
+         *  ahead of those already queued.
+         */
+        final UnbiasedQueue queue = new UnbiasedQueue(Integer.MAX_VALUE, false);
+
+        final Thread thread;
+
+        /**
+         *  The tasks to run once the queue has drained to half of its size.
+         */
+        private final List resumes = new ArrayList();
+
+        Worker(ThreadGroup threadGroup, int index) {
+            thread = new Thread(threadGroup, this, "Endpoint Demux #" + index);
+            thread.setDaemon(true);
+        }
+
+        /**
+         *  Queue a message.
+         *
+         *  @param item the message and its addresses.
+         *  @param wait if true then wait while the queue is full.
+         *  @param resume if the queue is full, run once it has drained.
+         *  @return <code>false</code> if the queue is full.
+         */
+        boolean enqueue(Object[] item, boolean wait, Runnable resume) {
+            boolean stalled = false;
+            int depth;
+
+            synchronized (this) {
+                while (wait && !queue.isClosed() && (queue.getCurrentInQueue() >= queueSize)) {
+                    stalled = true;
+
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        Thread.interrupted();
+
+                        // queue it anyway, it must not overtake the others.
+                        break;
+                    }
+                }
+
+                boolean queued = false;
+
+                try {
+                    queued = queue.push(item, -1);
+                } catch (InterruptedException woken) {
+                    Thread.interrupted();
+                }
+
+                if (!queued) {
+                    // We are closing.
+                    if (LOG.isEnabledFor(Level.DEBUG)) {
+                        LOG.debug("Demultiplexer closed, discarding " + item[0]);
+                    }
+                    return true;
+                }
+
+                depth = queue.getCurrentInQueue();
+
+                if (!wait && (depth >= queueSize)) {
+                    stalled = true;
+
+                    if (null != resume) {
+                        resumes.add(resume);
+                    }
+                }
+            }
+
+            enqueued(depth, stalled);
+
+            return wait || (depth < queueSize);
+        }
+
+        /**
+         *  Called after a message was taken from the queue. Wakes the
+         *  transports waiting for room.
+         */
+        private void dequeued() {
+            Object[] toResume = null;
+
+            synchronized (this) {
+                int depth = queue.getCurrentInQueue();
+
+                if (depth < queueSize) {
+                    notifyAll();
+                }
+
+                if (!resumes.isEmpty() && (depth <= queueSize / 2)) {
+                    toResume = resumes.toArray();
+                    resumes.clear();
+                }
+            }
+
+            resume(toResume);
+        }
+
+        /**
+         *  Close the queue, the messages already queued are still delivered.
+         */
+        void close() {
+            Object[] toResume;
+
+            synchronized (this) {
+                queue.close();
+                notifyAll();
+
+                toResume = resumes.toArray();
+                resumes.clear();
+            }
+
+            resume(toResume);
+        }
+
+        private void resume(Object[] toResume) {
+            if (null == toResume) {
+                return;
+            }
+
+            for (int each = 0; each < toResume.length; each++) {
+                try {
+                    ((Runnable) toResume[each]).run();
+                } catch (Throwable all) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("Uncaught Throwable while resuming " + toResume[each], all);
+                    }
+                }
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            try {
+                while (true) {
+                    Object[] item;
+
+                    try {
+                        item = (Object[]) queue.pop(0);
+                    } catch (InterruptedException woken) {
+                        Thread.interrupted();
+                        continue;
+                    }
+
+                    if (null == item) {
+                        // closed and empty.
+                        break;
+                    }
+
+                    dequeued();
+
+                    try {
+                        endpoint.processIncomingMessage((Message) item[0], (EndpointAddress) item[1], (EndpointAddress) item[2]);
+                    } catch (Throwable all) {
+                        if (LOG.isEnabledFor(Level.WARN)) {
+                            LOG.warn("Uncaught Throwable while delivering " + item[0], all);
+                        }
+                    }
+                }
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+        }
+    }
+}
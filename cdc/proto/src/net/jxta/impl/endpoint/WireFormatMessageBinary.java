@@ -66,6 +66,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -441,8 +442,358 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             dis.readFully(bytes);
             return new String(bytes, "UTF8");
         }
+
+        /**
+         * {@inheritDoc}
+         *
+         *  <p/>The message elements are slices of the provided buffer, their
+         *  content is not copied.
+         */
+        public Message fromBuffer(byte[] buffer, int offset, int length, MimeMediaType type, MimeMediaType contentEncoding, Object owner) throws IOException {
+            // FIXME 20020504 bondolo@jxta.org  Ignores type and contentEncoding completely.
+            Message msg = new Message();
+
+            if (LOG.isEnabledFor(Level.DEBUG))
+                LOG.debug("Reading " + msg + " from buffer of " + length + " bytes");
+
+            BufferReader in = new BufferReader(buffer, offset, length);
+
+            if (!in.hasSignature('j', 'x', 'm', 'g')) {
+                IOException failure = new IOException("Not a message (incorrect signature)");
+
+                if (LOG.isEnabledFor(Level.ERROR))
+                    LOG.error(failure);
+
+                throw failure;
+            }
+
+            if (in.readByte() != MESSAGE_VERSION) {
+                IOException failure = new IOException("Message not version " + MESSAGE_VERSION);
+
+                if (LOG.isEnabledFor(Level.ERROR))
+                    LOG.error(failure, failure);
+
+                throw failure;
+            }
+
+            int namespaceCnt = in.readShort();
+
+            if(namespaceCnt > 253) {
+                IOException failure = new IOException("Message contains too many namespaces (>253)");
+
+                if (LOG.isEnabledFor(Level.ERROR))
+                    LOG.error(failure, failure);
+
+                throw failure;
+            }
+
+            String [] namespaces = new String[2 + namespaceCnt];
+            namespaces[0] = "";
+            namespaces[1] = "jxta";
+
+            for(int i=0; i<namespaceCnt; ++i) {
+                namespaces[2 + i] = in.readString();
+            }
+
+            int elementCnt = in.readShort();
+
+            int eachElement = 0;
+            while(((0 == elementCnt) || (eachElement < elementCnt)) && (in.remaining() > 0)) {
+                int [] nsid = new int[1];
+                MessageElement anElement = readMessageElement(in, nsid, owner);
+
+                if(nsid[0] >= namespaces.length) {
+                    if (LOG.isEnabledFor(Level.ERROR))
+                        LOG.error("Element identified a namespace which was not defined for this message.");
+
+                    throw new IOException("Element identified a namespace which was not defined for this message.");
+                }
+
+                msg.addMessageElement(namespaces[nsid[0]], anElement);
+                eachElement++;
+            }
+
+            if((elementCnt != 0) && (eachElement != elementCnt))
+                throw new IOException("Found wrong number of elements in message.");
+
+            return msg;
+        }
+
+        /**
+         *  Read in a message element from the provided buffer. The element
+         *  content is a slice of the buffer.
+         *
+         *  @param in  the buffer to read from
+         *  @param nsid receives the namespace id of the element
+         *  @param owner referenced by the elements which share the buffer.
+         *  @return the message element.
+         *  @throws IOException if the element is malformed or truncated.
+         */
+        private MessageElement readMessageElement(BufferReader in, int [] nsid, Object owner) throws IOException {
+            if (!in.hasSignature('j', 'x', 'e', 'l')) {
+                IOException failure = new IOException("Not a message element (incorrect signature)");
+
+                if (LOG.isEnabledFor(Level.ERROR))
+                    LOG.error(failure, failure);
+
+                throw failure;
+            }
+
+            nsid[0] = in.readByte() & 0x000000FF;
+
+            byte flags = in.readByte();
+
+            String name = in.readString();
+
+            MimeMediaType type = null;
+            if ((flags & HAS_TYPE) != 0) {
+                String typeString = in.readString();
+                try {
+                    type = new MimeMediaType(typeString);
+                } catch (IllegalArgumentException uhoh) {
+                    throw new IOException("Bad MimeType in message element header : " + uhoh.getMessage());
+                }
+            } else
+                type = MimeMediaType.AOS;
+
+            int dataLen = in.readInt();
+            int dataOffset = in.skip(dataLen);
+
+            MessageElement sig = null;
+            if ((flags & HAS_SIGNATURE) != 0) {
+                sig = readMessageElement(in, new int[1], owner);
+            }
+
+            if (type.equalsIngoringParams(myTypes [0])) {
+                Message submsg = fromBuffer(in.buffer, dataOffset, dataLen, type, null, owner);
+
+                return new JxtaMessageMessageElement(name, type, submsg, sig);
+            } else if (null != owner) {
+                return new SharedByteArrayMessageElement(name, type, in.buffer, dataOffset, dataLen, sig, owner);
+            } else {
+                return new ByteArrayMessageElement(name, type, in.buffer, dataOffset, dataLen, sig);
+            }
+        }
     };
 
+    /**
+     *  Sequential reader of the primitive types of the binary message format
+     *  from a byte array.
+     */
+    private static class BufferReader {
+        final byte [] buffer;
+        private int position;
+        private final int limit;
+
+        BufferReader(byte [] buffer, int offset, int length) {
+            if ((offset < 0) || (length < 0) || ((offset + length) > buffer.length)) {
+                throw new IllegalArgumentException("offset and length must be within the buffer");
+            }
+
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        int remaining() {
+            return limit - position;
+        }
+
+        /**
+         *  Consume <code>count</code> bytes and return the offset of the
+         *  first of them.
+         */
+        int skip(int count) throws IOException {
+            if ((count < 0) || (count > remaining())) {
+                throw new EOFException("Needed " + count + " bytes but only " + remaining() + " remain");
+            }
+
+            int at = position;
+            position += count;
+            return at;
+        }
+
+        boolean hasSignature(char c0, char c1, char c2, char c3) throws IOException {
+            int at = skip(4);
+
+            return (buffer[at] == c0) && (buffer[at + 1] == c1) && (buffer[at + 2] == c2) && (buffer[at + 3] == c3);
+        }
+
+        byte readByte() throws IOException {
+            return buffer[skip(1)];
+        }
+
+        short readShort() throws IOException {
+            int at = skip(2);
+
+            return (short) (((buffer[at] & 0xFF) << 8) | (buffer[at + 1] & 0xFF));
+        }
+
+        int readInt() throws IOException {
+            int at = skip(4);
+
+            return ((buffer[at] & 0xFF) << 24) | ((buffer[at + 1] & 0xFF) << 16) | ((buffer[at + 2] & 0xFF) << 8) | (buffer[at + 3] & 0xFF);
+        }
+
+        String readString() throws IOException {
+            int len = readShort();
+            if (len < 0)
+                throw new IOException("Bad string length in message");
+
+            return new String(buffer, skip(len), len, "UTF8");
+        }
+    }
+
+    /**
+     *  A byte array message element which shares a buffer owned by someone
+     *  else. The element keeps a reference to the owner of the buffer for as
+     *  long as the element exists, and so does every stream it returns until
+     *  the stream is closed or fully read. The shared buffer itself is never
+     *  handed out; {@link #getBytes(boolean)} copies the contents out and
+     *  gives up the owner.
+     */
+    private static class SharedByteArrayMessageElement extends ByteArrayMessageElement {
+
+        /**
+         *  The owner of the shared buffer. Only referenced to keep it
+         *  reachable. <code>null</code> once the element has its own copy of
+         *  the contents.
+         */
+        private Object owner;
+
+        SharedByteArrayMessageElement(String name, MimeMediaType type, byte[] b, int offset, int len, MessageElement sig, Object owner) {
+            super(name, type, b, offset, len, sig);
+            this.owner = owner;
+        }
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The element switches to the copy it returns, if it was still
+         *  using the shared buffer.
+         */
+        public synchronized byte[] getBytes(boolean copy) {
+            if (null == owner) {
+                return super.getBytes(copy);
+            }
+
+            byte[] result = new byte[len];
+
+            System.arraycopy(b, offset, result, 0, len);
+
+            if (!copy) {
+                b = result;
+                offset = 0;
+                owner = null;
+            }
+
+            return result;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized InputStream getStream() {
+            if (null == owner) {
+                return super.getStream();
+            }
+
+            return new SharedByteArrayInputStream(b, offset, len, owner);
+        }
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The element is locked while writing a shared buffer so that
+         *  the element, and with it the owner, stays reachable until the
+         *  write is done.
+         */
+        public void sendToStream(OutputStream sendTo) throws IOException {
+            synchronized (this) {
+                if (null != owner) {
+                    sendTo.write(b, offset, len);
+                    return;
+                }
+            }
+
+            super.sendToStream(sendTo);
+        }
+    }
+
+    /**
+     *  A stream of a shared buffer which keeps a reference to the owner of the
+     *  buffer until the stream is closed or has been fully read. After that
+     *  the stream returns no more data, even if it is reset.
+     */
+    private static class SharedByteArrayInputStream extends ByteArrayInputStream {
+
+        /**
+         *  The owner of the shared buffer. <code>null</code> once the stream
+         *  has been closed or fully read.
+         */
+        private Object owner;
+
+        SharedByteArrayInputStream(byte[] buf, int offset, int length, Object owner) {
+            super(buf, offset, length);
+            this.owner = owner;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized int read() {
+            int result = (null == owner) ? -1 : super.read();
+
+            released();
+            return result;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized int read(byte[] b, int off, int len) {
+            int result = (null == owner) ? -1 : super.read(b, off, len);
+
+            released();
+            return result;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized long skip(long n) {
+            long result = (null == owner) ? 0 : super.skip(n);
+
+            released();
+            return result;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized int available() {
+            return (null == owner) ? 0 : super.available();
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public synchronized void close() {
+            owner = null;
+            buf = null;
+            pos = count = 0;
+        }
+
+        /**
+         *  Gives up the buffer once everything has been read.
+         */
+        private void released() {
+            if (pos >= count) {
+                close();
+            }
+        }
+    }
+
     /**
      *  Internal representation for a binary format wire message. Implemented
      *  as an inner class to allow content encodings to be easily mapped on
@@ -537,6 +888,23 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             }
         }
 
+        /**
+         *  Appends the buffers of the serialization to the provided list.
+         *
+         *  @param headerSpace space into which headers are copied.
+         *  @param buffers receives the buffers.
+         */
+        void gather(ByteBuffer headerSpace, List buffers) {
+            addHeader(header, headerSpace, buffers);
+
+            Iterator eachElement = elements.iterator();
+
+            while(eachElement.hasNext()) {
+                binaryElementProxy anElement = (binaryElementProxy) eachElement.next();
+                anElement.gather(headerSpace, buffers);
+            }
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -708,8 +1076,46 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             if(null != sig)
                 sig.sendToStream(sendTo);
         }
+
+        /**
+         *  Appends the buffers of the element serialization to the provided
+         *  list. The element content is not copied unless the element has to
+         *  produce it.
+         *
+         *  @param headerSpace space into which headers are copied.
+         *  @param buffers receives the buffers.
+         */
+        void gather(ByteBuffer headerSpace, List buffers) {
+            addHeader(header, headerSpace, buffers);
+            if(element instanceof ByteArrayMessageElement) {
+                buffers.add(((ByteArrayMessageElement) element).getByteBuffer());
+            } else {
+                buffers.add(ByteBuffer.wrap(element.getBytes(false)));
+            }
+            if(null != sig)
+                sig.gather(headerSpace, buffers);
+        }
     };
 
+    /**
+     *  Appends a header to the list of buffers. The header is copied into
+     *  <code>headerSpace</code> if there is room, otherwise it is wrapped.
+     */
+    private static void addHeader(byte [] header, ByteBuffer headerSpace, List buffers) {
+        if((null == headerSpace) || (headerSpace.remaining() < header.length)) {
+            buffers.add(ByteBuffer.wrap(header));
+            return;
+        }
+
+        int start = headerSpace.position();
+        headerSpace.put(header);
+
+        ByteBuffer view = headerSpace.duplicate();
+        view.position(start);
+        view.limit(headerSpace.position());
+        buffers.add(view);
+    }
+
     /**
      *  The message we are serializing.
      */
@@ -839,6 +1245,25 @@ public class WireFormatMessageBinary implements WireFormatMessage {
          msgProxy.sendToStream(sendTo);
     }
 
+    /**
+     *  Appends the serialized message, as a sequence of buffers suitable for a
+     *  gathering write, to the provided list. The headers are copied into
+     *  <code>headerSpace</code> while there is room for them, element content
+     *  is wrapped rather than copied. The buffers are only valid until
+     *  <code>headerSpace</code> is next modified.
+     *
+     *  @param headerSpace space into which the headers are copied. May be
+     *  null in which case the headers are wrapped.
+     *  @param buffers receives the buffers.
+     */
+    public void getByteBuffers(ByteBuffer headerSpace, List buffers) {
+        if(msg.getMessageModCount() != msgModCount) {
+            throw new IllegalStateException("message was unexpectedly modified!");
+        }
+
+        msgProxy.gather(headerSpace, buffers);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -139,6 +139,24 @@ public class WireFormatMessageFactory extends ClassFactory {
          *  representation of the message in its serialized form.
          */
         public Message fromWire(InputStream is, MimeMediaType type, MimeMediaType contentEncoding) throws IOException;
+
+        /**
+         *  Create an abstract message from a serialization held in a byte
+         *  array. Message elements may share the array rather than copying
+         *  their content from it.
+         *
+         *  @param buffer The array containing the message serialization.
+         *  @param offset Offset of the serialization within the array.
+         *  @param length Length of the serialization.
+         *  @param type Declared message type of the serialization including any
+         *  optional configuration parameters.
+         *  @param contentEncoding Content encoding (including optional parameters)
+         * which has been applied to the message. May be null for unencoded messages.
+         *  @param owner An object which will be referenced by every message
+         *  element which shares the array. May be null.
+         *  @return the new abstract message.
+         */
+        public Message fromBuffer(byte[] buffer, int offset, int length, MimeMediaType type, MimeMediaType contentEncoding, Object owner) throws IOException;
     };
 
     /**
@@ -324,4 +342,33 @@ public class WireFormatMessageFactory extends ClassFactory {
 
         return instantiator.fromWire(is, type, contentEncoding);
     }
+
+    /**
+     * Constructs an abstract message from a serialization held in a byte
+     * array. The message elements may share the array so its contents must not
+     * change for as long as the message, or any of its elements, is in use.
+     *
+     *  @param buffer The array containing the message serialization.
+     *  @param offset Offset of the serialization within the array.
+     *  @param length Length of the serialization.
+     *  @param type Declared message type of the serialization including any
+     *  optional configuration parameters.
+     *  @param contentEncoding Content encoding (including optional parameters)
+     * which has been applied to the message. May be null for unencoded messages.
+     *  @param owner An object which will be referenced by every message
+     *  element which shares the array, for example a
+     *  {@link net.jxta.impl.util.BufferPool#lease(byte[]) buffer lease}. May be
+     *  null.
+     *  @return the new abstract message.
+     */
+    public static Message fromBuffer(byte[] buffer, int offset, int length, MimeMediaType type, MimeMediaType contentEncoding, Object owner) throws IOException {
+        if(!factory.loadedProperty) {
+            factory.loadedProperty = factory.doLoadProperty();
+        }
+
+        Instantiator instantiator =
+            (Instantiator) factory.getInstantiator(type.getMimeMediaType());
+
+        return instantiator.fromBuffer(buffer, offset, length, type, contentEncoding, owner);
+    }
 }
@@ -86,9 +86,11 @@ import net.jxta.protocol.ModuleImplAdvertisement;
 import net.jxta.protocol.PeerAdvertisement;
 import net.jxta.protocol.RouteAdvertisement;
 import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
 
 import net.jxta.exception.PeerGroupException;
 
+import net.jxta.impl.peergroup.ModuleDependencies;
 import net.jxta.impl.util.TimeUtils;
 import net.jxta.impl.protocol.RelayConfigAdv;
 
@@ -101,7 +103,7 @@ import net.jxta.impl.protocol.RelayConfigAdv;
  *  GETSERVER - message contains PEERID.
  */
 
-public final class RelayTransport implements EndpointListener, Module {
+public final class RelayTransport implements EndpointListener, Module, ModuleDependencies {
 
     /**
      *  Log4J Logger
@@ -228,6 +230,13 @@ public final class RelayTransport implements EndpointListener, Module {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ModuleClassID[] getStartDependencies() {
+        return new ModuleClassID[] {PeerGroup.endpointClassID, PeerGroup.discoveryClassID};
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -65,11 +65,10 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
 
 import java.io.IOException;
@@ -105,8 +104,9 @@ import net.jxta.exception.PeerGroupException;
 
 import net.jxta.impl.endpoint.LoopbackMessenger;
 import net.jxta.impl.util.FastHashMap;
+import net.jxta.impl.util.ScheduledTask;
 import net.jxta.impl.util.TimeUtils;
-import net.jxta.impl.util.TimerThreadNamer;
+import net.jxta.impl.util.TimingWheel;
 
 import net.jxta.impl.endpoint.IllegalTransportLoopException;
 
@@ -185,6 +185,24 @@ public class EndpointRouter implements EndpointListener,
      */
     private Set newDestinations = Collections.synchronizedSet(new HashSet());
 
+    /**
+     * The maximum number of peers for which we remember that they accept
+     * the binary router element.
+     */
+    private final static int MAX_BINARY_PEERS = 1024;
+
+    /**
+     * The peers which have told us that they accept the binary router
+     * element, least recently heard from first. Other peers are sent XML.
+     *
+     * <p>Keys are {@link net.jxta.endpoint.EndpointAddress}.
+     */
+    private final Map binaryPeers = new LinkedHashMap(16, 0.75f, true) {
+                                        protected boolean removeEldestEntry(Map.Entry eldest) {
+                                            return size() > MAX_BINARY_PEERS;
+                                        }
+                                    };
+
     /**
      * A pool of messengers categorized by logical address.
      * This actually is the direct routes map.
@@ -228,9 +246,9 @@ public class EndpointRouter implements EndpointListener,
     /**
      * Timer by which we schedule the clearing of peinding queries.
      */
-    private Timer timer;
+    private TimingWheel timer;
 
-    protected class ClearPendingQuery extends TimerTask {
+    protected class ClearPendingQuery extends ScheduledTask {
         EndpointAddress pid;
         volatile boolean failed = false;
         long timeToRetry = 0;
@@ -660,8 +678,7 @@ public class EndpointRouter implements EndpointListener,
     public void init(PeerGroup g, ID assignedID, Advertisement impl)
     throws PeerGroupException {
 
-        timer = new Timer(true);
-        timer.schedule(new TimerThreadNamer("EndpointRouter Timer for " + g.getPeerGroupID()), 0);
+        timer = TimingWheel.getSharedInstance();
         group = g;
         endpoint = group.getEndpointService();
         localPeerId = group.getPeerID();
@@ -746,7 +763,16 @@ public class EndpointRouter implements EndpointListener,
         //routeResolver.stopApp();
 
         destinations.close();
-        timer.cancel();
+
+        synchronized (this) {
+            Iterator eachQuery = pendingQueries.values().iterator();
+
+            while (eachQuery.hasNext()) {
+                ((ClearPendingQuery) eachQuery.next()).cancel();
+            }
+
+            pendingQueries.clear();
+        }
         timer = null;
         //routeResolver = null;
 
@@ -1446,6 +1472,7 @@ public class EndpointRouter implements EndpointListener,
 
             if (routerMsg.getLastHop() != null) {
                 lastHop = new EndpointAddress(routerMsg.getLastHop());
+                noteAccepted(lastHop, routerMsg.acceptsBinary());
             }
 
             // See if there's an originator full route adv inthere.
@@ -1803,6 +1830,7 @@ public class EndpointRouter implements EndpointListener,
 
             // We always modify the router message within the message
             routerMsg.setLastHop(localPeerAddr.toString());
+            routerMsg.setBinary(acceptsBinary(nextHop));
             routerMsg.updateMessage();
 
             if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -2382,6 +2410,7 @@ public class EndpointRouter implements EndpointListener,
             // Push the router header onto the message.
             // That's all we have to do for now.
 
+            routerMsg.setBinary(acceptsBinary(theGatewayAddress));
             routerMsg.updateMessage();
 
         } catch (Exception ez1) {
@@ -2419,6 +2448,35 @@ public class EndpointRouter implements EndpointListener,
         }
     }
 
+    /**
+     * Remember whether a peer accepts the binary router element.
+     *
+     * @param peer the peer, as a router address.
+     * @param binary <code>true</code> if the peer accepts the binary element.
+     */
+    private void noteAccepted(EndpointAddress peer, boolean binary) {
+        synchronized (binaryPeers) {
+            if (binary) {
+                binaryPeers.put(peer, Boolean.TRUE);
+            } else {
+                binaryPeers.remove(peer);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the binary router element may be sent to
+     * a peer, that is if the peer has told us it accepts it.
+     *
+     * @param peer the peer, as a router address.
+     * @return <code>true</code> if the peer accepts the binary element.
+     */
+    private boolean acceptsBinary(EndpointAddress peer) {
+        synchronized (binaryPeers) {
+            return null != binaryPeers.get(peer);
+        }
+    }
+
     /**
      * convert an endpointRouterAddress into a PeerID
      */
@@ -58,12 +58,18 @@
 package net.jxta.impl.endpoint.router;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Vector;
 import java.util.Enumeration;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Level;
 
+import net.jxta.endpoint.ByteArrayMessageElement;
 import net.jxta.endpoint.EndpointAddress;
 import net.jxta.endpoint.Message;
 import net.jxta.endpoint.MessageElement;
@@ -77,13 +83,41 @@ import net.jxta.document.TextElement;
 import net.jxta.document.AdvertisementFactory;
 import net.jxta.document.Attributable;
 import net.jxta.document.MimeMediaType;
+import net.jxta.id.ID;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
 import net.jxta.protocol.AccessPointAdvertisement;
 import net.jxta.protocol.RouteAdvertisement;
 
+import net.jxta.impl.document.BinaryXMLDocument;
+import net.jxta.impl.endpoint.CompactValue;
+
 
 /**
  * Message element Router. This element is added to every
  * message to carry route information for the EndpointRouter service
+ *
+ * <p/>The element is either an XML document or, for peers which have told
+ * us that they accept it, a binary header of type {@link #BINARY_MIMETYPE}:
+ *
+ * <pre>
+ *   byte     version ({@link #BINARY_VERSION})
+ *   byte     flags, which of the optional fields below are present
+ *   value    source address       (optional)
+ *   value    destination address  (optional)
+ *   value    last hop             (optional)
+ *   hops     forward hops
+ *   hops     reverse hops
+ *   int      length, followed by the binary XML route advertisement (optional)
+ * </pre>
+ *
+ * <p/>A hop list is an unsigned short count followed by, for each hop, the
+ * peer id value, an unsigned byte count of endpoint addresses and the
+ * addresses as UTF strings. Values are written as {@link CompactValue}s.
+ *
+ * <p/>A binary header which is forwarded keeps the bytes of the hop lists and
+ * of the route advertisement it was received with. Only the parts which were
+ * changed by this peer are encoded again.
  */
 
 public class EndpointRouterMessage {
@@ -102,6 +136,29 @@ public class EndpointRouterMessage {
     public static final String LastHopTag = "Last";
     public static final String GatewayForwardTag = "Fwd";
     public static final String GatewayReverseTag = "Rvs";
+
+    /**
+     *  Element of the XML form with which the sending peer lists the
+     *  encodings, other than XML, it accepts from its next hops.
+     */
+    public static final String AcceptTag = "Accept";
+
+    /**
+     *  The mime type of the binary form of the element.
+     */
+    public static final MimeMediaType BINARY_MIMETYPE = new MimeMediaType("application", "x-jxta-erm").intern();
+
+    /**
+     *  Version of the binary form we produce and understand.
+     */
+    private static final int BINARY_VERSION = 1;
+
+    private static final int HAS_SRC = 0x01;
+    private static final int HAS_DEST = 0x02;
+    private static final int HAS_LAST = 0x04;
+    private static final int HAS_RADV = 0x08;
+
+    private static final String ADDRESS_PREFIX = "jxta://";
     
     private String srcAddress = null; // PeerID-based EndpointAddress
     private String destAddress = null; // PeerID-based EndpointAddress
@@ -126,6 +183,25 @@ public class EndpointRouterMessage {
     // Cache the element. At the minimum it simplifies removal.
     private MessageElement rmElem = null;
 
+    // Produce the binary form rather than XML.
+    private boolean binary = false;
+
+    // The peer which wrote the element accepts the binary form.
+    private boolean acceptsBinary = false;
+
+    // The binary element we were built from and the sections of it which
+    // are still in sync with this object. A section is not in sync when its
+    // end is -1. The first reversePrepended reverse hops are not part of the
+    // wire section.
+    private byte[] wire = null;
+    private int forwardStart = 0;
+    private int forwardEnd = -1;
+    private int reverseStart = 0;
+    private int reverseEnd = -1;
+    private int reversePrepended = 0;
+    private int radvStart = 0;
+    private int radvEnd = -1;
+
     public boolean msgExists() {
         return rmExists;
     }
@@ -134,6 +210,29 @@ public class EndpointRouterMessage {
         return rmDirty;
     }
 
+    /**
+     *  Returns <code>true</code> if the peer which wrote the element we were
+     *  built from accepts the binary form from its next hops.
+     *
+     *  @return <code>true</code> if the last hop accepts the binary form.
+     */
+    public boolean acceptsBinary() {
+        return acceptsBinary;
+    }
+
+    /**
+     *  Selects the form in which {@link #updateMessage()} writes the element.
+     *
+     *  @param binary if <code>true</code> the binary form is written,
+     *  otherwise XML.
+     */
+    public void setBinary(boolean binary) {
+        if (this.binary != binary) {
+            this.binary = binary;
+            rmDirty = rmDirty || rmExists;
+        }
+    }
+
     public EndpointRouterMessage(Message message, boolean removeMsg) {
 
         this.message = message;
@@ -156,6 +255,17 @@ public class EndpointRouterMessage {
                 return;
             }
 
+            if (BINARY_MIMETYPE.equals(rmElem.getMimeType())) {
+                readBinary(rmElem.getBytes(false));
+
+                // All parsed ok, we're in sync and we answer in kind.
+                acceptsBinary = true;
+                binary = true;
+                rmExists = true;
+                rmDirty = false;
+                return;
+            }
+
             StructuredTextDocument doc = (StructuredTextDocument) StructuredDocumentFactory.newStructuredDocument(rmElem.getMimeType(),
                     rmElem.getStream());
         
@@ -186,6 +296,13 @@ public class EndpointRouterMessage {
                         lastHop = e.getTextValue();
                         continue;
                     }
+
+                    if (e.getName().equals(AcceptTag)) {
+                        String accepted = e.getTextValue();
+
+                        acceptsBinary = (null != accepted) && (-1 != accepted.indexOf(BINARY_MIMETYPE.getMimeMediaType()));
+                        continue;
+                    }
                 
                     if (e.getName().equals(GatewayForwardTag)) {
                         for (Enumeration eachXpt = e.getChildren(); eachXpt.hasMoreElements();) {
@@ -272,6 +389,20 @@ public class EndpointRouterMessage {
 
         // The element was either created or changed. Replace whatever
         // if anything was in the message
+
+        if (binary) {
+            try {
+                rmElem = new ByteArrayMessageElement(MESSAGE_NAME, BINARY_MIMETYPE, writeBinary(), null);
+                message.replaceMessageElement(MESSAGE_NS, rmElem);
+
+                rmDirty = false;
+                return;
+            } catch (Exception failed) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Cannot write binary router element, using XML", failed);
+                }
+            }
+        }
         
         StructuredTextDocument doc = (StructuredTextDocument)
                 StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, Name);
@@ -296,6 +427,9 @@ public class EndpointRouterMessage {
             e = doc.createElement(LastHopTag, lastHop);
             doc.appendChild(e);
         }
+
+        e = doc.createElement(AcceptTag, BINARY_MIMETYPE.getMimeMediaType());
+        doc.appendChild(e);
         
         AccessPointAdvertisement gateway = null;
 
@@ -420,6 +554,7 @@ public class EndpointRouterMessage {
         rmDirty = true;
         forwardGateways = v;
         forwardCache = null;
+        forwardEnd = -1;
     }
     
     public Vector getForwardHops() {
@@ -435,6 +570,7 @@ public class EndpointRouterMessage {
         }
 
         reverseGateways.add(0, ap);
+        reversePrepended++;
 
         if (reverseCache == null) {
             return;
@@ -463,6 +599,7 @@ public class EndpointRouterMessage {
 
         // Not worth updating the cache. Blast it.
         reverseCache = null;
+        reverseEnd = -1;
     }
 
     public Vector getReverseHops() {
@@ -485,6 +622,7 @@ public class EndpointRouterMessage {
         rmExists = true;
         rmDirty = true;
         this.radv = radv;
+        radvEnd = -1;
     }
     
     // Used only for debugging
@@ -545,7 +683,239 @@ public class EndpointRouterMessage {
             reverseGateways = null;
             radv = null;
             rmExists = false;
+
+            wire = null;
+            forwardEnd = -1;
+            reverseEnd = -1;
+            radvEnd = -1;
         }
     }
-}
 
+    /**
+     *  Reads the binary form of the element.
+     *
+     *  @param bytes the element content.
+     *  @throws IOException if the content is not a valid binary element.
+     */
+    private void readBinary(byte[] bytes) throws IOException {
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bis);
+
+        int version = in.readUnsignedByte();
+
+        if (BINARY_VERSION != version) {
+            throw new IOException("Unsupported router element version : " + version);
+        }
+
+        int flags = in.readUnsignedByte();
+
+        if (0 != (flags & HAS_SRC)) {
+            srcAddress = CompactValue.read(in, ADDRESS_PREFIX);
+        }
+        if (0 != (flags & HAS_DEST)) {
+            destAddress = CompactValue.read(in, ADDRESS_PREFIX);
+        }
+        if (0 != (flags & HAS_LAST)) {
+            lastHop = CompactValue.read(in, ADDRESS_PREFIX);
+        }
+
+        int start = bytes.length - bis.available();
+
+        forwardGateways = readHops(in);
+        forwardStart = start;
+        forwardEnd = bytes.length - bis.available();
+
+        reverseGateways = readHops(in);
+        reverseStart = forwardEnd;
+        reverseEnd = bytes.length - bis.available();
+        reversePrepended = 0;
+
+        if (0 != (flags & HAS_RADV)) {
+            int length = in.readInt();
+
+            if ((length < 0) || (length > bis.available())) {
+                throw new IOException("Invalid route advertisement length : " + length);
+            }
+
+            radvStart = bytes.length - bis.available();
+            radv = (RouteAdvertisement) AdvertisementFactory.newAdvertisement(BinaryXMLDocument.MIMETYPE,
+                    new ByteArrayInputStream(bytes, radvStart, length));
+            radvEnd = radvStart + length;
+            in.skipBytes(length);
+        } else {
+            radvEnd = reverseEnd;
+            radvStart = radvEnd;
+        }
+
+        if (0 != bis.available()) {
+            throw new IOException("Unexpected data after router element : " + bis.available() + " bytes");
+        }
+
+        wire = bytes;
+    }
+
+    /**
+     *  Writes the binary form of the element, reusing the sections of the
+     *  element we were built from which are still in sync.
+     *
+     *  @return the element content.
+     *  @throws IOException if the element cannot be written.
+     */
+    private byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        int flags = 0;
+
+        if (srcAddress != null) {
+            flags |= HAS_SRC;
+        }
+        if (destAddress != null) {
+            flags |= HAS_DEST;
+        }
+        if (lastHop != null) {
+            flags |= HAS_LAST;
+        }
+        if (radv != null) {
+            flags |= HAS_RADV;
+        }
+
+        out.writeByte(BINARY_VERSION);
+        out.writeByte(flags);
+
+        if (srcAddress != null) {
+            CompactValue.write(out, srcAddress, ADDRESS_PREFIX);
+        }
+        if (destAddress != null) {
+            CompactValue.write(out, destAddress, ADDRESS_PREFIX);
+        }
+        if (lastHop != null) {
+            CompactValue.write(out, lastHop, ADDRESS_PREFIX);
+        }
+
+        if ((null != wire) && (-1 != forwardEnd)) {
+            out.write(wire, forwardStart, forwardEnd - forwardStart);
+        } else {
+            int count = writeHopCount(out, forwardGateways);
+
+            writeHops(out, forwardGateways, 0, count);
+        }
+
+        int reverseCount = writeHopCount(out, reverseGateways);
+
+        if ((null != wire) && (-1 != reverseEnd)) {
+            // Prepend our new hops to the ones we received, skipping the
+            // count of the received hops.
+            writeHops(out, reverseGateways, 0, reversePrepended);
+            out.write(wire, reverseStart + 2, reverseEnd - reverseStart - 2);
+        } else {
+            writeHops(out, reverseGateways, 0, reverseCount);
+        }
+
+        if (radv != null) {
+            if ((null != wire) && (-1 != radvEnd)) {
+                out.writeInt(radvEnd - radvStart);
+                out.write(wire, radvStart, radvEnd - radvStart);
+            } else {
+                ByteArrayOutputStream radvBytes = new ByteArrayOutputStream();
+
+                radv.getDocument(BinaryXMLDocument.MIMETYPE).sendToStream(radvBytes);
+                out.writeInt(radvBytes.size());
+                radvBytes.writeTo(out);
+            }
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     *  Reads a hop list.
+     *
+     *  @param in the stream.
+     *  @return the hops or <code>null</code> if the list is empty.
+     */
+    private static Vector readHops(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+
+        if (0 == count) {
+            return null;
+        }
+
+        Vector hops = new Vector(count);
+
+        for (int each = 0; each < count; each++) {
+            AccessPointAdvertisement ap = (AccessPointAdvertisement)
+                    AdvertisementFactory.newAdvertisement(AccessPointAdvertisement.getAdvertisementType());
+
+            String pid = CompactValue.read(in, "");
+
+            if (pid.length() > 0) {
+                try {
+                    ap.setPeerID((PeerID) IDFactory.fromURN(ID.URIEncodingName + ":" + ID.URNNamespace + ":" + pid));
+                } catch (Exception badID) {
+                    IOException failure = new IOException("Invalid hop peer id : " + pid);
+
+                    failure.initCause(badID);
+                    throw failure;
+                }
+            }
+
+            int addresses = in.readUnsignedByte();
+
+            for (int eachAddress = 0; eachAddress < addresses; eachAddress++) {
+                ap.addEndpointAddress(in.readUTF());
+            }
+
+            hops.addElement(ap);
+        }
+
+        return hops;
+    }
+
+    /**
+     *  Writes the count of a hop list.
+     *
+     *  @param out the stream.
+     *  @param hops the hops, may be <code>null</code>.
+     *  @return the count.
+     */
+    private static int writeHopCount(DataOutputStream out, Vector hops) throws IOException {
+        int count = (null == hops) ? 0 : hops.size();
+
+        if (count > 0xFFFF) {
+            throw new IOException("Too many hops : " + count);
+        }
+        out.writeShort(count);
+
+        return count;
+    }
+
+    /**
+     *  Writes part of a hop list, without the count.
+     *
+     *  @param out the stream.
+     *  @param hops the hops.
+     *  @param from index of the first hop to write.
+     *  @param to index after the last hop to write.
+     */
+    private static void writeHops(DataOutputStream out, Vector hops, int from, int to) throws IOException {
+        for (int each = from; each < to; each++) {
+            AccessPointAdvertisement ap = (AccessPointAdvertisement) hops.elementAt(each);
+            PeerID pid = ap.getPeerID();
+
+            CompactValue.write(out, (null == pid) ? "" : pid.getUniqueValue().toString(), "");
+
+            Vector addresses = ap.getVectorEndpointAddresses();
+            int count = (null == addresses) ? 0 : addresses.size();
+
+            if (count > 0xFF) {
+                throw new IOException("Too many hop addresses : " + count);
+            }
+            out.writeByte(count);
+            for (int eachAddress = 0; eachAddress < count; eachAddress++) {
+                out.writeUTF(addresses.elementAt(eachAddress).toString());
+            }
+        }
+    }
+}
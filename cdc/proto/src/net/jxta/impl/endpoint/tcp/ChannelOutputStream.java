@@ -0,0 +1,186 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ *  An output stream which writes to a socket channel which may be in
+ *  non-blocking mode. Writes complete entirely or fail. When the channel
+ *  cannot accept more data the writer waits, on a private selector, for the
+ *  channel to become writable again.
+ *
+ *  <p/>The receive side of the channel is owned by a {@link TcpSelectorPool}
+ *  loop. A channel may be registered with several selectors so waiting for
+ *  writability here does not interfere with the loop.
+ */
+class ChannelOutputStream extends OutputStream {
+
+    /**
+     *  The channel we write to.
+     */
+    private final SocketChannel channel;
+
+    /**
+     *  Amount of time we will wait for the channel to accept more data before
+     *  declaring that output has stalled.
+     */
+    private final long stallTimeout;
+
+    /**
+     *  The selector we use for waiting until the channel becomes writable.
+     *  Opened on demand.
+     */
+    private Selector writeSelector = null;
+
+    /**
+     *  Creates a new stream.
+     *
+     *  @param channel the channel to write to.
+     *  @param stallTimeout the maximum time in milliseconds to wait for
+     *  progress.
+     */
+    ChannelOutputStream(SocketChannel channel, long stallTimeout) {
+        this.channel = channel;
+        this.stallTimeout = stallTimeout;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(new ByteBuffer[] { ByteBuffer.wrap(b, off, len) });
+    }
+
+    /**
+     *  Write all of the remaining bytes of the provided buffers.
+     *
+     *  @param buffers the buffers to write.
+     *  @throws IOException if the write fails or stalls.
+     */
+    synchronized void write(ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+
+        for (int each = 0; each < buffers.length; each++) {
+            remaining += buffers[each].remaining();
+        }
+
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+
+            if (written > 0) {
+                remaining -= written;
+                continue;
+            }
+
+            waitWritable();
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized void close() throws IOException {
+        if (null != writeSelector) {
+            writeSelector.close();
+            writeSelector = null;
+        }
+
+        channel.close();
+    }
+
+    private void waitWritable() throws IOException {
+        if (channel.isBlocking()) {
+            // A blocking channel which accepted nothing; just retry.
+            return;
+        }
+
+        if (null == writeSelector) {
+            writeSelector = Selector.open();
+        }
+
+        SelectionKey key = channel.register(writeSelector, SelectionKey.OP_WRITE);
+
+        try {
+            if (0 == writeSelector.select(stallTimeout)) {
+                throw new InterruptedIOException("Write stalled after " + stallTimeout + "ms");
+            }
+
+            writeSelector.selectedKeys().clear();
+        } finally {
+            key.cancel();
+
+            // flush the cancelled key so the channel may be registered again.
+            writeSelector.selectNow();
+        }
+    }
+}
@@ -64,13 +64,21 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import net.jxta.endpoint.MessengerEvent;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import net.jxta.impl.endpoint.IPUtils;
+import net.jxta.impl.util.UnbiasedQueue;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
- *  This server handles incoming unicast TCP connections
+ *  This server handles incoming unicast TCP connections.
+ *
+ *  <p/>If the transport runs a {@link TcpSelectorPool} the server socket is
+ *  opened as a non-blocking channel and connections are accepted by one of the
+ *  selector loops, otherwise a dedicated thread accepts connections. The
+ *  selector loops hand the set-up of the accepted connections, which may
+ *  block, over to a set-up thread.
  */
 public class IncomingUnicastServer implements Runnable {
 
@@ -109,6 +117,12 @@ public class IncomingUnicastServer implements Runnable {
      */
     private ServerSocket serverSocket;
 
+    /**
+     *  The channel of the server socket when accepting through the selector
+     *  pool.
+     */
+    private ServerSocketChannel serverChannel = null;
+
     /**
      *  If true then the we are closed or closing.
      */
@@ -119,6 +133,17 @@ public class IncomingUnicastServer implements Runnable {
      */
     private Thread acceptThread = null;
 
+    /**
+     *  The set-up tasks of the connections accepted by the selector loops:
+     *  sending our welcome message and announcing the new messenger.
+     */
+    private UnbiasedQueue setupTasks = null;
+
+    /**
+     *  The thread which runs the set-up tasks.
+     */
+    private Thread setupThread = null;
+
     /**
      *  Constructor for the TCP server
      *
@@ -145,6 +170,24 @@ public class IncomingUnicastServer implements Runnable {
         if (acceptThread != null) {
             return false;
         }
+
+        if (null != serverChannel) {
+            if (null != setupThread) {
+                return false;
+            }
+
+            setupTasks = new UnbiasedQueue(TcpTransport.MaxAcceptCnxBacklog, false);
+            setupThread = new Thread(inGroup, new Runnable() {
+                              public void run() {
+                                  runSetupTasks();
+                              }
+                          }, "TCP Unicast Server Connection Setup");
+            setupThread.setDaemon(true);
+            setupThread.start();
+
+            owner.selectorPool.register(serverChannel, this);
+            return true;
+        }
         // Start daemon thread
         acceptThread = new Thread(inGroup, this, "TCP Unicast Server Connection Listener");
         acceptThread.setDaemon(true);
@@ -165,6 +208,10 @@ public class IncomingUnicastServer implements Runnable {
             temp.interrupt();
         }
 
+        if (null != setupTasks) {
+            setupTasks.close();
+        }
+
         // interrupt does not seem to have an effect on threads blocked in accept.
         // Closing the socket works though.
         try {
@@ -230,6 +277,7 @@ public class IncomingUnicastServer implements Runnable {
                     }
                 } catch (InterruptedIOException woken) {
                     Thread.interrupted();
+                    continue;
                 } catch (IOException e1) {
                     if (LOG.isEnabledFor(Level.WARN)) {
                         LOG.warn("[1] ServerSocket.accept() failed on " + serverSocket.getInetAddress() + ":" + serverSocket.getLocalPort(), e1);
@@ -253,19 +301,7 @@ public class IncomingUnicastServer implements Runnable {
                     TcpConnection newConnect = new TcpConnection(inputSocket, owner);
                     // if its not DOA, then register it.
                     if (newConnect.isConnected()) {
-                        TcpMessenger newMessenger = new TcpMessenger(newConnect.getDestinationAddress(), newConnect, owner);
-                        if (LOG.isEnabledFor(Level.DEBUG)) {
-                            LOG.debug("Registering connection from " + inputSocket.getInetAddress().getHostAddress() + ":" + inputSocket.getPort());
-                        }
-                        try {
-                            MessengerEvent event = new MessengerEvent(owner, newMessenger, newConnect.getConnectionAddress());
-                            owner.messengerReadyEvent(newMessenger, newConnect.getConnectionAddress());
-                        } catch (Throwable all) {
-                            if (LOG.isEnabledFor(Level.FATAL)) {
-                                LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
-                            }
-                        }
-                        newMessenger.start();
+                        connectionReady(newConnect);
                     }
                 } catch (OutOfMemoryError oom) {
                     // Make sure the socket is closed. Since we failed to
@@ -324,11 +360,195 @@ public class IncomingUnicastServer implements Runnable {
         }
     }
 
+    /**
+     *  Runs the set-up tasks of the connections accepted by the selector
+     *  loops until the server stops.
+     */
+    private void runSetupTasks() {
+        try {
+            while (true) {
+                Runnable task;
+
+                try {
+                    task = (Runnable) setupTasks.pop(0);
+                } catch (InterruptedException woken) {
+                    Thread.interrupted();
+                    continue;
+                }
+
+                if (null == task) {
+                    // closed and empty.
+                    break;
+                }
+
+                try {
+                    task.run();
+                } catch (Throwable all) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("Uncaught Throwable in connection set-up", all);
+                    }
+                }
+            }
+        } catch (Throwable all) {
+            if (LOG.isEnabledFor(Level.FATAL)) {
+                LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+            }
+        }
+    }
+
+    /**
+     *  Queue a set-up task without waiting.
+     *
+     *  @return <code>false</code> if the task was refused because we are
+     *  closing or too many connections are waiting to be set up.
+     */
+    private boolean setup(Runnable task) {
+        try {
+            return setupTasks.push(task, -1);
+        } catch (InterruptedException woken) {
+            Thread.interrupted();
+            return false;
+        }
+    }
+
+    /**
+     *  Called by a selector loop for each channel accepted on our server
+     *  channel. The connection is created and registered with the selector
+     *  pool by the set-up thread, since sending our welcome message may
+     *  block.
+     *
+     *  @param inputChannel the accepted channel.
+     */
+    void channelAccepted(final SocketChannel inputChannel) {
+        boolean queued = setup(new Runnable() {
+                                   public void run() {
+                                       TcpConnection newConnect = acceptChannel(inputChannel);
+
+                                       if (null != newConnect) {
+                                           owner.selectorPool.register(newConnect);
+                                       }
+                                   }
+                               });
+
+        if (!queued) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Too many connections waiting to be set up, closing " + inputChannel);
+            }
+
+            try {
+                inputChannel.close();
+            } catch (IOException ignored) {
+                ;
+            }
+        }
+    }
+
+    /**
+     *  Called by a selector loop once the remote welcome message of a
+     *  connection it accepted has been decoded. The connection is announced
+     *  by the set-up thread, since the listeners may block.
+     *
+     *  @param newConnect the new connection.
+     */
+    void channelWelcomed(final TcpConnection newConnect) {
+        boolean queued = setup(new Runnable() {
+                                   public void run() {
+                                       connectionReady(newConnect);
+                                   }
+                               });
+
+        if (!queued) {
+            newConnect.close();
+        }
+    }
+
+    /**
+     *  Creates the connection of an accepted channel and sends our welcome
+     *  message.
+     *
+     *  @param inputChannel the accepted channel.
+     *  @return the new connection or <code>null</code> if the channel could
+     *  not be used.
+     */
+    TcpConnection acceptChannel(SocketChannel inputChannel) {
+        if (closed) {
+            try {
+                inputChannel.close();
+            } catch (IOException ignored) {
+                ;
+            }
+            return null;
+        }
+
+        try {
+            return new TcpConnection(inputChannel, owner, this);
+        } catch (Throwable all) {
+            // Make sure the channel is closed. Since we failed to
+            // put a TcpConnection wrapper around it, it belongs
+            // to us.
+            try {
+                inputChannel.close();
+            } catch (Throwable any) {
+                if (LOG.isEnabledFor(Level.ERROR)) {
+                    LOG.error("Failed to close dead channel", any);
+                }
+            }
+
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Failed to create connection", all);
+            }
+            return null;
+        }
+    }
+
+    /**
+     *  Announce a new incoming connection once the welcome messages have been
+     *  exchanged.
+     *
+     *  @param newConnect the new connection.
+     */
+    void connectionReady(TcpConnection newConnect) {
+        try {
+            TcpMessenger newMessenger = new TcpMessenger(newConnect.getDestinationAddress(), newConnect, owner);
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("Registering connection from " + newConnect.getDestinationAddress());
+            }
+            try {
+                owner.messengerReadyEvent(newMessenger, newConnect.getConnectionAddress());
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+            newMessenger.start();
+        } catch (IOException failed) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Failed to create messenger for " + newConnect, failed);
+            }
+            newConnect.close();
+        }
+    }
+
     private synchronized void openServerSocket() throws IOException, SecurityException {
         serverSocket = null;
         try {
             synchronized (this) {
-                serverSocket = new ServerSocket(serverBindPreferedLocalPort, TcpTransport.MaxAcceptCnxBacklog, serverBindLocalInterface);
+                if (null != owner.selectorPool) {
+                    ServerSocketChannel newChannel = ServerSocketChannel.open();
+
+                    try {
+                        newChannel.socket().bind(new InetSocketAddress(serverBindLocalInterface, serverBindPreferedLocalPort), TcpTransport.MaxAcceptCnxBacklog);
+                        newChannel.configureBlocking(false);
+                    } catch (IOException failed) {
+                        newChannel.close();
+                        throw failed;
+                    }
+
+                    serverChannel = newChannel;
+                    serverSocket = newChannel.socket();
+                } else {
+                    serverSocket = new ServerSocket(serverBindPreferedLocalPort, TcpTransport.MaxAcceptCnxBacklog, serverBindLocalInterface);
+                }
             }
             if (LOG.isEnabledFor(Level.INFO)) {
                 LOG.info("Server will accept connections at " + serverSocket.getLocalSocketAddress());
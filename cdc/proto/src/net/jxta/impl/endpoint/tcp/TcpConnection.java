@@ -59,10 +59,13 @@ package net.jxta.impl.endpoint.tcp;
 
 
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 import java.io.EOFException;
 import java.io.IOException;
@@ -77,12 +80,14 @@ import net.jxta.endpoint.EndpointAddress;
 import net.jxta.endpoint.Message;
 import net.jxta.id.ID;
 import net.jxta.peer.PeerID;
-import net.jxta.util.LimitInputStream;
 import net.jxta.util.WatchedInputStream;
 import net.jxta.util.WatchedOutputStream;
 
+import net.jxta.impl.endpoint.EndpointServiceImpl;
 import net.jxta.impl.endpoint.IPUtils;
+import net.jxta.impl.util.TimeUtils;
 import net.jxta.impl.endpoint.WireFormatMessage;
+import net.jxta.impl.endpoint.WireFormatMessageBinary;
 import net.jxta.impl.endpoint.WireFormatMessageFactory;
 import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
 import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
@@ -120,6 +125,59 @@ class TcpConnection implements Runnable {
     private transient OutputStream outputStream = null;
     private transient InputStream inputStream = null;
 
+    /**
+     *  The channel of this connection if it is driven by the transport's
+     *  selector pool rather than by its own receive thread.
+     */
+    private transient SocketChannel channel = null;
+
+    /**
+     *  Decodes the input of selector driven connections.
+     */
+    private transient TcpFrameDecoder decoder = null;
+
+    private final transient TcpFrameDecoder.Frame frame = new TcpFrameDecoder.Frame();
+
+    /**
+     *  The unbuffered stream to the channel of selector driven connections.
+     */
+    private transient ChannelOutputStream channelOutput = null;
+
+    /**
+     *  Encodes outgoing frames for gathering writes to the channel of
+     *  selector driven connections.
+     */
+    private transient TcpFrameEncoder encoder = null;
+
+    /**
+     *  If true then the channel has been handed to the selector pool.
+     */
+    private transient boolean registered = false;
+
+    /**
+     *  The server which accepted this selector driven connection. It is told
+     *  about the connection once the remote welcome message has arrived.
+     */
+    private transient IncomingUnicastServer acceptor = null;
+
+    /**
+     *  Absolute time in milliseconds at which we last received input on a
+     *  selector driven connection.
+     */
+    private transient long lastReceived = System.currentTimeMillis();
+
+    /**
+     *  Run by the demux stage once it has room for our messages again. Set by
+     *  the selector loop which owns this connection.
+     */
+    transient Runnable readResumer = null;
+
+    /**
+     *  If true then the demux stage is full and the selector loop stops
+     *  reading from the channel until {@link #readResumer} is run.
+     */
+    private transient boolean readPaused = false;
+
     private boolean initiator;
     private long connectionBegunTime;
     private boolean closingDueToFailure = false;
@@ -129,6 +187,29 @@ class TcpConnection implements Runnable {
      */
     private final transient Object writeLock = new String("tcp write lock");
 
+    /**
+     *  Number of messages written but not yet flushed. Guarded by the write
+     *  lock.
+     */
+    private transient int batchMessages = 0;
+
+    /**
+     *  Number of message bytes written but not yet flushed. Guarded by the
+     *  write lock.
+     */
+    private transient long batchBytes = 0;
+
+    /**
+     *  If true then the write coalescer will flush our batch when its deadline
+     *  expires. Guarded by the write lock.
+     */
+    private transient boolean flushScheduled = false;
+
+    /**
+     *  True while a thread holds the write lock.
+     */
+    private transient volatile boolean writing = false;
+
     /**
      *  Creates a new TcpConnection for the specified destination address.
      *
@@ -183,7 +264,12 @@ class TcpConnection implements Runnable {
         }
 
         try {
-            sharedSocket = new Socket(inetAddress, port);
+            if (null != proto.selectorPool) {
+                channel = SocketChannel.open(new InetSocketAddress(inetAddress, port));
+                sharedSocket = channel.socket();
+            } else {
+                sharedSocket = new Socket(inetAddress, port);
+            }
             startSocket();
         } catch (IOException e) {
             // If we failed for any reason, make sure the socket is closed.
@@ -234,6 +320,54 @@ class TcpConnection implements Runnable {
         }
     }
 
+    /**
+     *  Creates a new selector driven connection from an incoming channel. Our
+     *  welcome message is sent immediately, the remote welcome message will
+     *  be decoded by the selector loop which owns the channel.
+     *
+     *  @param incChannel    the incoming channel.
+     *  @param p the transport we are working for.
+     *  @param acceptor the server which accepted the channel.
+     *  @throws IOException for failures in creating the connection.
+     */
+    TcpConnection(SocketChannel incChannel, TcpTransport p, IncomingUnicastServer acceptor) throws IOException {
+        proto = p;
+        this.acceptor = acceptor;
+        channel = incChannel;
+        sharedSocket = incChannel.socket();
+
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info("Connection from " + sharedSocket.getInetAddress().getHostAddress() + ":" + sharedSocket.getPort());
+        }
+
+        initiator = false;
+
+        inetAddress = sharedSocket.getInetAddress();
+        port = sharedSocket.getPort();
+
+        // Temporarily, our address for inclusion in the welcome message
+        // response.
+        dstAddress = new EndpointAddress(proto.getProtocolName(), inetAddress.getHostAddress() + ":" + port, null, null);
+        fullDstAddress = dstAddress;
+
+        configureSocket();
+
+        channel.configureBlocking(false);
+        channelOutput = new ChannelOutputStream(channel, TcpTransport.ShortTimeout);
+        outputStream = new BufferedOutputStream(channelOutput, TcpTransport.SendBufferSize);
+        encoder = new TcpFrameEncoder(TcpTransport.ChunkSize);
+
+        myWelcome = new WelcomeMessage(fullDstAddress, proto.getPublicAddress(), proto.group.getPeerID(), false);
+
+        myWelcome.sendToStream(outputStream);
+        outputStream.flush();
+
+        decoder = new TcpFrameDecoder(true, proto.messageBuffers, TcpTransport.MaxMessageSize);
+
+        // The server which accepted the channel registers it.
+        registered = true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -305,7 +439,7 @@ class TcpConnection implements Runnable {
         return itsWelcome.getPeerID();
     }
 
-    private void startSocket() throws IOException {
+    private void configureSocket() throws IOException {
         sharedSocket.setKeepAlive(true);
         int useBufferSize = Math.max(TcpTransport.ChunkSize, sharedSocket.getSendBufferSize());
 
@@ -316,6 +450,15 @@ class TcpConnection implements Runnable {
 
         sharedSocket.setSoLinger(true, TcpTransport.LingerDelay);
         sharedSocket.setTcpNoDelay(true);
+    }
+
+    private void startSocket() throws IOException {
+        configureSocket();
+
+        if (null != channel) {
+            startChannel();
+            return;
+        }
 
         woutputStream = new WatchedOutputStream(sharedSocket.getOutputStream(), TcpTransport.ChunkSize);
         woutputStream.setWatchList(proto.ShortCycle);
@@ -354,16 +497,295 @@ class TcpConnection implements Runnable {
         recvThread.setDaemon(true);
     }
 
-    protected void start() {
+    /**
+     *  Exchange welcome messages on a newly connected channel, then switch the
+     *  channel to non-blocking mode so that it may be handed to the selector
+     *  pool. The exchange is done in blocking mode on the connecting thread,
+     *  as is done for stream connections.
+     */
+    private void startChannel() throws IOException {
+        channelOutput = new ChannelOutputStream(channel, TcpTransport.ShortTimeout);
+        outputStream = new BufferedOutputStream(channelOutput, TcpTransport.SendBufferSize);
+        encoder = new TcpFrameEncoder(TcpTransport.ChunkSize);
+        inputStream = sharedSocket.getInputStream();
+
+        myWelcome = new WelcomeMessage(fullDstAddress, proto.getPublicAddress(), proto.group.getPeerID(), false);
+
+        myWelcome.sendToStream(outputStream);
+        outputStream.flush();
+
+        // The response should arrive shortly or we bail out.
+        sharedSocket.setSoTimeout(TcpTransport.ShortTimeout);
+
+        itsWelcome = new WelcomeMessage(inputStream);
+
+        sharedSocket.setSoTimeout(0);
+
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("startChannel : Hello from " + itsWelcome.getPublicAddress() + " [" + itsWelcome.getPeerID() + "]");
+        }
+
+        // The welcome message was read a byte at a time, nothing more has
+        // been consumed from the channel.
+        inputStream = null;
+        channel.configureBlocking(false);
+        decoder = new TcpFrameDecoder(false, proto.messageBuffers, TcpTransport.MaxMessageSize);
+    }
+
+    protected synchronized void start() {
+        if (null != channel) {
+            if (!registered && !closed) {
+                registered = true;
+                proto.selectorPool.register(this);
+            }
+            return;
+        }
+
         recvThread.start();
     }
 
+    /**
+     *  Returns the channel of a selector driven connection.
+     *
+     *  @return the channel or <code>null</code> for stream connections.
+     */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     *  Called by the selector loop which owns this connection when input has
+     *  been read from the channel.
+     *
+     *  @param buf the bytes read.
+     *  @param offset offset of the first byte read.
+     *  @param length number of bytes read.
+     *  @return <code>true</code> if the connection remains usable otherwise
+     *  <code>false</code>.
+     */
+    boolean received(byte[] buf, int offset, int length) {
+        lastReceived = System.currentTimeMillis();
+
+        try {
+            while (length > 0) {
+                int used = decoder.decode(buf, offset, length, frame);
+
+                offset += used;
+                length -= used;
+
+                if (null != frame.welcome) {
+                    welcomed(frame.welcome);
+                } else if (null != frame.message) {
+                    Message msg = frame.message;
+
+                    frame.clear();
+
+                    if (LOG.isEnabledFor(Level.DEBUG)) {
+                        LOG.debug("tcp receive - handing incoming message from " + inetAddress.getHostAddress() + ":" + port + " to EndpointService");
+                    }
+
+                    // Demux the message for the upper layers. The selector
+                    // loop must not wait for room in the demux stage.
+                    if ((null != readResumer) && (proto.endpoint instanceof EndpointServiceImpl)) {
+                        if (!((EndpointServiceImpl) proto.endpoint).demux(msg, this, readResumer)) {
+                            readPaused = true;
+                        }
+                    } else {
+                        proto.endpoint.demux(msg);
+                    }
+
+                    setLastUsed(System.currentTimeMillis());
+                }
+
+                if (closed) {
+                    return false;
+                }
+            }
+        } catch (Throwable failure) {
+            receiveFailed(failure);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     *  Returns <code>true</code> if the selector loop should stop reading from
+     *  the channel until {@link #readResumer} is run, and clears the
+     *  indication.
+     *
+     *  @return <code>true</code> if reading should pause.
+     */
+    boolean takeReadPaused() {
+        boolean result = readPaused;
+
+        readPaused = false;
+        return result;
+    }
+
+    /**
+     *  Called by the selector loop when it resumes reading from the channel.
+     *  The time spent paused does not count against the remote peer.
+     */
+    void readResumed() {
+        lastReceived = System.currentTimeMillis();
+    }
+
+    /**
+     *  Called when the remote welcome message of an incoming selector driven
+     *  connection has been decoded.
+     */
+    private void welcomed(WelcomeMessage welcome) {
+        itsWelcome = welcome;
+
+        if (LOG.isEnabledFor(Level.DEBUG)) {
+            LOG.debug("welcomed : Hello from " + itsWelcome.getPublicAddress() + " [" + itsWelcome.getPeerID() + "]");
+        }
+
+        // The correct value for dstAddr: that of the other party.
+        dstAddress = itsWelcome.getPublicAddress();
+        fullDstAddress = dstAddress;
+
+        if (null != acceptor) {
+            acceptor.channelWelcomed(this);
+            acceptor = null;
+        }
+    }
+
+    /**
+     *  Called by the selector loop when the input side of a selector driven
+     *  connection has failed or reached end of stream.
+     *
+     *  @param failure the cause of the failure or <code>null</code> if the
+     *  remote peer closed the connection.
+     */
+    void receiveFailed(Throwable failure) {
+        if (null == failure) {
+            if (LOG.isEnabledFor(Level.INFO)) {
+                LOG.info("tcp receive - Connection was closed by " + inetAddress.getHostAddress() + ":" + port);
+            }
+        } else {
+            closingDueToFailure = true;
+
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("tcp receive - Error on connection " + inetAddress.getHostAddress() + ":" + port, failure);
+            }
+        }
+
+        close();
+    }
+
+    /**
+     *  Determine whether input on a selector driven connection has stalled.
+     *  The same long and short timeouts as for the watched input streams of
+     *  stream connections apply.
+     *
+     *  @param now the current absolute time in milliseconds.
+     *  @return <code>true</code> if input has stalled.
+     */
+    boolean isInputStalled(long now) {
+        long idleFor = TimeUtils.toRelativeTimeMillis(now, lastReceived);
+
+        if ((null == itsWelcome) || decoder.inFrame()) {
+            return idleFor > TcpTransport.ShortTimeout;
+        }
+
+        return idleFor > TcpTransport.LongTimeout;
+    }
+
     /**
      * Send message to the remote peer.
      *
      *  @param msg  the message to send.
      */
     public void sendMessage(Message msg) throws IOException {
+        send(msg, null);
+    }
+
+    /**
+     * Add a message to the current batch of messages for the remote peer. The
+     * batch is flushed once it is large enough or once its deadline, set by
+     * the write coalescer of the transport, has expired.
+     *
+     *  @param msg  the message to send.
+     */
+    public void queueMessage(Message msg) throws IOException {
+        send(msg, proto.writeCoalescer);
+    }
+
+    /**
+     *  Flush the current batch of messages, if any.
+     *
+     *  @param reason the reason for the flush, one of the
+     *  <code>TcpWriteCoalescer.FLUSH_</code> reasons.
+     */
+    void flushBatch(int reason) {
+        synchronized (writeLock) {
+            writing = true;
+
+            try {
+                if (TcpWriteCoalescer.FLUSH_DEADLINE == reason) {
+                    flushScheduled = false;
+                }
+
+                if (closed || (0 == batchMessages)) {
+                    return;
+                }
+
+                outputStream.flush();
+                batchFlushed(reason);
+                setLastUsed(System.currentTimeMillis());
+            } catch (Throwable failure) {
+                if (LOG.isEnabledFor(Level.INFO)) {
+                    LOG.info("tcp send - batch flush failed for " + inetAddress.getHostAddress() + ":" + port, failure);
+                }
+
+                closingDueToFailure = true;
+                close();
+            } finally {
+                writing = false;
+            }
+        }
+    }
+
+    /**
+     *  Returns true if a thread is currently writing to the connection. The
+     *  write coalescer does not wait for such connections.
+     *
+     *  @return true if a thread is currently writing to the connection.
+     */
+    boolean isWriting() {
+        return writing;
+    }
+
+    /**
+     *  Account for the flush of the current batch. Must be called holding the
+     *  write lock.
+     */
+    private void batchFlushed(int reason) {
+        if (0 == batchMessages) {
+            return;
+        }
+
+        TcpWriteCoalescer coalescer = proto.writeCoalescer;
+
+        if (null != coalescer) {
+            coalescer.flushed(reason, batchMessages, batchBytes);
+        }
+
+        batchMessages = 0;
+        batchBytes = 0;
+    }
+
+    /**
+     *  Write a message to the remote peer.
+     *
+     *  @param msg  the message to send.
+     *  @param coalescer if not null then the message is added to the current
+     *  batch, otherwise it is written and flushed immediately along with the
+     *  current batch.
+     */
+    private void send(Message msg, TcpWriteCoalescer coalescer) throws IOException {
 
         // socket is a stream, only one writer at a time...
         synchronized (writeLock) {
@@ -379,6 +801,7 @@ class TcpConnection implements Runnable {
             long sendBeginTime = 0;
             long size = 0;
 
+            writing = true;
 
             try {
                 // 20020730 bondolo@jxta.org Do something with content-coding here
@@ -399,9 +822,37 @@ class TcpConnection implements Runnable {
                     LOG.debug("sendMessage (" + serialed.getByteLength() + ") to " + dstAddress + " via " + inetAddress.getHostAddress() + ":" + port);
                 }
 
-                header.sendToStream(outputStream);
-                serialed.sendToStream(outputStream);
-                outputStream.flush();
+                if (null != coalescer) {
+                    // Leave the frame in the output buffer. It goes out with
+                    // the rest of the batch.
+                    header.sendToStream(outputStream);
+                    serialed.sendToStream(outputStream);
+
+                    batchMessages++;
+                    batchBytes += size;
+
+                    if (batchMessages >= coalescer.maxMessages) {
+                        outputStream.flush();
+                        batchFlushed(TcpWriteCoalescer.FLUSH_MESSAGES);
+                    } else if (batchBytes >= coalescer.maxBytes) {
+                        outputStream.flush();
+                        batchFlushed(TcpWriteCoalescer.FLUSH_BYTES);
+                    } else if (!flushScheduled) {
+                        flushScheduled = true;
+                        coalescer.schedule(this);
+                    }
+                } else if ((null != encoder) && (serialed instanceof WireFormatMessageBinary)) {
+                    // One gathering write of the frame straight to the
+                    // channel. Anything buffered must go first.
+                    outputStream.flush();
+                    batchFlushed(TcpWriteCoalescer.FLUSH_SEND);
+                    channelOutput.write(encoder.encode(header, (WireFormatMessageBinary) serialed));
+                } else {
+                    header.sendToStream(outputStream);
+                    serialed.sendToStream(outputStream);
+                    outputStream.flush();
+                    batchFlushed(TcpWriteCoalescer.FLUSH_SEND);
+                }
 
                 // all done!
                 success = true;
@@ -415,6 +866,8 @@ class TcpConnection implements Runnable {
 
                 closingDueToFailure = true;
                 close();
+            } finally {
+                writing = false;
             }
 
         }
@@ -465,7 +918,17 @@ class TcpConnection implements Runnable {
                     Message msg = null;
 
                     try {
-                        msg = WireFormatMessageFactory.fromWire(new LimitInputStream(inputStream, msglength, true), msgMime, (MimeMediaType) null);
+                        if ((msglength < 0) || (msglength > TcpTransport.MaxMessageSize)) {
+                            throw new IOException("Invalid message length : " + msglength);
+                        }
+
+                        // Read the whole body into a pooled buffer, the
+                        // message elements are slices of it.
+                        byte[] body = proto.messageBuffers.acquire((int) msglength);
+
+                        new DataInputStream(inputStream).readFully(body, 0, (int) msglength);
+
+                        msg = WireFormatMessageFactory.fromBuffer(body, 0, (int) msglength, msgMime, (MimeMediaType) null, proto.messageBuffers.lease(body));
                     } catch (IOException failed) {
                         if (LOG.isEnabledFor(Level.INFO)) {
                             LOG.info("tcp receive - failed reading msg from " + inetAddress.getHostAddress() + ":" + port);
@@ -607,7 +1070,7 @@ class TcpConnection implements Runnable {
      *
      */
     public boolean isConnected() {
-        return ((recvThread != null) && (!closed));
+        return ((recvThread != null) || (channel != null)) && (!closed);
     }
 
     /**
@@ -636,6 +1099,10 @@ class TcpConnection implements Runnable {
      * blocking read.
      */
     private void inputActive(boolean active) {
+        if (null == winputStream) {
+            return;
+        }
+
         if (active) {
             winputStream.setWatchList(proto.ShortCycle);
         } else {
@@ -0,0 +1,388 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.Message;
+
+import net.jxta.impl.endpoint.WireFormatMessageFactory;
+import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
+import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
+import net.jxta.impl.util.BufferPool;
+
+/**
+ *  Incremental decoder for the TCP transport framing. Bytes are fed to the
+ *  decoder as they arrive from a non-blocking channel and complete frames are
+ *  reported once all of their bytes have been seen.
+ *
+ *  <p/>The framing is exactly the one used by the stream based
+ *  {@link TcpConnection}: a CRLF terminated {@link WelcomeMessage} followed by
+ *  any number of {@link MessagePackageHeader} + message body pairs. The
+ *  decoder only delimits the frames, the parsing itself is delegated to the
+ *  stream constructors of the framing classes so that both receive paths
+ *  remain wire compatible.
+ *
+ *  <p/>Message bodies are read into buffers from a {@link BufferPool} and the
+ *  decoded message elements are slices of the body buffer.
+ */
+class TcpFrameDecoder {
+
+    /**
+     *  The maximum length of a welcome message. Same limit as
+     *  {@link WelcomeMessage#WelcomeMessage(java.io.InputStream)}.
+     */
+    private static final int MAX_WELCOME_LENGTH = 4096;
+
+    /**
+     *  We are waiting for the remote welcome message.
+     */
+    private static final int WELCOME = 0;
+
+    /**
+     *  We are waiting for a message package header.
+     */
+    private static final int HEADER = 1;
+
+    /**
+     *  We are waiting for a message body.
+     */
+    private static final int BODY = 2;
+
+    /**
+     *  The current decoding state.
+     */
+    private int state;
+
+    /**
+     *  Accumulates the bytes of the welcome message or of a package header.
+     */
+    private byte[] scratch = new byte[256];
+
+    /**
+     *  Number of valid bytes in {@link #scratch}.
+     */
+    private int scratchLen = 0;
+
+    /**
+     *  Offset in {@link #scratch} of the first header tuple not yet known to
+     *  be complete. The tuples before it are not scanned again.
+     */
+    private int headerScan = 0;
+
+    /**
+     *  The largest message body accepted.
+     */
+    private final int maxBodyLength;
+
+    /**
+     *  The header of the message body being read.
+     */
+    private MessagePackageHeader header = null;
+
+    /**
+     *  The pool from which body buffers are taken.
+     */
+    private final BufferPool pool;
+
+    /**
+     *  The body of the message being read. May be larger than the body.
+     */
+    private byte[] body = null;
+
+    /**
+     *  Length of the body of the message being read.
+     */
+    private int bodyLength = 0;
+
+    /**
+     *  Number of valid bytes in {@link #body}.
+     */
+    private int bodyLen = 0;
+
+    /**
+     *  The remote welcome message once it has been received.
+     */
+    private WelcomeMessage welcome = null;
+
+    /**
+     *  Creates a new decoder.
+     *
+     *  @param expectWelcome if <code>true</code> the first frame is expected to
+     *  be a welcome message, otherwise the decoder starts with message frames.
+     *  @param pool the pool from which message body buffers are taken.
+     *  @param maxBodyLength the largest message body accepted. The body buffer
+     *  is allocated as soon as the header has been read, the length declared
+     *  by the remote peer must be checked first.
+     */
+    TcpFrameDecoder(boolean expectWelcome, BufferPool pool, int maxBodyLength) {
+        state = expectWelcome ? WELCOME : HEADER;
+        this.pool = pool;
+        this.maxBodyLength = maxBodyLength;
+    }
+
+    /**
+     *  Returns <code>true</code> if the decoder is part way through a frame.
+     *
+     *  @return <code>true</code> if the decoder is part way through a frame.
+     */
+    boolean inFrame() {
+        return (scratchLen > 0) || (BODY == state);
+    }
+
+    /**
+     *  Returns the remote welcome message if it has been received.
+     *
+     *  @return the remote welcome message or <code>null</code>.
+     */
+    WelcomeMessage getWelcome() {
+        return welcome;
+    }
+
+    /**
+     *  Consume bytes. Consumption stops after a complete welcome message or a
+     *  complete message has been decoded so that the caller may act on it.
+     *
+     *  @param buf the bytes
+     *  @param offset offset of the first byte in <code>buf</code>.
+     *  @param length number of bytes available.
+     *  @param frame receives the decoded frame, if any.
+     *  @return the number of bytes consumed.
+     *  @throws IOException if the stream is not correctly framed.
+     */
+    int decode(byte[] buf, int offset, int length, Frame frame) throws IOException {
+        int consumed = 0;
+
+        frame.clear();
+
+        while ((consumed < length) && !frame.isComplete()) {
+            switch (state) {
+            case WELCOME :
+                consumed += decodeWelcome(buf, offset + consumed, length - consumed, frame);
+                break;
+
+            case HEADER :
+                consumed += decodeHeader(buf, offset + consumed, length - consumed);
+                break;
+
+            case BODY :
+                consumed += decodeBody(buf, offset + consumed, length - consumed, frame);
+                break;
+
+            default :
+                throw new IllegalStateException("Bad decoder state : " + state);
+            }
+        }
+
+        return consumed;
+    }
+
+    private int decodeWelcome(byte[] buf, int offset, int length, Frame frame) throws IOException {
+        for (int each = 0; each < length; each++) {
+            append(buf[offset + each]);
+
+            if (scratchLen >= MAX_WELCOME_LENGTH) {
+                throw new IOException("Invalid welcome message, too long");
+            }
+
+            if ((scratchLen >= 2) && ('\r' == scratch[scratchLen - 2]) && ('\n' == scratch[scratchLen - 1])) {
+                welcome = new WelcomeMessage(new ByteArrayInputStream(scratch, 0, scratchLen));
+                frame.welcome = welcome;
+                scratchLen = 0;
+                state = HEADER;
+                return each + 1;
+            }
+        }
+
+        return length;
+    }
+
+    private int decodeHeader(byte[] buf, int offset, int length) throws IOException {
+        for (int each = 0; each < length; each++) {
+            append(buf[offset + each]);
+
+            if (isHeaderComplete()) {
+                header = new MessagePackageHeader(new ByteArrayInputStream(scratch, 0, scratchLen));
+                scratchLen = 0;
+                headerScan = 0;
+
+                long msglength = header.getContentLengthHeader();
+
+                if ((msglength < 0) || (msglength > maxBodyLength)) {
+                    throw new IOException("Invalid message length : " + msglength);
+                }
+
+                bodyLength = (int) msglength;
+                body = pool.acquire(bodyLength);
+                bodyLen = 0;
+                state = BODY;
+                return each + 1;
+            }
+        }
+
+        return length;
+    }
+
+    private int decodeBody(byte[] buf, int offset, int length, Frame frame) throws IOException {
+        int use = Math.min(length, bodyLength - bodyLen);
+
+        System.arraycopy(buf, offset, body, bodyLen, use);
+        bodyLen += use;
+
+        if (bodyLen == bodyLength) {
+            MimeMediaType msgMime = header.getContentTypeHeader();
+            byte[] complete = body;
+
+            header = null;
+            body = null;
+            bodyLen = 0;
+            state = HEADER;
+
+            // FIXME 20020730 bondolo@jxta.org Do something with content-coding here.
+
+            // The buffer returns to the pool once the message elements which
+            // share it are no longer referenced.
+            frame.message = WireFormatMessageFactory.fromBuffer(complete, 0, bodyLength, msgMime, (MimeMediaType) null, pool.lease(complete));
+            frame.length = bodyLength;
+        }
+
+        return use;
+    }
+
+    /**
+     *  Determine whether {@link #scratch} contains a complete package header.
+     *  The header is a sequence of (name length, name, value length, value)
+     *  tuples terminated by a zero name length. The scan resumes after the
+     *  last complete tuple so that each byte is examined once.
+     */
+    private boolean isHeaderComplete() throws IOException {
+        while (headerScan < scratchLen) {
+            int nameLength = scratch[headerScan];
+
+            if (0 == nameLength) {
+                return (headerScan + 1) == scratchLen;
+            }
+
+            if (nameLength < 0) {
+                throw new IOException("Invalid header name length : " + nameLength);
+            }
+
+            int valueAt = headerScan + 1 + nameLength;
+
+            if ((valueAt + 2) > scratchLen) {
+                return false;
+            }
+
+            int valueLength = ((scratch[valueAt] & 0xFF) << 8) | (scratch[valueAt + 1] & 0xFF);
+            int next = valueAt + 2 + valueLength;
+
+            if (next > scratchLen) {
+                return false;
+            }
+
+            headerScan = next;
+        }
+
+        return false;
+    }
+
+    private void append(byte aByte) {
+        if (scratchLen == scratch.length) {
+            byte[] bigger = new byte[scratch.length * 2];
+
+            System.arraycopy(scratch, 0, bigger, 0, scratchLen);
+            scratch = bigger;
+        }
+
+        scratch[scratchLen++] = aByte;
+    }
+
+    /**
+     *  The result of a decode pass.
+     */
+    static class Frame {
+
+        /**
+         *  The welcome message decoded or <code>null</code>.
+         */
+        WelcomeMessage welcome = null;
+
+        /**
+         *  The message decoded or <code>null</code>.
+         */
+        Message message = null;
+
+        /**
+         *  The length of the decoded message body.
+         */
+        long length = 0;
+
+        void clear() {
+            welcome = null;
+            message = null;
+            length = 0;
+        }
+
+        boolean isComplete() {
+            return (null != welcome) || (null != message);
+        }
+    }
+}
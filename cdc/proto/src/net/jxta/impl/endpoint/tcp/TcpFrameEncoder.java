@@ -0,0 +1,156 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jxta.impl.endpoint.WireFormatMessageBinary;
+import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
+
+/**
+ *  Encoder for outgoing message frames of the TCP transport. A frame is
+ *  encoded as an array of buffers for a single gathering write: the package
+ *  header is written, and the message and element headers are copied, into
+ *  a reusable direct buffer and the element contents are written from where
+ *  they are.
+ *
+ *  <p/>The encoder is not thread safe, the connection uses it while holding
+ *  its write lock. The buffers returned by {@link #encode} are only valid until
+ *  the next call.
+ *
+ *  @see TcpFrameDecoder
+ */
+class TcpFrameEncoder {
+
+    /**
+     *  Holds the headers of the frame being encoded.
+     */
+    private final ByteBuffer headerSpace;
+
+    /**
+     *  The buffers of the frame being encoded.
+     */
+    private final List buffers = new ArrayList();
+
+    /**
+     *  Writes the package header straight into the header space.
+     */
+    private final OutputStream headerSpaceStream = new OutputStream() {
+                public void write(int b) {
+                    headerSpace.put((byte) b);
+                }
+
+                public void write(byte[] b, int off, int len) {
+                    headerSpace.put(b, off, len);
+                }
+            };
+
+    /**
+     *  Creates a new encoder.
+     *
+     *  @param headerSpaceSize size of the direct buffer used for headers.
+     */
+    TcpFrameEncoder(int headerSpaceSize) {
+        headerSpace = ByteBuffer.allocateDirect(headerSpaceSize);
+    }
+
+    /**
+     *  Encode a frame.
+     *
+     *  @param header the package header of the frame.
+     *  @param serialed the serialized message.
+     *  @return the buffers to write, in order.
+     *  @throws IOException if the header cannot be encoded.
+     */
+    ByteBuffer[] encode(MessagePackageHeader header, WireFormatMessageBinary serialed) throws IOException {
+        headerSpace.clear();
+        buffers.clear();
+
+        try {
+            header.sendToStream(headerSpaceStream);
+
+            ByteBuffer view = headerSpace.duplicate();
+
+            view.flip();
+            buffers.add(view);
+        } catch (BufferOverflowException tooLarge) {
+            // unusually large header. Encode it on its own.
+            headerSpace.clear();
+
+            ByteArrayOutputStream packageHeader = new ByteArrayOutputStream();
+
+            header.sendToStream(packageHeader);
+            buffers.add(ByteBuffer.wrap(packageHeader.toByteArray()));
+        }
+
+        serialed.getByteBuffers(headerSpace, buffers);
+
+        ByteBuffer[] result = (ByteBuffer[]) buffers.toArray(new ByteBuffer[buffers.size()]);
+
+        buffers.clear();
+
+        return result;
+    }
+}
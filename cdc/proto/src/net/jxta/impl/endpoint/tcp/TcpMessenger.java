@@ -323,7 +323,11 @@ class TcpMessenger extends BlockingMessenger {
                 LOG.debug("Sending " + message + " to " + destAddressToUse + " on connection " + conn.getDestinationAddress());
             }
         
-            myConn.sendMessage(message);
+            if (null != proto.writeCoalescer) {
+                myConn.queueMessage(message);
+            } else {
+                myConn.sendMessage(message);
+            }
         } catch (IOException caught) {
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Message send failed for " + message, caught);
@@ -0,0 +1,501 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ *  A small pool of {@link Selector} event loops which multiplex the receive
+ *  side of all of the NIO mode connections of a {@link TcpTransport}. Each
+ *  loop runs on its own thread and owns a subset of the connections. Channels
+ *  are assigned to the loops in round robin order.
+ *
+ *  <p/>The loops also host the server socket channel of the transport so that
+ *  incoming connections do not need a dedicated accept thread.
+ *
+ *  <p/>Nothing which may block runs on the loops: the connections they
+ *  accept are set up by the {@link IncomingUnicastServer} and the messages
+ *  they read are delivered by the demux stage of the endpoint service.
+ */
+class TcpSelectorPool {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(TcpSelectorPool.class.getName());
+
+    /**
+     *  Maximum time a loop waits in select before checking its connections
+     *  for stalled input.
+     */
+    private static final long SELECT_TIMEOUT = 5 * TimeUtils.ASECOND;
+
+    /**
+     *  The transport we are working for.
+     */
+    private final TcpTransport proto;
+
+    /**
+     *  The event loops.
+     */
+    private final SelectorLoop[] loops;
+
+    /**
+     *  The loop which will get the next registration.
+     */
+    private int nextLoop = 0;
+
+    /**
+     *  If true then the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     *  Creates a new pool of event loops and starts them.
+     *
+     *  @param proto the transport we are working for.
+     *  @param nbLoops the number of selector loops to run.
+     *  @throws IOException if a selector could not be opened.
+     */
+    TcpSelectorPool(TcpTransport proto, int nbLoops) throws IOException {
+        if (nbLoops < 1) {
+            throw new IllegalArgumentException("At least one selector loop is required");
+        }
+
+        this.proto = proto;
+
+        loops = new SelectorLoop[nbLoops];
+
+        for (int eachLoop = 0; eachLoop < nbLoops; eachLoop++) {
+            loops[eachLoop] = new SelectorLoop(eachLoop);
+        }
+
+        for (int eachLoop = 0; eachLoop < nbLoops; eachLoop++) {
+            loops[eachLoop].start();
+        }
+    }
+
+    /**
+     *  Register a connection whose channel is ready for receiving messages.
+     *
+     *  @param conn the connection.
+     */
+    void register(TcpConnection conn) {
+        nextLoop().register(conn.getChannel(), conn);
+    }
+
+    /**
+     *  Register a server channel for accepting incoming connections.
+     *
+     *  @param server the server channel.
+     *  @param acceptor the server which will handle accepted connections.
+     */
+    void register(ServerSocketChannel server, IncomingUnicastServer acceptor) {
+        nextLoop().register(server, acceptor);
+    }
+
+    /**
+     *  Stop all of the loops. The connections registered with the pool are
+     *  closed as their loop exits.
+     */
+    void close() {
+        closed = true;
+
+        for (int eachLoop = 0; eachLoop < loops.length; eachLoop++) {
+            loops[eachLoop].selector.wakeup();
+        }
+    }
+
+    private synchronized SelectorLoop nextLoop() {
+        SelectorLoop result = loops[nextLoop];
+
+        nextLoop = (nextLoop + 1) % loops.length;
+
+        return result;
+    }
+
+    /**
+     *  A single selector event loop.
+     */
+    private class SelectorLoop implements Runnable {
+
+        final Selector selector;
+
+        /**
+         *  Channels waiting to be registered with our selector. Registration
+         *  must happen on the loop thread, a thread registering while the
+         *  loop is in select() would block.
+         */
+        private final List pending = new ArrayList();
+
+        /**
+         *  Keys of connections whose reading resumes. Guarded by
+         *  {@link #pending}.
+         */
+        private final List resumed = new ArrayList();
+
+        /**
+         *  The buffer into which all of the reads of this loop take place.
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(TcpTransport.ChunkSize);
+
+        private final Thread loopThread;
+
+        SelectorLoop(int index) throws IOException {
+            selector = Selector.open();
+            loopThread = new Thread(proto.myThreadGroup, this, "TCP Selector #" + index);
+            loopThread.setDaemon(true);
+        }
+
+        void start() {
+            loopThread.start();
+        }
+
+        void register(SelectableChannel channel, Object attachment) {
+            synchronized (pending) {
+                pending.add(new Object[] { channel, attachment });
+            }
+
+            selector.wakeup();
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            try {
+                if (LOG.isEnabledFor(Level.INFO)) {
+                    LOG.info("Selector loop starts : " + Thread.currentThread().getName());
+                }
+
+                long lastCheck = TimeUtils.timeNow();
+
+                while (!closed) {
+                    processRegistrations();
+
+                    selector.select(SELECT_TIMEOUT);
+
+                    Iterator eachKey = selector.selectedKeys().iterator();
+
+                    while (eachKey.hasNext()) {
+                        SelectionKey aKey = (SelectionKey) eachKey.next();
+
+                        eachKey.remove();
+
+                        try {
+                            if (!aKey.isValid()) {
+                                continue;
+                            }
+
+                            if (aKey.isAcceptable()) {
+                                processAccept(aKey);
+                            } else if (aKey.isReadable()) {
+                                processRead(aKey);
+                            }
+                        } catch (CancelledKeyException gone) {
+                            // the connection was closed underneath us.
+                            ;
+                        }
+                    }
+
+                    long now = TimeUtils.timeNow();
+
+                    if (TimeUtils.toRelativeTimeMillis(now, lastCheck) >= SELECT_TIMEOUT) {
+                        checkStalled(now);
+                        lastCheck = now;
+                    }
+                }
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            } finally {
+                closeAll();
+
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    ;
+                }
+
+                if (LOG.isEnabledFor(Level.INFO)) {
+                    LOG.info("Selector loop stops : " + Thread.currentThread().getName());
+                }
+            }
+        }
+
+        private void closeAll() {
+            Object[] keys;
+
+            try {
+                keys = selector.keys().toArray();
+            } catch (Throwable ignored) {
+                return;
+            }
+
+            for (int each = 0; each < keys.length; each++) {
+                Object attachment = ((SelectionKey) keys[each]).attachment();
+
+                if (attachment instanceof TcpConnection) {
+                    ((TcpConnection) attachment).close();
+                }
+            }
+        }
+
+        /**
+         *  Resume reading from a connection paused because the demux stage
+         *  was full. Interest changes are made by the loop thread, another
+         *  thread changing them while the loop is in select() could block.
+         */
+        void resume(SelectionKey aKey) {
+            synchronized (pending) {
+                resumed.add(aKey);
+            }
+
+            selector.wakeup();
+        }
+
+        private void processRegistrations() {
+            Object[] toRegister;
+            Object[] toResume;
+
+            synchronized (pending) {
+                if (pending.isEmpty() && resumed.isEmpty()) {
+                    return;
+                }
+
+                toRegister = pending.toArray();
+                pending.clear();
+                toResume = resumed.toArray();
+                resumed.clear();
+            }
+
+            for (int each = 0; each < toResume.length; each++) {
+                SelectionKey aKey = (SelectionKey) toResume[each];
+
+                try {
+                    if (aKey.isValid()) {
+                        aKey.interestOps(SelectionKey.OP_READ);
+                        ((TcpConnection) aKey.attachment()).readResumed();
+                    }
+                } catch (CancelledKeyException gone) {
+                    ;
+                }
+            }
+
+            for (int each = 0; each < toRegister.length; each++) {
+                Object[] aRegistration = (Object[]) toRegister[each];
+                SelectableChannel channel = (SelectableChannel) aRegistration[0];
+                Object attachment = aRegistration[1];
+                int ops = (channel instanceof ServerSocketChannel) ? SelectionKey.OP_ACCEPT : SelectionKey.OP_READ;
+
+                try {
+                    registered(channel.register(selector, ops, attachment));
+                } catch (ClosedChannelException closed) {
+                    if (LOG.isEnabledFor(Level.DEBUG)) {
+                        LOG.debug("Channel closed before registration : " + attachment);
+                    }
+
+                    if (attachment instanceof TcpConnection) {
+                        ((TcpConnection) attachment).close();
+                    }
+                }
+            }
+        }
+
+        /**
+         *  Gives a connection newly registered with our selector the means to
+         *  resume its reading.
+         */
+        private void registered(final SelectionKey aKey) {
+            if (aKey.attachment() instanceof TcpConnection) {
+                ((TcpConnection) aKey.attachment()).readResumer = new Runnable() {
+                    public void run() {
+                        resume(aKey);
+                    }
+                };
+            }
+        }
+
+        private void processAccept(SelectionKey aKey) {
+            IncomingUnicastServer acceptor = (IncomingUnicastServer) aKey.attachment();
+            ServerSocketChannel server = (ServerSocketChannel) aKey.channel();
+
+            while (true) {
+                SocketChannel inputChannel;
+
+                try {
+                    inputChannel = server.accept();
+                } catch (IOException failed) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("ServerSocketChannel.accept() failed", failed);
+                    }
+                    return;
+                }
+
+                if (null == inputChannel) {
+                    // Nothing more to accept for now.
+                    return;
+                }
+
+                // The set-up may block, it is done by the server's thread.
+                acceptor.channelAccepted(inputChannel);
+            }
+        }
+
+        private void processRead(SelectionKey aKey) {
+            TcpConnection conn = (TcpConnection) aKey.attachment();
+            SocketChannel channel = (SocketChannel) aKey.channel();
+
+            // Bound the work done for a single connection per select so
+            // that one busy connection cannot starve the others on this
+            // loop.
+            for (int eachRead = 0; eachRead < 8; eachRead++) {
+                int read;
+
+                readBuffer.clear();
+
+                try {
+                    read = channel.read(readBuffer);
+                } catch (IOException failed) {
+                    conn.receiveFailed(failed);
+                    aKey.cancel();
+                    return;
+                }
+
+                if (read < 0) {
+                    conn.receiveFailed(null);
+                    aKey.cancel();
+                    return;
+                }
+
+                if (0 == read) {
+                    return;
+                }
+
+                if (!conn.received(readBuffer.array(), readBuffer.arrayOffset(), read)) {
+                    aKey.cancel();
+                    return;
+                }
+
+                if (conn.takeReadPaused()) {
+                    // The demux stage is full. Only this connection stops
+                    // reading, until the stage has drained.
+                    aKey.interestOps(0);
+                    return;
+                }
+
+                if (read < readBuffer.capacity()) {
+                    return;
+                }
+            }
+        }
+
+        private void checkStalled(long now) {
+            Object[] keys;
+
+            try {
+                keys = selector.keys().toArray();
+            } catch (Throwable ignored) {
+                return;
+            }
+
+            for (int each = 0; each < keys.length; each++) {
+                SelectionKey aKey = (SelectionKey) keys[each];
+                Object attachment = aKey.attachment();
+
+                if (!aKey.isValid() || !(attachment instanceof TcpConnection)) {
+                    continue;
+                }
+
+                try {
+                    if (0 == aKey.interestOps()) {
+                        // We stopped reading, not the remote peer.
+                        continue;
+                    }
+                } catch (CancelledKeyException gone) {
+                    continue;
+                }
+
+                TcpConnection conn = (TcpConnection) attachment;
+
+                if (conn.isInputStalled(now)) {
+                    aKey.cancel();
+                    conn.receiveFailed(null);
+                }
+            }
+        }
+    }
+}
@@ -78,8 +78,6 @@ import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Timer;
-import java.util.TimerTask;
 import net.jxta.document.Advertisement;
 import net.jxta.document.AdvertisementFactory;
 import net.jxta.document.Attributable;
@@ -107,8 +105,10 @@ import net.jxta.impl.endpoint.WireFormatMessageFactory;
 import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
 import net.jxta.impl.endpoint.msgframing.MessagePackageHeader.Header;
 import net.jxta.impl.protocol.TCPAdv;
+import net.jxta.impl.util.BufferPool;
+import net.jxta.impl.util.ScheduledTask;
 import net.jxta.impl.util.TimeUtils;
-import net.jxta.impl.util.TimerThreadNamer;
+import net.jxta.impl.util.TimingWheel;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.platform.Module;
 import net.jxta.protocol.ConfigParams;
@@ -199,6 +199,14 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
 
     static final int              MaxAcceptCnxBacklog = 50; // Java's default is 50
 
+    /**
+     * The number of selector loops used to multiplex the connections of this
+     * transport. If zero, each connection has its own receive thread and the
+     * server has its own accept thread. Set with the system property
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.selectors</tt>.
+     */
+    static int                    selectorLoops = 0;
+
     // Connections that are watched often - io in progress
     List                          ShortCycle = Collections.synchronizedList(new ArrayList());
 
@@ -245,17 +253,89 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
      */
     ThreadGroup                   myThreadGroup = null;
 
-    final Timer                   connectionWatchTimer;
+    /**
+     *  The tasks which watch over the two connection watch lists.
+     */
+    private final Watcher         longWatcher;
+    private final Watcher         shortWatcher;
+
+    /**
+     *  The selector loops which drive our connections or <code>null</code> if
+     *  we use a thread per connection.
+     */
+    TcpSelectorPool               selectorPool = null;
+
+    /**
+     * The largest message body accepted. The body buffer is allocated once the
+     * header has been read so the length announced by the remote peer must be
+     * bounded. Set with the system property
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.maxMessageSize</tt>.
+     */
+    static int                    MaxMessageSize = 16 * 1024 * 1024; // 16 MBytes
+
+    /**
+     * The size of the largest message body buffer which is pooled.
+     */
+    static final int              MaxPooledBufferSize = 256 * 1024; // 256 KBytes
+
+    /**
+     * The maximum total size of the idle message body buffers kept in the
+     * pool. Set with the system property
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.bufferPoolSize</tt>.
+     */
+    static long                   bufferPoolSize = 2 * 1024 * 1024; // 2 MBytes
+
+    /**
+     *  The buffers into which incoming message bodies are read. The message
+     *  elements are slices of these buffers, they return to the pool once the
+     *  message is no longer referenced.
+     */
+    final BufferPool              messageBuffers;
+
+    /**
+     * If true then messengers coalesce their writes. Set with the system
+     * property <tt>net.jxta.impl.endpoint.tcp.TcpTransport.coalesce</tt>.
+     * The thresholds are set with the properties
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.coalesceMessages</tt>,
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.coalesceBytes</tt> and
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.coalesceMicros</tt>, the
+     * number of threads flushing expired batches with
+     * <tt>net.jxta.impl.endpoint.tcp.TcpTransport.coalesceFlushThreads</tt>.
+     */
+    static boolean                coalesceWrites = false;
+
+    static int                    coalesceMessages = 64;
+
+    static long                   coalesceBytes = SendBufferSize / 2;
+
+    static long                   coalesceMicros = 500;
+
+    static int                    coalesceFlushThreads = 2;
 
     /**
-     * TimerTask used to watch over connections.
+     *  Flushes the batches of coalescing messengers or <code>null</code> if
+     *  every message is flushed as it is sent.
      */
-    static class Watcher extends TimerTask {
+    volatile TcpWriteCoalescer    writeCoalescer = null;
+
+    /**
+     * Task used to watch over connections.
+     */
+    static class Watcher extends ScheduledTask {
         private Collection watchList;
         public Watcher(Collection watchList) {
             this.watchList = watchList;
         }
 
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>Closing a stalled stream may wait for the thread stuck in it.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+
         public void run() {
             try {
                 WatchedStream[] allStreams = (WatchedStream[]) watchList.toArray(new WatchedStream[0]);
@@ -291,12 +371,89 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
             // Keep the default
         }
 
-        connectionWatchTimer = new Timer(true);
-        connectionWatchTimer.schedule(new TimerThreadNamer("TCP Transport Connection Timer"), 0);
+        try {
+            String selectorsStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.selectors");
+
+            if (selectorsStr != null) {
+                selectorLoops = Math.max(0, Integer.parseInt(selectorsStr.trim()));
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse system property: net.jxta.impl.endpoint.tcp.TcpTransport.selectors");
+            }
+
+            // Keep the default
+        }
+
+        try {
+            String maxStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.maxMessageSize");
+
+            if (maxStr != null) {
+                MaxMessageSize = Math.max(0, Integer.parseInt(maxStr.trim()));
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse system property: net.jxta.impl.endpoint.tcp.TcpTransport.maxMessageSize");
+            }
+
+            // Keep the default
+        }
+
+        try {
+            String poolStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.bufferPoolSize");
+
+            if (poolStr != null) {
+                bufferPoolSize = Math.max(0, Long.parseLong(poolStr.trim()));
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse system property: net.jxta.impl.endpoint.tcp.TcpTransport.bufferPoolSize");
+            }
+
+            // Keep the default
+        }
+
+        try {
+            coalesceWrites = Boolean.getBoolean("net.jxta.impl.endpoint.tcp.TcpTransport.coalesce");
+
+            String messagesStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.coalesceMessages");
+
+            if (messagesStr != null) {
+                coalesceMessages = Integer.parseInt(messagesStr.trim());
+            }
+
+            String bytesStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.coalesceBytes");
+
+            if (bytesStr != null) {
+                coalesceBytes = Long.parseLong(bytesStr.trim());
+            }
+
+            String microsStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.coalesceMicros");
+
+            if (microsStr != null) {
+                coalesceMicros = Long.parseLong(microsStr.trim());
+            }
+
+            String threadsStr = System.getProperty("net.jxta.impl.endpoint.tcp.TcpTransport.coalesceFlushThreads");
+
+            if (threadsStr != null) {
+                coalesceFlushThreads = Integer.parseInt(threadsStr.trim());
+            }
+        } catch (Exception e) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Could not parse system properties: net.jxta.impl.endpoint.tcp.TcpTransport.coalesce*");
+            }
+
+            // Keep the defaults
+        }
+
+        messageBuffers = new BufferPool(MaxPooledBufferSize, bufferPoolSize);
 
         // Setup the timer for the two connection watch lists.
-        connectionWatchTimer.schedule(new Watcher(LongCycle), LongTimeout, LongTimeout);
-        connectionWatchTimer.schedule(new Watcher(ShortCycle), ShortTimeout, ShortTimeout);
+        longWatcher = new Watcher(LongCycle);
+        shortWatcher = new Watcher(ShortCycle);
+        TimingWheel.getSharedInstance().schedule(longWatcher, LongTimeout, LongTimeout);
+        TimingWheel.getSharedInstance().schedule(shortWatcher, ShortTimeout, ShortTimeout);
     }
 
     /**
@@ -437,6 +594,12 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
 
             // Start the servers
             myThreadGroup = new ThreadGroup(group.getHomeThreadGroup(), "TcpTransport " + usingInterface.getHostAddress());
+            if (selectorLoops > 0) {
+                selectorPool = new TcpSelectorPool(this, selectorLoops);
+            }
+            if (coalesceWrites) {
+                writeCoalescer = new TcpWriteCoalescer(this, coalesceMessages, coalesceBytes, coalesceMicros, coalesceFlushThreads);
+            }
             if (adv.isServerEnabled()) {
                 unicastServer = new IncomingUnicastServer(this, usingInterface, serverSocketPort, adv.getStartPort(), adv.getEndPort());
                 InetSocketAddress boundAddresss = unicastServer.getLocalSocketAddress();
@@ -686,6 +849,8 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
             }
 
             configInfo.append("\n\tConfiguration :");
+            configInfo.append("\n\t\tSelector loops: " + ((null == selectorPool) ? "disabled (thread per connection)" : Integer.toString(selectorLoops)));
+            configInfo.append("\n\t\tWrite coalescing: " + ((null == writeCoalescer) ? "disabled" : (coalesceMessages + " messages, " + coalesceBytes + " bytes, " + coalesceMicros + "us, " + coalesceFlushThreads + " flush threads")));
             if (null != unicastServer) {
                 if (-1 == unicastServer.getStartPort()) {
                     configInfo.append("\n\t\tUnicast Server Bind Addr: " + usingInterface.getHostAddress() + ":" + serverSocketPort);
@@ -753,7 +918,19 @@ public class TcpTransport implements Runnable, Module, MessageSender, MessageRec
             multicastThread = null;
         }
 
-        connectionWatchTimer.cancel();
+        longWatcher.cancel();
+        shortWatcher.cancel();
+
+        if (writeCoalescer != null) {
+            writeCoalescer.close();
+            writeCoalescer = null;
+        }
+
+        // Selector driven connections are closed by their loop.
+        if (selectorPool != null) {
+            selectorPool.close();
+            selectorPool = null;
+        }
 
         // Close all watched streams. The input threads will kill the
         // connections.
@@ -0,0 +1,418 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+
+import java.util.LinkedList;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ *  Drives the opt-in write coalescing of a {@link TcpTransport}. In this mode
+ *  messages sent on a connection are written to its buffered output stream
+ *  without flushing. The connection flushes the batch itself once it holds
+ *  enough messages or bytes, otherwise the coalescer flushes it when its
+ *  deadline expires.
+ *
+ *  <p/>The deadlines are tracked by a single thread which never writes. It
+ *  hands expired batches to a small pool of flush threads, so a connection
+ *  whose socket does not accept data only holds up one flush thread. A
+ *  connection which is being written to, or an expired batch for which no
+ *  flush thread is free, is given another deadline instead of being waited
+ *  for.
+ *
+ *  <p/>The coalescer also keeps counters of the batches flushed.
+ */
+class TcpWriteCoalescer implements Runnable {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(TcpWriteCoalescer.class.getName());
+
+    /**
+     *  The batch reached the message threshold.
+     */
+    static final int FLUSH_MESSAGES = 0;
+
+    /**
+     *  The batch reached the byte threshold.
+     */
+    static final int FLUSH_BYTES = 1;
+
+    /**
+     *  The deadline of the batch expired.
+     */
+    static final int FLUSH_DEADLINE = 2;
+
+    /**
+     *  The batch was flushed by an unbatched send.
+     */
+    static final int FLUSH_SEND = 3;
+
+    private static final String[] FLUSH_REASONS = { "messages", "bytes", "deadline", "send" };
+
+    /**
+     *  Number of batch size buckets. Bucket <code>n</code> counts the batches
+     *  of <code>2^n</code> to <code>2^(n+1) - 1</code> messages, the last one
+     *  counts all larger batches.
+     */
+    private static final int SIZE_BUCKETS = 8;
+
+    /**
+     *  Maximum number of messages in a batch.
+     */
+    final int maxMessages;
+
+    /**
+     *  Maximum number of bytes in a batch.
+     */
+    final long maxBytes;
+
+    /**
+     *  Maximum time a message may wait in a batch, in nanoseconds.
+     */
+    private final long delayNanos;
+
+    /**
+     *  Connections with a pending deadline, in deadline order. All deadlines
+     *  are the same distance from their scheduling so a FIFO will do.
+     */
+    private final LinkedList scheduled = new LinkedList();
+
+    /**
+     *  Connections whose deadline has expired, waiting for a flush thread.
+     */
+    private final LinkedList expired = new LinkedList();
+
+    /**
+     *  Number of flush threads. Also the maximum number of connections
+     *  waiting in {@link #expired}.
+     */
+    private final int flushThreads;
+
+    private final Thread deadlineThread;
+
+    private volatile boolean closed = false;
+
+    private long batches = 0;
+    private long messages = 0;
+    private long bytes = 0;
+    private final long[] flushes = new long[FLUSH_REASONS.length];
+    private final long[] batchSizes = new long[SIZE_BUCKETS];
+
+    /**
+     *  Creates a new coalescer and starts its threads.
+     *
+     *  @param proto the transport we are working for.
+     *  @param maxMessages batches are flushed when they hold this many
+     *  messages.
+     *  @param maxBytes batches are flushed when they hold this many bytes.
+     *  @param delayMicros batches are flushed this many microseconds after
+     *  their first message at the latest.
+     *  @param flushThreads the number of threads which flush expired batches.
+     */
+    TcpWriteCoalescer(TcpTransport proto, int maxMessages, long maxBytes, long delayMicros, int flushThreads) {
+        this.maxMessages = Math.max(1, maxMessages);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.delayNanos = Math.max(0, delayMicros) * 1000L;
+        this.flushThreads = Math.max(1, flushThreads);
+
+        deadlineThread = new Thread(proto.myThreadGroup, this, "TCP Write Coalescer");
+        deadlineThread.setDaemon(true);
+
+        for (int eachThread = 0; eachThread < this.flushThreads; eachThread++) {
+            Thread flushThread = new Thread(proto.myThreadGroup, new Flusher(), "TCP Write Coalescer Flush " + eachThread);
+
+            flushThread.setDaemon(true);
+            flushThread.start();
+        }
+
+        deadlineThread.start();
+    }
+
+    /**
+     *  Schedule the flush of the batch which the connection has just started.
+     *
+     *  @param conn the connection.
+     */
+    void schedule(TcpConnection conn) {
+        long deadline = System.currentTimeMillis() * 1000000L + delayNanos;
+
+        synchronized (scheduled) {
+            scheduled.addLast(new Object[] { conn, new Long(deadline) });
+            if (1 == scheduled.size()) {
+                scheduled.notify();
+            }
+        }
+    }
+
+    /**
+     *  Hand an expired batch to a flush thread. If the connection is being
+     *  written to or all the flush threads are busy the batch gets another
+     *  deadline. Once the coalescer is closed the batch is always handed
+     *  over.
+     *
+     *  @param conn the connection.
+     */
+    private void handOver(TcpConnection conn) {
+        synchronized (expired) {
+            if (closed || (!conn.isWriting() && (expired.size() < flushThreads))) {
+                expired.addLast(conn);
+                expired.notify();
+                return;
+            }
+        }
+
+        schedule(conn);
+    }
+
+    /**
+     *  Flushes the batches handed over by the deadline thread.
+     */
+    private class Flusher implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            try {
+                while (true) {
+                    TcpConnection conn;
+
+                    synchronized (expired) {
+                        if (expired.isEmpty()) {
+                            if (closed && !deadlineThread.isAlive()) {
+                                break;
+                            }
+
+                            try {
+                                expired.wait(closed ? 100 : 0);
+                            } catch (InterruptedException woken) {
+                                Thread.interrupted();
+                            }
+                            continue;
+                        }
+
+                        conn = (TcpConnection) expired.removeFirst();
+                    }
+
+                    conn.flushBatch(FLUSH_DEADLINE);
+                }
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Record the flush of a batch.
+     *
+     *  @param reason the reason for the flush.
+     *  @param batchMessages the number of messages in the batch.
+     *  @param batchBytes the number of bytes in the batch.
+     */
+    synchronized void flushed(int reason, int batchMessages, long batchBytes) {
+        batches++;
+        messages += batchMessages;
+        bytes += batchBytes;
+        flushes[reason]++;
+
+        int bucket = 0;
+
+        while ((bucket < (SIZE_BUCKETS - 1)) && ((2 << bucket) <= batchMessages)) {
+            bucket++;
+        }
+        batchSizes[bucket]++;
+    }
+
+    /**
+     *  Returns the number of batches flushed.
+     *
+     *  @return the number of batches flushed.
+     */
+    synchronized long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     *  Returns the number of messages flushed.
+     *
+     *  @return the number of messages flushed.
+     */
+    synchronized long getMessageCount() {
+        return messages;
+    }
+
+    /**
+     *  Returns the number of batches flushed for the specified reason.
+     *
+     *  @param reason one of the <code>FLUSH_</code> reasons.
+     *  @return the number of batches flushed for the reason.
+     */
+    synchronized long getFlushCount(int reason) {
+        return flushes[reason];
+    }
+
+    /**
+     *  Returns the number of batches whose size fell into the bucket.
+     *
+     *  @param bucket the bucket, batches of <code>2^bucket</code> to
+     *  <code>2^(bucket+1) - 1</code> messages.
+     *  @return the number of batches.
+     */
+    synchronized long getBatchSizeCount(int bucket) {
+        return batchSizes[bucket];
+    }
+
+    /**
+     *  Stop the threads of the coalescer. Batches still pending are flushed.
+     */
+    void close() {
+        closed = true;
+
+        synchronized (scheduled) {
+            scheduled.notify();
+        }
+
+        synchronized (expired) {
+            expired.notifyAll();
+        }
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized String toString() {
+        StringBuffer result = new StringBuffer();
+
+        result.append(batches).append(" batches, ").append(messages).append(" messages, ").append(bytes).append(" bytes. Flushed on");
+
+        for (int eachReason = 0; eachReason < FLUSH_REASONS.length; eachReason++) {
+            result.append(' ').append(FLUSH_REASONS[eachReason]).append(':').append(flushes[eachReason]);
+        }
+
+        result.append(". Batch sizes");
+
+        for (int eachBucket = 0; eachBucket < SIZE_BUCKETS; eachBucket++) {
+            result.append(' ').append(1 << eachBucket).append((eachBucket < (SIZE_BUCKETS - 1)) ? "" : "+").append(':').append(batchSizes[eachBucket]);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public void run() {
+        try {
+            while (true) {
+                TcpConnection conn;
+
+                synchronized (scheduled) {
+                    if (scheduled.isEmpty()) {
+                        if (closed) {
+                            break;
+                        }
+
+                        try {
+                            scheduled.wait();
+                        } catch (InterruptedException woken) {
+                            Thread.interrupted();
+                        }
+                        continue;
+                    }
+
+                    Object[] next = (Object[]) scheduled.getFirst();
+                    long wait = ((Long) next[1]).longValue() - System.currentTimeMillis() * 1000000L;
+
+                    if ((wait > 0) && !closed) {
+                        try {
+                            // Sub-millisecond waits are subject to the
+                            // timer resolution of the VM.
+                            scheduled.wait(wait / 1000000L, (int) (wait % 1000000L));
+                        } catch (InterruptedException woken) {
+                            Thread.interrupted();
+                        }
+                        continue;
+                    }
+
+                    scheduled.removeFirst();
+                    conn = (TcpConnection) next[0];
+                }
+
+                handOver(conn);
+            }
+        } catch (Throwable all) {
+            if (LOG.isEnabledFor(Level.FATAL)) {
+                LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+            }
+        } finally {
+            synchronized (expired) {
+                expired.notifyAll();
+            }
+
+            if (LOG.isEnabledFor(Level.INFO)) {
+                LOG.info("Write coalescer stopped : " + this);
+            }
+        }
+    }
+}
@@ -266,11 +266,60 @@ public abstract class GenericPeerGroup implements PeerGroup {
         Service ignored;
 
         ignored = lookupService(endpointClassID);
-        ignored = lookupService(resolverClassID);
+        if (!isAvailableOnDemand(resolverClassID)) {
+            ignored = lookupService(resolverClassID);
+        }
         //ignored = lookupService(membershipClassID);
         //ignored = lookupService(accessClassID);
     }
 
+    /**
+     *  Returns true if the service is registered with this group. Unlike
+     *  {@link #lookupService(ID)} this never loads the service on demand.
+     *
+     *@param  name  the service class id
+     *@return       true if the service is registered
+     */
+    public synchronized boolean isServiceLoaded(ID name) {
+        return services.containsKey(name);
+    }
+
+    /**
+     *  Returns true if a service which is not registered yet will be loaded
+     *  by {@link #loadOnDemand(ID)}. Returns false by default.
+     *
+     *@param  name  the service class id
+     *@return       true if the service will be loaded on demand
+     */
+    protected boolean isAvailableOnDemand(ID name) {
+        return false;
+    }
+
+    /**
+     *  Invoked when a service which is not registered is requested, either by
+     *  {@link #lookupService(ID)} or one of the shortcuts to the well-known
+     *  services. Sub-classes which defer loading services may load, register
+     *  and start it. Does nothing by default.
+     *
+     *@param  name  the service class id
+     */
+    protected void loadOnDemand(ID name) {
+    }
+
+    /**
+     *  Returns the interface object handed out for a registered service,
+     *  either by {@link #lookupService(ID)} or one of the shortcuts to the
+     *  well-known services. Returns the interface object of the service by
+     *  default.
+     *
+     *@param  name     the service class id
+     *@param  service  the registered service
+     *@return          the interface object of the service
+     */
+    protected Service getServiceInterface(ID name, Service service) {
+        return service.getInterface();
+    }
+
     /**
      *  Description of the Method
      *
@@ -512,10 +561,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The discoveryService value
      */
     public DiscoveryService getDiscoveryService() {
-        if (discovery == null) {
-            return null;
+        DiscoveryService service = discovery;
+
+        if (service == null) {
+            loadOnDemand(discoveryClassID);
+            service = discovery;
+            if (service == null) {
+                return null;
+            }
         }
-        return (DiscoveryService) discovery.getInterface();
+        return (DiscoveryService) getServiceInterface(discoveryClassID, service);
     }
 
     /*
@@ -527,10 +582,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The endpointService value
      */
     public EndpointService getEndpointService() {
-        if (endpoint == null) {
-            return null;
+        EndpointService service = endpoint;
+
+        if (service == null) {
+            loadOnDemand(endpointClassID);
+            service = endpoint;
+            if (service == null) {
+                return null;
+            }
         }
-        return (EndpointService) endpoint.getInterface();
+        return (EndpointService) getServiceInterface(endpointClassID, service);
     }
 
     /**
@@ -607,10 +668,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The membershipService value
      */
     public MembershipService getMembershipService() {
-        if (membership == null) {
-            return null;
+        MembershipService service = membership;
+
+        if (service == null) {
+            loadOnDemand(membershipClassID);
+            service = membership;
+            if (service == null) {
+                return null;
+            }
         }
-        return (MembershipService) membership.getInterface();
+        return (MembershipService) getServiceInterface(membershipClassID, service);
     }
 
 
@@ -713,10 +780,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The pipeService value
      */
     public PipeService getPipeService() {
-        if (pipe == null) {
-            return null;
+        PipeService service = pipe;
+
+        if (service == null) {
+            loadOnDemand(pipeClassID);
+            service = pipe;
+            if (service == null) {
+                return null;
+            }
         }
-        return (PipeService) pipe.getInterface();
+        return (PipeService) getServiceInterface(pipeClassID, service);
     }
 
     /**
@@ -725,10 +798,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The rendezVousService value
      */
     public RendezVousService getRendezVousService() {
-        if (rendezvous == null) {
-            return null;
+        RendezVousService service = rendezvous;
+
+        if (service == null) {
+            loadOnDemand(rendezvousClassID);
+            service = rendezvous;
+            if (service == null) {
+                return null;
+            }
         }
-        return (RendezVousService) rendezvous.getInterface();
+        return (RendezVousService) getServiceInterface(rendezvousClassID, service);
     }
 
     /**
@@ -737,10 +816,16 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *@return    The resolverService value
      */
     public ResolverService getResolverService() {
-        if (resolver == null) {
-            return null;
+        ResolverService service = resolver;
+
+        if (service == null) {
+            loadOnDemand(resolverClassID);
+            service = resolver;
+            if (service == null) {
+                return null;
+            }
         }
-        return (ResolverService) resolver.getInterface();
+        return (ResolverService) getServiceInterface(resolverClassID, service);
     }
 
     /**
@@ -1293,15 +1378,27 @@ public abstract class GenericPeerGroup implements PeerGroup {
      *      that name
      *@exception  ServiceNotFoundException  Description of the Exception
      */
-    public synchronized Service lookupService(ID name) throws ServiceNotFoundException {
+    public Service lookupService(ID name) throws ServiceNotFoundException {
         // Null services are never registered, so we do not need to test that
         // case.
-        Service p = (Service) services.get(name);
+        Service p;
+
+        synchronized (this) {
+            p = (Service) services.get(name);
+        }
 
         if (p == null) {
-            throw new ServiceNotFoundException(name.toString());
+            loadOnDemand(name);
+
+            synchronized (this) {
+                p = (Service) services.get(name);
+            }
+
+            if (p == null) {
+                throw new ServiceNotFoundException(name.toString());
+            }
         }
-        return p.getInterface();
+        return getServiceInterface(name, p);
     }
 
     /**
@@ -0,0 +1,520 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.peergroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.id.ID;
+import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
+
+/**
+ *  Starts a set of modules, invoking the {@link Module#startApp(String[])}
+ *  method of independent modules concurrently from a bounded number of
+ *  threads.
+ *
+ *  <p/>A module is started only once the modules it depends upon have
+ *  settled, that is started or failed. Dependencies are declared with
+ *  {@link #addDependency(ID, ID)} or by the modules through
+ *  {@link ModuleDependencies}. They are also learned from the modules: a
+ *  module which returns {@link Module#START_AGAIN_PROGRESS} or
+ *  {@link Module#START_AGAIN_STALLED} is not invoked again until another
+ *  module settles. If no module is left to settle the declared dependencies
+ *  are ignored, in case they are circular, and then the modules left are
+ *  invoked again for as long as one of them reports progress, at most 1 +
+ *  the square of the number of modules left times in a row. Modules which
+ *  are still not started after that are given up.
+ *
+ *  <p/>The state of the scheduler is guarded by the monitor given to the
+ *  constructor, which the caller may already hold. Waiting for the threads
+ *  releases it so that the modules may use methods synchronized on it,
+ *  typically those of their group, while they start.
+ */
+class ModuleStartScheduler {
+
+    private final static Logger LOG = Logger.getLogger(ModuleStartScheduler.class.getName());
+
+    /**
+     *  Guards the state of the scheduler.
+     */
+    private final Object lock;
+
+    private final ThreadGroup threadGroup;
+    private final String name;
+
+    /**
+     *  The maximum number of threads, if 1 or less the modules are started
+     *  by the calling thread.
+     */
+    private final int maxThreads;
+
+    /**
+     *  The modules to start, in the order they were added.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.id.ID}</li>
+     *  <li>values are {@link net.jxta.platform.Module}</li>
+     *  </ul>
+     */
+    private final Map modules = new LinkedHashMap();
+
+    /**
+     *  The declared dependencies of the modules which have not settled yet.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.id.ID}</li>
+     *  <li>values are {@link java.util.Set} of {@link net.jxta.id.ID}</li>
+     *  </ul>
+     */
+    private final Map dependencies = new HashMap();
+
+    /**
+     *  The modules waiting for a thread.
+     */
+    private final LinkedList runnable = new LinkedList();
+
+    /**
+     *  The modules which are not ready and wait for another to settle.
+     */
+    private final List parked = new ArrayList();
+
+    /**
+     *  The modules whose startApp returned, in order of completion.
+     */
+    private final LinkedList finished = new LinkedList();
+
+    /**
+     *  The attempts made to start each module.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.id.ID}</li>
+     *  <li>values are {@link Attempts}</li>
+     *  </ul>
+     */
+    private final Map attempts = new HashMap();
+
+    /**
+     *  The modules which have not settled.
+     */
+    private final Set pending = new HashSet();
+
+    private String[] args = null;
+    private int threads = 0;
+    private int running = 0;
+    private boolean done = false;
+
+    /**
+     *  Constructor for the ModuleStartScheduler object
+     *
+     *  @param  lock         the monitor guarding the scheduler
+     *  @param  threadGroup  the thread group of the threads
+     *  @param  name         the prefix of the thread names
+     *  @param  maxThreads   the maximum number of threads, 1 or less to
+     *                       start the modules from the calling thread
+     */
+    ModuleStartScheduler(Object lock, ThreadGroup threadGroup, String name, int maxThreads) {
+        this.lock = lock;
+        this.threadGroup = threadGroup;
+        this.name = name;
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     *  Adds a module to start, replacing any module with the same id.
+     *
+     *  @param  id      the id of the module
+     *  @param  module  the module
+     */
+    void add(ID id, Module module) {
+        synchronized (lock) {
+            modules.put(id, module);
+        }
+    }
+
+    /**
+     *  Declares that a module may only be started once another has settled.
+     *  Ignored if either is not part of the modules to start.
+     *
+     *  @param  id          the id of the dependent module
+     *  @param  dependency  the id of the module it depends upon
+     */
+    void addDependency(ID id, ID dependency) {
+        synchronized (lock) {
+            if (id.equals(dependency) || !modules.containsKey(id) || !modules.containsKey(dependency)) {
+                return;
+            }
+
+            Set depends = (Set) dependencies.get(id);
+            if (null == depends) {
+                depends = new HashSet();
+                dependencies.put(id, depends);
+            }
+            depends.add(dependency);
+        }
+    }
+
+    /**
+     *  Invoked when a module fails to start, by the calling thread. Does
+     *  nothing by default.
+     *
+     *  @param  id      the id of the module
+     *  @param  module  the module
+     *  @param  result  the value returned by its startApp method
+     */
+    protected void failed(ID id, Module module, int result) {
+    }
+
+    /**
+     *  Starts the modules, returning once every module has settled or
+     *  no progress is being made.
+     *
+     *  @param  args  the arguments passed to the startApp method
+     */
+    void start(String[] args) {
+        long begin = System.currentTimeMillis();
+        boolean interrupted = false;
+
+        synchronized (lock) {
+            this.args = args;
+
+            Iterator eachModule = modules.entrySet().iterator();
+            while (eachModule.hasNext()) {
+                Map.Entry anEntry = (Map.Entry) eachModule.next();
+
+                if (anEntry.getValue() instanceof ModuleDependencies) {
+                    ModuleClassID[] depends = ((ModuleDependencies) anEntry.getValue()).getStartDependencies();
+
+                    for (int eachDepend = 0; (null != depends) && (eachDepend < depends.length); eachDepend++) {
+                        addDependency((ID) anEntry.getKey(), depends[eachDepend]);
+                    }
+                }
+            }
+
+            pending.addAll(modules.keySet());
+            eachModule = modules.keySet().iterator();
+            while (eachModule.hasNext()) {
+                ID id = (ID) eachModule.next();
+
+                attempts.put(id, new Attempts());
+                if (!dependencies.containsKey(id)) {
+                    runnable.add(id);
+                }
+            }
+        }
+
+        try {
+            long maxRounds = (long) pending.size() * pending.size() + 1;
+            boolean progress = false;
+
+            while (true) {
+                ID inline = null;
+
+                synchronized (lock) {
+                    while (!finished.isEmpty()) {
+                        ID id = (ID) finished.removeFirst();
+                        Attempts attempt = (Attempts) attempts.get(id);
+
+                        switch (attempt.result) {
+                        case Module.START_OK:
+                            if (LOG.isEnabledFor(Level.INFO)) {
+                                LOG.info("Module started in " + attempt.millis + "ms after " + attempt.count +
+                                         " attempt(s) : " + modules.get(id));
+                            }
+                            settle(id);
+                            maxRounds = (long) pending.size() * pending.size() + 1;
+                            break;
+
+                        case Module.START_AGAIN_PROGRESS:
+                            progress = true;
+                            parked.add(id);
+                            break;
+
+                        case Module.START_AGAIN_STALLED:
+                            parked.add(id);
+                            break;
+
+                        default:
+                            if (LOG.isEnabledFor(Level.WARN)) {
+                                LOG.warn("Module failed to start (" + attempt.result + ") : " + modules.get(id));
+                            }
+                            settle(id);
+                            maxRounds = (long) pending.size() * pending.size() + 1;
+                            failed(id, (Module) modules.get(id), attempt.result);
+                            break;
+                        }
+                    }
+
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+
+                    if ((0 == running) && runnable.isEmpty()) {
+                        if (!dependencies.isEmpty()) {
+                            if (LOG.isEnabledFor(Level.WARN)) {
+                                LOG.warn("Ignoring the unsatisfied dependencies of " + dependencies.keySet());
+                            }
+                            runnable.addAll(dependencies.keySet());
+                            dependencies.clear();
+                        } else if (progress && (maxRounds-- > 0)) {
+                            progress = false;
+                            runnable.addAll(parked);
+                            parked.clear();
+                        } else {
+                            break;
+                        }
+                    }
+
+                    if (maxThreads <= 1) {
+                        if (!runnable.isEmpty()) {
+                            inline = (ID) runnable.removeFirst();
+                            running++;
+                        }
+                    } else {
+                        while ((threads < maxThreads) && ((threads - running) < runnable.size())) {
+                            Thread worker = new Thread(threadGroup, new Worker(), name + " Starter #" + threads);
+                            worker.setDaemon(true);
+                            worker.start();
+                            threads++;
+                        }
+                        lock.notifyAll();
+
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException woken) {
+                            interrupted = true;
+                        }
+                    }
+                }
+
+                if (null != inline) {
+                    startModule(inline);
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                done = true;
+                lock.notifyAll();
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info(name + " : " + (modules.size() - pending.size()) + " of " + modules.size() +
+                     " modules settled in " + (System.currentTimeMillis() - begin) + "ms using " + threads + " thread(s)");
+        }
+    }
+
+    /**
+     *  Returns the modules which did not settle because no progress was
+     *  being made.
+     *
+     *  @return Map of {@link net.jxta.id.ID} to {@link net.jxta.platform.Module}.
+     */
+    Map getUnsettled() {
+        synchronized (lock) {
+            Map unsettled = new LinkedHashMap();
+            Iterator eachModule = modules.entrySet().iterator();
+
+            while (eachModule.hasNext()) {
+                Map.Entry anEntry = (Map.Entry) eachModule.next();
+
+                if (pending.contains(anEntry.getKey())) {
+                    unsettled.put(anEntry.getKey(), anEntry.getValue());
+                }
+            }
+            return unsettled;
+        }
+    }
+
+    /**
+     *  Returns the value last returned by the startApp method of a module.
+     *
+     *  @param  id  the id of the module
+     *  @return     the value, or -1 if the module was never invoked.
+     */
+    int getResult(ID id) {
+        synchronized (lock) {
+            Attempts attempt = (Attempts) attempts.get(id);
+
+            return ((null == attempt) || (0 == attempt.count)) ? -1 : attempt.result;
+        }
+    }
+
+    /**
+     *  Marks a module as settled, releasing the modules which depend upon it
+     *  and those which were waiting for any module to settle. Must be called
+     *  with the lock held.
+     *
+     *  @param  id  the id of the module
+     */
+    private void settle(ID id) {
+        pending.remove(id);
+
+        Iterator eachDependent = dependencies.entrySet().iterator();
+        while (eachDependent.hasNext()) {
+            Map.Entry anEntry = (Map.Entry) eachDependent.next();
+            Set depends = (Set) anEntry.getValue();
+
+            depends.remove(id);
+            if (depends.isEmpty()) {
+                eachDependent.remove();
+                runnable.add(anEntry.getKey());
+            }
+        }
+
+        runnable.addAll(parked);
+        parked.clear();
+    }
+
+    /**
+     *  Invokes the startApp method of a module and records the result.
+     *
+     *  @param  id  the id of the module
+     */
+    private void startModule(ID id) {
+        Module module;
+        String[] moduleArgs;
+
+        synchronized (lock) {
+            module = (Module) modules.get(id);
+            moduleArgs = args;
+        }
+
+        long begin = System.currentTimeMillis();
+        int res;
+
+        try {
+            res = module.startApp(moduleArgs);
+        } catch (Throwable all) {
+            if (LOG.isEnabledFor(Level.ERROR)) {
+                LOG.error("Exception in startApp() : " + module, all);
+            }
+            res = -1;
+        }
+
+        long took = System.currentTimeMillis() - begin;
+
+        synchronized (lock) {
+            Attempts attempt = (Attempts) attempts.get(id);
+
+            attempt.count++;
+            attempt.millis += took;
+            attempt.result = res;
+            finished.add(id);
+            running--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     *  The attempts made to start a module.
+     */
+    private static class Attempts {
+        int count = 0;
+        long millis = 0;
+        int result = -1;
+    }
+
+    /**
+     *  Starts runnable modules until the scheduler is done.
+     */
+    private class Worker implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            while (true) {
+                ID id;
+
+                synchronized (lock) {
+                    while (!done && runnable.isEmpty()) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException ignored) {
+                            ;
+                        }
+                    }
+
+                    if (done) {
+                        return;
+                    }
+
+                    id = (ID) runnable.removeFirst();
+                    running++;
+                }
+
+                startModule(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.peergroup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import net.jxta.id.ID;
+import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
+import net.jxta.service.Service;
+
+/**
+ *  The services of a group which are loaded when first requested.
+ *
+ *  <p/>A service is loaded, registered and then started by the first thread
+ *  which requests it, without holding the monitor of the group. Other
+ *  threads which request it meanwhile wait until it has started, unless
+ *  they are themselves starting a service which it waits for. A service
+ *  which asks to be started again is kept and started again when next
+ *  requested, one which fails to start is given up.
+ *
+ *  <p/>The interface objects of the services are bound to the running
+ *  service. Once the services hibernate, invoking an interface object
+ *  loads the service again, so references obtained before hibernating
+ *  never reach a stopped service.
+ */
+abstract class OnDemandServices {
+
+    private final static Logger LOG = Logger.getLogger(OnDemandServices.class.getName());
+
+    /**
+     *  The services which may be loaded.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.platform.ModuleClassID}</li>
+     *  <li>values are the descriptors passed to
+     *  {@link #loadService(ModuleClassID, Object)}</li>
+     *  </ul>
+     */
+    private final Hashtable available = new Hashtable();
+
+    /**
+     *  The services which are registered, starting or running, in the order
+     *  they were loaded.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.platform.ModuleClassID}</li>
+     *  <li>values are {@link net.jxta.platform.Module}</li>
+     *  </ul>
+     */
+    private final Map loaded = new LinkedHashMap();
+
+    /**
+     *  The services which asked to be started again.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.platform.ModuleClassID}</li>
+     *  <li>values are {@link net.jxta.platform.Module}</li>
+     *  </ul>
+     */
+    private final Map unstarted = new HashMap();
+
+    /**
+     *  The services being loaded and the threads loading them.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.platform.ModuleClassID}</li>
+     *  <li>values are {@link java.lang.Thread}</li>
+     *  </ul>
+     */
+    private final Map loading = new HashMap();
+
+    /**
+     *  The threads waiting for a service to be loaded.
+     *
+     *  <ul>
+     *  <li>keys are {@link java.lang.Thread}</li>
+     *  <li>values are {@link net.jxta.platform.ModuleClassID}</li>
+     *  </ul>
+     */
+    private final Map waiting = new HashMap();
+
+    /**
+     *  The interface objects handed out.
+     *
+     *  <ul>
+     *  <li>keys are {@link net.jxta.platform.ModuleClassID}</li>
+     *  <li>values are {@link ServiceInterface}</li>
+     *  </ul>
+     */
+    private final Hashtable interfaces = new Hashtable();
+
+    /**
+     *  The number of services being loaded, read without the lock.
+     */
+    private volatile int loadingCount = 0;
+
+    /**
+     *  True while {@link #hibernate()} stops the services. Services which
+     *  ask for one another while stopping must not load them again.
+     */
+    private boolean hibernating = false;
+
+    /**
+     *  Loads and initializes a service.
+     *
+     *  @param  classID     the class id of the service
+     *  @param  descriptor  the descriptor given to {@link #add(ModuleClassID, Object)}
+     *  @return             the service or null if it could not be loaded
+     */
+    protected abstract Module loadService(ModuleClassID classID, Object descriptor);
+
+    /**
+     *  Registers a service with the group, before it is started.
+     *
+     *  @param  classID  the class id of the service
+     *  @param  service  the service
+     */
+    protected abstract void register(ModuleClassID classID, Service service);
+
+    /**
+     *  Removes a service from the group, after it was stopped or failed to
+     *  start.
+     *
+     *  @param  classID  the class id of the service
+     *  @param  service  the service
+     */
+    protected abstract void unregister(ModuleClassID classID, Service service);
+
+    /**
+     *  Invoked once a service has started, by the thread which loaded it.
+     *  Does nothing by default.
+     *
+     *  @param  classID  the class id of the service
+     *  @param  service  the service
+     */
+    protected void started(ModuleClassID classID, Service service) {
+    }
+
+    /**
+     *  Invoked by {@link #hibernate()} once the services are stopped and
+     *  before they may be loaded again. Does nothing by default.
+     */
+    protected void hibernated() {
+    }
+
+    /**
+     *  Adds a service to load when first requested.
+     *
+     *  @param  classID     the class id of the service
+     *  @param  descriptor  passed to {@link #loadService(ModuleClassID, Object)}
+     */
+    void add(ModuleClassID classID, Object descriptor) {
+        available.put(classID, descriptor);
+    }
+
+    /**
+     *  Returns true if the service will be loaded by {@link #load(ID)}, that
+     *  is if it may be loaded and is not registered.
+     *
+     *  @param  name  the class id of the service
+     *  @return       true if the service will be loaded
+     */
+    synchronized boolean isAvailable(ID name) {
+        return available.containsKey(name) && !loaded.containsKey(name);
+    }
+
+    /**
+     *  Loads, registers and starts a service if it is not registered, or
+     *  waits until it has started if another thread is loading it.
+     *
+     *  @param  name  the class id of the service
+     */
+    void load(ID name) {
+        if (!available.containsKey(name)) {
+            return;
+        }
+
+        ModuleClassID classID = (ModuleClassID) name;
+        Object descriptor;
+        Module module;
+
+        synchronized (this) {
+            await(classID);
+
+            if (hibernating || !available.containsKey(classID) || loaded.containsKey(classID)) {
+                // Loaded meanwhile, given up, or being stopped by hibernate().
+                return;
+            }
+
+            loading.put(classID, Thread.currentThread());
+            loadingCount++;
+            descriptor = available.get(classID);
+            module = (Module) unstarted.remove(classID);
+        }
+
+        try {
+            if (null == module) {
+                if (LOG.isEnabledFor(Level.INFO)) {
+                    LOG.info("Loading on demand : " + classID);
+                }
+
+                try {
+                    module = loadService(classID, descriptor);
+                } catch (RuntimeException failed) {
+                    if (LOG.isEnabledFor(Level.ERROR)) {
+                        LOG.error("Failed to load on demand : " + classID, failed);
+                    }
+                    module = null;
+                }
+
+                if (!(module instanceof Service)) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("Will be missing from peer group: " + classID);
+                    }
+                    available.remove(classID);
+                    return;
+                }
+            }
+
+            Service service = (Service) module;
+
+            // Registered before it starts, as when loaded eagerly.
+            register(classID, service);
+            synchronized (this) {
+                loaded.put(classID, module);
+                bind(classID, service);
+            }
+
+            ModuleStartScheduler starter = new ModuleStartScheduler(new Object(), null, "Service " + classID, 1);
+            starter.add(classID, module);
+            starter.start(null);
+
+            int result = starter.getResult(classID);
+
+            if (Module.START_OK == result) {
+                started(classID, service);
+                return;
+            }
+
+            unregister(classID, service);
+            synchronized (this) {
+                loaded.remove(classID);
+                bind(classID, null);
+
+                if ((Module.START_AGAIN_PROGRESS == result) || (Module.START_AGAIN_STALLED == result)) {
+                    if (LOG.isEnabledFor(Level.WARN)) {
+                        LOG.warn("Service loaded on demand did not start yet, will retry when next requested : " + module);
+                    }
+                    unstarted.put(classID, module);
+                } else {
+                    if (LOG.isEnabledFor(Level.ERROR)) {
+                        LOG.error("Service loaded on demand failed to start (" + result + ") : " + module);
+                    }
+                    available.remove(classID);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                loading.remove(classID);
+                loadingCount--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     *  Returns the interface object for a registered service. Waits until
+     *  the service has started if another thread is loading it.
+     *
+     *  @param  name     the class id of the service
+     *  @param  service  the registered service
+     *  @return          the interface object of the service
+     */
+    Service getInterface(ID name, Service service) {
+        if (!available.containsKey(name)) {
+            return service.getInterface();
+        }
+
+        if (0 != loadingCount) {
+            synchronized (this) {
+                await(name);
+            }
+        }
+
+        ServiceInterface handler = (ServiceInterface) interfaces.get(name);
+
+        if (null == handler) {
+            synchronized (this) {
+                handler = (ServiceInterface) interfaces.get(name);
+
+                if (null == handler) {
+                    handler = new ServiceInterface((ModuleClassID) name, service.getInterface());
+                    if (loaded.get(name) == service) {
+                        handler.bound = service.getInterface();
+                    }
+                    interfaces.put(name, handler);
+                }
+            }
+        }
+
+        return handler.proxy;
+    }
+
+    /**
+     *  Stops the services which were loaded, in the reverse order of their
+     *  loading, and those which asked to be started again. They are loaded
+     *  again when next requested.
+     *
+     *  @return the number of services stopped
+     */
+    int hibernate() {
+        List classIDs;
+        List modules;
+        List unstartedModules;
+        boolean interrupted = false;
+
+        synchronized (this) {
+            while (!loading.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException woken) {
+                    interrupted = true;
+                }
+            }
+
+            hibernating = true;
+            classIDs = new ArrayList(loaded.keySet());
+            modules = new ArrayList(loaded.values());
+            unstartedModules = new ArrayList(unstarted.values());
+            unstarted.clear();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            // Stopped while still registered, since services look each
+            // other up as they stop.
+            for (int eachModule = modules.size() - 1; eachModule >= 0; eachModule--) {
+                stop((Module) modules.get(eachModule));
+            }
+
+            for (int eachModule = modules.size() - 1; eachModule >= 0; eachModule--) {
+                unregister((ModuleClassID) classIDs.get(eachModule), (Service) modules.get(eachModule));
+            }
+
+            for (Iterator eachModule = unstartedModules.iterator(); eachModule.hasNext();) {
+                stop((Module) eachModule.next());
+            }
+
+            hibernated();
+        } finally {
+            synchronized (this) {
+                loaded.clear();
+                unbindAll();
+                hibernating = false;
+            }
+        }
+
+        return modules.size() + unstartedModules.size();
+    }
+
+    /**
+     *  Forgets all the services, which must have been stopped. Their
+     *  interface objects may no longer be used.
+     */
+    synchronized void clear() {
+        available.clear();
+        loaded.clear();
+        unstarted.clear();
+        unbindAll();
+    }
+
+    /**
+     *  Waits while another thread loads a service, unless that thread waits,
+     *  directly or not, for a service loaded by the calling thread. Must be
+     *  called with the lock held.
+     *
+     *  @param  name  the class id of the service
+     */
+    private void await(ID name) {
+        Thread current = Thread.currentThread();
+        boolean interrupted = false;
+
+        waiting.put(current, name);
+        try {
+            while (loading.containsKey(name) && !isLoadingFor(name, current)) {
+                try {
+                    wait();
+                } catch (InterruptedException woken) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            waiting.remove(current);
+        }
+
+        if (interrupted) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     *  Returns true if a service is being loaded by a thread or by a thread
+     *  which waits, directly or not, for that thread. Must be called with the
+     *  lock held.
+     *
+     *  @param  name    the class id of the service
+     *  @param  thread  the thread
+     *  @return         true if waiting for the service would never end
+     */
+    private boolean isLoadingFor(ID name, Thread thread) {
+        Thread owner = (Thread) loading.get(name);
+        int hops = loading.size();
+
+        while ((null != owner) && (hops-- >= 0)) {
+            if (owner == thread) {
+                return true;
+            }
+
+            ID awaited = (ID) waiting.get(owner);
+            owner = (null == awaited) ? null : (Thread) loading.get(awaited);
+        }
+        return false;
+    }
+
+    /**
+     *  Binds the interface object of a service, if any was handed out. Must
+     *  be called with the lock held.
+     *
+     *  @param  classID  the class id of the service
+     *  @param  service  the service or null to unbind it
+     */
+    private void bind(ModuleClassID classID, Service service) {
+        ServiceInterface handler = (ServiceInterface) interfaces.get(classID);
+
+        if (null != handler) {
+            handler.bound = (null == service) ? null : service.getInterface();
+        }
+    }
+
+    /**
+     *  Unbinds all the interface objects. Must be called with the lock held.
+     */
+    private void unbindAll() {
+        for (Iterator eachHandler = interfaces.values().iterator(); eachHandler.hasNext();) {
+            ((ServiceInterface) eachHandler.next()).bound = null;
+        }
+    }
+
+    private static void stop(Module module) {
+        try {
+            module.stopApp();
+        } catch (Exception any) {
+            if (LOG.isEnabledFor(Level.WARN)) {
+                LOG.warn("Failed to stop service : " + module.getClass().getName(), any);
+            }
+        }
+    }
+
+    /**
+     *  Forwards the invocations of an interface object to the service it is
+     *  bound to, loading the service again if it was stopped. Like other
+     *  interface objects it never initializes, starts or stops the service.
+     */
+    private class ServiceInterface implements InvocationHandler {
+
+        final ModuleClassID classID;
+
+        final Service proxy;
+
+        /**
+         *  The interface of the running service or null if it is not
+         *  running.
+         */
+        volatile Service bound = null;
+
+        ServiceInterface(ModuleClassID classID, Service service) {
+            this.classID = classID;
+
+            Set allInterfaces = new LinkedHashSet();
+
+            for (Class clazz = service.getClass(); null != clazz; clazz = clazz.getSuperclass()) {
+                addInterfaces(allInterfaces, clazz.getInterfaces());
+            }
+
+            this.proxy = (Service) Proxy.newProxyInstance(service.getClass().getClassLoader(),
+                         (Class[]) allInterfaces.toArray(new Class[allInterfaces.size()]),
+                         this);
+        }
+
+        private void addInterfaces(Set allInterfaces, Class[] some) {
+            for (int each = 0; each < some.length; each++) {
+                if (Modifier.isPublic(some[each].getModifiers())) {
+                    allInterfaces.add(some[each]);
+                }
+                addInterfaces(allInterfaces, some[each].getInterfaces());
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Class declaring = method.getDeclaringClass();
+            String name = method.getName();
+
+            if (Object.class == declaring) {
+                if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if ("hashCode".equals(name)) {
+                    return new Integer(System.identityHashCode(proxy));
+                }
+                if ("toString".equals(name) && (null == bound)) {
+                    return "Interface of " + classID;
+                }
+            } else if ((Module.class == declaring) || (Service.class == declaring)) {
+                if ("startApp".equals(name)) {
+                    return new Integer(Module.START_OK);
+                }
+                if ("init".equals(name) || "stopApp".equals(name)) {
+                    return null;
+                }
+                if ("getInterface".equals(name)) {
+                    return proxy;
+                }
+            }
+
+            Service target = bound;
+
+            if ((null == target) || (0 != loadingCount)) {
+                load(classID);
+                target = bound;
+
+                if (null == target) {
+                    throw new IllegalStateException("Service is not available : " + classID);
+                }
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException failed) {
+                throw failed.getTargetException();
+            }
+        }
+    }
+}
@@ -57,7 +57,6 @@ package net.jxta.impl.peergroup;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -101,6 +100,18 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
     private static final Logger LOG = Logger.getLogger(StdPeerGroup.class.getName());
 
+    /**
+     *  The maximum number of threads used to start the modules of a group,
+     *  1 to start them one at a time from the calling thread.
+     */
+    public static final int START_THREADS = Integer.getInteger("net.jxta.impl.peergroup.StdPeerGroup.startThreads", 4).intValue();
+
+    /**
+     *  If true then the services of the sub-groups of the net peer group,
+     *  except for the endpoint service, are only loaded when first requested.
+     */
+    public static final boolean DEFAULT_LAZY_SERVICES = Boolean.getBoolean("net.jxta.impl.peergroup.StdPeerGroup.lazyServices");
+
     private volatile boolean initialized = false;
     private volatile boolean started = false;
 
@@ -132,6 +143,57 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
      */
     private Cm cm = null;
 
+    /**
+     *  If true the services are loaded on demand and the cache is created
+     *  when first needed.
+     */
+    private boolean lazy = false;
+
+    /**
+     *  The services which are loaded on demand. The descriptors are
+     *  {@link net.jxta.protocol.ModuleImplAdvertisement} or
+     *  {@see net.jxta.platform.ModuleSpecID}.
+     */
+    private final OnDemandServices onDemand = new OnDemandServices() {
+                protected Module loadService(ModuleClassID classID, Object descriptor) {
+                    Hashtable toLoad = new Hashtable(1);
+
+                    toLoad.put(classID, descriptor);
+                    loadAllModules(toLoad, null, true);
+                    return (Module) toLoad.get(classID);
+                }
+
+                protected void register(ModuleClassID classID, Service service) {
+                    addService(classID, service);
+                }
+
+                protected void unregister(ModuleClassID classID, Service service) {
+                    try {
+                        removeService(classID, service);
+                    } catch (ServiceNotFoundException ignored) {
+                        ;
+                    }
+                    catch (ViolationException ignored) {
+                        ;
+                    }
+                }
+
+                protected void started(ModuleClassID classID, Service service) {
+                    if (discoveryClassID.equals(classID)) {
+                        publishImplAdvertisements();
+                    }
+                }
+
+                protected void hibernated() {
+                    synchronized (StdPeerGroup.this) {
+                        if (lazy && (cm != null)) {
+                            cm.stop();
+                            cm = null;
+                        }
+                    }
+                }
+            };
+
     // A few things common to all ImplAdv for built-in things.
     public static final StructuredTextDocument stdCompatStatement = mkCS();
     public static final String stdUri = "http://www.jxta.org/download/jxta.jar";
@@ -367,14 +429,22 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
         loadAllModules(applications, null, false); // Apps are non-privileged;
 
-        int res = 0;
+        ModuleStartScheduler starter = new ModuleStartScheduler(this, getHomeThreadGroup(),
+                                       "Applications of " + getPeerGroupID(), START_THREADS);
         Enumeration appKeys = applications.keys();
         while (appKeys.hasMoreElements()) {
-            Object appKey = appKeys.nextElement();
-            Module app = (Module) applications.get(appKey);
-            int tmp =  app.startApp(arg);
+            ID appKey = (ID) appKeys.nextElement();
+            starter.add(appKey, (Module) applications.get(appKey));
+        }
+
+        starter.start(arg);
+
+        int res = 0;
+        appKeys = applications.keys();
+        while (appKeys.hasMoreElements()) {
+            ID appKey = (ID) appKeys.nextElement();
+            int tmp = starter.getResult(appKey);
             if (tmp != 0) applications.remove(appKey);
-            else applications.put(appKey, app);
             res += tmp;
         }
         return res;
@@ -416,9 +486,14 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
         protocols.clear();
 
-        if (cm != null) {
-            cm.stop();
-            cm = null;
+        synchronized (this) {
+            lazy = false;
+            onDemand.clear();
+
+            if (cm != null) {
+                cm.stop();
+                cm = null;
+            }
         }
 
         super.stopApp();
@@ -429,10 +504,12 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
      *
      * This method loads and initializes all modules
      * described in the given implementation advertisement. Then, all modules
-     * are placed in a list and the list is processed iteratively. During each
-     * iteration, the {@link Module#startApp(String[])} method of each module
-     * is invoked once. Iterations continue until no progress is being made or
-     * the list is empty.
+     * are started by a {@link ModuleStartScheduler} which invokes the
+     * {@link Module#startApp(String[])} method of independent modules
+     * concurrently, using at most {@link #START_THREADS} threads. The message
+     * transports are started after the endpoint service, other dependencies
+     * are declared by the modules through {@link ModuleDependencies}. The
+     * modules are retried until no progress is being made or all are started.
      *
      * <p/>The status returned by the {@link Module#startApp(String[])} method
      * of each module is considered as follows:
@@ -445,11 +522,13 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
      *
      * <li>{@link Module#START_AGAIN_PROGRESS}: The module remains in the
      * list of modules to be started and its {@link Module#startApp(String[])}
-     * method will be invoked during the next iteration, if there is one. </li>
+     * method will be invoked again once another module has started or
+     * failed, or once every other module is waiting. </li>
      *
      * <li>{@link Module#START_AGAIN_STALLED}: The module remains in the list
      * of modules to be started and its {@link Module#startApp(String[])}
-     * method will be invoked during the next iteration if there is one. </li>
+     * method will be invoked again once another module has started or
+     * failed. </li>
      *
      * <li>Any other value: The module failed to initialize. Its
      * {@link Module#startApp(String[])}
@@ -460,13 +539,13 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
      * <ul>
      * <li>The list is empty: the group initialization proceeds.</li>
      *
-     * <li>A complete iteration was performed and all modules returned
+     * <li>All the modules left returned
      * {@link Module#START_AGAIN_STALLED}: a {@link PeerGroupException}
      * is thrown.</li>
      *
-     * <li>A number of complete iteration completed without any module
+     * <li>The modules left were retried a number of times without any module
      * returning {@link Module#START_OK}: a {@link PeerGroupException}
-     * is thrown. The number of complete iterations before that happens is
+     * is thrown. The number of retries before that happens is
      * computed as 1 + the square of the number of modules currently in the
      * list.</li>
      * </ul>
@@ -485,13 +564,18 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
         }
         // Set-up the minimal GenericPeerGroup
         super.initFirst(parent, assignedID, impl);
-        try {
-            cm = new Cm(true);
-        } catch (Exception e) {
-            if (LOG.isEnabledFor(Level.ERROR)) {
-                LOG.error("Error during creation of local store", e);
+
+        lazy = isLazy(DEFAULT_LAZY_SERVICES, parent);
+
+        if (!lazy) {
+            try {
+                cm = new Cm(true, getPeerGroupID().getUniqueValue().toString());
+            } catch (Exception e) {
+                if (LOG.isEnabledFor(Level.ERROR)) {
+                    LOG.error("Error during creation of local store", e);
+                }
+                throw new PeerGroupException("Error during creation of local store", e);
             }
-            throw new PeerGroupException("Error during creation of local store", e);
         }
 
         ModuleImplAdvertisement implAdv = (ModuleImplAdvertisement) impl;
@@ -546,6 +630,20 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
         addService(endpointClassID, (Service) endp);
         initServices.remove(endpointClassID); // Done with that one.
+
+        if (lazy) {
+            // Only the endpoint and the protocols are needed to join, the
+            // other services are loaded when they are first requested.
+            Enumeration eachService = initServices.keys();
+            while (eachService.hasMoreElements()) {
+                ModuleClassID classID = (ModuleClassID) eachService.nextElement();
+
+                if (!disabledModules.contains(classID)) {
+                    onDemand.add(classID, initServices.get(classID));
+                }
+            }
+            initServices.clear();
+        }
         // Since we have an endpoint, load the protocols. They are
         // not necessarily services, just Modules, so they do not
         // get registered in the services table.
@@ -585,88 +683,47 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
             throw new PeerGroupException("Unhandled Throwable", e);
         }
 
-        // Make a list of all the things we need to start.
-        // There is an a-priori order, but we'll iterate over the
-        // list until all where able to complete their start phase
-        // or no progress is made. Since we give to modules the opportunity
-        // to pretend that they are making progress, we need to have a
-        // safeguard: we will not iterate through the list more than N^2 + 1
-        // times without at least one module completing; N being the number
-        // of modules still in the list. That should cover the worst case
-        // scenario and still allow the process to eventually fail if it has
-        // no chance of success.
-
-        Map allStart = new HashMap(protocols.size() + initServices.size() + 1);
-
-        allStart.put(endpointClassID, endp);
-        allStart.putAll(initServices);
-        allStart.putAll(protocols);
-
-        long modulesToGo = allStart.size();
-        long maxIterations = modulesToGo * modulesToGo + 1;
-        boolean progress = true;
-
-        while (progress && (modulesToGo > 0) && (maxIterations-- > 0)) {
-
-            progress = false;
-
-            Iterator eachModule = allStart.entrySet().iterator();
-
-            while (eachModule.hasNext()) {
-                Map.Entry anEntry = (Map.Entry) eachModule.next();
-
-                m = (Module) anEntry.getValue();
-                int res;
-                try {
-                    res = m.startApp(null);
-                } catch (Throwable all) {
-                    if (LOG.isEnabledFor(Level.ERROR)) {
-                        LOG.error("Exception in startApp() : " + m, all);
-                    }
-                    res = -1;
-                }
-
-                switch (res) {
-                case Module.START_OK:
-                    // One done. Remove from allStart and recompute maxIteration.
-
-                    if (LOG.isEnabledFor(Level.INFO)) {
-                        LOG.info("Module started : " + m);
-                    }
-                    eachModule.remove();
-                    --modulesToGo;
-                    maxIterations = modulesToGo * modulesToGo + 1;
-
-                case Module.START_AGAIN_PROGRESS:
-                    progress = true;
-
-                case Module.START_AGAIN_STALLED:
-                    break;
+        // Start everything. Modules which depend on each other are retried
+        // until all were able to complete their start phase or no progress
+        // is made. Since we give to modules the opportunity to pretend that
+        // they are making progress, the scheduler will not retry them more
+        // than N^2 + 1 times without at least one module completing; N being
+        // the number of modules still to start.
+
+        ModuleStartScheduler starter = new ModuleStartScheduler(this, getHomeThreadGroup(),
+                                       "Services of " + getPeerGroupID(), START_THREADS) {
+                                           protected void failed(ID id, Module module, int result) {
+                                               // remove the module from the service tables. we don't
+                                               // know which table its in unfortunately.
+                                               try {
+                                                   if(module instanceof Service)
+                                                       removeService((ModuleClassID) id, (Service) module);
+                                               } catch (ServiceNotFoundException ignored) {
+                                                   ;
+                                               }
+                                               catch (ViolationException ignored) {
+                                                   ;
+                                               }
+                                               protocols.remove(id);
+                                           }
+                                       };
+
+        starter.add(endpointClassID, endp);
+        allKeys = initServices.keys();
+        while (allKeys.hasMoreElements()) {
+            ModuleClassID classID = (ModuleClassID) allKeys.nextElement();
+            starter.add(classID, (Module) initServices.get(classID));
+        }
+        allKeys = protocols.keys();
+        while (allKeys.hasMoreElements()) {
+            ModuleClassID classID = (ModuleClassID) allKeys.nextElement();
+            starter.add(classID, (Module) protocols.get(classID));
+            starter.addDependency(classID, endpointClassID);
+        }
 
-                default: // (negative)
-                    if (LOG.isEnabledFor(Level.WARN)) {
-                        LOG.warn("Module failed to start (" + res + ") : " + m);
-                    }
-                    eachModule.remove();
-                    --modulesToGo;
-                    maxIterations = modulesToGo * modulesToGo + 1;
+        starter.start(null);
 
-                    // remove the module from the service tables. we don't
-                    // know which table its in unfortunately.
-                    try {
-                        if(m instanceof Service)
-                            removeService((ModuleClassID) anEntry.getKey(), (Service) m);
-                    } catch (ServiceNotFoundException ignored) {
-                        ;
-                    }
-                    catch (ViolationException ignored) {
-                        ;
-                    }
-                    protocols.remove(anEntry.getKey());
-                    break;
-                }
-            }
-        }
+        Map allStart = starter.getUnsettled();
 
         // Uh-oh. Services co-dependency prevented them from starting.
         if (allStart.size() > 0) {
@@ -702,8 +759,20 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
         /*
          * Publish a few things that have not been published in this
-         * group yet.
+         * group yet. If discovery is loaded on demand that waits until then.
          */
+        if (!isAvailableOnDemand(discoveryClassID)) {
+            publishImplAdvertisements();
+        }
+
+        initialized = true;
+    }
+
+    /**
+     *  Publishes the impl advertisements of the group and of its discovery
+     *  service within the group.
+     */
+    private void publishImplAdvertisements() {
         DiscoveryService disco = getDiscoveryService();
         if (disco != null) {
             // It should work but if it does not we can survive.
@@ -718,7 +787,7 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
 
                 // Try to publish our impl adv within this group. (it was published
                 // in the parent automatically when loaded.
-                disco.publish(implAdv,
+                disco.publish(getImplAdvertisement(),
                               DEFAULT_LIFETIME,
                               DEFAULT_EXPIRATION);
             } catch(Exception nevermind) {
@@ -726,8 +795,6 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
                     LOG.warn("Failed to publish Impl adv within group.", nevermind);
             }
         }
-
-        initialized = true;
     }
 
     /**
@@ -927,11 +994,96 @@ public class StdPeerGroup extends GenericPeerGroup implements CompatibilityEquat
     }
 
     /**
-     *  Returns the cache manager associated with this group.
+     *  Returns true if a group loads its services on demand. Only the
+     *  sub-groups of the net peer group may defer their services.
+     *
+     *  @param  lazyServices  true if services are to be loaded on demand
+     *  @param  parent        the parent of the group
+     *  @return true if the group loads its services on demand
+     */
+    static boolean isLazy(boolean lazyServices, PeerGroup parent) {
+        return lazyServices && (null != parent) && (null != parent.getParentGroup());
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected boolean isAvailableOnDemand(ID name) {
+        return onDemand.isAvailable(name);
+    }
+
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>The service is loaded, registered and then started by the calling
+     *  thread, without holding the monitor of the group. Services it requests
+     *  while starting are loaded in turn. Other threads requesting it
+     *  meanwhile wait until it has started.
+     */
+    protected void loadOnDemand(ID name) {
+        onDemand.load(name);
+    }
+
+    /**
+     *  {@inheritDoc}
+     *
+     *  <p/>The interface objects of the services loaded on demand load them
+     *  again when invoked after the group hibernated.
+     */
+    protected Service getServiceInterface(ID name, Service service) {
+        return onDemand.getInterface(name, service);
+    }
+
+    /**
+     *  Stops the services which were loaded on demand, in the reverse order
+     *  of their loading, and discards the cache manager. The services are
+     *  loaded again when next requested, including through the references
+     *  to them obtained before hibernating. Releases the threads and memory
+     *  of a group which is not in use. Does nothing if the services are not
+     *  loaded on demand.
+     */
+    public void hibernate() {
+        int stopped = onDemand.hibernate();
+
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info("Hibernated " + stopped + " service(s) of " + getPeerGroupName());
+        }
+    }
+
+    /**
+     *  Hibernates the services of a group, given the group or one of its
+     *  interface objects.
+     *
+     *  @see #hibernate()
+     *  @param  group  the group
+     *  @return true if the group could hibernate, false if it is not a
+     *  StdPeerGroup.
+     */
+    public static boolean hibernate(PeerGroup group) {
+        while (group instanceof PeerGroupInterface) {
+            group = ((PeerGroupInterface) group).groupImpl;
+        }
+
+        if (!(group instanceof StdPeerGroup)) {
+            return false;
+        }
+
+        ((StdPeerGroup) group).hibernate();
+        return true;
+    }
+
+    /**
+     *  Returns the cache manager associated with this group, creating it if
+     *  the services are loaded on demand.
      *
      *  @return the cache manager associated with this group.
      */
     public Cm getCacheManager() {
-        return cm;
+        synchronized (this) {
+            if (lazy && (cm == null)) {
+                cm = new Cm(true, getPeerGroupID().getUniqueValue().toString());
+            }
+            return cm;
+        }
     }
 }
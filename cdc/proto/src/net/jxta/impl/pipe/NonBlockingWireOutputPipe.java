@@ -63,11 +63,7 @@ import java.io.IOException;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
-import net.jxta.document.MimeMediaType;
-import net.jxta.document.XMLDocument;
 import net.jxta.endpoint.Message;
-import net.jxta.endpoint.MessageElement;
-import net.jxta.endpoint.TextDocumentMessageElement;
 import net.jxta.id.ID;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.pipe.OutputPipe;
@@ -427,10 +423,8 @@ class NonBlockingWireOutputPipe implements OutputPipe, Runnable {
         header.setMsgId(wire.createMsgId());
         header.setTTL(destPeers.isEmpty() ? 200 : 1);
         header.addPeer(myGroup.getPeerID().toString());
-        XMLDocument asDoc = (XMLDocument) header.getDocument(MimeMediaType.XMLUTF8);
-        MessageElement elem = new TextDocumentMessageElement(WirePipeImpl.WireTagName, asDoc, null);
         Message msg = (Message) message.clone();
-        msg.replaceMessageElement("jxta", elem);
+        WirePipeImpl.setWireHeader(msg, header);
         return enqueue(msg);
     }
 
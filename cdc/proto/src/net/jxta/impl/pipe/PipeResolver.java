@@ -833,12 +833,12 @@ class PipeResolver implements SrdiInterface, QueryHandler, PipeRegistrar {
 
         if (targetPeers.isEmpty()) {
             // we have no idea, walk the tree
-            resolver.sendQuery(null, query);
+            resolver.sendQuery((ID) null, query);
         } else {
             // send it only to the peers whose result we would accept.
             eachPeer = targetPeers.iterator();
             while (eachPeer.hasNext()) {
-                resolver.sendQuery(eachPeer.next().toString(), query);
+                resolver.sendQuery((PeerID) eachPeer.next(), query);
             }
         }
         return queryID;
@@ -76,6 +76,7 @@ import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
 import net.jxta.peer.PeerID;
 import net.jxta.peergroup.PeerGroup;
+import net.jxta.platform.ModuleClassID;
 import net.jxta.pipe.InputPipe;
 import net.jxta.pipe.OutputPipe;
 import net.jxta.pipe.OutputPipeEvent;
@@ -87,6 +88,7 @@ import net.jxta.protocol.ModuleImplAdvertisement;
 import net.jxta.protocol.PipeAdvertisement;
 import net.jxta.service.Service;
 
+import net.jxta.impl.peergroup.ModuleDependencies;
 import net.jxta.impl.util.TimeUtils;
 
 /**
@@ -105,7 +107,7 @@ import net.jxta.impl.util.TimeUtils;
  *@see    <a href="http://spec.jxta.org/nonav/v1.0/docbook/JXTAProtocols.html#proto-pbp"
  *      target="_blank">JXTA Protocols Specification : Pipe Binding Protocol</a>
  */
-public class PipeServiceImpl implements PipeService, PipeResolver.Listener {
+public class PipeServiceImpl implements PipeService, PipeResolver.Listener, ModuleDependencies {
 
     /**
      *  The log4J Logger
@@ -506,6 +508,13 @@ public class PipeServiceImpl implements PipeService, PipeResolver.Listener {
         return null;
     }
 
+    /**
+     *  {@inheritDoc}
+     */
+    public ModuleClassID[] getStartDependencies() {
+        return new ModuleClassID[] {PeerGroup.resolverClassID, PeerGroup.rendezvousClassID};
+    }
+
     /**
      *  {@inheritDoc} <p/>
      *
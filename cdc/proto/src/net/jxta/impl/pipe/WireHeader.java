@@ -58,6 +58,11 @@
 
 package net.jxta.impl.pipe;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Enumeration;
@@ -72,17 +77,39 @@ import net.jxta.document.Element;
 import net.jxta.document.MimeMediaType;
 import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.StructuredTextDocument;
+import net.jxta.document.XMLDocument;
 import net.jxta.document.XMLElement;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.TextDocumentMessageElement;
 import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
 
+import net.jxta.impl.endpoint.CompactValue;
+import net.jxta.impl.endpoint.ParsedElementCache;
+import net.jxta.impl.id.UUID.UUID;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
  * This class implements a JXTA-WIRE header.
+ *
+ * <p/>Besides XML the header has a binary form, {@link #BINARY_MIMETYPE},
+ * which is sent only to peers which accept it:
+ *
+ * <pre>
+ *   byte     version ({@link #BINARY_VERSION})
+ *   byte     flags, whether the source peer is present
+ *   value    source peer id (optional)
+ *   value    pipe id
+ *   value    message id, 16 raw bytes if it is a UUID
+ *   int      TTL
+ * </pre>
+ *
+ * Ids are written as {@link CompactValue}s.
  */
-public class WireHeader {
+public class WireHeader implements ParsedElementCache.Parsed {
 
     private final static Logger LOG = Logger.getLogger(WireHeader.class.getName());
 
@@ -93,6 +120,21 @@ public class WireHeader {
     public static final String TTLTag = "TTL";
     public static final String PeerTag = "VisitedPeer";
 
+    /**
+     *  The mime type of the binary form of the header.
+     */
+    public static final MimeMediaType BINARY_MIMETYPE = new MimeMediaType("application", "x-jxta-wire").intern();
+
+    /**
+     *  Version of the binary form we produce and understand.
+     */
+    private static final int BINARY_VERSION = 1;
+
+    private static final int HAS_SRC = 0x01;
+    private static final int HAS_UUID_MSGID = 0x02;
+
+    private static final String ID_PREFIX = ID.URIEncodingName + ":" + ID.URNNamespace + ":";
+
     private ID srcPeer = ID.nullID;
     private ID pipeID = ID.nullID;
     private String msgId = null;
@@ -114,6 +156,21 @@ public class WireHeader {
         initialize(root);
     }
 
+    /**
+     *  Reads a header from a message element in either form.
+     *
+     *  @param elem the element.
+     *  @throws IOException if the element cannot be read.
+     */
+    public WireHeader(MessageElement elem) throws IOException {
+        this();
+        if (BINARY_MIMETYPE.equals(elem.getMimeType())) {
+            readBinary(elem.getBytes(false));
+        } else {
+            initialize(StructuredDocumentFactory.newStructuredDocument(elem.getMimeType(), elem.getStream()));
+        }
+    }
+
     public void setSrcPeer(ID p) {
         srcPeer = p;
     }
@@ -296,4 +353,107 @@ public class WireHeader {
 
         return doc;
     }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public ParsedElementCache.Parsed copy() {
+        WireHeader copy = new WireHeader(srcPeer, pipeID, TTL);
+
+        copy.msgId = msgId;
+        copy.peers.addAll(peers);
+        return copy;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public MessageElement toElement(String name, boolean binary) throws IOException {
+        if (binary) {
+            return new ByteArrayMessageElement(name, BINARY_MIMETYPE, writeBinary(), null);
+        }
+
+        return new TextDocumentMessageElement(name, (XMLDocument) getDocument(MimeMediaType.XMLUTF8), null);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean isBinary(MessageElement element) {
+        return BINARY_MIMETYPE.equals(element.getMimeType());
+    }
+
+    private void readBinary(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        int version = in.readUnsignedByte();
+
+        if (BINARY_VERSION != version) {
+            throw new IOException("Unsupported wire header version : " + version);
+        }
+
+        int flags = in.readUnsignedByte();
+
+        try {
+            if (0 != (flags & HAS_SRC)) {
+                setSrcPeer(IDFactory.fromURN(CompactValue.read(in, ID_PREFIX)));
+            }
+            setPipeID(IDFactory.fromURN(CompactValue.read(in, ID_PREFIX)));
+        } catch (URISyntaxException badID) {
+            throw new IOException("Bad ID in header : " + badID.getMessage());
+        }
+
+        if (0 != (flags & HAS_UUID_MSGID)) {
+            msgId = new UUID(in.readLong(), in.readLong()).toString();
+        } else {
+            msgId = in.readUTF();
+        }
+
+        TTL = in.readInt();
+    }
+
+    private byte[] writeBinary() throws IOException {
+        if (null == getMsgId()) {
+            throw new IllegalStateException("Message id is not initialized");
+        }
+
+        if (ID.nullID == getPipeID()) {
+            throw new IllegalStateException("PipeID is not initialized");
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        boolean hasSrc = (srcPeer != null) && (srcPeer != ID.nullID);
+        UUID uuidMsgId = null;
+
+        try {
+            uuidMsgId = new UUID(msgId);
+
+            if (!uuidMsgId.toString().equals(msgId)) {
+                uuidMsgId = null;
+            }
+        } catch (IllegalArgumentException notauuid) {
+            uuidMsgId = null;
+        }
+
+        out.writeByte(BINARY_VERSION);
+        out.writeByte((hasSrc ? HAS_SRC : 0) | ((null != uuidMsgId) ? HAS_UUID_MSGID : 0));
+
+        if (hasSrc) {
+            CompactValue.write(out, srcPeer.toString(), ID_PREFIX);
+        }
+        CompactValue.write(out, getPipeID().toString(), ID_PREFIX);
+
+        if (null != uuidMsgId) {
+            out.writeLong(uuidMsgId.getMostSignificantBits());
+            out.writeLong(uuidMsgId.getLeastSignificantBits());
+        } else {
+            out.writeUTF(msgId);
+        }
+
+        out.writeInt(TTL);
+
+        out.flush();
+        return bos.toByteArray();
+    }
 }
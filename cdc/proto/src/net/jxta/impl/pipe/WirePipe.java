@@ -64,15 +64,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import net.jxta.document.MimeMediaType;
-import net.jxta.document.StructuredDocumentFactory;
-import net.jxta.document.XMLDocument;
 import net.jxta.endpoint.EndpointAddress;
 import net.jxta.endpoint.EndpointListener;
 import net.jxta.endpoint.Message;
-import net.jxta.endpoint.MessageElement;
-import net.jxta.endpoint.TextDocumentMessageElement;
 import net.jxta.id.ID;
+import net.jxta.impl.endpoint.ParsedElementCache;
 import net.jxta.impl.id.UUID.UUID;
 import net.jxta.impl.id.UUID.UUIDFactory;
 import net.jxta.peergroup.PeerGroup;
@@ -345,20 +341,9 @@ public class WirePipe implements EndpointListener, InputPipe, PipeRegistrar {
     public void processIncomingMessage(Message message, EndpointAddress srcAddr, EndpointAddress dstAddr) {
 
         // Check if there is a JXTA-WIRE header
-        MessageElement elem = message.getMessageElement("jxta", WirePipeImpl.WireTagName);
-
-        if (null == elem) {
-            if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("No JxtaWireHeader element. Discarding " + message);
-            }
-            return;
-        }
-
         WireHeader header;
         try {
-            XMLDocument doc = (XMLDocument)
-                              StructuredDocumentFactory.newStructuredDocument(elem.getMimeType(), elem.getStream());
-            header = new WireHeader(doc);
+            header = WirePipeImpl.getWireHeader(message);
         } catch (Exception e) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("bad wire header", e);
@@ -366,6 +351,13 @@ public class WirePipe implements EndpointListener, InputPipe, PipeRegistrar {
             return;
         }
 
+        if (null == header) {
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("No JxtaWireHeader element. Discarding " + message);
+            }
+            return;
+        }
+
         processIncomingMessage(message, header, srcAddr, dstAddr);
     }
 
@@ -489,15 +481,21 @@ public class WirePipe implements EndpointListener, InputPipe, PipeRegistrar {
     void repropagate(Message message, WireHeader header) {
 
         Message msg = (Message) message.clone();
-        XMLDocument headerDoc = (XMLDocument) header.getDocument(MimeMediaType.XMLUTF8);
-        MessageElement elem = new TextDocumentMessageElement(WirePipeImpl.WireTagName, headerDoc, null);
-        msg.replaceMessageElement("jxta", elem);
+
+        // The headers we already parsed go along so that nobody parses them
+        // again. The wire header is only written if it did not come with
+        // the message.
+        ParsedElementCache.copy(message, msg);
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("Repropagating " + msg + " on " + header.getPipeID());
         }
 
         try {
+            if (null == ParsedElementCache.get(msg, "jxta", WirePipeImpl.WireTagName)) {
+                WirePipeImpl.setWireHeader(msg, header);
+            }
+
             if (!repropagater.enqueue(msg)) {
                 // XXX bondolo@jxta.org we don't make any attempt to retry.
                 // There is a potential problem in that we have accepted the
@@ -63,8 +63,6 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import net.jxta.document.AdvertisementFactory;
-import net.jxta.document.XMLDocument;
-import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.endpoint.EndpointAddress;
 import net.jxta.endpoint.EndpointListener;
 import net.jxta.endpoint.Message;
@@ -77,6 +75,8 @@ import net.jxta.pipe.PipeService;
 import net.jxta.protocol.PipeAdvertisement;
 import net.jxta.rendezvous.RendezVousService;
 
+import net.jxta.impl.endpoint.ParsedElementCache;
+
 /**
  *  This class implements the NetPipe interface.
  */
@@ -224,20 +224,9 @@ public class WirePipeImpl implements EndpointListener {
     public void processIncomingMessage(Message message, EndpointAddress srcAddr, EndpointAddress dstAddr) {
 
         // Check if there is a JXTA-WIRE header
-        MessageElement elem = message.getMessageElement("jxta", WireTagName);
-
-        if (null == elem) {
-            if (LOG.isEnabledFor(Level.DEBUG)) {
-                LOG.debug("No JxtaWireHeader element. Discarding message.");
-            }
-            return;
-        }
-
         WireHeader header;
         try {
-            XMLDocument doc = (XMLDocument)
-                    StructuredDocumentFactory.newStructuredDocument(elem.getMimeType(), elem.getStream());
-            header = new WireHeader(doc);
+            header = getWireHeader(message);
         } catch (Exception e) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("bad wire header", e);
@@ -245,10 +234,56 @@ public class WirePipeImpl implements EndpointListener {
             return;
         }
 
+        if (null == header) {
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("No JxtaWireHeader element. Discarding message.");
+            }
+            return;
+        }
+
         WirePipe wirePipe = getWirePipe((PipeID) header.getPipeID());
         wirePipe.processIncomingMessage(message, header, srcAddr, dstAddr);
     }
 
+    /**
+     *  Returns the JXTA-WIRE header of a message. The header is parsed only
+     *  the first time it is asked for.
+     *
+     *@param  message  the message.
+     *@return          the header or <code>null</code> if the message has none.
+     *@exception  IOException  if the header cannot be read.
+     */
+    static WireHeader getWireHeader(Message message) throws IOException {
+        WireHeader header = (WireHeader) ParsedElementCache.get(message, "jxta", WireTagName);
+
+        if (null != header) {
+            return header;
+        }
+
+        MessageElement elem = message.getMessageElement("jxta", WireTagName);
+
+        if (null == elem) {
+            return null;
+        }
+
+        header = new WireHeader(elem);
+        ParsedElementCache.put(message, "jxta", elem, header);
+        return header;
+    }
+
+    /**
+     *  Sets the JXTA-WIRE header of a message. The header is written as XML,
+     *  the rendezvous service re-encodes it for the peers which accept the
+     *  binary form.
+     *
+     *@param  message  the message.
+     *@param  header   the header.
+     *@exception  IOException  if the header cannot be written.
+     */
+    static void setWireHeader(Message message, WireHeader header) throws IOException {
+        ParsedElementCache.setElement(message, "jxta", WireTagName, header, false);
+    }
+
     /**
      *  Supply arguments and starts this service if it hadn't started by itself.
      *  Currently this service does not expect arguments.
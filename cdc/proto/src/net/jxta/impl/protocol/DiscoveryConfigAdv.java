@@ -303,6 +303,7 @@ public final class DiscoveryConfigAdv extends ExtendableAdvertisement {
      *@param  newvalue  The new forwardAlwaysReplica value
      */
     public void setForwardAlwaysReplica(boolean newvalue) {
+        contentChanged();
         forwardAlwaysReplica = newvalue;
     }
 
@@ -314,6 +315,7 @@ public final class DiscoveryConfigAdv extends ExtendableAdvertisement {
      *@param  newvalue  The new forwardBelowTreshold value
      */
     public void setForwardBelowTreshold(boolean newvalue) {
+        contentChanged();
         forwardBelowTreshold = newvalue;
     }
 
@@ -323,6 +325,7 @@ public final class DiscoveryConfigAdv extends ExtendableAdvertisement {
      *@param  newvalue  The new localOnly value
      */
     public void setLocalOnly(boolean newvalue) {
+        contentChanged();
         localOnly = newvalue;
     }
 
@@ -390,6 +390,36 @@ public class DiscoveryResponse extends DiscoveryResponseMsg {
     }
 
 
+    /**
+     *  Appends an element with escaped text and an optional expiration.
+     *
+     *@param  xml         the buffer to append to
+     *@param  name        the element name
+     *@param  expiration  the expiration attribute or null for none
+     *@param  text        the unescaped text value
+     */
+    private static void appendElement(StringBuffer xml, String name, String expiration, String text) {
+        xml.append('\t').append('<').append(name);
+        if (null != expiration) {
+            xml.append(' ').append(expirationTag).append("=\"").append(expiration).append('"');
+        }
+        xml.append('>');
+
+        for (int eachChar = 0; eachChar < text.length(); eachChar++) {
+            char c = text.charAt(eachChar);
+
+            if ('&' == c) {
+                xml.append("&amp;");
+            } else if ('<' == c) {
+                xml.append("&lt;");
+            } else {
+                xml.append(c);
+            }
+        }
+
+        xml.append("</").append(name).append(">\n");
+    }
+
     /**
      *  Reads in a stream into a string
      *
@@ -432,12 +462,54 @@ public class DiscoveryResponse extends DiscoveryResponseMsg {
 
     /**
      * {@inheritDoc}
+     *
+     * <p/>The XML is written directly rather than through a document so that
+     * the responses, typically advertisements already serialized by the cm,
+     * are only escaped and copied once.
      */
     public String toString() {
 
         try {
-            StructuredTextDocument doc = (StructuredTextDocument) getDocument(MimeMediaType.XMLUTF8);
-            return doc.toString();
+            Enumeration advs = getResponses();
+            Enumeration exps = getExpirations();
+            StringBuffer xml = new StringBuffer(1024);
+
+            xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            xml.append("<!DOCTYPE ").append(getAdvertisementType()).append(">\n");
+            xml.append('<').append(getAdvertisementType()).append(" xmlns:jxta=\"http://jxta.org\">\n");
+
+            appendElement(xml, countTag, null, Integer.toString(responses.size()));
+            appendElement(xml, typeTag, null, Integer.toString(type));
+
+            PeerAdvertisement myPeerAdv = getPeerAdvertisement();
+
+            if (null != myPeerAdv) {
+                appendElement(xml, peerAdvTag, null, myPeerAdv.toString());
+            }
+
+            if ((attr != null) && (attr.length() > 0)) {
+                appendElement(xml, queryAttrTag, null, getQueryAttr());
+                if ((value != null) && (value.length() > 0)) {
+                    appendElement(xml, queryValueTag, null, value);
+                }
+            }
+
+            while (advs.hasMoreElements()) {
+                Long l = (Long) exps.nextElement();
+                Object response = advs.nextElement();
+
+                String text;
+
+                if (response instanceof InputStream) {
+                    text = streamToString((InputStream) response);
+                } else {
+                    text = response.toString();
+                }
+                appendElement(xml, responsesTag, l.toString(), (null == text) ? "" : text);
+            }
+
+            xml.append("</").append(getAdvertisementType()).append(">\n");
+            return xml.toString();
         } catch (Throwable e) {
             if (e instanceof Error) {
                 throw (Error) e;
@@ -461,6 +461,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  enabled  The new clientEnabled value
      */
     public void setClientEnabled(boolean enabled) {
+        contentChanged();
         clientEnabled = enabled;
     }
 
@@ -474,6 +475,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *      default which is "auto".
      */
     public void setConfigMode(String mode) {
+        contentChanged();
         if (!Arrays.asList(CONFIGMODES).contains(mode)) {
             throw new IllegalArgumentException("Unsupported configuration mode.");
         }
@@ -488,6 +490,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  address  The new interfaceAddress value
      */
     public void setInterfaceAddress(String address) {
+        contentChanged();
         this.interfaceAddress = address;
     }
 
@@ -498,6 +501,7 @@ public class HTTPAdv extends TransportAdvertisement {
      */
 
     public void setPort(int newPort) {
+        contentChanged();
         listenPort = newPort;
     }
 
@@ -510,6 +514,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  name  The new proxy value
      */
     public void setProxy(String name) {
+        contentChanged();
         proxy = name;
         if (name == null) {
             proxyEnabled = false;
@@ -522,6 +527,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  enabled  The new proxyEnabled value
      */
     public void setProxyEnabled(boolean enabled) {
+        contentChanged();
         proxyEnabled = enabled;
     }
 
@@ -531,6 +537,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  only  The new publicAddressOnly value
      */
     public void setPublicAddressOnly(boolean only) {
+        contentChanged();
         publicAddressOnly = only;
     }
 
@@ -540,6 +547,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  name  The new server value
      */
     public void setServer(String name) {
+        contentChanged();
         server = name;
     }
 
@@ -549,6 +557,7 @@ public class HTTPAdv extends TransportAdvertisement {
      *@param  enabled  The new serverEnabled value
      */
     public void setServerEnabled(boolean enabled) {
+        contentChanged();
         serverEnabled = enabled;
     }
 
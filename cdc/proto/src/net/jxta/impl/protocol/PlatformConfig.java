@@ -418,6 +418,7 @@ public final class PlatformConfig extends ConfigParams {
      *@param  debugLevel  the debugLevel
      */
     public void setDebugLevel(String debugLevel) {
+        contentChanged();
         this.debugLevel = debugLevel;
     }
 
@@ -427,6 +428,7 @@ public final class PlatformConfig extends ConfigParams {
      *@param  desc  the description
      */
     public void setDesc(Element desc) {
+        contentChanged();
 
         if (null != desc) {
             this.description = StructuredDocumentUtils.copyAsDocument(desc);
@@ -441,6 +443,7 @@ public final class PlatformConfig extends ConfigParams {
      *@param  description  the description
      */
     public void setDescription(String description) {
+        contentChanged();
 
         if (null != description) {
             StructuredDocument newdoc =
@@ -460,6 +463,7 @@ public final class PlatformConfig extends ConfigParams {
      */
 
     public void setName(String name) {
+        contentChanged();
         this.name = name;
         if (name != null) {
             indexMap.put(NAME_TAG, name);
@@ -473,6 +477,7 @@ public final class PlatformConfig extends ConfigParams {
      */
 
     public void setPeerID(PeerID pid) {
+        contentChanged();
         this.pid = pid;
         if (pid != null) {
             indexMap.put(PID_TAG, pid.toString());
@@ -130,6 +130,8 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
     private final static String MAX_CLIENTS_ATTR = "maxClients";
     private final static String MAX_TTL_ATTR = "maxTTL";
     private final static String MIN_HAPPY_PEERVIEW_ATTR = "minHappyPeerView";
+    private final static String MSGID_RATE_ATTR = "msgIdRate";
+    private final static String MSGID_WINDOW_ATTR = "msgIdWindow";
     private final static String PROBE_RELAYS_ATTR = "probeRelays";
 
     // This one is deprecated.
@@ -186,6 +188,18 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      */
     private int minHappyPeerView = -1;
 
+    /**
+     *  Expected rate, in messages per second, of propagated messages for
+     *  duplicate detection.
+     */
+    private int msgIdRate = -1;
+
+    /**
+     *  Interval in relative milliseconds for which propagated message ids are
+     *  remembered for duplicate detection.
+     */
+    private long msgIdWindow = -1L;
+
     /**
      *  If true then rendezvous clients will probe relay servers for rendezvous.
      */
@@ -286,6 +300,10 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
                 leaseMargin = Long.parseLong(aRdvAttr.getValue().trim());
             } else if (MIN_HAPPY_PEERVIEW_ATTR.equals(aRdvAttr.getName())) {
                 minHappyPeerView = Integer.parseInt(aRdvAttr.getValue().trim());
+            } else if (MSGID_RATE_ATTR.equals(aRdvAttr.getName())) {
+                msgIdRate = Integer.parseInt(aRdvAttr.getValue().trim());
+            } else if (MSGID_WINDOW_ATTR.equals(aRdvAttr.getName())) {
+                msgIdWindow = Long.parseLong(aRdvAttr.getValue().trim());
             } else if (PROPAGATE_RESPOND_ATTR.equals(aRdvAttr.getName())) {
                 // Ignored; deprecated.
             } else if ("Flags".equals(aRdvAttr.getName())) {
@@ -329,6 +347,14 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
             throw new IllegalArgumentException("Min Happy Peer View must be > 0");
         }
 
+        if ((-1 != msgIdRate) && (msgIdRate <= 0)) {
+            throw new IllegalArgumentException("Message Id Rate must be > 0");
+        }
+
+        if ((-1 != msgIdWindow) && (msgIdWindow <= 0)) {
+            throw new IllegalArgumentException("Message Id Window must be > 0");
+        }
+
         if ((seedingURIs.isEmpty() && seedRendezvous.isEmpty() && useOnlySeeds) && (configuration == RendezVousConfiguration.EDGE)) {
             throw new IllegalArgumentException("Must specify rendezvous if 'useOnlySeeds' is enabled and configured as client");
         }
@@ -341,6 +367,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedRendezvous attribute
      */
     public void addSeedRendezvous(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -355,6 +382,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedRendezvous attribute
      */
     public void addSeedRendezvous(String addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -368,6 +396,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedingURI attribute
      */
     public void addSeedingURI(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -381,6 +410,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedingURI attribute
      */
     public void addSeedingURI(String addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -392,6 +422,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *  Description of the Method
      */
     public void clearSeedRendezvous() {
+        contentChanged();
         seedRendezvous.clear();
     }
 
@@ -399,6 +430,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *  Description of the Method
      */
     public void clearSeedingURIs() {
+        contentChanged();
         seedingURIs.clear();
     }
 
@@ -508,6 +540,22 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
             attrDoc.addAttribute(MAX_CLIENTS_ATTR, Integer.toString(maxClients));
         }
 
+        if (-1 != msgIdRate) {
+            if (msgIdRate <= 0) {
+                throw new IllegalStateException("Message Id Rate must be > 0");
+            }
+
+            attrDoc.addAttribute(MSGID_RATE_ATTR, Integer.toString(msgIdRate));
+        }
+
+        if (-1 != msgIdWindow) {
+            if (msgIdWindow <= 0) {
+                throw new IllegalStateException("Message Id Window must be > 0");
+            }
+
+            attrDoc.addAttribute(MSGID_WINDOW_ATTR, Long.toString(msgIdWindow));
+        }
+
         if (0 != leaseDuration) {
             if (leaseDuration < 0) {
                 throw new IllegalStateException("Lease Duration must be >= 0");
@@ -644,6 +692,28 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
         return maximumTTL;
     }
 
+    /**
+     *  Returns the expected rate, in messages per second, of propagated
+     *  messages used to size duplicate detection or -1 for the default value.
+     *
+     *@return    the expected rate of propagated messages or -1 for the default
+     *      value.
+     */
+    public int getMsgIdRate() {
+        return msgIdRate;
+    }
+
+    /**
+     *  Returns the interval in relative milliseconds for which propagated
+     *  message ids are remembered or -1 for the default value.
+     *
+     *@return    the interval for which propagated message ids are remembered
+     *      or -1 for the default value.
+     */
+    public long getMsgIdWindow() {
+        return msgIdWindow;
+    }
+
     /**
      *  Returns the minimum peerview size which the rendezvous service will find
      *  sufficient.
@@ -797,6 +867,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@return       Description of the Return Value
      */
     public boolean removeSeedRendezvous(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -811,6 +882,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *@return       Description of the Return Value
      */
     public boolean removeSeedingURI(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -830,6 +902,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      <code>isRendezvous</code>.
      */
     public void setAutoRendezvousCheckInterval(long newvalue) {
+        contentChanged();
         if (newvalue < 0) {
             throw new IllegalArgumentException("Auto Rendezvous Check Interval must be >= 0");
         }
@@ -844,6 +917,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      rendezvous.
      */
     public void setConfiguration(RendezVousConfiguration newstate) {
+        contentChanged();
         configuration = newstate;
     }
 
@@ -856,6 +930,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      value.
      */
     public void setLeaseDuration(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue < 0)) {
             throw new IllegalArgumentException("Lease Duration must be >= 0");
         }
@@ -872,6 +947,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      value.
      */
     public void setLeaseMargin(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue < 0)) {
             throw new IllegalArgumentException("Lease Margin must be >= 0");
         }
@@ -886,6 +962,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      default value.
      */
     public void setMaxClients(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Max Clients must be > 0");
         }
@@ -900,6 +977,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      <code>-1</code> for the default value.
      */
     public void setMaxTTL(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Max TTL must be >= 0");
         }
@@ -907,6 +985,38 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
         maximumTTL = newvalue;
     }
 
+    /**
+     *  Sets the expected rate, in messages per second, of propagated messages
+     *  used to size duplicate detection.
+     *
+     *@param  newvalue  the expected rate of propagated messages or
+     *      <code>-1</code> for the default value.
+     */
+    public void setMsgIdRate(int newvalue) {
+        contentChanged();
+        if ((-1 != newvalue) && (newvalue <= 0)) {
+            throw new IllegalArgumentException("Message Id Rate must be > 0");
+        }
+
+        msgIdRate = newvalue;
+    }
+
+    /**
+     *  Sets the interval in relative milliseconds for which propagated message
+     *  ids are remembered.
+     *
+     *@param  newvalue  the interval for which propagated message ids are
+     *      remembered or <code>-1</code> for the default value.
+     */
+    public void setMsgIdWindow(long newvalue) {
+        contentChanged();
+        if ((-1 != newvalue) && (newvalue <= 0)) {
+            throw new IllegalArgumentException("Message Id Window must be > 0");
+        }
+
+        msgIdWindow = newvalue;
+    }
+
     /**
      *  Sets the minimum peerview size which the rendezvous service will find
      *  sufficient. If the peerview size is below that threshold, the rendezvous
@@ -918,6 +1028,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      for the default value.
      */
     public void setMinHappyPeerView(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Min Happy Peer View size must be > 0");
         }
@@ -931,6 +1042,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      for rendezvous.
      */
     public void setProbeRelays(boolean doProbe) {
+        contentChanged();
         probeRelays = doProbe;
     }
 
@@ -943,6 +1055,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      for the default value.
      */
     public void setSeedRendezvousConnectDelay(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue < 0)) {
             throw new IllegalArgumentException("Seed Rendezvous Connect Delay must be >= 0");
         }
@@ -958,6 +1071,7 @@ public final class RdvConfigAdv extends ExtendableAdvertisement {
      *      when configured as an edge peer.
      */
     public void setUseOnlySeeds(boolean onlySeeds) {
+        contentChanged();
         useOnlySeeds = onlySeeds;
     }
 
@@ -296,6 +296,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedRelay attribute
      */
     public void addSeedRelay(EndpointAddress addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -309,6 +310,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedRelay attribute
      */
     public void addSeedRelay(String addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -322,6 +324,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedingURI attribute
      */
     public void addSeedingURI(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -335,6 +338,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  addr  The feature to be added to the SeedingURI attribute
      */
     public void addSeedingURI(String addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -346,6 +350,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *  Description of the Method
      */
     public void clearSeedRelays() {
+        contentChanged();
         seedRelays.clear();
     }
 
@@ -353,6 +358,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *  Description of the Method
      */
     public void clearSeedingURIs() {
+        contentChanged();
         seedingURIs.clear();
     }
 
@@ -850,6 +856,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@return       Description of the Return Value
      */
     public boolean removeSeedRelay(EndpointAddress addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -864,6 +871,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@return       Description of the Return Value
      */
     public boolean removeSeedingURI(URI addr) {
+        contentChanged();
         if (null == addr) {
             throw new IllegalArgumentException("addr may not be null");
         }
@@ -879,6 +887,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      server will announce its presence.
      */
     public void setAnnounceInterval(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Announce Interval must be > 0");
         }
@@ -892,6 +901,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  enabled  If true then this peer will act as a relay client.
      */
     public void setClientEnabled(boolean enabled) {
+        contentChanged();
         clientEnabled = enabled;
     }
 
@@ -902,6 +912,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      by clients or <code>-1</code> for default value.
      */
     public void setClientLeaseDuration(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Lease Duration must be > 0");
         }
@@ -916,6 +927,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      for default value.
      */
     public void setClientMessageQueueSize(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Client Message Queue Size must be > 0");
         }
@@ -930,6 +942,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      for default value.
      */
     public void setMaxClients(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Max Clients must be > 0");
         }
@@ -944,6 +957,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      for default value or <code>-1</code> for default value.
      */
     public void setMaxRelays(int newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Max Relays must be > 0");
         }
@@ -960,6 +974,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      value.
      */
     public void setMessengerPollInterval(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Poll interval must be > 0");
         }
@@ -973,6 +988,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  enabled  If true then this peer will act as a relay server.
      */
     public void setServerEnabled(boolean enabled) {
+        contentChanged();
         serverEnabled = enabled;
     }
 
@@ -983,6 +999,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      by servers or <code>-1</code> for default value.
      */
     public void setServerLeaseDuration(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Lease Duration must be >= 0");
         }
@@ -999,6 +1016,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *      messages or <code>-1</code> for default value.
      */
     public void setStallTimeout(long newvalue) {
+        contentChanged();
         if ((-1 != newvalue) && (newvalue <= 0)) {
             throw new IllegalArgumentException("Stall timeout must be > 0");
         }
@@ -1013,6 +1031,7 @@ public final class RelayConfigAdv extends ExtendableAdvertisement {
      *@param  onlySeeds  The new useOnlySeeds value
      */
     public void setUseOnlySeeds(boolean onlySeeds) {
+        contentChanged();
         useOnlySeeds = onlySeeds;
     }
 
@@ -285,6 +285,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param ia The interface to use. May be a DNS name or an IP Address.
      */
     public void setInterfaceAddress(String ia) {
+        contentChanged();
         if (null != ia) {
             ia = ia.trim();
             
@@ -325,6 +326,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param port the port on which to listen.
      */
     public void setPort(int port) {
+        contentChanged();
         listenPort = port;
     }
     
@@ -355,6 +357,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param start the lowest port on which to listen.
      */
     public void setStartPort(int start) {
+        contentChanged();
         startPort = start;
     }
     
@@ -385,6 +388,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param the highest port on which to listen.
      */
     public void setEndPort(int end) {
+        contentChanged();
         endPort = end;
     }
     
@@ -403,6 +407,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param multicastState the desired state.
      */
     public void setMulticastState(boolean newState) {
+        contentChanged();
         multicastEnabled = newState;
     }
     
@@ -421,6 +426,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param multicastaddr set multicastaddr
      */
     public void setMulticastAddr(String multicastaddr) {
+        contentChanged();
         if (null != multicastaddr) {
             multicastaddr = multicastaddr.trim();
             
@@ -446,6 +452,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param multicastport set multicastport
      */
     public void setMulticastPort(int multicastport) {
+        contentChanged();
         this.multicastport = multicastport;
     }
     
@@ -464,6 +471,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param multicastsize set multicast size
      */
     public void setMulticastSize(int multicastsize) {
+        contentChanged();
         this.multicastsize = multicastsize;
     }
     
@@ -483,6 +491,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param address address
      */
     public void setServer(String address) {
+        contentChanged();
         if (null != address) {
             address = address.trim();
             
@@ -511,6 +520,7 @@ public class TCPAdv extends TransportAdvertisement {
      *  <code>false</code>
      */
     public void setClientEnabled(boolean enabled) {
+        contentChanged();
         clientEnabled = enabled;
     }
     
@@ -531,6 +541,7 @@ public class TCPAdv extends TransportAdvertisement {
      *  <code>false</code>
      */
     public void setServerEnabled(boolean enabled) {
+        contentChanged();
         serverEnabled = enabled;
     }
     
@@ -555,6 +566,7 @@ public class TCPAdv extends TransportAdvertisement {
      * which is "auto".
      */
     public void setConfigMode(String mode) {
+        contentChanged();
         if (!Arrays.asList(CONFIGMODES).contains(mode)) {
             throw new IllegalArgumentException("Unsupported configuration mode.");
         }
@@ -575,6 +587,7 @@ public class TCPAdv extends TransportAdvertisement {
      * @param only true to use "Public Address Only"
      */
     public void setPublicAddressOnly(boolean only) {
+        contentChanged();
         publicAddressOnly = only;
     }
     
@@ -0,0 +1,300 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.rendezvous;
+
+
+import java.util.HashSet;
+import java.util.Set;
+
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ *  Remembers the ids of recently seen messages in order to detect duplicates.
+ *
+ *  <p/>Ids are kept in a ring of hash sets, each of which covers an equal
+ *  slice of the window. As time passes the oldest set is cleared and becomes
+ *  the current one, so an id is remembered for at least
+ *  <code>window - window / buckets</code> milliseconds and lookups cost one
+ *  hash probe per bucket.
+ *
+ *  <p/>Each bucket is sized from the expected message rate. A bucket which
+ *  fills up before its slice has elapsed is rotated early; under a burst the
+ *  effective window shrinks rather than memory growing without bound.
+ */
+final class MessageIdFilter {
+
+    /**
+     *  The number of buckets into which the window is divided.
+     */
+    private final static int BUCKETS = 4;
+
+    /**
+     *  The smallest number of ids a bucket will hold.
+     */
+    private final static int MIN_BUCKET_CAPACITY = 16;
+
+    /**
+     *  The buckets. {@link #current} receives new ids.
+     */
+    private final Set[] buckets;
+
+    /**
+     *  The interval in relative milliseconds covered by each bucket.
+     */
+    private final long bucketSpan;
+
+    /**
+     *  Number of ids a bucket may hold before it is rotated early.
+     */
+    private final int bucketCapacity;
+
+    /**
+     *  Index of the bucket receiving new ids.
+     */
+    private int current = 0;
+
+    /**
+     *  The time in absolute milliseconds at which the current bucket started.
+     */
+    private long currentStart;
+
+    /**
+     *  Number of ids which were found to be duplicates.
+     */
+    private long hits = 0;
+
+    /**
+     *  Number of ids which were not previously recorded.
+     */
+    private long misses = 0;
+
+    /**
+     *  Number of times a bucket was rotated because it was full.
+     */
+    private long earlyRotations = 0;
+
+    /**
+     *  Creates a new filter.
+     *
+     *  @param rate the expected number of messages per second.
+     *  @param window the interval in relative milliseconds for which ids
+     *  should be remembered.
+     */
+    MessageIdFilter(int rate, long window) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be > 0");
+        }
+
+        if (window < BUCKETS) {
+            throw new IllegalArgumentException("window must be >= " + BUCKETS);
+        }
+
+        bucketSpan = window / BUCKETS;
+
+        // Twice the expected population of a bucket leaves room for jitter.
+        long expected = (rate * bucketSpan + TimeUtils.ASECOND - 1) / TimeUtils.ASECOND;
+
+        bucketCapacity = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(MIN_BUCKET_CAPACITY, 2 * expected));
+
+        buckets = new Set[BUCKETS];
+        for (int each = 0; each < BUCKETS; each++) {
+            buckets[each] = new HashSet(Math.min(bucketCapacity, 1024));
+        }
+
+        currentStart = TimeUtils.timeNow();
+    }
+
+    /**
+     *  Record an id.
+     *
+     *  @param id the id.
+     *  @return <code>true</code> if the id was recorded, <code>false</code> if
+     *  it had already been seen within the window.
+     */
+    synchronized boolean add(Object id) {
+        rotate(TimeUtils.timeNow());
+
+        if (find(id)) {
+            hits++;
+            return false;
+        }
+
+        if (buckets[current].size() >= bucketCapacity) {
+            earlyRotations++;
+            advance(TimeUtils.timeNow());
+        }
+
+        buckets[current].add(id);
+        misses++;
+
+        return true;
+    }
+
+    /**
+     *  Returns <code>true</code> if the id has been seen within the window.
+     *
+     *  @param id the id.
+     *  @return <code>true</code> if the id has been seen within the window.
+     */
+    synchronized boolean contains(Object id) {
+        rotate(TimeUtils.timeNow());
+
+        return find(id);
+    }
+
+    /**
+     *  Forget all ids. The metrics are retained.
+     */
+    synchronized void clear() {
+        for (int each = 0; each < BUCKETS; each++) {
+            buckets[each].clear();
+        }
+
+        currentStart = TimeUtils.timeNow();
+    }
+
+    /**
+     *  Returns the number of ids currently remembered.
+     *
+     *  @return the number of ids currently remembered.
+     */
+    synchronized int size() {
+        int size = 0;
+
+        for (int each = 0; each < BUCKETS; each++) {
+            size += buckets[each].size();
+        }
+
+        return size;
+    }
+
+    /**
+     *  Returns the number of duplicate ids detected.
+     *
+     *  @return the number of duplicate ids detected.
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     *  Returns the number of new ids recorded.
+     *
+     *  @return the number of new ids recorded.
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     *  Returns the number of times a bucket filled before its interval
+     *  elapsed. A steadily increasing value means the configured rate is too
+     *  low for the traffic seen.
+     *
+     *  @return the number of early rotations.
+     */
+    synchronized long getEarlyRotations() {
+        return earlyRotations;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public synchronized String toString() {
+        return "ids=" + size() + " hits=" + hits + " misses=" + misses + " early rotations=" + earlyRotations;
+    }
+
+    private boolean find(Object id) {
+        for (int each = 0; each < BUCKETS; each++) {
+            if (buckets[each].contains(id)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void rotate(long now) {
+        long elapsed = TimeUtils.toRelativeTimeMillis(now, currentStart);
+
+        if (elapsed < bucketSpan) {
+            return;
+        }
+
+        if (elapsed >= bucketSpan * BUCKETS) {
+            // Everything has expired.
+            for (int each = 0; each < BUCKETS; each++) {
+                buckets[each].clear();
+            }
+
+            currentStart = now;
+            return;
+        }
+
+        while (elapsed >= bucketSpan) {
+            advance(TimeUtils.toAbsoluteTimeMillis(bucketSpan, currentStart));
+            elapsed -= bucketSpan;
+        }
+    }
+
+    private void advance(long start) {
+        current = (current + 1) % BUCKETS;
+        buckets[current].clear();
+        currentStart = start;
+    }
+}
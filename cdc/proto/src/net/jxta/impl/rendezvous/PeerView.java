@@ -73,8 +73,6 @@ import java.util.ListIterator;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.TreeSet;
 
 import java.io.IOException;
@@ -119,8 +117,9 @@ import net.jxta.rendezvous.RendezvousEvent;
 import net.jxta.rendezvous.RendezvousListener;
 import net.jxta.impl.endpoint.relay.RelayClient;
 import net.jxta.impl.protocol.RdvConfigAdv;
+import net.jxta.impl.util.ScheduledTask;
 import net.jxta.impl.util.TimeUtils;
-import net.jxta.impl.util.TimerThreadNamer;
+import net.jxta.impl.util.TimingWheel;
 
 /**
  *  This class models a Rendezvous Peer View (RPV): ordered collection of all
@@ -357,38 +356,17 @@ public final class PeerView implements EndpointListener, RendezvousListener {
     private transient final PeerViewElement self;
 
     /**
-     *  A single timer is used to periodically kick each PeerView into activity.
-     *  For the Random PeerView, this activity consists of selecting a
+     *  The timer used to periodically kick each PeerView into activity. For
+     *  the Random PeerView, this activity consists of selecting a
      *  PeerViewElement at random from its view and sending it across to a
      *  randomly-selected peer from its view. <p/>
      *
-     *  FIXME 20021121 lomax <p/>
-     *
-     *  The original idea of using a common timer in order to save threads IS a
-     *  very good idea. However, limitations, and actually, bugs, in
-     *  java.util.Timer creates the following problems when using a static
-     *  Timer:
-     *  <ul>
-     *    <li> Memory Leak: Cancelling a TimerTask does not remove it from the
-     *    execution queue of the Timer until the Timer is cancelled or the
-     *    TimerTask is fired. Since most of the TimerTasks are inner classes
-     *    this can mean that the PeerView is held around for a long time.</li>
-     *
-     *    <li> java.util.Timer is not only not real-time (which is more or less
-     *    fine for the PeerView, but it sequentially invokes tasks (only one
-     *    Thread per Timer). As a result, tasks that takes a long time to run
-     *    delays other tasks.</li>
-     *  </ul>
-     *  <p/>
-     *
-     *  The PeerView would function better with a better Timer, but JDK does not
-     *  provide a standard timer that would fullfill the needs of the PeerView.
-     *  Maybe we should implement a JXTA Timer, since lots of the JXTA services,
-     *  by being very asynchronous, rely on the same kind of timer semantics as
-     *  the PeerView. Until then, creating a Timer per instance of the PeerView
-     *  (i.e. per instance of joined PeerGroup) is the best workaround.
+     *  A PeerView used to own a java.util.Timer because cancelled TimerTasks
+     *  are retained by their Timer until they would have run and because a
+     *  Timer runs its tasks sequentially on a single thread. The shared
+     *  {@link TimingWheel} has neither problem so all PeerViews use it.
      */
-    private transient final Timer timer;
+    private transient final TimingWheel timer;
 
     private transient final String uniqueGroupId;
     private transient PeerViewElement upPeer = null;
@@ -435,8 +413,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
         this.endpoint = group.getEndpointService();
 
         this.uniqueGroupId = group.getPeerGroupID().getUniqueValue().toString();
-        timer = new Timer(true);
-        timer.schedule(new TimerThreadNamer("PeerView Timer for " + group.getPeerGroupID()), 0);
+        timer = TimingWheel.getSharedInstance();
 
         ConfigParams confAdv = group.getConfigAdvertisement();
 
@@ -565,7 +542,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
      *@param  delay     The feature to be added to the Task attribute
      *@param  interval  The feature to be added to the Task attribute
      */
-    protected void addTask(TimerTask task, long delay, long interval) {
+    protected void addTask(ScheduledTask task, long delay, long interval) {
 
         synchronized (scheduledTasks) {
             if (scheduledTasks.contains(task)) {
@@ -1713,7 +1690,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
      *
      *@param  task  Description of the Parameter
      */
-    protected void removeTask(TimerTask task) {
+    protected void removeTask(ScheduledTask task) {
         scheduledTasks.remove(task);
     }
 
@@ -1841,7 +1818,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
             return;
         }
 
-        TimerTask task = new AdvertisingGroupQueryTask();
+        ScheduledTask task = new AdvertisingGroupQueryTask();
 
         addTask(task, delay, -1);
     }
@@ -2196,7 +2173,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
 
                 while (eachTask.hasNext()) {
                     try {
-                        TimerTask task = (TimerTask) eachTask.next();
+                        ScheduledTask task = (ScheduledTask) eachTask.next();
                         task.cancel();
                         eachTask.remove();
                     } catch (Exception ez1) {
@@ -2214,7 +2191,6 @@ public final class PeerView implements EndpointListener, RendezvousListener {
             downPeer = null;
             upPeer = null;
             localView.clear();
-            timer.cancel();
             rpvListeners.clear();
         }
     }
@@ -2318,7 +2294,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
     /**
      *  Class implementing the query request on the AdvertisingGroup
      */
-    private final class AdvertisingGroupQueryTask extends TimerTask {
+    private final class AdvertisingGroupQueryTask extends ScheduledTask {
 
         /**
          *  {@inheritDoc}
@@ -2333,6 +2309,15 @@ public final class PeerView implements EndpointListener, RendezvousListener {
         }
 
 
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The query is sent on the advertising group output pipe.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+
         /**
          *  {@inheritDoc}
          */
@@ -2363,7 +2348,16 @@ public final class PeerView implements EndpointListener, RendezvousListener {
     /**
      *  Class implementing the kicker
      */
-    private final class KickerTask extends TimerTask {
+    private final class KickerTask extends ScheduledTask {
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>A kick probes and sends to other peers.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
 
         /**
          *  {@inheritDoc}
@@ -2393,7 +2387,16 @@ public final class PeerView implements EndpointListener, RendezvousListener {
      *  updateStatus is invoked this work must happen in background, giving a
      *  chance to other services to be started.
      */
-    private class OpenPipesTask extends TimerTask {
+    private class OpenPipesTask extends ScheduledTask {
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>Opening the wire pipes waits for other services.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
 
         /**
          *  {@inheritDoc}
@@ -2417,10 +2420,10 @@ public final class PeerView implements EndpointListener, RendezvousListener {
 
 
     /**
-     *  Class implementing the TimerTask that tries to send an advertisement to
+     *  Class implementing the ScheduledTask that tries to send an advertisement to
      *  a remote peer, in background.
      */
-    private final class TimedSendTask extends TimerTask {
+    private final class TimedSendTask extends ScheduledTask {
         private transient EndpointAddress destaddr = null;
         private transient PeerViewElement destpve = null;
         private transient PeerViewElement pve = null;
@@ -2464,6 +2467,15 @@ public final class PeerView implements EndpointListener, RendezvousListener {
         }
 
 
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>The advertisement is sent from here.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+
         /**
          *  {@inheritDoc}
          */
@@ -2500,7 +2512,7 @@ public final class PeerView implements EndpointListener, RendezvousListener {
     /**
      *  A task that checks on upPeer and downPeer.
      */
-    private final class WatchdogTask extends TimerTask {
+    private final class WatchdogTask extends ScheduledTask {
         private transient PeerView peerView;
 
         /**
@@ -2513,6 +2525,15 @@ public final class PeerView implements EndpointListener, RendezvousListener {
         }
 
 
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>Checking on the neighbours sends messages to them.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
+
         /**
          *  {@inheritDoc}
          */
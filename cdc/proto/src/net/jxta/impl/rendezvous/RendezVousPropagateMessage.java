@@ -55,7 +55,13 @@
  */
 package net.jxta.impl.rendezvous;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Enumeration;
 import java.util.LinkedHashSet;
 import java.util.Iterator;
@@ -73,14 +79,38 @@ import net.jxta.document.StructuredDocument;
 import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.XMLElement;
 import net.jxta.document.XMLDocument;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.TextDocumentMessageElement;
 
+import net.jxta.impl.endpoint.CompactValue;
+import net.jxta.impl.endpoint.ParsedElementCache;
 import net.jxta.impl.id.UUID.UUID;
 import net.jxta.impl.id.UUID.UUIDFactory;
 
 /**
  *  This class defines the wire format of the Propagation header for messages.
+ *
+ *  <p/>Besides XML the header has a binary form, {@link #BINARY_MIMETYPE},
+ *  which is sent only to peers which accept it:
+ *
+ *  <pre>
+ *    byte     version ({@link #BINARY_VERSION})
+ *    byte     flags, whether the destination service parameter is present
+ *    long     message id, most significant bits
+ *    long     message id, least significant bits
+ *    UTF      destination service name
+ *    UTF      destination service parameter (optional)
+ *    int      TTL
+ *    short    number of path entries
+ *    value    path entries, as {@link CompactValue}s
+ *  </pre>
+ *
+ *  <p/>The XML form carries an {@link #AcceptTag} element with which the
+ *  sending peer lists the binary header types it accepts. A peer which
+ *  sends the binary form accepts it.
  */
-public class RendezVousPropagateMessage {
+public class RendezVousPropagateMessage implements ParsedElementCache.Parsed {
     /**
      *  Description of the Field
      */
@@ -117,11 +147,38 @@ public class RendezVousPropagateMessage {
      *  Description of the Field
      */
     public final static String TTLTag = "TTL";
+
+    /**
+     *  Element with which the sending peer lists the binary header types it
+     *  accepts.
+     */
+    public final static String AcceptTag = "Accept";
+
+    /**
+     *  The mime type of the binary form of the header.
+     */
+    public final static MimeMediaType BINARY_MIMETYPE = new MimeMediaType("application", "x-jxta-rdvprop").intern();
+
+    /**
+     *  The binary header types we accept: ours and the JXTA-WIRE header
+     *  which travels along with it.
+     */
+    private final static String ACCEPTED = BINARY_MIMETYPE.getMimeMediaType() + " application/x-jxta-wire";
+
+    /**
+     *  Version of the binary form we produce and understand.
+     */
+    private final static int BINARY_VERSION = 1;
+
+    private final static int HAS_PARAM = 0x01;
+
+    private final static String PATH_PREFIX = "urn:jxta:";
     private String destSName = null;
     private String destSParam = null;
 
     private UUID msgId = null;
     private final Set visited = new LinkedHashSet();
+    private boolean acceptsBinary = false;
 
     /**
      *  Constructor for the RendezVousPropagateMessage object
@@ -135,7 +192,31 @@ public class RendezVousPropagateMessage {
      */
     public RendezVousPropagateMessage(Element root) {
         this();
+        initialize(root);
+    }
+
+    /**
+     *  Reads a header from a message element in either form.
+     *
+     *@param  elem             the element.
+     *@exception  IOException  if the element cannot be read.
+     */
+    public RendezVousPropagateMessage(MessageElement elem) throws IOException {
+        this();
+        if (BINARY_MIMETYPE.equals(elem.getMimeType())) {
+            readBinary(elem.getBytes(false));
+            checkInitialized();
+        } else {
+            initialize(StructuredDocumentFactory.newStructuredDocument(elem.getMimeType(), elem.getStream()));
+        }
+    }
 
+    /**
+     *  internal method to process a document into a header.
+     *
+     *@param  root  where to start.
+     */
+    private void initialize(Element root) {
         if (!XMLElement.class.isInstance(root)) {
             throw new IllegalArgumentException(getClass().getName() + " only supports XLMElement");
         }
@@ -166,6 +247,10 @@ public class RendezVousPropagateMessage {
             }
         }
 
+        checkInitialized();
+    }
+
+    private void checkInitialized() {
         // Sanity Check!!!
         if (Integer.MIN_VALUE == getTTL()) {
             throw new IllegalArgumentException("TTL value not specified");
@@ -263,6 +348,9 @@ public class RendezVousPropagateMessage {
             doc.appendChild(e);
         }
 
+        e = doc.createElement(AcceptTag, ACCEPTED);
+        doc.appendChild(e);
+
         return doc;
     }
 
@@ -337,9 +425,26 @@ public class RendezVousPropagateMessage {
             return true;
         }
 
+        if (elem.getName().equals(AcceptTag)) {
+            String accepted = elem.getTextValue();
+
+            acceptsBinary = (null != accepted) && (-1 != accepted.indexOf(BINARY_MIMETYPE.getMimeMediaType()));
+            return true;
+        }
+
         return false;
     }
 
+    /**
+     *  Returns true if the peer which sent this header accepts the binary
+     *  form of the propagation and JXTA-WIRE headers.
+     *
+     *@return    true if the sending peer accepts binary headers.
+     */
+    public boolean acceptsBinary() {
+        return acceptsBinary;
+    }
+
     /**
      *  Returns true if the specified location is in the visited Set.
      *
@@ -385,5 +490,111 @@ public class RendezVousPropagateMessage {
     public void setTTL(int ttl) {
         TTL = ttl;
     }
-}
 
+    /**
+     *  {@inheritDoc}
+     */
+    public ParsedElementCache.Parsed copy() {
+        RendezVousPropagateMessage copy = new RendezVousPropagateMessage();
+
+        copy.TTL = TTL;
+        copy.destSName = destSName;
+        copy.destSParam = destSParam;
+        copy.msgId = msgId;
+        copy.visited.addAll(visited);
+        copy.acceptsBinary = acceptsBinary;
+        return copy;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public MessageElement toElement(String name, boolean binary) throws IOException {
+        if (binary) {
+            return new ByteArrayMessageElement(name, BINARY_MIMETYPE, writeBinary(), null);
+        }
+
+        return new TextDocumentMessageElement(name, (XMLDocument) getDocument(MimeMediaType.XMLUTF8), null);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public boolean isBinary(MessageElement element) {
+        return BINARY_MIMETYPE.equals(element.getMimeType());
+    }
+
+    private void readBinary(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        int version = in.readUnsignedByte();
+
+        if (BINARY_VERSION != version) {
+            throw new IOException("Unsupported propagate header version : " + version);
+        }
+
+        int flags = in.readUnsignedByte();
+
+        msgId = new UUID(in.readLong(), in.readLong());
+        destSName = in.readUTF();
+        if (0 != (flags & HAS_PARAM)) {
+            destSParam = in.readUTF();
+        }
+        TTL = in.readInt();
+
+        int count = in.readUnsignedShort();
+
+        for (int each = 0; each < count; each++) {
+            try {
+                addVisited(new URI(CompactValue.read(in, PATH_PREFIX)));
+            } catch (URISyntaxException badURI) {
+                throw new IOException("Bad path entry : " + badURI.getMessage());
+            }
+        }
+
+        acceptsBinary = true;
+    }
+
+    private byte[] writeBinary() throws IOException {
+        // same checks as the XML form.
+        if (getTTL() <= 0) {
+            throw new IllegalStateException("TTL value < 1");
+        }
+
+        if (null == destSName) {
+            throw new IllegalStateException("Destination service name uninitialized");
+        }
+
+        if (null == msgId) {
+            throw new IllegalStateException("Message id uninitialized");
+        }
+
+        if (visited.size() > 0xFFFF) {
+            throw new IOException("Path too long : " + visited.size());
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        out.writeByte(BINARY_VERSION);
+        out.writeByte((null != destSParam) ? HAS_PARAM : 0);
+        out.writeLong(msgId.getMostSignificantBits());
+        out.writeLong(msgId.getLeastSignificantBits());
+        out.writeUTF(destSName);
+        if (null != destSParam) {
+            out.writeUTF(destSParam);
+        }
+        out.writeInt(TTL);
+
+        out.writeShort(visited.size());
+
+        Iterator eachVisited = visited.iterator();
+
+        while (eachVisited.hasNext()) {
+            CompactValue.write(out, eachVisited.next().toString(), PATH_PREFIX);
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+}
@@ -56,8 +56,6 @@
 package net.jxta.impl.rendezvous;
 
 import net.jxta.document.MimeMediaType;
-import net.jxta.document.StructuredDocument;
-import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.XMLDocument;
 import net.jxta.document.XMLElement;
 import java.io.IOException;
@@ -71,13 +69,12 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.Vector;
 import net.jxta.discovery.DiscoveryService;
 import net.jxta.document.Advertisement;
@@ -91,14 +88,16 @@ import net.jxta.endpoint.Message;
 import net.jxta.id.ID;
 import net.jxta.peer.PeerID;
 import net.jxta.id.IDFactory;
+import net.jxta.impl.endpoint.ParsedElementCache;
 import net.jxta.impl.id.UUID.UUID;
 import net.jxta.impl.id.UUID.UUIDFactory;
+import net.jxta.impl.peergroup.ModuleDependencies;
 import net.jxta.impl.protocol.RdvConfigAdv;
 import net.jxta.impl.util.*;
 import net.jxta.impl.util.TimeUtils;
-import net.jxta.impl.util.TimerThreadNamer;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.peergroup.PeerGroupID;
+import net.jxta.platform.ModuleClassID;
 import net.jxta.protocol.ConfigParams;
 import net.jxta.protocol.ModuleImplAdvertisement;
 import net.jxta.protocol.PeerAdvertisement;
@@ -122,7 +121,7 @@ import org.apache.log4j.Logger;
  *@see    <a href="http://spec.jxta.org/nonav/v1.0/docbook/JXTAProtocols.html#proto-rvp"
  *      target="_blank">JXTA Protocols Specification : Rendezvous Protocol</a>
  */
-public class RendezVousServiceImpl implements RendezVousService, EndpointListener, PeerViewListener {
+public class RendezVousServiceImpl implements RendezVousService, EndpointListener, PeerViewListener, ModuleDependencies {
     private final static long MONITOR_INTERVAL = 20 * TimeUtils.ASECOND;
     private final static long ADDEVENT_DELAY = 3 * TimeUtils.ASECOND;
     private final static long CHALLENGE_TIMEOUT = 90 * TimeUtils.ASECOND;
@@ -170,15 +169,39 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      */
     protected final static int MAX_INFRA_TTL = 2;
     /**
-     *  Description of the Field
+     *  Default expected rate, in messages per second, of propagated messages.
+     *  Used to size the duplicate message filter.
+     */
+    protected final static int DEFAULT_MSGID_RATE = 100;
+
+    /**
+     *  Default interval in relative milliseconds for which propagated message
+     *  ids are remembered.
      */
-    protected final static int MAX_MSGIDS = 100;
+    protected final static long DEFAULT_MSGID_WINDOW = 20 * TimeUtils.ASECOND;
 
     /**
      *  Number of rendezvous we will try to connect to.
      */
     private final static int MAX_RDV_CONNECTIONS = 1;
 
+    /**
+     *  The maximum number of peers for which we remember that they accept
+     *  binary propagation headers.
+     */
+    private final static int MAX_BINARY_PEERS = 1024;
+
+    /**
+     *  The peers, as peer id URIs, which have told us that they accept binary
+     *  propagation and JXTA-WIRE headers, least recently heard from first.
+     *  Other peers are sent XML.
+     */
+    private final Map binaryPeers = new LinkedHashMap(16, 0.75f, true) {
+                                        protected boolean removeEldestEntry(Map.Entry eldest) {
+                                            return size() > MAX_BINARY_PEERS;
+                                        }
+                                    };
+
     /**
      *  Description of the Field
      */
@@ -230,7 +253,6 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
     private transient PeerGroup group = null;
     private transient ModuleImplAdvertisement implAdvertisement = null;
     private transient long maxChoiceDelay = ADDEVENT_DELAY;
-    private transient int messagesReceived;
 
     /**
      *  Once choice delay has reached zero, any ADD event could trigger a
@@ -251,7 +273,21 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      */
     private transient long monitorStartAt = -1;
 
-    private transient final List msgIds = new ArrayList(MAX_MSGIDS);
+    /**
+     *  Ids of the propagated messages we have recently seen. Replaced by
+     *  {@link #init} once the configuration is known.
+     */
+    private transient volatile MessageIdFilter msgIds = new MessageIdFilter(DEFAULT_MSGID_RATE, DEFAULT_MSGID_WINDOW);
+
+    /**
+     *  Expected rate, in messages per second, of propagated messages.
+     */
+    private transient int msgIdRate = DEFAULT_MSGID_RATE;
+
+    /**
+     *  Interval in relative milliseconds for which message ids are remembered.
+     */
+    private transient long msgIdWindow = DEFAULT_MSGID_WINDOW;
 
     /**
      *  Description of the Field
@@ -281,7 +317,13 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      *  The peer view for this peer group.
      */
     public transient volatile PeerView rpv = null;
-    private transient final Timer timer = new Timer(true);
+    private transient final TimingWheel timer = TimingWheel.getSharedInstance();
+
+    /**
+     *  The task which monitors our rendezvous connections or
+     *  <code>null</code> if it has not been scheduled.
+     */
+    private transient MonitorTask monitorTask = null;
 
     /**
      *  {@inheritDoc}
@@ -302,19 +344,13 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      */
     public boolean addMsgId(UUID id) {
 
-        synchronized (msgIds) {
-            if (isMsgIdRecorded(id)) {
-                // Already there. Nothing to do
-                return false;
-            }
-
-            if (msgIds.size() < MAX_MSGIDS) {
-                msgIds.add(id);
-            } else {
-                msgIds.set((messagesReceived % MAX_MSGIDS), id);
+        if (!msgIds.add(id)) {
+            // Already there. Nothing to do
+            if (LOG.isEnabledFor(Level.DEBUG)) {
+                LOG.debug("Duplicate Message ID : " + id);
             }
 
-            messagesReceived++;
+            return false;
         }
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
@@ -474,6 +510,13 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             return null;
         }
 
+        // The last peer of the path sent us the message.
+        URI[] path = propHdr.getPath();
+
+        if (path.length > 0) {
+            noteAccepted(path[path.length - 1], propHdr.acceptsBinary());
+        }
+
         // Message is valid
         return propHdr;
     }
@@ -826,6 +869,12 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      */
     protected RendezVousPropagateMessage getPropHeader(Message msg) {
 
+        RendezVousPropagateMessage propHdr = (RendezVousPropagateMessage) ParsedElementCache.get(msg, MESSAGE_NAMESPACE_NAME, HEADER_NAME);
+
+        if (null != propHdr) {
+            return propHdr;
+        }
+
         MessageElement elem = msg.getMessageElement(MESSAGE_NAMESPACE_NAME, HEADER_NAME);
 
         if (elem == null) {
@@ -833,9 +882,10 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
         }
 
         try {
-            StructuredDocument asDoc = StructuredDocumentFactory.newStructuredDocument(elem.getMimeType(), elem.getStream());
+            propHdr = new RendezVousPropagateMessage(elem);
+            ParsedElementCache.put(msg, MESSAGE_NAMESPACE_NAME, elem, propHdr);
 
-            return new RendezVousPropagateMessage(asDoc);
+            return propHdr;
         } catch (IOException failed) {
             if (LOG.isEnabledFor(Level.WARN)) {
                 LOG.warn("Could not get prop header of " + msg, failed);
@@ -872,7 +922,6 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
         HEADER_NAME = RendezVousPropagateMessage.Name + PropPName;
         pParam = group.getPeerGroupID().getUniqueValue().toString();
         pName = assignedID.toString();
-        timer.schedule(new TimerThreadNamer("RendezVousServiceImpl Timer for " + group.getPeerGroupID()), 0);
 
         advGroup = group.getParentGroup();
         if ((null == advGroup) || PeerGroupID.worldPeerGroupID.equals(advGroup.getPeerGroupID())) {
@@ -903,6 +952,13 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
                 RdvConfigAdv rdvConfigAdv = (RdvConfigAdv) adv;
                 config = rdvConfigAdv.getConfiguration();
                 autoRendezvous = rdvConfigAdv.getAutoRendezvousCheckInterval() > 0;
+
+                if (-1 != rdvConfigAdv.getMsgIdRate()) {
+                    msgIdRate = rdvConfigAdv.getMsgIdRate();
+                }
+                if (-1 != rdvConfigAdv.getMsgIdWindow()) {
+                    msgIdWindow = rdvConfigAdv.getMsgIdWindow();
+                }
                 //rdv_watchdog_interval = rdvConfigAdv.getAutoRendezvousCheckInterval();
             }
         }
@@ -911,6 +967,8 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             config = RdvConfigAdv.RendezVousConfiguration.AD_HOC;
         }
 
+        msgIds = new MessageIdFilter(msgIdRate, msgIdWindow);
+
         if (LOG.isEnabledFor(Level.INFO)) {
             StringBuffer configInfo = new StringBuffer("Configuring RendezVous Service : " + assignedID);
 
@@ -935,6 +993,8 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             }
             configInfo.append("\n\t\tRendezVous : " + config);
             configInfo.append("\n\t\tAuto RendezVous : " + autoRendezvous);
+            configInfo.append("\n\t\tMessage Id Rate : " + msgIdRate + "/s");
+            configInfo.append("\n\t\tMessage Id Window : " + msgIdWindow + "ms");
             //configInfo.append("\n\t\tAuto-RendezVous Reconfig Interval : " + rdv_watchdog_interval);
 
             LOG.info(configInfo);
@@ -961,11 +1021,7 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      */
     public boolean isMsgIdRecorded(UUID id) {
 
-        boolean found;
-
-        synchronized (msgIds) {
-            found = msgIds.contains(id);
-        }
+        boolean found = msgIds.contains(id);
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug(id + " = " + found);
@@ -974,6 +1030,36 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
         return found;
     }
 
+    /**
+     *  Returns the number of propagated messages which were dropped because
+     *  their id had recently been seen.
+     *
+     *@return    the number of duplicate message ids.
+     */
+    public long getDuplicateMsgIdCount() {
+        return msgIds.getHits();
+    }
+
+    /**
+     *  Returns the number of propagated messages whose id had not recently
+     *  been seen.
+     *
+     *@return    the number of new message ids.
+     */
+    public long getNewMsgIdCount() {
+        return msgIds.getMisses();
+    }
+
+    /**
+     *  Returns the number of times the duplicate message filter forgot ids
+     *  early because more messages arrived than its configured rate.
+     *
+     *@return    the number of early rotations of the duplicate filter.
+     */
+    public long getMsgIdEarlyRotations() {
+        return msgIds.getEarlyRotations();
+    }
+
 
     /**
      *  {@inheritDoc}
@@ -1138,7 +1224,12 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
                             LOG.debug("Scheduling rdv monitor in " + choiceDelay + "ms.");
                         }
 
-                        timer.schedule(new MonitorTask(), choiceDelay, MONITOR_INTERVAL);
+                        if (null != monitorTask) {
+                            monitorTask.cancel();
+                        }
+
+                        monitorTask = new MonitorTask();
+                        timer.schedule(monitorTask, choiceDelay, MONITOR_INTERVAL);
                     } catch (Exception anything) {
                         if (LOG.isEnabledFor(Level.WARN)) {
                             LOG.warn("Event could not be processed", anything);
@@ -1674,7 +1765,10 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             if (LOG.isEnabledFor(Level.DEBUG)) {
                 LOG.debug("Sending " + msg + "(" + propHdr.getMsgId() + ") to " + pConn);
             }
-            if (pConn.sendMessage((Message) msg.clone(), PropSName, PropPName)) {
+            Message toSend = (Message) msg.clone();
+
+            ParsedElementCache.encode(msg, toSend, acceptsBinary(pConn.getPeerID().toURI()));
+            if (pConn.sendMessage(toSend, PropSName, PropPName)) {
                 sentToPeers++;
             }
         }
@@ -1699,7 +1793,39 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("Endpoint propagating " + msg + " (" + propHdr.getMsgId() + ")");
         }
-        endpoint.propagate((Message) msg.clone(), PropSName, PropPName);
+        // We do not know who will receive it.
+        Message toSend = (Message) msg.clone();
+
+        ParsedElementCache.encode(msg, toSend, false);
+        endpoint.propagate(toSend, PropSName, PropPName);
+    }
+
+    /**
+     *  Remember whether a peer accepts binary propagation headers.
+     *
+     *@param  peer    the peer id URI.
+     *@param  binary  true if the peer accepts binary headers.
+     */
+    private void noteAccepted(URI peer, boolean binary) {
+        synchronized (binaryPeers) {
+            if (binary) {
+                binaryPeers.put(peer, Boolean.TRUE);
+            } else {
+                binaryPeers.remove(peer);
+            }
+        }
+    }
+
+    /**
+     *  Returns true if binary propagation headers may be sent to a peer.
+     *
+     *@param  peer  the peer id URI.
+     *@return       true if the peer has told us it accepts binary headers.
+     */
+    private boolean acceptsBinary(URI peer) {
+        synchronized (binaryPeers) {
+            return null != binaryPeers.get(peer);
+        }
     }
 
 
@@ -1727,6 +1853,13 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
     }
 
 
+    /**
+     *  {@inheritDoc}
+     */
+    public ModuleClassID[] getStartDependencies() {
+        return new ModuleClassID[] {PeerGroup.endpointClassID};
+    }
+
     /**
      *  {@inheritDoc}
      */
@@ -1827,7 +1960,15 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             eachListener.remove();
         }
         propListeners.clear();
-        timer.cancel();
+        synchronized (this) {
+            if (null != monitorTask) {
+                monitorTask.cancel();
+                monitorTask = null;
+            }
+        }
+        if (LOG.isEnabledFor(Level.INFO)) {
+            LOG.info("Duplicate message filter : " + msgIds);
+        }
         msgIds.clear();
         eventListeners.clear();
         if (LOG.isEnabledFor(Level.INFO)) {
@@ -1869,13 +2010,20 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
             }
         }
 
-        XMLDocument propHdrDoc = (XMLDocument) propHdr.getDocument(MimeMediaType.XMLUTF8);
-        MessageElement elem = new TextDocumentMessageElement(HEADER_NAME, propHdrDoc, null);
-
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug((newHeader ? "Added" : "Updated") + " prop header for " + msg + " (" + propHdr.getMsgId() + ") ttl=" + propHdr.getTTL());
         }
-        msg.replaceMessageElement(MESSAGE_NAMESPACE_NAME, elem);
+
+        // Written as XML; sendToEachConnection() re-encodes it for the peers
+        // which accept the binary form.
+        try {
+            ParsedElementCache.setElement(msg, MESSAGE_NAMESPACE_NAME, HEADER_NAME, propHdr, false);
+        } catch (IOException failed) {
+            IllegalStateException failure = new IllegalStateException("Could not set prop header of " + msg);
+
+            failure.initCause(failed);
+            throw failure;
+        }
         return propHdr;
     }
 
@@ -1946,7 +2094,16 @@ public class RendezVousServiceImpl implements RendezVousService, EndpointListene
      *  Checks leases, challenges when peer adv has changed, initiates lease
      *  renewals, starts new lease requests.
      */
-    private class MonitorTask extends TimerTask {
+    private class MonitorTask extends ScheduledTask {
+
+        /**
+         *  {@inheritDoc}
+         *
+         *  <p/>Lease requests and renewals are sent from here.
+         */
+        protected boolean mayBlock() {
+            return true;
+        }
 
         /**
          *@inheritDoc
@@ -56,11 +56,11 @@ package net.jxta.impl.resolver;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.net.URI;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -87,6 +87,7 @@ import net.jxta.endpoint.MessageTransport;
 import net.jxta.endpoint.Messenger;
 import net.jxta.endpoint.OutgoingMessageEvent;
 import net.jxta.endpoint.OutgoingMessageEventListener;
+import net.jxta.endpoint.StringMessageElement;
 import net.jxta.endpoint.TextDocumentMessageElement;
 import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
@@ -94,6 +95,7 @@ import net.jxta.membership.MembershipService;
 import net.jxta.peer.PeerID;
 import net.jxta.peergroup.PeerGroup;
 import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
 import net.jxta.protocol.ModuleImplAdvertisement;
 import net.jxta.protocol.ResolverQueryMsg;
 import net.jxta.protocol.ResolverResponseMsg;
@@ -105,8 +107,10 @@ import net.jxta.resolver.ResolverService;
 import net.jxta.resolver.SrdiHandler;
 import net.jxta.service.Service;
 
+import net.jxta.impl.document.BinaryXMLDocument;
 import net.jxta.impl.endpoint.router.EndpointRouter;
 import net.jxta.impl.endpoint.router.RouteControl;
+import net.jxta.impl.peergroup.ModuleDependencies;
 import net.jxta.impl.protocol.ResolverQuery;
 import net.jxta.impl.protocol.ResolverResponse;
 import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
@@ -118,7 +122,7 @@ import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
  * @see net.jxta.resolver.ResolverService
  * @see <a href="http://spec.jxta.org/v1.0/docbook/JXTAProtocols.html#proto-erp">JXTA Protocols Specification : Endpoint Resolver Protocol</a>
  */
-public class ResolverServiceImpl implements ResolverService {
+public class ResolverServiceImpl implements ResolverService, ModuleDependencies {
 
     /**
      *  Log4J Logger
@@ -145,6 +149,18 @@ public class ResolverServiceImpl implements ResolverService {
      */
     private final static MimeMediaType GZIP_MEDIA_TYPE = new MimeMediaType("application/gzip").intern();
 
+    /**
+     *  Name of the message element with which a querying peer lists the
+     *  document encodings, other than XML, it accepts for its responses.
+     */
+    public final static String acceptElementName = "ResolverAccept";
+
+    /**
+     *  The maximum number of peers for which we remember the accepted
+     *  encodings.
+     */
+    private final static int MAX_ACCEPTING_PEERS = 1024;
+
     private String outQueName = outQueNameShort;
     private String inQueName = inQueNameShort;
     private String srdiQueName = srdiQueNameShort;
@@ -161,6 +177,16 @@ public class ResolverServiceImpl implements ResolverService {
     private final Map handlers = Collections.synchronizedMap(new HashMap(5));
     private final Map srdiHandlers = Collections.synchronizedMap(new HashMap(5));
 
+    /**
+     *  The peers which have told us that they accept binary encoded resolver
+     *  messages, least recently heard from first. Other peers are sent XML.
+     */
+    private final Map binaryPeers = new LinkedHashMap(16, 0.75f, true) {
+                                        protected boolean removeEldestEntry(Map.Entry eldest) {
+                                            return size() > MAX_ACCEPTING_PEERS;
+                                        }
+                                    };
+
     private Credential credential = null;
     private StructuredDocument credentialDoc = null;
 
@@ -227,6 +253,13 @@ public class ResolverServiceImpl implements ResolverService {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ModuleClassID[] getStartDependencies() {
+        return new ModuleClassID[] {PeerGroup.endpointClassID, PeerGroup.rendezvousClassID};
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -441,6 +474,26 @@ public class ResolverServiceImpl implements ResolverService {
      * {@inheritDoc}
      */
     public void sendQuery(String destPeer, ResolverQueryMsg query) {
+        ID dest = null;
+
+        if (null != destPeer) {
+            try {
+                dest = IDFactory.fromURN(destPeer);
+            } catch (URISyntaxException badpeer) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Failure while unicasting query, bad destination peerid : " + destPeer, badpeer);
+                }
+                return;
+            }
+        }
+
+        sendQuery(dest, query);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sendQuery(ID destPeer, ResolverQueryMsg query) {
 
         if (LOG.isEnabledFor(Level.DEBUG)) {
             LOG.debug("sending query to resolver handler: " + query.getHandlerName());
@@ -485,6 +538,10 @@ public class ResolverServiceImpl implements ResolverService {
                 MessageElement docElem = new TextDocumentMessageElement(outQueName, asDoc, null);
 
                 queryMsg.addMessageElement("jxta", docElem);
+                queryMsg.addMessageElement("jxta", newAcceptElement());
+
+                // stopApp() may clear the field at any time.
+                RendezVousService rendezvous = this.rendezvous;
 
                 if(null != rendezvous) {
                     // Walk the message
@@ -503,7 +560,7 @@ public class ResolverServiceImpl implements ResolverService {
         } else {
             // unicast instead
             try {
-                boolean success = sendMessage(destPeer, handlerName, outQueName, outQueName, (XMLDocument) query.getDocument(MimeMediaType.XMLUTF8),
+                boolean success = sendMessage(destPeer, handlerName, outQueName, outQueName, (XMLDocument) query.getDocument(encodingFor(destPeer)),
                                               false);
             } catch (IOException e) {
                 if (LOG.isEnabledFor(Level.WARN)) {
@@ -546,11 +603,13 @@ public class ResolverServiceImpl implements ResolverService {
                     }
                 }
 
-                boolean success = sendMessage(destPeer,
+                ID dest = IDFactory.fromURN(destPeer);
+
+                boolean success = sendMessage(dest,
                                               handlerName,
                                               inQueName,
                                               inQueName,
-                                              (XMLDocument) response.getDocument(MimeMediaType.XMLUTF8),
+                                              (XMLDocument) response.getDocument(encodingFor(dest)),
                                               false);
             } catch (Exception e) {
                 if (LOG.isEnabledFor(Level.WARN)) {
@@ -564,8 +623,30 @@ public class ResolverServiceImpl implements ResolverService {
      * {@inheritDoc}
      */
     public void sendSrdi(String destPeer, ResolverSrdiMsg srdi) {
+        ID dest = null;
+
+        if (null != destPeer) {
+            try {
+                dest = IDFactory.fromURN(destPeer);
+            } catch (URISyntaxException badpeer) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Error in sending srdi message, bad destination peerid : " + destPeer, badpeer);
+                }
+                return;
+            }
+        }
+
+        sendSrdi(dest, srdi);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void sendSrdi(ID destPeer, ResolverSrdiMsg srdi) {
         String srdiHandlerName = srdi.getHandlerName();
         if (destPeer == null) {
+            RendezVousService rendezvous = this.rendezvous;
+
             if (rendezvous == null) {
                 return;
             }
@@ -633,6 +714,8 @@ public class ResolverServiceImpl implements ResolverService {
         // below is just a default it will be reduced appropriately.
 
         try {
+            RendezVousService rendezvous = this.rendezvous;
+
             if (null != rendezvous) {
                 rendezvous.walk(msg, handlerName, outQueName, RendezVousService.DEFAULT_TTL);
                 // propagate to local net as well
@@ -804,6 +887,57 @@ public class ResolverServiceImpl implements ResolverService {
     }
 
 
+    /**
+     *  Returns the message element with which we tell the peers answering
+     *  our queries which encodings we accept.
+     */
+    private static MessageElement newAcceptElement() {
+        return new StringMessageElement(acceptElementName, BinaryXMLDocument.MIMETYPE.getMimeMediaType(), null);
+    }
+
+    /**
+     *  Remember whether the originator of a query accepts binary encoded
+     *  resolver messages.
+     *
+     *  @param message The message which contained the query.
+     *  @param query The query.
+     */
+    private void noteAccepted(Message message, ResolverQueryMsg query) {
+        String src = query.getSrc();
+
+        if (null == src) {
+            return;
+        }
+
+        MessageElement accept = message.getMessageElement("jxta", acceptElementName);
+        boolean binary = (null != accept) && (-1 != accept.toString().indexOf(BinaryXMLDocument.MIMETYPE.getMimeMediaType()));
+
+        synchronized (binaryPeers) {
+            if (binary) {
+                binaryPeers.put(src, Boolean.TRUE);
+            } else {
+                binaryPeers.remove(src);
+            }
+        }
+    }
+
+    /**
+     *  Returns the encoding to use for resolver messages sent to a peer. XML
+     *  unless the peer has told us it accepts binary encoded messages.
+     *
+     *  @param dest The destination peer.
+     *  @return The mime type of the encoding to use.
+     */
+    private MimeMediaType encodingFor(ID dest) {
+        synchronized (binaryPeers) {
+            if (null != binaryPeers.get(dest.toString())) {
+                return BinaryXMLDocument.MIMETYPE;
+            }
+        }
+
+        return MimeMediaType.XMLUTF8;
+    }
+
     /**
      * Send a resolver message to a peer
      *
@@ -814,7 +948,7 @@ public class ResolverServiceImpl implements ResolverService {
      * @param  response the body of the message element
      * @param  gzip If <code>true</code> then encode the message body using gzip.
      */
-    private boolean sendMessage(String destPeer,
+    private boolean sendMessage(ID dest,
                                 String pName,
                                 String pParam,
                                 String tagName,
@@ -822,15 +956,6 @@ public class ResolverServiceImpl implements ResolverService {
                                 boolean gzip) throws IOException {
 
         // Get the messenger ready
-        ID dest;
-        try {
-            dest = IDFactory.fromURI(new URI(destPeer));
-        } catch (URISyntaxException badpeer) {
-            IOException failure = new IOException("bad destination peerid");
-            failure.initCause(badpeer);
-            throw failure;
-        }
-
         EndpointAddress destAddress = mkAddress(dest, pName, pParam);
 
         // FIXME add route to responses as well
@@ -847,10 +972,18 @@ public class ResolverServiceImpl implements ResolverService {
                 gos.finish();
                 gos.close();
                 msgEl = new ByteArrayMessageElement(tagName, GZIP_MEDIA_TYPE, baos.toByteArray(), null);
+            } else if (BinaryXMLDocument.MIMETYPE.equals(response.getMimeType())) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                response.sendToStream(baos);
+                msgEl = new ByteArrayMessageElement(tagName, BinaryXMLDocument.MIMETYPE, baos.toByteArray(), null);
             } else {
                 msgEl = new TextDocumentMessageElement(tagName, response, null);
             }
             msg.addMessageElement("jxta", msgEl);
+
+            if (outQueName.equals(tagName)) {
+                msg.addMessageElement("jxta", newAcceptElement());
+            }
         } catch (Exception ez1) {
             // Not much we can do
             if (LOG.isEnabledFor(Level.ERROR)) {
@@ -913,6 +1046,8 @@ public class ResolverServiceImpl implements ResolverService {
                 return;
             }
 
+            noteAccepted(message, query);
+
             int res = processQuery(query, srcAddr);
 
             if (ResolverService.Repropagate == res) {
@@ -0,0 +1,267 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *  A pool of byte arrays. Arrays are pooled in power of two size classes and
+ *  the total size of the idle arrays held by the pool is bounded.
+ *
+ *  <p/>An array may be returned to the pool either explicitly with
+ *  {@link #release(byte[])}, when the caller knows that nobody else refers to
+ *  it, or implicitly by taking a {@link #lease(byte[]) lease}. A leased array
+ *  returns to the pool once the lease object has become unreachable. Objects
+ *  which share the array, for example message elements which are slices of
+ *  it, keep a reference to the lease for as long as they use the array.
+ */
+public final class BufferPool {
+
+    /**
+     *  The smallest size class. Requests for smaller arrays are rounded up.
+     */
+    private static final int MIN_SHIFT = 10;
+
+    /**
+     *  Maximum size of the arrays which are pooled.
+     */
+    private final int maxBufferSize;
+
+    /**
+     *  Maximum total size of the idle arrays held by the pool.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     *  The idle arrays, one list per size class.
+     */
+    private final List[] idle;
+
+    /**
+     *  Total size of the idle arrays.
+     */
+    private long pooledBytes = 0;
+
+    /**
+     *  Outstanding leases. Keeps the references reachable until they have been
+     *  enqueued.
+     */
+    private final Set leases = new HashSet();
+
+    /**
+     *  Receives the leases which have become unreachable.
+     */
+    private final ReferenceQueue reclaimed = new ReferenceQueue();
+
+    /**
+     *  Creates a new pool.
+     *
+     *  @param maxBufferSize the size of the largest array which will be
+     *  pooled. Larger arrays are allocated but never retained.
+     *  @param maxPooledBytes the maximum total size of the idle arrays held.
+     */
+    public BufferPool(int maxBufferSize, long maxPooledBytes) {
+        int classes = 1;
+
+        while ((classes < 31 - MIN_SHIFT) && ((1 << (MIN_SHIFT + classes - 1)) < maxBufferSize)) {
+            classes++;
+        }
+
+        this.maxBufferSize = 1 << (MIN_SHIFT + classes - 1);
+        this.maxPooledBytes = maxPooledBytes;
+
+        idle = new List[classes];
+        for (int eachClass = 0; eachClass < classes; eachClass++) {
+            idle[eachClass] = new ArrayList();
+        }
+    }
+
+    /**
+     *  Returns an array of at least the requested size. The array may be
+     *  larger than requested and its contents are undefined.
+     *
+     *  @param size the minimum size of the array.
+     *  @return an array of at least <code>size</code> bytes.
+     */
+    public byte[] acquire(int size) {
+        if (size > maxBufferSize) {
+            return new byte[size];
+        }
+
+        int sizeClass = sizeClass(size);
+
+        synchronized (this) {
+            reclaim();
+
+            List available = idle[sizeClass];
+
+            if (!available.isEmpty()) {
+                byte[] buffer = (byte[]) available.remove(available.size() - 1);
+
+                pooledBytes -= buffer.length;
+                return buffer;
+            }
+        }
+
+        return new byte[1 << (MIN_SHIFT + sizeClass)];
+    }
+
+    /**
+     *  Return an array to the pool. The caller must not use the array, nor
+     *  allow it to be used, after releasing it.
+     *
+     *  @param buffer the array to return.
+     */
+    public synchronized void release(byte[] buffer) {
+        reclaim();
+        pool(buffer);
+    }
+
+    /**
+     *  Returns a lease for the array. The array will be returned to the pool
+     *  once the lease has become unreachable. Everything which uses the array
+     *  must therefore keep a reference to the lease.
+     *
+     *  @param buffer the array.
+     *  @return the lease.
+     */
+    public Object lease(byte[] buffer) {
+        Object lease = new Object();
+
+        if (!isPoolable(buffer)) {
+            return lease;
+        }
+
+        synchronized (this) {
+            reclaim();
+            leases.add(new Lease(lease, buffer, reclaimed));
+        }
+
+        return lease;
+    }
+
+    /**
+     *  Returns the total size of the idle arrays held by the pool.
+     *
+     *  @return the total size of the idle arrays held by the pool.
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     *  Return the arrays of the leases which have become unreachable.
+     */
+    private void reclaim() {
+        Reference ref;
+
+        while (null != (ref = reclaimed.poll())) {
+            Lease lease = (Lease) ref;
+
+            leases.remove(lease);
+            pool(lease.buffer);
+        }
+    }
+
+    private void pool(byte[] buffer) {
+        if (!isPoolable(buffer) || ((pooledBytes + buffer.length) > maxPooledBytes)) {
+            return;
+        }
+
+        idle[sizeClass(buffer.length)].add(buffer);
+        pooledBytes += buffer.length;
+    }
+
+    /**
+     *  Only arrays with the exact size of a size class are pooled.
+     */
+    private boolean isPoolable(byte[] buffer) {
+        int length = buffer.length;
+
+        return (length <= maxBufferSize) && (length >= (1 << MIN_SHIFT)) && (0 == (length & (length - 1)));
+    }
+
+    private static int sizeClass(int size) {
+        int sizeClass = 0;
+
+        while ((1 << (MIN_SHIFT + sizeClass)) < size) {
+            sizeClass++;
+        }
+
+        return sizeClass;
+    }
+
+    /**
+     *  Associates a leased array with its lease.
+     */
+    private static class Lease extends WeakReference {
+
+        final byte[] buffer;
+
+        Lease(Object lease, byte[] buffer, ReferenceQueue queue) {
+            super(lease, queue);
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+/**
+ *  A simple read/write lock. Any number of readers may hold the lock at the
+ *  same time, writers have exclusive access. Waiting writers have priority
+ *  over new readers so that a steady flow of readers cannot starve them.
+ *
+ *  <p/>The lock is not reentrant. A thread holding the read lock must not
+ *  attempt to acquire either lock again before releasing it.
+ *
+ *  <p/>Acquiring the lock is not interruptible. If the waiting thread is
+ *  interrupted the interrupt status is restored once the lock is held.
+ */
+public class ReadWriteLock {
+
+    /**
+     *  Number of threads holding the read lock.
+     */
+    private int readers = 0;
+
+    /**
+     *  If true then a writer holds the lock.
+     */
+    private boolean writing = false;
+
+    /**
+     *  Number of writers waiting for the lock.
+     */
+    private int waitingWriters = 0;
+
+    /**
+     *  Acquire the read lock.
+     */
+    public synchronized void readLock() {
+        boolean interrupted = false;
+
+        while (writing || (waitingWriters > 0)) {
+            try {
+                wait();
+            } catch (InterruptedException woken) {
+                interrupted = true;
+            }
+        }
+
+        readers++;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     *  Release the read lock.
+     */
+    public synchronized void readUnlock() {
+        if (readers <= 0) {
+            throw new IllegalStateException("Read lock is not held");
+        }
+
+        readers--;
+
+        if (0 == readers) {
+            notifyAll();
+        }
+    }
+
+    /**
+     *  Acquire the write lock.
+     */
+    public synchronized void writeLock() {
+        boolean interrupted = false;
+
+        waitingWriters++;
+
+        try {
+            while (writing || (readers > 0)) {
+                try {
+                    wait();
+                } catch (InterruptedException woken) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            waitingWriters--;
+        }
+
+        writing = true;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     *  Release the write lock.
+     */
+    public synchronized void writeUnlock() {
+        if (!writing) {
+            throw new IllegalStateException("Write lock is not held");
+        }
+
+        writing = false;
+        notifyAll();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+
+/**
+ *  A task which may be scheduled for one time or repeated execution by a
+ *  {@link TimingWheel}. The counterpart of {@link java.util.TimerTask}; unlike
+ *  with <code>java.util.Timer</code> a cancelled task is removed from its
+ *  wheel immediately rather than being retained until it would have run.
+ *
+ *  <p/>A task may be scheduled only once.
+ *
+ *  <p/>A wheel runs its tasks on a few shared worker threads, so a task must
+ *  not block, for example on network I/O or on a lock held during I/O. A task
+ *  which may block must say so by overriding {@link #mayBlock()}; the wheel
+ *  then runs it on a separate set of threads.
+ */
+public abstract class ScheduledTask implements Runnable {
+
+    /**
+     *  The task has not been scheduled.
+     */
+    static final int VIRGIN = 0;
+
+    /**
+     *  The task is scheduled. For a repeating task this remains the state
+     *  between executions.
+     */
+    static final int SCHEDULED = 1;
+
+    /**
+     *  A one time task which has run or is running.
+     */
+    static final int EXECUTED = 2;
+
+    /**
+     *  The task was cancelled.
+     */
+    static final int CANCELLED = 3;
+
+    /**
+     *  Guards the state of the task. When both are needed this lock is always
+     *  acquired before the lock of the wheel.
+     */
+    final Object lock = new Object();
+
+    /**
+     *  The state of the task. Guarded by {@link #lock}.
+     */
+    int state = VIRGIN;
+
+    /**
+     *  The wheel on which the task was scheduled. Guarded by {@link #lock}.
+     */
+    TimingWheel wheel = null;
+
+    /**
+     *  The period in milliseconds of a repeating task, <code>0</code> for a
+     *  one time task. Guarded by {@link #lock}.
+     */
+    long period = 0;
+
+    /**
+     *  If <code>true</code> then the task repeats at a fixed rate otherwise
+     *  the period is measured from the end of each execution. Guarded by
+     *  {@link #lock}.
+     */
+    boolean fixedRate = false;
+
+    /**
+     *  The time in absolute milliseconds of the next execution. Guarded by
+     *  {@link #lock}.
+     */
+    long nextExecutionTime = 0;
+
+    /**
+     *  The time in absolute milliseconds for which the most recent execution
+     *  was scheduled. Guarded by {@link #lock}.
+     */
+    long lastExecutionTime = 0;
+
+    /**
+     *  The slot of the wheel holding the task, <code>-1</code> if the task is
+     *  not on the wheel. Guarded by the lock of the wheel.
+     */
+    int slot = -1;
+
+    /**
+     *  Number of complete turns of the wheel before the task expires. Guarded
+     *  by the lock of the wheel.
+     */
+    int rounds = 0;
+
+    /**
+     *  Links of the slot list. Guarded by the lock of the wheel.
+     */
+    ScheduledTask prev = null;
+    ScheduledTask next = null;
+
+    /**
+     *  Creates a new task.
+     */
+    protected ScheduledTask() {
+    }
+
+    /**
+     *  The action to be performed by the task.
+     */
+    public abstract void run();
+
+    /**
+     *  Returns <code>true</code> if the task may block. Such tasks are not run
+     *  by the workers which run the other tasks of the wheel.
+     *
+     *  @return <code>true</code> if the task may block, <code>false</code>
+     *  by default.
+     */
+    protected boolean mayBlock() {
+        return false;
+    }
+
+    /**
+     *  Cancels the task. A one time task which has not yet run will never run.
+     *  A repeating task will not run again. The task is removed from its wheel
+     *  immediately.
+     *
+     *  @return <code>true</code> if the cancellation prevented one or more
+     *  executions of the task.
+     */
+    public boolean cancel() {
+        synchronized (lock) {
+            boolean result = (SCHEDULED == state);
+
+            state = CANCELLED;
+
+            if (null != wheel) {
+                wheel.remove(this);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     *  Returns the time in absolute milliseconds at which the most recent
+     *  execution of the task was scheduled to run.
+     *
+     *  @return the scheduled time of the most recent execution or
+     *  <code>0</code> if the task has not yet run.
+     */
+    public long scheduledExecutionTime() {
+        synchronized (lock) {
+            return lastExecutionTime;
+        }
+    }
+}
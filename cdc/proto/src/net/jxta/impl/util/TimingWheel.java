@@ -0,0 +1,784 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ *  A scheduler for {@link ScheduledTask}s based upon a hashed timing wheel.
+ *  Intended as a replacement for <code>java.util.Timer</code> which may be
+ *  shared by all of the services of all of the peer groups of a peer.
+ *
+ *  <p/>Time is divided into ticks. The wheel is a ring of slots, one per
+ *  tick, each holding a list of the tasks which expire on that tick; tasks
+ *  further away than one turn of the wheel also record how many turns
+ *  remain. Scheduling and cancelling a task are both constant time and a
+ *  cancelled task is released immediately. Tasks never run before their
+ *  scheduled time but may run up to one tick after it.
+ *
+ *  <p/>Expired tasks are run by a small pool of worker threads so that a
+ *  long running task does not delay every other task. A task which throws is
+ *  logged; the wheel keeps running.
+ *
+ *  <p/>Tasks run by the workers must not block: a handful of blocked tasks
+ *  would stop every other task of the wheel. Tasks which may block, see
+ *  {@link ScheduledTask#mayBlock()}, are run by a second pool of threads
+ *  which are started as needed, up to a limit, and exit once idle.
+ */
+public final class TimingWheel {
+
+    /**
+     *  Log4J Logger
+     */
+    private static final Logger LOG = Logger.getLogger(TimingWheel.class.getName());
+
+    /**
+     *  Default duration of a tick in milliseconds.
+     */
+    private static final long DEFAULT_TICK = 100L * TimeUtils.AMILLISECOND;
+
+    /**
+     *  Default number of slots.
+     */
+    private static final int DEFAULT_SLOTS = 512;
+
+    /**
+     *  Default number of worker threads.
+     */
+    private static final int DEFAULT_WORKERS = 2;
+
+    /**
+     *  Default maximum number of threads running tasks which may block.
+     */
+    private static final int DEFAULT_BLOCKING_WORKERS = 8;
+
+    /**
+     *  Time in milliseconds after which an idle thread of the blocking pool
+     *  exits.
+     */
+    private static final long BLOCKING_WORKER_IDLE = 30L * TimeUtils.ASECOND;
+
+    /**
+     *  The wheel shared by the services of this peer.
+     */
+    private static TimingWheel sharedWheel = null;
+
+    /**
+     *  The name of the wheel, used to name its threads.
+     */
+    private final String name;
+
+    /**
+     *  The duration of a tick in milliseconds.
+     */
+    private final long tick;
+
+    /**
+     *  The slots. Each is the head of a list of tasks.
+     */
+    private final ScheduledTask[] slots;
+
+    /**
+     *  <code>slots.length - 1</code>.
+     */
+    private final int mask;
+
+    /**
+     *  The slot most recently processed.
+     */
+    private int cursor = 0;
+
+    /**
+     *  The time in absolute milliseconds at which the slot following
+     *  {@link #cursor} is due.
+     */
+    private long nextTick;
+
+    /**
+     *  If <code>true</code> the tick thread is waiting for a task to be
+     *  scheduled rather than for the next tick.
+     */
+    private boolean idle = false;
+
+    /**
+     *  Number of tasks on the wheel.
+     */
+    private int scheduledCount = 0;
+
+    /**
+     *  Number of task executions.
+     */
+    private long executedCount = 0;
+
+    /**
+     *  Expired tasks waiting for a worker.
+     */
+    private final LinkedList ready = new LinkedList();
+
+    /**
+     *  Expired tasks which may block, waiting for a thread of the blocking
+     *  pool.
+     */
+    private final LinkedList blockingReady = new LinkedList();
+
+    /**
+     *  The number of worker threads.
+     */
+    private final int workers;
+
+    /**
+     *  The maximum number of threads running tasks which may block.
+     */
+    private final int maxBlockingWorkers;
+
+    /**
+     *  Threads running tasks which may block. Guarded by
+     *  {@link #blockingReady}.
+     */
+    private int blockingWorkers = 0;
+
+    /**
+     *  Threads of the blocking pool waiting for a task. Guarded by
+     *  {@link #blockingReady}.
+     */
+    private int idleBlockingWorkers = 0;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     *  Returns the wheel shared by all of the services of the peer. The wheel
+     *  is created with the first call and is never cancelled.
+     *
+     *  <p/>The shared wheel may be tuned with the system properties
+     *  <code>net.jxta.impl.util.TimingWheel.tick</code> (milliseconds),
+     *  <code>net.jxta.impl.util.TimingWheel.slots</code>,
+     *  <code>net.jxta.impl.util.TimingWheel.workers</code> and
+     *  <code>net.jxta.impl.util.TimingWheel.blockingWorkers</code>.
+     *
+     *  @return the shared wheel.
+     */
+    public static synchronized TimingWheel getSharedInstance() {
+        if (null == sharedWheel) {
+            long tick = DEFAULT_TICK;
+            int slots = DEFAULT_SLOTS;
+            int workers = DEFAULT_WORKERS;
+            int blockingWorkers = DEFAULT_BLOCKING_WORKERS;
+
+            try {
+                String tickStr = System.getProperty("net.jxta.impl.util.TimingWheel.tick");
+
+                if (null != tickStr) {
+                    tick = Long.parseLong(tickStr.trim());
+                }
+
+                String slotsStr = System.getProperty("net.jxta.impl.util.TimingWheel.slots");
+
+                if (null != slotsStr) {
+                    slots = Integer.parseInt(slotsStr.trim());
+                }
+
+                String workersStr = System.getProperty("net.jxta.impl.util.TimingWheel.workers");
+
+                if (null != workersStr) {
+                    workers = Integer.parseInt(workersStr.trim());
+                }
+
+                String blockingStr = System.getProperty("net.jxta.impl.util.TimingWheel.blockingWorkers");
+
+                if (null != blockingStr) {
+                    blockingWorkers = Integer.parseInt(blockingStr.trim());
+                }
+
+                if ((tick <= 0) || (slots <= 0) || (workers <= 0) || (blockingWorkers <= 0)) {
+                    throw new IllegalArgumentException("Timing wheel parameters must be > 0");
+                }
+            } catch (Exception e) {
+                if (LOG.isEnabledFor(Level.WARN)) {
+                    LOG.warn("Could not parse timing wheel system properties, using defaults", e);
+                }
+
+                tick = DEFAULT_TICK;
+                slots = DEFAULT_SLOTS;
+                workers = DEFAULT_WORKERS;
+                blockingWorkers = DEFAULT_BLOCKING_WORKERS;
+            }
+
+            sharedWheel = new TimingWheel("JXTA Timing Wheel", tick, slots, workers, blockingWorkers);
+        }
+
+        return sharedWheel;
+    }
+
+    /**
+     *  Creates a new wheel and starts its threads. The threads are daemon
+     *  threads.
+     *
+     *  @param name the name of the wheel, used to name its threads.
+     *  @param tick the duration of a tick in milliseconds.
+     *  @param slots the number of slots, rounded up to a power of two.
+     *  @param workers the number of threads which run expired tasks.
+     */
+    public TimingWheel(String name, long tick, int slots, int workers) {
+        this(name, tick, slots, workers, DEFAULT_BLOCKING_WORKERS);
+    }
+
+    /**
+     *  Creates a new wheel and starts its threads. The threads are daemon
+     *  threads.
+     *
+     *  @param name the name of the wheel, used to name its threads.
+     *  @param tick the duration of a tick in milliseconds.
+     *  @param slots the number of slots, rounded up to a power of two.
+     *  @param workers the number of threads which run expired tasks.
+     *  @param blockingWorkers the maximum number of threads which run expired
+     *  tasks which may block.
+     */
+    public TimingWheel(String name, long tick, int slots, int workers, int blockingWorkers) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("tick must be > 0");
+        }
+
+        if ((slots <= 0) || (slots > (1 << 20))) {
+            throw new IllegalArgumentException("slots must be > 0 and <= 2^20");
+        }
+
+        if ((workers <= 0) || (blockingWorkers <= 0)) {
+            throw new IllegalArgumentException("workers must be > 0");
+        }
+
+        int size = 1;
+
+        while (size < slots) {
+            size <<= 1;
+        }
+
+        this.name = name;
+        this.tick = tick;
+        this.slots = new ScheduledTask[size];
+        this.mask = size - 1;
+        this.workers = workers;
+        this.maxBlockingWorkers = blockingWorkers;
+        this.nextTick = TimeUtils.toAbsoluteTimeMillis(tick);
+
+        Thread ticker = new Thread(new Ticker(), name + " Tick");
+
+        ticker.setDaemon(true);
+        ticker.start();
+
+        for (int each = 0; each < workers; each++) {
+            Thread worker = new Thread(new Worker(), name + " Worker #" + each);
+
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     *  Schedules a task for one time execution after the specified delay.
+     *
+     *  @param task the task.
+     *  @param delay the delay in milliseconds.
+     *  @throws IllegalStateException if the task was already scheduled or
+     *  cancelled or if the wheel was cancelled.
+     */
+    public void schedule(ScheduledTask task, long delay) {
+        schedule(task, delay, 0, false);
+    }
+
+    /**
+     *  Schedules a task for repeated execution. Each execution is scheduled
+     *  <code>period</code> milliseconds after the end of the previous one.
+     *
+     *  @param task the task.
+     *  @param delay the delay in milliseconds before the first execution.
+     *  @param period the period in milliseconds between executions.
+     *  @throws IllegalStateException if the task was already scheduled or
+     *  cancelled or if the wheel was cancelled.
+     */
+    public void schedule(ScheduledTask task, long delay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Non-positive period.");
+        }
+
+        schedule(task, delay, period, false);
+    }
+
+    /**
+     *  Schedules a task for repeated execution. Each execution is scheduled
+     *  <code>period</code> milliseconds after the scheduled time of the
+     *  previous one.
+     *
+     *  @param task the task.
+     *  @param delay the delay in milliseconds before the first execution.
+     *  @param period the period in milliseconds between executions.
+     *  @throws IllegalStateException if the task was already scheduled or
+     *  cancelled or if the wheel was cancelled.
+     */
+    public void scheduleAtFixedRate(ScheduledTask task, long delay, long period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Non-positive period.");
+        }
+
+        schedule(task, delay, period, true);
+    }
+
+    /**
+     *  Cancels the wheel. Scheduled tasks are discarded, tasks which are
+     *  running are allowed to complete. The shared wheel may not be cancelled.
+     */
+    public void cancel() {
+        if (this == sharedWheel) {
+            throw new IllegalStateException("The shared timing wheel cannot be cancelled");
+        }
+
+        synchronized (this) {
+            cancelled = true;
+
+            for (int each = 0; each < slots.length; each++) {
+                slots[each] = null;
+            }
+
+            scheduledCount = 0;
+            notifyAll();
+        }
+
+        synchronized (ready) {
+            ready.clear();
+            ready.notifyAll();
+        }
+
+        synchronized (blockingReady) {
+            blockingReady.clear();
+            blockingReady.notifyAll();
+        }
+    }
+
+    /**
+     *  Returns the number of tasks waiting on the wheel.
+     *
+     *  @return the number of tasks waiting on the wheel.
+     */
+    public synchronized int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     *  Returns the number of task executions since the wheel was created.
+     *
+     *  @return the number of task executions.
+     */
+    public synchronized long getExecutedCount() {
+        return executedCount;
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    public String toString() {
+        return name + " [tick=" + tick + "ms slots=" + slots.length + " workers=" + workers + " blockingWorkers=" + maxBlockingWorkers + "]";
+    }
+
+    /**
+     *  Returns the number of threads currently in the pool which runs tasks
+     *  which may block.
+     *
+     *  @return the number of threads in the blocking pool.
+     */
+    public int getBlockingWorkerCount() {
+        synchronized (blockingReady) {
+            return blockingWorkers;
+        }
+    }
+
+    private void schedule(ScheduledTask task, long delay, long period, boolean fixedRate) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+
+        synchronized (task.lock) {
+            if (ScheduledTask.VIRGIN != task.state) {
+                throw new IllegalStateException("Task already scheduled or cancelled");
+            }
+
+            if (cancelled) {
+                throw new IllegalStateException("Timing wheel already cancelled.");
+            }
+
+            task.wheel = this;
+            task.period = period;
+            task.fixedRate = fixedRate;
+            task.nextExecutionTime = TimeUtils.toAbsoluteTimeMillis(delay);
+            task.state = ScheduledTask.SCHEDULED;
+
+            insert(task);
+        }
+    }
+
+    /**
+     *  Puts a task on the wheel for its next execution time. The caller holds
+     *  the lock of the task.
+     */
+    private synchronized void insert(ScheduledTask task) {
+        if (cancelled) {
+            return;
+        }
+
+        if (idle) {
+            // The cursor has not moved while idle; restart the ticks from now.
+            nextTick = TimeUtils.toAbsoluteTimeMillis(tick);
+            idle = false;
+            notifyAll();
+        }
+
+        // The number of ticks until the task is due, counting the next one.
+        long ahead = TimeUtils.toRelativeTimeMillis(task.nextExecutionTime, nextTick);
+        long ticks = (ahead <= 0) ? 1 : (ahead / tick) + ((0 == (ahead % tick)) ? 1 : 2);
+        int slot = (int) ((cursor + (ticks & mask)) & mask);
+
+        task.rounds = (int) Math.min(Integer.MAX_VALUE, (ticks - 1) / slots.length);
+        task.slot = slot;
+        task.prev = null;
+        task.next = slots[slot];
+
+        if (null != task.next) {
+            task.next.prev = task;
+        }
+
+        slots[slot] = task;
+        scheduledCount++;
+    }
+
+    /**
+     *  Removes a task from the wheel if it is on the wheel.
+     */
+    synchronized void remove(ScheduledTask task) {
+        if (cancelled || (-1 == task.slot)) {
+            return;
+        }
+
+        unlink(task);
+    }
+
+    private void unlink(ScheduledTask task) {
+        if (null != task.prev) {
+            task.prev.next = task.next;
+        } else {
+            slots[task.slot] = task.next;
+        }
+
+        if (null != task.next) {
+            task.next.prev = task.prev;
+        }
+
+        task.prev = null;
+        task.next = null;
+        task.slot = -1;
+        scheduledCount--;
+    }
+
+    /**
+     *  Runs a task which has expired and puts a repeating task back on the
+     *  wheel.
+     */
+    private void execute(ScheduledTask task) {
+        synchronized (task.lock) {
+            if (ScheduledTask.SCHEDULED != task.state) {
+                return;
+            }
+
+            task.lastExecutionTime = task.nextExecutionTime;
+
+            if (0 == task.period) {
+                task.state = ScheduledTask.EXECUTED;
+            }
+        }
+
+        synchronized (this) {
+            executedCount++;
+        }
+
+        try {
+            task.run();
+        } catch (Throwable all) {
+            if (LOG.isEnabledFor(Level.ERROR)) {
+                LOG.error("Uncaught Throwable in task " + task + " run by " + Thread.currentThread().getName(), all);
+            }
+        }
+
+        synchronized (task.lock) {
+            if ((ScheduledTask.SCHEDULED != task.state) || (0 == task.period)) {
+                return;
+            }
+
+            if (task.fixedRate) {
+                task.nextExecutionTime = task.lastExecutionTime + task.period;
+            } else {
+                task.nextExecutionTime = TimeUtils.toAbsoluteTimeMillis(task.period);
+            }
+
+            insert(task);
+        }
+    }
+
+    /**
+     *  Advances the wheel one slot per tick and hands the expired tasks to
+     *  the workers.
+     */
+    private class Ticker implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            List expired = new ArrayList();
+            List expiredBlocking = new ArrayList();
+
+            try {
+                while (true) {
+                    synchronized (TimingWheel.this) {
+                        while (true) {
+                            if (cancelled) {
+                                return;
+                            }
+
+                            if (0 == scheduledCount) {
+                                idle = true;
+                                TimingWheel.this.wait();
+                                continue;
+                            }
+
+                            long wait = TimeUtils.toRelativeTimeMillis(nextTick);
+
+                            if (wait <= 0) {
+                                break;
+                            }
+
+                            TimingWheel.this.wait(wait);
+                        }
+
+                        cursor = (cursor + 1) & mask;
+                        nextTick += tick;
+
+                        ScheduledTask each = slots[cursor];
+
+                        while (null != each) {
+                            ScheduledTask next = each.next;
+
+                            if (each.rounds > 0) {
+                                each.rounds--;
+                            } else {
+                                unlink(each);
+
+                                if (each.mayBlock()) {
+                                    expiredBlocking.add(each);
+                                } else {
+                                    expired.add(each);
+                                }
+                            }
+
+                            each = next;
+                        }
+                    }
+
+                    if (!expired.isEmpty()) {
+                        synchronized (ready) {
+                            ready.addAll(expired);
+                            ready.notifyAll();
+                        }
+
+                        expired.clear();
+                    }
+
+                    if (!expiredBlocking.isEmpty()) {
+                        runBlocking(expiredBlocking);
+                        expiredBlocking.clear();
+                    }
+                }
+            } catch (InterruptedException woken) {
+                Thread.interrupted();
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Hands expired tasks which may block to the blocking pool, starting
+     *  threads if there are not enough idle ones.
+     */
+    private void runBlocking(List tasks) {
+        synchronized (blockingReady) {
+            blockingReady.addAll(tasks);
+
+            int wanted = blockingReady.size() - idleBlockingWorkers;
+
+            while ((wanted > 0) && (blockingWorkers < maxBlockingWorkers)) {
+                Thread worker = new Thread(new BlockingWorker(), name + " Blocking Worker #" + blockingWorkers);
+
+                worker.setDaemon(true);
+                worker.start();
+                blockingWorkers++;
+                idleBlockingWorkers++;
+                wanted--;
+            }
+
+            blockingReady.notifyAll();
+        }
+    }
+
+    /**
+     *  Runs expired tasks.
+     */
+    private class Worker implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            try {
+                while (true) {
+                    ScheduledTask task;
+
+                    synchronized (ready) {
+                        while (ready.isEmpty()) {
+                            if (cancelled) {
+                                return;
+                            }
+
+                            ready.wait();
+                        }
+
+                        task = (ScheduledTask) ready.removeFirst();
+                    }
+
+                    execute(task);
+                }
+            } catch (InterruptedException woken) {
+                Thread.interrupted();
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+        }
+    }
+
+    /**
+     *  Runs expired tasks which may block. Exits once it has been idle for a
+     *  while.
+     */
+    private class BlockingWorker implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            try {
+                while (true) {
+                    ScheduledTask task;
+
+                    synchronized (blockingReady) {
+                        long idleUntil = TimeUtils.toAbsoluteTimeMillis(BLOCKING_WORKER_IDLE);
+
+                        while (blockingReady.isEmpty()) {
+                            long wait = TimeUtils.toRelativeTimeMillis(idleUntil);
+
+                            if (cancelled || (wait <= 0)) {
+                                idleBlockingWorkers--;
+                                blockingWorkers--;
+                                return;
+                            }
+
+                            blockingReady.wait(wait);
+                        }
+
+                        task = (ScheduledTask) blockingReady.removeFirst();
+                        idleBlockingWorkers--;
+                    }
+
+                    try {
+                        execute(task);
+                    } finally {
+                        synchronized (blockingReady) {
+                            idleBlockingWorkers++;
+                        }
+                    }
+                }
+            } catch (InterruptedException woken) {
+                Thread.interrupted();
+
+                synchronized (blockingReady) {
+                    idleBlockingWorkers--;
+                    blockingWorkers--;
+                }
+            } catch (Throwable all) {
+                if (LOG.isEnabledFor(Level.FATAL)) {
+                    LOG.fatal("Uncaught Throwable in thread :" + Thread.currentThread().getName(), all);
+                }
+            }
+        }
+    }
+}
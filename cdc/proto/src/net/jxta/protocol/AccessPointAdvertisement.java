@@ -111,6 +111,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *@param  address  An EndpointAddress
      */
     public void addEndpointAddress(EndpointAddress address) {
+        contentChanged();
         endpointAddresses.add(address.toString());
     }
 
@@ -120,6 +121,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *@param  address  EndpointAddress respresented as {@link java.lang.String}.
      */
     public void addEndpointAddress(String address) {
+        contentChanged();
         endpointAddresses.add(address);
     }
 
@@ -130,6 +132,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *      java.lang.String}.
      */
     public void addEndpointAddresses(List addresses) {
+        contentChanged();
         endpointAddresses.addAll(addresses);
     }
 
@@ -290,6 +293,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *      java.lang.String}.
      */
     public void removeEndpointAddresses(List addresses) {
+        contentChanged();
         endpointAddresses.removeAll(addresses);
     }
 
@@ -300,6 +304,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *      java.lang.String}.
      */
     public void setEndpointAddresses(Vector addresses) {
+        contentChanged();
         endpointAddresses = addresses;
     }
 
@@ -309,6 +314,7 @@ public abstract class AccessPointAdvertisement extends ExtendableAdvertisement i
      *@param  pid  The id of the peer.
      */
     public void setPeerID(PeerID pid) {
+        contentChanged();
         this.pid = pid;
         if (pid != null) {
             indexMap.put(PID_TAG, pid.toString());
@@ -124,6 +124,7 @@ public abstract class ConfigParams extends ExtendableAdvertisement {
      *  Increases the modification count of the
      **/
     protected synchronized int incModCount() {
+        contentChanged();
         return modCount++;
     }
     
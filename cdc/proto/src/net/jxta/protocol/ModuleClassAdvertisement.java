@@ -162,6 +162,7 @@ public abstract class ModuleClassAdvertisement extends ExtendableAdvertisement
      */
 
     public void setDescription(String description) {
+        contentChanged();
         this.description = description;
     }
 
@@ -172,6 +173,7 @@ public abstract class ModuleClassAdvertisement extends ExtendableAdvertisement
      */
 
     public void setModuleClassID(ModuleClassID id) {
+        contentChanged();
         this.id = id;
         if (id != null) {
             indexMap.put(idTag, id.toString());
@@ -187,6 +189,7 @@ public abstract class ModuleClassAdvertisement extends ExtendableAdvertisement
      */
 
     public void setName(String name) {
+        contentChanged();
         this.name = name;
         if (name != null) {
             indexMap.put(nameTag, name);
@@ -274,6 +274,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  code  reference to the code
      */
     public void setCode(String code) {
+        contentChanged();
         this.code = code;
     }
 
@@ -283,6 +284,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  compat  Element of an unspecified content.
      */
     public void setCompat(Element compat) {
+        contentChanged();
         this.compat = (compat == null ? null : StructuredDocumentUtils.copyAsDocument(compat));
     }
 
@@ -292,6 +294,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  description  the description
      */
     public void setDescription(String description) {
+        contentChanged();
         this.description = description;
     }
 
@@ -301,6 +304,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  sid  The id of the spec
      */
     public void setModuleSpecID(ModuleSpecID sid) {
+        contentChanged();
         this.sid = sid;
         if (sid != null) {
             indexMap.put(msidTag, sid.toString());
@@ -315,6 +319,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  param  Element of an unspecified content.
      */
     public void setParam(Element param) {
+        contentChanged();
         this.param = (param == null ? null : StructuredDocumentUtils.copyAsDocument(param));
     }
 
@@ -324,6 +329,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  provider  the provider
      */
     public void setProvider(String provider) {
+        contentChanged();
         this.provider = provider;
     }
 
@@ -333,6 +339,7 @@ public abstract class ModuleImplAdvertisement extends ExtendableAdvertisement im
      *@param  uri  string uri
      */
     public void setUri(String uri) {
+        contentChanged();
         this.uri = uri;
     }
 }
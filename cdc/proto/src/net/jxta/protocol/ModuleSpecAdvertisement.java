@@ -306,6 +306,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setAuthSpecID(ModuleSpecID authSpecID) {
+        contentChanged();
         this.authSpecID = authSpecID;
     }
 
@@ -317,6 +318,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setCreator(String creator) {
+        contentChanged();
         this.creator = creator;
     }
 
@@ -327,6 +329,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setDescription(String description) {
+        contentChanged();
         this.description = description;
     }
 
@@ -337,6 +340,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setModuleSpecID(ModuleSpecID id) {
+        contentChanged();
         this.id = id;
         if (id != null) {
             indexMap.put(idTag, id.toString());
@@ -352,6 +356,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setName(String name) {
+        contentChanged();
         this.name = name;
         if (name != null) {
             indexMap.put(nameTag, name);
@@ -367,6 +372,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setParam(Element param) {
+        contentChanged();
         this.param = (param == null ? null : StructuredDocumentUtils.copyAsDocument(param));
     }
 
@@ -377,6 +383,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setPipeAdvertisement(PipeAdvertisement pipeAdv) {
+        contentChanged();
         this.pipeAdv = (pipeAdv == null ? null : (PipeAdvertisement) pipeAdv.clone());
     }
 
@@ -387,6 +394,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setProxySpecID(ModuleSpecID proxySpecID) {
+        contentChanged();
         this.proxySpecID = proxySpecID;
     }
 
@@ -397,6 +405,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setSpecURI(String uri) {
+        contentChanged();
         this.uri = uri;
     }
 
@@ -407,6 +416,7 @@ public abstract class ModuleSpecAdvertisement extends ExtendableAdvertisement
      */
 
     public void setVersion(String version) {
+        contentChanged();
         this.version = version;
     }
 }
@@ -383,6 +383,7 @@ public abstract class PeerAdvertisement extends ExtendableAdvertisement implemen
                     "\n\t" + elements[2]);
         }
 
+        contentChanged();
         return modCount++;
     }
 
@@ -154,6 +154,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      */
 
     public void setName(String name) {
+        contentChanged();
         this.name = name;
         if (name != null) {
             indexMap.put(nameTag, name);
@@ -183,6 +184,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      */
 
     public void setModuleSpecID(ModuleSpecID sid) {
+        contentChanged();
         this.specId = sid;
     }
 
@@ -205,6 +207,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      */
 
     public void setPeerGroupID(PeerGroupID gid) {
+        contentChanged();
         this.gid = gid;
         if (gid != null) {
             indexMap.put(gidTag, gid.toString());
@@ -242,6 +245,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      */
 
     public void setDescription(String description) {
+        contentChanged();
         this.description = description;
         if (description != null) {
             indexMap.put(descTag, description);
@@ -261,6 +265,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      *
      */
     public void setServiceParams(Hashtable params) {
+        contentChanged();
         if (params == null) {
             serviceParams = new Hashtable();
             return;
@@ -316,6 +321,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      *
      */
     public void putServiceParam(ID key, Element param) {
+        contentChanged();
         if (param == null) {
             serviceParams.remove(key);
             return;
@@ -356,6 +362,7 @@ public abstract class PeerGroupAdvertisement extends ExtendableAdvertisement
      *
      */
     public StructuredDocument removeServiceParam(ID key) {
+        contentChanged();
         Element param = (Element) serviceParams.remove(key);
         if (param == null) return null;
 
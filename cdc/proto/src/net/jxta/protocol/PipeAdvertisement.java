@@ -223,6 +223,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement {
      *@param  desc  the description
      */
     public void setDesc(Element desc) {
+        contentChanged();
 
         if (null != desc) {
             this.description = StructuredDocumentUtils.copyAsDocument(desc);
@@ -237,6 +238,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement {
      *@param  description  the description
      */
     public void setDescription(String description) {
+        contentChanged();
 
         if (null != description) {
             StructuredDocument newdoc = StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, "Desc", description);
@@ -253,6 +255,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement {
      *@param  name  The new name value
      */
     public void setName(String name) {
+        contentChanged();
         this.name = name; 
         if (name != null) {
             indexMap.put(NameTag, name);
@@ -268,6 +271,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement {
      *@param  pipeId  The PipeId to be set.
      */
     public void setPipeID(ID pipeId) {
+        contentChanged();
         this.pipeId = pipeId;
         if (pipeId != null) {
             indexMap.put(IdTag, pipeId.toString());
@@ -282,6 +286,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement {
      *@param  type  The type to be set.
      */
     public void setType(String type) {
+        contentChanged();
         this.type = type;
     }
 }
@@ -226,6 +226,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      *@param  id  The new groupID value
      */
     public void setGroupID(PeerGroupID id) {
+        contentChanged();
         groupId = id;
         if (id != null) {
             indexMap.put(GroupIDTag, id.toString());
@@ -240,6 +241,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      *@param  n  the name this rdv adv should have.
      */
     public void setName(String n) {
+        contentChanged();
         name = n;
     }
 
@@ -249,6 +251,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      *@param  id  The new peerID value
      */
     public void setPeerID(PeerID id) {
+        contentChanged();
         peerId = id;
         if (id != null) {
             indexMap.put(PeerIDTag, id.toString());
@@ -263,6 +266,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      *@param  route  RouteAdvertisement
      */
     public void setRouteAdv(RouteAdvertisement route) {
+        contentChanged();
         this.route = route;
     }
 
@@ -273,6 +277,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      */
 
     public void setServiceName(String name) {
+        contentChanged();
         serviceName = name;
         if (name != null) {
             indexMap.put(ServiceNameTag, name);
@@ -288,6 +293,7 @@ public abstract class RdvAdvertisement extends ExtendableAdvertisement {
      */
 
     public void setVersion(String version) {
+        contentChanged();
         this.version = version;
     }
 }
@@ -140,6 +140,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void addDestEndpointAddresses(Vector addresses) {
+        contentChanged();
         dest.addEndpointAddresses(addresses);
     }
 
@@ -150,6 +151,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      *@param  addr  new endpoint address to add
      */
     public void addEndpointAddressToHop(PeerID pid, EndpointAddress addr) {
+        contentChanged();
         Vector ea = new Vector();
         ea.add(addr.toString());
 
@@ -719,6 +721,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void removeDestEndpointAddresses(Vector addresses) {
+        contentChanged();
         dest.removeEndpointAddresses(addresses);
     }
 
@@ -729,6 +732,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      *@param  addr  new endpoint address to remove
      */
     public void removeEndpointAddressToHop(PeerID pid, EndpointAddress addr) {
+        contentChanged();
         Vector ea = new Vector();
         ea.add(addr.toString());
 
@@ -751,6 +755,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      *@return      boolean true or false if the hop is found in the route
      */
     public boolean removeHop(PeerID pid) {
+        contentChanged();
 
         // FIXME: This is ridiculous, hops is a vector. We can remove
         // any item, we do not have to through the enum copying items 1 by 1.
@@ -799,6 +804,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setDest(AccessPointAdvertisement ap) {
+        contentChanged();
         this.dest = ap;
         if ((null != dest) && (null != dest.getPeerID())) {
             setDestPeerID(dest.getPeerID());
@@ -819,6 +825,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setDestEndpointAddresses(Vector ea) {
+        contentChanged();
         dest.setEndpointAddresses(ea);
     }
 
@@ -830,6 +837,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setDestPeerID(PeerID pid) {
+        contentChanged();
         destPeer = pid;
 
         if (null != dest) {
@@ -844,6 +852,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setFirstHop(AccessPointAdvertisement ap) {
+        contentChanged();
         hops.add(0, ap);
     }
 
@@ -856,6 +865,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setHops(Vector hopsAccess) {
+        contentChanged();
         // It is legal to set it to null but it is automatically converted
         // to an empty vector. The member hops is NEVER null.
         hops = hopsAccess != null ? hopsAccess : new Vector();
@@ -868,6 +878,7 @@ public abstract class RouteAdvertisement extends ExtendableAdvertisement impleme
      */
 
     public void setLastHop(AccessPointAdvertisement ap) {
+        contentChanged();
         hops.addElement(ap);
     }
 
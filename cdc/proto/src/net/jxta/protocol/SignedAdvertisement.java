@@ -104,6 +104,7 @@ public abstract class SignedAdvertisement extends ExtendableAdvertisement {
      *  Sets the Advertisement to be signed.
      **/
     public void setAdvertisement( Advertisement adv ) {
+        contentChanged();
         this.adv = adv;
     }
     
@@ -118,6 +119,7 @@ public abstract class SignedAdvertisement extends ExtendableAdvertisement {
      *  Sets the Credential which will sign the advertisement.
      **/
     public void setSigner( Credential cred ) {
+        contentChanged();
         signer = cred;
     }
 }
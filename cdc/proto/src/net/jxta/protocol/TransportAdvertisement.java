@@ -136,6 +136,7 @@ public abstract class TransportAdvertisement extends ExtendableAdvertisement {
      *
      **/
     public void setProtocol(String protocol) {
+        contentChanged();
         this.protocol = protocol;
     }
 }
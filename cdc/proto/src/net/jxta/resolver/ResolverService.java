@@ -56,6 +56,9 @@
 
 package net.jxta.resolver;
 
+import net.jxta.id.ID;
+import net.jxta.protocol.ResolverQueryMsg;
+import net.jxta.protocol.ResolverSrdiMsg;
 import net.jxta.service.Service;
 
 /**
@@ -166,4 +169,24 @@ public interface ResolverService extends Service, GenericResolver {
      */    
     public SrdiHandler unregisterSrdiHandler( String name );
 
+    /**
+     * Sends query to the specified peer. If the peer is null the query is
+     * propagated. Same as {@link GenericResolver#sendQuery(String,ResolverQueryMsg)}
+     * without converting the peer id to and from a string.
+     *
+     * @param peerId Peer unicast, or null to propagate
+     * @param query The query to match.
+     */
+    public void sendQuery( ID peerId, ResolverQueryMsg query );
+
+    /**
+     * send a srdi message to a peer. If the peer is null the message is
+     * propagated. Same as {@link GenericResolver#sendSrdi(String,ResolverSrdiMsg)}
+     * without converting the peer id to and from a string.
+     *
+     * @param destPeer is the destination of the srdi message, or null to propagate
+     * @param srdi is the srdi message to be sent
+     */
+    public void sendSrdi( ID destPeer, ResolverSrdiMsg srdi );
+
 }
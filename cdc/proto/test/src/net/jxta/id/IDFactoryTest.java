@@ -0,0 +1,195 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.id;
+
+import java.net.URI;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+
+/**
+ *  An IDFactory unit test
+ */
+public class IDFactoryTest extends TestCase {
+
+    /**
+     *  Number of stripes of the intern cache, as in IDFactory.
+     */
+    private static final int INTERN_STRIPES = 16;
+
+    /**
+     *  Number of IDs each stripe of the intern cache holds.
+     */
+    private static final int STRIPE_SIZE = Math.max(1, Integer.getInteger("net.jxta.id.IDFactory.internCacheSize", 8192).intValue() / INTERN_STRIPES);
+
+    /**
+     *  Constructor for the IDFactoryTest object
+     *
+     *@param  testName  test name
+     */
+    public IDFactoryTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  Decoding equal URNs returns the same instance.
+     */
+    public void testSameInstance() throws Exception {
+        String urn = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID).toString();
+
+        ID first = IDFactory.fromURN(urn);
+
+        assertSame(first, IDFactory.fromURN(new String(urn)));
+        assertSame(first, IDFactory.fromURI(new URI(urn)));
+        assertSame(first, ID.create(new URI(urn)));
+    }
+
+    /**
+     *  Interning an ID equal to a cached one returns the cached instance, an
+     *  ID which is not cached becomes the cached instance.
+     */
+    public void testIntern() throws Exception {
+        PeerID id = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        ID decoded = IDFactory.fromURN(id.toString());
+
+        assertNotSame(id, decoded);
+        assertEquals(id, decoded);
+        assertSame(decoded, IDFactory.intern(id));
+
+        PeerID other = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+        assertSame(other, IDFactory.intern(other));
+        assertSame(other, IDFactory.fromURN(other.toString()));
+    }
+
+    /**
+     *  Once a stripe is full its least recently used ID is evicted.
+     */
+    public void testStripeEviction() throws Exception {
+        ID used = IDFactory.fromURN(newURN());
+        int stripe = stripe(used.toString());
+        String unusedURN = newURNInStripe(stripe);
+        ID unused = IDFactory.fromURN(unusedURN);
+
+        for (int each = 0; each < STRIPE_SIZE; each++) {
+            assertSame(used, IDFactory.fromURN(used.toString()));
+            IDFactory.fromURN(newURNInStripe(stripe));
+        }
+
+        assertSame(used, IDFactory.fromURN(used.toString()));
+
+        ID again = IDFactory.fromURN(unusedURN);
+
+        assertEquals(unused, again);
+        assertNotSame(unused, again);
+    }
+
+    /**
+     *  The string form of an ID is computed once.
+     */
+    public void testToString() throws Exception {
+        ID id = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        String asString = id.toString();
+
+        assertEquals(id.toURI().toString(), asString);
+        assertSame(asString, id.toString());
+    }
+
+    private static String newURN() {
+        return IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID).toString();
+    }
+
+    private static String newURNInStripe(int stripe) {
+        while (true) {
+            String urn = newURN();
+
+            if (stripe == stripe(urn)) {
+                return urn;
+            }
+        }
+    }
+
+    private static int stripe(String key) {
+        return (key.hashCode() & 0x7FFFFFFF) % INTERN_STRIPES;
+    }
+
+    /**
+     *  The main program to test IDFactory
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(IDFactoryTest.class);
+        return suite;
+    }
+}
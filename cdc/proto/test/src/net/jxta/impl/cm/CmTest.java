@@ -64,12 +64,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
 import net.jxta.pipe.PipeID;
 import net.jxta.pipe.PipeService;
 import net.jxta.peer.PeerID;
 import net.jxta.protocol.PeerAdvertisement;
 import net.jxta.protocol.PipeAdvertisement;
+import net.jxta.protocol.SrdiMessage;
 import junit.framework.TestSuite;
 import junit.framework.TestCase;
 import junit.framework.Test;
@@ -78,7 +84,9 @@ import net.jxta.document.MimeMediaType;
 import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.StructuredDocument;
 import net.jxta.document.Element;
+import net.jxta.document.Advertisement;
 import net.jxta.document.AdvertisementFactory;
+import net.jxta.impl.util.TimeUtils;
 
 /**
  *  A CmTest unit test
@@ -188,6 +196,8 @@ public class CmTest extends TestCase {
      *  Description of the Method
      */
     public void testDeletePeer() {
+        // use a cm of our own, the shared one holds the peers of testCreatePeer
+        Cm cm = new Cm(true);
         ArrayList advNameList = new ArrayList(ITERATIONS);
         long t0 = System.currentTimeMillis();
         for (int i = 0; i < ITERATIONS; i++) {
@@ -524,6 +534,258 @@ public class CmTest extends TestCase {
         System.out.println("End Testing Query for non-existent records");
     }
 
+    /**
+     *  A search returns the expiration of each document and, when asked, the
+     *  absolute time at which its lifetime ends.
+     */
+    public void testSearchLifetimes() throws Exception {
+        PipeAdvertisement adv = generatePipeAdv(ITERATIONS + 1);
+        String advName = adv.getID().getUniqueValue().toString();
+        long before = System.currentTimeMillis();
+
+        cm.save(dirname[2], advName, adv, 60 * 60 * 1000L, 5 * 60 * 1000L);
+
+        Vector expirations = new Vector();
+        Vector lifetimes = new Vector();
+        Vector results = cm.search(dirname[2], "Name", "CmTestPipe" + (ITERATIONS + 1), 1, expirations, lifetimes, true);
+
+        assertEquals(1, results.size());
+        assertTrue(results.get(0) instanceof String);
+        assertEquals(1, expirations.size());
+        assertEquals(5 * 60 * 1000L, ((Long) expirations.get(0)).longValue());
+        assertEquals(1, lifetimes.size());
+
+        long lifetime = ((Long) lifetimes.get(0)).longValue();
+
+        assertTrue(lifetime >= before + 60 * 60 * 1000L);
+        assertTrue(lifetime <= System.currentTimeMillis() + 60 * 60 * 1000L);
+    }
+
+    /**
+     *  An advertisement gets the same record name from its digest as from
+     *  its document, including for non-ASCII content.
+     */
+    public void testTmpName() throws Exception {
+        PipeAdvertisement adv = generatePipeAdv(ITERATIONS + 2);
+
+        adv.setName("CmTestPipe \u00e9\u4e2d");
+
+        StructuredDocument doc = (StructuredDocument) adv.getDocument(MimeMediaType.XMLUTF8);
+
+        assertEquals(Cm.createTmpName(doc), Cm.createTmpName(adv));
+    }
+
+    /**
+     *  Exact, prefix and wildcard queries of an attribute index, without
+     *  regard to case.
+     */
+    public void testAttributeIndex() {
+        AttributeIndex index = new AttributeIndex();
+
+        index.add("CmTestPeer1", "a");
+        index.add("CmTestPeer12", "b");
+        index.add("Other", "c");
+        index.add("cmtestpeer1", "d");
+
+        assertEquals(names(new String[] {"a", "d"}), collect(index, "CMTESTpeer1", 10));
+        assertEquals(names(new String[] {}), collect(index, "CmTestPeer", 10));
+        assertEquals(names(new String[] {"a", "b", "d"}), collect(index, "CmTestPeer1*", 10));
+        assertEquals(names(new String[] {"b"}), collect(index, "*peer*2", 10));
+        assertEquals(names(new String[] {"c"}), collect(index, "o*r", 10));
+        assertEquals(names(new String[] {"a", "b", "c", "d"}), collect(index, "*", 10));
+        assertEquals(names(new String[] {"a", "b", "c", "d"}), collect(index, null, 10));
+        assertEquals(2, collect(index, "*", 2).size());
+
+        // rejected names do not count towards the threshold
+        Set found = new HashSet();
+        index.collect("CmTestPeer1*", found, 2, new AttributeIndex.Filter() {
+            public boolean accept(Object name) {
+                return !"a".equals(name);
+            }
+        });
+        assertEquals(names(new String[] {"b", "d"}), found);
+
+        index.remove("CMTESTPEER1", "d");
+        assertEquals(names(new String[] {"a"}), collect(index, "cmtestpeer1", 10));
+        index.remove("CmTestPeer1", "a");
+        index.remove("CmTestPeer12", "b");
+        index.remove("Other", "c");
+        assertTrue(index.isEmpty());
+    }
+
+    /**
+     *  Expired records do not use up the threshold of a search.
+     */
+    public void testSearchSkipsExpired() throws Exception {
+        Cm cm = new Cm(false, 50, null);
+
+        for (int i = 0; i < 3; i++) {
+            PipeAdvertisement adv = generatePipeAdv(i);
+            adv.setName("CmTestPipeA" + i);
+            cm.save(dirname[2], adv.getID().getUniqueValue().toString(), adv, 1, 1);
+        }
+        for (int i = 0; i < 2; i++) {
+            PipeAdvertisement adv = generatePipeAdv(i);
+            adv.setName("CmTestPipeB" + i);
+            cm.save(dirname[2], adv.getID().getUniqueValue().toString(), adv);
+        }
+
+        Thread.sleep(50);
+
+        assertEquals(2, cm.search(dirname[2], "Name", "CmTestPipe*", 2, null).size());
+        cm.stop();
+    }
+
+    /**
+     *  A record evicted from a full directory is removed from the indexes.
+     *  Records which were read since they were stored get a second chance.
+     */
+    public void testEviction() throws Exception {
+        Cm cm = new Cm(false, 2, null);
+        String[] names = new String[3];
+
+        for (int i = 0; i < 3; i++) {
+            PeerAdvertisement adv = generatePeerAdv(i);
+            names[i] = adv.getID().getUniqueValue().toString();
+            if (2 == i) {
+                // read the first record, the second one is then evicted
+                assertTrue(cm.getLifetime(dirname[0], names[0]) > 0);
+            }
+            cm.save(dirname[0], names[i], adv);
+        }
+
+        assertEquals(-1, cm.getLifetime(dirname[0], names[1]));
+        assertEquals(1, cm.search(dirname[0], "Name", "CmTestPeer0", 10, null).size());
+        assertEquals(0, cm.search(dirname[0], "Name", "CmTestPeer1", 10, null).size());
+        assertEquals(2, cm.search(dirname[0], "Name", "*", 10, null).size());
+
+        int named = 0;
+        Iterator eachEntry = cm.getEntries(dirname[0], false).iterator();
+        while (eachEntry.hasNext()) {
+            SrdiMessage.Entry entry = (SrdiMessage.Entry) eachEntry.next();
+            if ("Name".equals(entry.key)) {
+                assertFalse("CmTestPeer1".equalsIgnoreCase(entry.value));
+                named++;
+            }
+        }
+        assertEquals(2, named);
+        cm.stop();
+    }
+
+    /**
+     *  The records which were saved and not removed are restored from the
+     *  log. A torn last entry is dropped and the log remains usable.
+     */
+    public void testLogReplay() throws Exception {
+        File file = logFile();
+
+        try {
+            PipeAdvertisement[] advs = new PipeAdvertisement[4];
+            String[] names = new String[advs.length];
+            for (int i = 0; i < advs.length; i++) {
+                advs[i] = generatePipeAdv(i);
+                names[i] = advs[i].getID().getUniqueValue().toString();
+            }
+
+            Cm cm = new Cm(false, 50, file);
+            cm.save(dirname[2], names[0], advs[0]);
+            cm.save(dirname[2], names[1], advs[1]);
+            cm.remove(dirname[2], names[1]);
+            cm.save(dirname[2], names[2], advs[2]);
+            cm.stop();
+
+            // tear the last entry
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 5);
+            raf.close();
+
+            cm = new Cm(false, 50, file);
+            assertTrue(cm.getLifetime(dirname[2], names[0]) > 0);
+            assertEquals(-1, cm.getLifetime(dirname[2], names[1]));
+            assertEquals(-1, cm.getLifetime(dirname[2], names[2]));
+            cm.save(dirname[2], names[3], advs[3]);
+            cm.stop();
+
+            cm = new Cm(false, 50, file);
+            assertTrue(cm.getLifetime(dirname[2], names[0]) > 0);
+            assertTrue(cm.getLifetime(dirname[2], names[3]) > 0);
+            assertEquals(2, cm.search(dirname[2], "Name", "CmTestPipe*", 10, null).size());
+            cm.stop();
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     *  A log holding many superseded entries asks to be compacted and is
+     *  rewritten with the live records only.
+     */
+    public void testLogCompaction() throws Exception {
+        File file = logFile();
+
+        try {
+            final List saved = new ArrayList();
+            CmLog.Replay replay = new CmLog.Replay() {
+                public void saved(String dn, String fn, Advertisement adv, long absoluteLifetime, long expiration) {
+                    saved.add(fn);
+                }
+
+                public void removed(String dn, String fn) {
+                    saved.remove(fn);
+                }
+            };
+
+            PipeAdvertisement adv = generatePipeAdv(0);
+            String name = adv.getID().getUniqueValue().toString();
+            long lifetime = TimeUtils.toAbsoluteTimeMillis(60 * 60 * 1000L);
+
+            CmLog log = new CmLog(file);
+            log.replay(replay);
+            log.compact(Collections.EMPTY_LIST.iterator());
+
+            int logged = 0;
+            while (!log.needsCompaction(1)) {
+                log.saved(dirname[2], name, adv, lifetime, 1000);
+                logged++;
+            }
+            assertTrue(logged > 1);
+
+            List live = new ArrayList();
+            live.add(new Object[] {dirname[2], cm.new Record(name, adv, lifetime, 1000)});
+            log.compact(live.iterator());
+            assertFalse(log.needsCompaction(1));
+            log.close();
+
+            log = new CmLog(file);
+            log.replay(replay);
+            log.close();
+            assertEquals(1, saved.size());
+            assertEquals(name, saved.get(0));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File logFile() throws Exception {
+        File file = File.createTempFile("CmTest", ".log");
+        file.delete();
+        return file;
+    }
+
+    private static Set collect(AttributeIndex index, String query, int threshold) {
+        Set found = new HashSet();
+        index.collect(query, found, threshold);
+        return found;
+    }
+
+    private static Set names(String[] names) {
+        Set set = new HashSet();
+        for (int i = 0; i < names.length; i++) {
+            set.add(names[i]);
+        }
+        return set;
+    }
+
     /**
      *  A unit test suite for JUnit
      *
@@ -0,0 +1,314 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.ResolverSrdiMsg;
+import net.jxta.protocol.SrdiMessage;
+import net.jxta.resolver.ResolverService;
+
+import net.jxta.impl.protocol.SrdiMessageImpl;
+import net.jxta.impl.util.TimingWheel;
+
+/**
+ *  A SrdiBatcher unit test
+ */
+public class SrdiBatcherTest extends TestCase {
+
+    private static final PeerID peer = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+    private static final PeerID rdv = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+    private TimingWheel wheel;
+
+    /**
+     *  A resolver which records the SRDI messages sent through it.
+     */
+    private static class Recorder implements InvocationHandler {
+
+        final List dests = Collections.synchronizedList(new ArrayList());
+
+        final List sent = Collections.synchronizedList(new ArrayList());
+
+        final ResolverService resolver = (ResolverService) Proxy.newProxyInstance(ResolverService.class.getClassLoader(), new Class[] { ResolverService.class }, this);
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("sendSrdi".equals(method.getName()) && (args[1] instanceof ResolverSrdiMsg)) {
+                dests.add(args[0]);
+                sent.add(args[1]);
+            } else if ("equals".equals(method.getName())) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(method.getName())) {
+                return new Integer(System.identityHashCode(proxy));
+            }
+            return null;
+        }
+
+        SrdiMessage message(int index) throws Exception {
+            String payload = ((ResolverSrdiMsg) sent.get(index)).getPayload();
+
+            return new SrdiMessageImpl(new ByteArrayInputStream(payload.getBytes("UTF-8")));
+        }
+    }
+
+    /**
+     *  Constructor for the SrdiBatcherTest object
+     *
+     *@param  testName  test name
+     */
+    public SrdiBatcherTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void setUp() {
+        wheel = new TimingWheel("test", 10, 64, 1);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void tearDown() {
+        wheel.cancel();
+    }
+
+    private static SrdiMessage srdi(String primaryKey, String[] keys, long expiration) {
+        List entries = new ArrayList();
+
+        for (int each = 0; each < keys.length; each++) {
+            entries.add(new SrdiMessage.Entry(keys[each], "value-" + keys[each], expiration));
+        }
+
+        return new SrdiMessageImpl(peer, 1, primaryKey, entries);
+    }
+
+    private static long expiration(SrdiMessage srdi, String key) {
+        Iterator eachEntry = srdi.getEntries().iterator();
+
+        while (eachEntry.hasNext()) {
+            SrdiMessage.Entry entry = (SrdiMessage.Entry) eachEntry.next();
+
+            if (entry.key.equals(key)) {
+                return entry.expiration;
+            }
+        }
+
+        fail("no entry " + key);
+        return -1;
+    }
+
+    /**
+     *  Pushes with the same destination, handler and primary key are merged
+     *  into one message holding the latest push of each entry.
+     */
+    public void testMerge() throws Exception {
+        Recorder recorder = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(60000, wheel);
+
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "a", "b" }, 1000));
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "b", "c" }, 2000));
+        assertEquals(0, recorder.sent.size());
+
+        batcher.flush();
+
+        assertEquals(1, recorder.sent.size());
+        assertEquals(rdv, recorder.dests.get(0));
+        assertEquals("handler", ((ResolverSrdiMsg) recorder.sent.get(0)).getHandlerName());
+
+        SrdiMessage sent = recorder.message(0);
+
+        assertEquals("Name", sent.getPrimaryKey());
+        assertEquals(peer, sent.getPeerID());
+        assertEquals(3, sent.getEntries().size());
+        assertEquals(1000, expiration(sent, "a"));
+        assertEquals(2000, expiration(sent, "b"));
+        assertEquals(2, batcher.getPushedCount());
+        assertEquals(1, batcher.getSentCount());
+    }
+
+    /**
+     *  Pushes which differ in primary key or destination are sent apart.
+     */
+    public void testSeparateBatches() throws Exception {
+        Recorder recorder = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(60000, wheel);
+
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "a" }, 1000));
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Desc", new String[] { "a" }, 1000));
+        batcher.push(recorder.resolver, "handler", null, null, srdi("Name", new String[] { "a" }, 1000));
+        batcher.flush();
+
+        assertEquals(3, recorder.sent.size());
+    }
+
+    /**
+     *  Flushing a resolver only sends its batches.
+     */
+    public void testFlushResolver() throws Exception {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(60000, wheel);
+
+        batcher.push(first.resolver, "handler", null, rdv, srdi("Name", new String[] { "a" }, 1000));
+        batcher.push(second.resolver, "handler", null, rdv, srdi("Name", new String[] { "a" }, 1000));
+
+        batcher.flush(first.resolver);
+        assertEquals(1, first.sent.size());
+        assertEquals(0, second.sent.size());
+
+        batcher.flush();
+        assertEquals(1, first.sent.size());
+        assertEquals(1, second.sent.size());
+    }
+
+    /**
+     *  Large batches are split.
+     */
+    public void testSplit() throws Exception {
+        Recorder recorder = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(60000, wheel);
+        String[] keys = new String[1200];
+
+        for (int each = 0; each < keys.length; each++) {
+            keys[each] = "key" + each;
+        }
+
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", keys, 1000));
+        batcher.flush();
+
+        assertEquals(3, recorder.sent.size());
+
+        int total = 0;
+
+        for (int each = 0; each < recorder.sent.size(); each++) {
+            total += recorder.message(each).getEntries().size();
+        }
+
+        assertEquals(keys.length, total);
+    }
+
+    /**
+     *  Batches are sent once the interval has elapsed.
+     */
+    public void testInterval() throws Exception {
+        Recorder recorder = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(50, wheel);
+
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "a" }, 1000));
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "b" }, 1000));
+
+        for (int wait = 0; (wait < 500) && recorder.sent.isEmpty(); wait++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, recorder.sent.size());
+        assertEquals(2, recorder.message(0).getEntries().size());
+    }
+
+    /**
+     *  With an interval of 0 each push is sent at once.
+     */
+    public void testNoBatching() throws Exception {
+        Recorder recorder = new Recorder();
+        SrdiBatcher batcher = new SrdiBatcher(0, wheel);
+
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "a" }, 1000));
+        batcher.push(recorder.resolver, "handler", null, rdv, srdi("Name", new String[] { "b" }, 1000));
+
+        assertEquals(2, recorder.sent.size());
+        assertEquals(2, batcher.getSentCount());
+    }
+
+    /**
+     *  The main program to test SrdiBatcher
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(SrdiBatcherTest.class);
+        return suite;
+    }
+}
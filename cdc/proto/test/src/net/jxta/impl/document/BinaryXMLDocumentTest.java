@@ -0,0 +1,325 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Enumeration;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.document.StructuredDocumentUtils;
+import net.jxta.document.TextElement;
+
+/**
+ *  A BinaryXMLDocument unit test
+ */
+public class BinaryXMLDocumentTest extends TestCase {
+
+    /**
+     *  Constructor for the BinaryXMLDocumentTest object
+     *
+     *@param  testName  test name
+     */
+    public BinaryXMLDocumentTest(String testName) {
+        super(testName);
+    }
+
+    private static BinaryXMLDocument newDocument(String type) {
+        return (BinaryXMLDocument) BinaryXMLDocument.INSTANTIATOR.newInstance(BinaryXMLDocument.MIMETYPE, type);
+    }
+
+    private static BinaryXMLDocument decode(byte[] encoded) throws IOException {
+        return (BinaryXMLDocument) BinaryXMLDocument.INSTANTIATOR.newInstance(BinaryXMLDocument.MIMETYPE, new ByteArrayInputStream(encoded));
+    }
+
+    private static byte[] encode(StructuredDocument doc) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        doc.sendToStream(out);
+        return out.toByteArray();
+    }
+
+    private static int occurrences(byte[] in, String what) throws IOException {
+        byte[] find = what.getBytes("UTF-8");
+        int found = 0;
+
+        for (int start = 0; start <= in.length - find.length; start++) {
+            int each = 0;
+
+            while ((each < find.length) && (in[start + each] == find[each])) {
+                each++;
+            }
+
+            if (each == find.length) {
+                found++;
+            }
+        }
+
+        return found;
+    }
+
+    private static void expectMalformed(byte[] encoded) {
+        try {
+            decode(encoded);
+            fail("accepted malformed encoding");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+
+        return result;
+    }
+
+    /**
+     *  The factory creates binary documents for the binary mime type.
+     */
+    public void testFactory() throws Exception {
+        StructuredDocument doc = StructuredDocumentFactory.newStructuredDocument(BinaryXMLDocument.MIMETYPE, "jxta:PA");
+
+        assertTrue(doc instanceof BinaryXMLDocument);
+
+        StructuredDocument decoded = StructuredDocumentFactory.newStructuredDocument(BinaryXMLDocument.MIMETYPE, new ByteArrayInputStream(encode(doc)));
+
+        assertTrue(decoded instanceof BinaryXMLDocument);
+        assertEquals("jxta:PA", decoded.getKey());
+    }
+
+    /**
+     *  Names, attributes, text, empty elements and the document type survive
+     *  a round trip and the XML text form is unchanged.
+     */
+    public void testRoundTrip() throws Exception {
+        String source = "<?xml version=\"1.0\"?>\n" +
+                        "<!DOCTYPE jxta:PA>\n" +
+                        "<jxta:PA xmlns:jxta=\"http://jxta.org\">\n" +
+                        "\t<PID>urn:jxta:uuid-0001</PID>\n" +
+                        "\t<Name>caf\u00e9 &amp; &lt;bar&gt;</Name>\n" +
+                        "\t<Svc>\n\t\t<MCID>one</MCID>\n\t\t<Parm type=\"a&quot;b\"><Custom x=\"1\">text</Custom><Empty/></Parm>\n\t</Svc>\n" +
+                        "</jxta:PA>\n";
+        PullXMLDocument xml = (PullXMLDocument) PullXMLDocument.INSTANTIATOR.newInstance(MimeMediaType.XML_DEFAULTENCODING, new StringReader(source));
+        BinaryXMLDocument binary = newDocument("jxta:PA");
+
+        binary.addAttribute("xmlns:jxta", "http://jxta.org");
+        StructuredDocumentUtils.copyChildren(binary, binary, xml);
+
+        BinaryXMLDocument decoded = decode(encode(binary));
+
+        assertEquals("jxta:PA", decoded.getName());
+        assertEquals(xml.toString(), decoded.toString());
+
+        TextElement svc = (TextElement) decoded.getChildren("Svc").nextElement();
+        PullXMLElement parm = (PullXMLElement) svc.getChildren("Parm").nextElement();
+
+        assertEquals("a\"b", parm.getAttribute("type").getValue());
+        assertEquals("caf\u00e9 & <bar>", ((TextElement) decoded.getChildren("Name").nextElement()).getTextValue());
+
+        PullXMLElement empty = (PullXMLElement) parm.getChildren("Empty").nextElement();
+
+        assertNull(empty.getTextValue());
+        assertFalse(empty.getChildren().hasMoreElements());
+    }
+
+    /**
+     *  The dictionary is chosen by the root element. Dictionary names are
+     *  never spelled out and other names are spelled out once.
+     */
+    public void testDictionaries() throws Exception {
+        BinaryXMLDocument peer = newDocument("jxta:PA");
+
+        for (int each = 0; each < 3; each++) {
+            TextElement svc = peer.createElement("Svc");
+
+            peer.appendChild(svc);
+            svc.appendChild(peer.createElement("MCID", "id" + each));
+            svc.appendChild(peer.createElement("Custom", "value" + each));
+        }
+
+        byte[] encoded = encode(peer);
+
+        assertEquals('J', encoded[0]);
+        assertEquals('X', encoded[1]);
+        assertEquals('B', encoded[2]);
+        assertEquals(1, encoded[3]);
+        assertEquals(1, encoded[4]);
+        // only the document type spells out the root name.
+        assertEquals(1, occurrences(encoded, "jxta:PA"));
+        assertEquals(0, occurrences(encoded, "MCID"));
+        assertEquals(1, occurrences(encoded, "Custom"));
+        assertEquals(3, count(decode(encoded).getChildren("Svc")));
+
+        BinaryXMLDocument other = newDocument("Unknown");
+
+        other.appendChild(other.createElement("Name", "x"));
+        encoded = encode(other);
+
+        assertEquals(0, encoded[4]);
+        assertEquals(2, occurrences(encoded, "Unknown"));
+        assertEquals(0, occurrences(encoded, "Name"));
+        assertEquals("x", ((TextElement) decode(encoded).getChildren("Name").nextElement()).getTextValue());
+    }
+
+    /**
+     *  Lengths, counts and symbols which need multi byte varints.
+     */
+    public void testVarInts() throws Exception {
+        BinaryXMLDocument doc = newDocument("root");
+        StringBuffer longText = new StringBuffer();
+
+        while (longText.length() < 20000) {
+            longText.append("0123456789");
+        }
+
+        doc.appendChild(doc.createElement("long", longText.toString()));
+
+        // more than 128 distinct names and children.
+        for (int each = 0; each < 300; each++) {
+            doc.appendChild(doc.createElement("name" + each, Integer.toString(each)));
+        }
+
+        BinaryXMLDocument decoded = decode(encode(doc));
+
+        assertEquals(longText.toString(), ((TextElement) decoded.getChildren("long").nextElement()).getTextValue());
+        assertEquals(301, count(decoded.getChildren()));
+
+        for (int each = 0; each < 300; each++) {
+            assertEquals(Integer.toString(each), ((TextElement) decoded.getChildren("name" + each).nextElement()).getTextValue());
+        }
+    }
+
+    /**
+     *  Encodings which are not well formed are refused.
+     */
+    public void testMalformed() throws Exception {
+        byte[] valid = encode(newDocument("jxta:PA"));
+
+        expectMalformed(new byte[0]);
+        expectMalformed("XML".getBytes("UTF-8"));
+
+        byte[] badVersion = (byte[]) valid.clone();
+
+        badVersion[3] = 2;
+        expectMalformed(badVersion);
+
+        byte[] badDictionary = (byte[]) valid.clone();
+
+        badDictionary[4] = 100;
+        expectMalformed(badDictionary);
+
+        byte[] truncated = new byte[valid.length - 1];
+
+        System.arraycopy(valid, 0, truncated, 0, truncated.length);
+        expectMalformed(truncated);
+
+        byte[] header = new byte[] { 'J', 'X', 'B', 1, 0, 0 };
+
+        // an undefined introduced name.
+        expectMalformed(concat(header, new byte[] { 50, 0, 0, 0 }));
+
+        // a varint longer than five bytes.
+        expectMalformed(concat(header, new byte[] { (byte) 0x81, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0 }));
+
+        // a string longer than allowed.
+        expectMalformed(concat(header, new byte[] { 11, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F }));
+    }
+
+    private static int count(Enumeration each) {
+        int count = 0;
+
+        while (each.hasMoreElements()) {
+            each.nextElement();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     *  The main program to test BinaryXMLDocument
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(BinaryXMLDocumentTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Enumeration;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.document.StructuredTextDocument;
+import net.jxta.document.TextElement;
+
+/**
+ *  A PullXMLDocument unit test
+ */
+public class PullXMLDocumentTest extends TestCase {
+
+    private final static String SOURCE =
+        "<?xml version=\"1.0\"?>\n" +
+        "<!DOCTYPE jxta:PA>\n" +
+        "<jxta:PA xmlns:jxta=\"http://jxta.org\">\n" +
+        "\t<PID>\n\t\turn:jxta:uuid-59616261646162614A787461503250330000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000003\n\t</PID>\n" +
+        "\t<Name>a &amp; b &lt; c</Name>\n" +
+        "\t<Svc>\n\t\t<MCID>one</MCID>\n\t\t<Parm type=\"x\"/>\n\t</Svc>\n" +
+        "\t<Svc>\n\t\t<MCID>two</MCID>\n\t</Svc>\n" +
+        "</jxta:PA>\n";
+
+    /**
+     *  Constructor for the PullXMLDocumentTest object
+     *
+     *@param  testName  test name
+     */
+    public PullXMLDocumentTest(String testName) {
+        super(testName);
+    }
+
+    private static PullXMLDocument parse(String source) throws IOException {
+        return (PullXMLDocument) PullXMLDocument.INSTANTIATOR.newInstance(MimeMediaType.XMLUTF8, new StringReader(source));
+    }
+
+    private static StructuredTextDocument parseLite(String source) throws IOException {
+        return (StructuredTextDocument) LiteXMLDocument.INSTANTIATOR.newInstance(MimeMediaType.XMLUTF8, new StringReader(source));
+    }
+
+    private static void expectMalformed(String source) {
+        try {
+            parse(source);
+            fail("accepted " + source);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     *  The factory uses the pull parser for XML.
+     */
+    public void testFactory() throws Exception {
+        StructuredDocument doc = StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new ByteArrayInputStream(SOURCE.getBytes("UTF-8")));
+
+        assertTrue(doc instanceof PullXMLDocument);
+    }
+
+    /**
+     *  The element tree, text values and attributes of a parsed document.
+     */
+    public void testStructure() throws Exception {
+        PullXMLDocument doc = parse(SOURCE);
+
+        assertEquals("jxta:PA", doc.getName());
+        assertEquals("jxta:PA", doc.getDocType());
+        assertEquals("http://jxta.org", doc.getAttribute("xmlns:jxta").getValue());
+        assertNull(doc.getTextValue());
+
+        Enumeration svcs = doc.getChildren("Svc");
+        TextElement first = (TextElement) svcs.nextElement();
+        TextElement second = (TextElement) svcs.nextElement();
+
+        assertFalse(svcs.hasMoreElements());
+        assertEquals("one", ((TextElement) first.getChildren("MCID").nextElement()).getTextValue());
+        assertEquals("two", ((TextElement) second.getChildren("MCID").nextElement()).getTextValue());
+
+        PullXMLElement parm = (PullXMLElement) first.getChildren("Parm").nextElement();
+
+        assertEquals("x", parm.getAttribute("type").getValue());
+        assertNull(parm.getTextValue());
+        assertFalse(parm.getChildren().hasMoreElements());
+
+        assertEquals("a & b < c", ((TextElement) doc.getChildren("Name").nextElement()).getTextValue());
+    }
+
+    /**
+     *  The written form is the same as that of LiteXMLDocument and reads
+     *  back the same.
+     */
+    public void testSameAsLite() throws Exception {
+        PullXMLDocument pull = parse(SOURCE);
+        StructuredTextDocument lite = parseLite(SOURCE);
+
+        assertEquals(lite.toString(), pull.toString());
+
+        PullXMLDocument reread = parse(pull.toString());
+
+        assertEquals(pull.toString(), reread.toString());
+    }
+
+    /**
+     *  CDATA sections and attribute values are written escaped, '&gt;' is
+     *  not escaped.
+     */
+    public void testEscaping() throws Exception {
+        PullXMLDocument doc = parse("<a v=\"&quot;&amp;\"><![CDATA[<b> & c]]></a>");
+
+        assertEquals("<b> & c", doc.getTextValue());
+        assertEquals("\"&", doc.getAttribute("v").getValue());
+
+        String written = doc.toString();
+
+        assertTrue(written, written.indexOf("<a v=\"&quot;&amp;\">") >= 0);
+        assertTrue(written, written.indexOf("&lt;b> &amp; c") >= 0);
+
+        PullXMLDocument reread = parse(written);
+
+        assertEquals("<b> & c", reread.getTextValue());
+        assertEquals("\"&", reread.getAttribute("v").getValue());
+    }
+
+    /**
+     *  Modifications of a parsed document are written.
+     */
+    public void testModify() throws Exception {
+        PullXMLDocument doc = parse(SOURCE);
+        TextElement added = doc.createElement("Desc", "new");
+
+        doc.appendChild(added);
+        added.appendChild(doc.createElement("Inner"));
+        doc.addAttribute("extra", "1");
+
+        PullXMLDocument reread = parse(doc.toString());
+
+        assertEquals("new", ((TextElement) reread.getChildren("Desc").nextElement()).getTextValue());
+        assertTrue(((TextElement) reread.getChildren("Desc").nextElement()).getChildren("Inner").hasMoreElements());
+        assertEquals("1", reread.getAttribute("extra").getValue());
+        assertEquals(2, count(reread.getChildren("Svc")));
+    }
+
+    private static int count(Enumeration each) {
+        int count = 0;
+
+        while (each.hasMoreElements()) {
+            each.nextElement();
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     *  Malformed sources are refused.
+     */
+    public void testMalformed() throws Exception {
+        expectMalformed("");
+        expectMalformed("<?xml version=\"1.0\"?>");
+        expectMalformed("<a><b></a></b>");
+        expectMalformed("<a></b>");
+        expectMalformed("<a></a><b></b>");
+        expectMalformed("<a><b>");
+        expectMalformed("<a b=\"1></a>");
+    }
+
+    /**
+     *  The main program to test PullXMLDocument
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(PullXMLDocumentTest.class);
+        return suite;
+    }
+}
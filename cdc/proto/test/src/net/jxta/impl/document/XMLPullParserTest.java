@@ -0,0 +1,266 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A XMLPullParser unit test
+ */
+public class XMLPullParserTest extends TestCase {
+
+    /**
+     *  Returns its source one character per read so that every token
+     *  crosses a refill of the parser's window.
+     */
+    private static class TrickleReader extends Reader {
+
+        private final String source;
+
+        private int pos = 0;
+
+        TrickleReader(String source) {
+            this.source = source;
+        }
+
+        public int read(char[] cbuf, int off, int len) {
+            if (pos == source.length()) {
+                return -1;
+            }
+
+            cbuf[off] = source.charAt(pos++);
+            return 1;
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     *  Constructor for the XMLPullParserTest object
+     *
+     *@param  testName  test name
+     */
+    public XMLPullParserTest(String testName) {
+        super(testName);
+    }
+
+    private static void expectMalformed(String source) {
+        XMLPullParser parser = new XMLPullParser(new StringReader(source));
+
+        try {
+            while (XMLPullParser.END_DOCUMENT != parser.next()) {
+                ;
+            }
+            fail("accepted " + source);
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     *  Elements, attributes, text and empty elements are reported in order.
+     *  The declaration, comments and processing instructions are skipped.
+     */
+    public void testEvents() throws Exception {
+        XMLPullParser parser = new XMLPullParser(new StringReader(
+                                   "<?xml version=\"1.0\"?><!DOCTYPE jxta:PA><!-- comment -->" +
+                                   "<jxta:PA xmlns:jxta=\"http://jxta.org\"><Name a='1' b=\"2\">peer</Name><?pi x?><Empty/></jxta:PA>"));
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals("jxta:PA", parser.getName());
+        assertEquals("jxta:PA", parser.getDocType());
+        assertEquals(1, parser.getAttributeCount());
+        assertEquals("xmlns:jxta", parser.getAttributeName(0));
+        assertEquals("http://jxta.org", parser.getAttributeValue(0));
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals("Name", parser.getName());
+        assertEquals(2, parser.getAttributeCount());
+        assertEquals("a", parser.getAttributeName(0));
+        assertEquals("1", parser.getAttributeValue(0));
+        assertEquals("b", parser.getAttributeName(1));
+        assertEquals("2", parser.getAttributeValue(1));
+
+        assertEquals(XMLPullParser.TEXT, parser.next());
+        assertEquals("peer", parser.getText().toString());
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+        assertEquals("Name", parser.getName());
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals("Empty", parser.getName());
+        assertEquals(0, parser.getAttributeCount());
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+        assertEquals("jxta:PA", parser.getName());
+        assertEquals(XMLPullParser.END_DOCUMENT, parser.next());
+    }
+
+    /**
+     *  Predefined and numeric references are decoded in text and attribute
+     *  values, unknown references pass through and line ends are folded.
+     */
+    public void testReferences() throws Exception {
+        XMLPullParser parser = new XMLPullParser(new StringReader(
+                                   "<a v=\"&quot;&lt;&amp;&#65;\">&lt;&gt;&amp;&apos;&quot;&#x42;&#67;&bogus; & x\r\ny\rz</a>"));
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals("\"<&A", parser.getAttributeValue(0));
+        assertEquals(XMLPullParser.TEXT, parser.next());
+        assertEquals("<>&'\"BC&bogus; & x\ny\nz", parser.getText().toString());
+    }
+
+    /**
+     *  CDATA sections are reported as undecoded text.
+     */
+    public void testCData() throws Exception {
+        XMLPullParser parser = new XMLPullParser(new StringReader("<a><![CDATA[<b>&amp;]]]></a>"));
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals(XMLPullParser.TEXT, parser.next());
+        assertEquals("<b>&amp;]", parser.getText().toString());
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+    }
+
+    /**
+     *  Tokens which cross a refill of the window and documents larger than
+     *  the window are read correctly.
+     */
+    public void testWindow() throws Exception {
+        XMLPullParser parser = new XMLPullParser(new TrickleReader("<root attr=\"value\"><![CDATA[x]]>&amp;</root>"));
+
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+        assertEquals("root", parser.getName());
+        assertEquals("value", parser.getAttributeValue(0));
+        assertEquals(XMLPullParser.TEXT, parser.next());
+        assertEquals("x", parser.getText().toString());
+        assertEquals(XMLPullParser.TEXT, parser.next());
+        assertEquals("&", parser.getText().toString());
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+        assertEquals(XMLPullParser.END_DOCUMENT, parser.next());
+
+        StringBuffer big = new StringBuffer("<root>");
+
+        for (int each = 0; each < 1000; each++) {
+            big.append("<e n=\"").append(each).append("\">").append(each).append("</e>");
+        }
+        big.append("</root>");
+
+        parser = new XMLPullParser(new StringReader(big.toString()));
+        assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+
+        for (int each = 0; each < 1000; each++) {
+            assertEquals(XMLPullParser.START_ELEMENT, parser.next());
+            assertEquals(Integer.toString(each), parser.getAttributeValue(0));
+            assertEquals(XMLPullParser.TEXT, parser.next());
+            assertEquals(Integer.toString(each), parser.getText().toString());
+            assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+        }
+
+        assertEquals(XMLPullParser.END_ELEMENT, parser.next());
+        assertEquals(XMLPullParser.END_DOCUMENT, parser.next());
+    }
+
+    /**
+     *  Malformed sources are refused.
+     */
+    public void testMalformed() throws Exception {
+        expectMalformed("<a>");
+        expectMalformed("<a><b></b>");
+        expectMalformed("</a>");
+        expectMalformed("<a></a></b>");
+        expectMalformed("<a b></a>");
+        expectMalformed("<a b=c></a>");
+        expectMalformed("<a b=\"c></a>");
+        expectMalformed("<a b=\"<\"></a>");
+        expectMalformed("<a/ ></a>");
+        expectMalformed("<a></a");
+        expectMalformed("<a><!ELEMENT a></a>");
+        expectMalformed("<a><![CDATA[x</a>");
+        expectMalformed("<a><!-- x</a>");
+        expectMalformed("< a></a>");
+    }
+
+    /**
+     *  The main program to test XMLPullParser
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(XMLPullParserTest.class);
+        return suite;
+    }
+}
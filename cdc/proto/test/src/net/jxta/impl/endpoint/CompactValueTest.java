@@ -0,0 +1,193 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A CompactValue unit test
+ */
+public class CompactValueTest extends TestCase {
+
+    private final static String UUID = "59616261646162614A78746150325033E5F12A1C9B0C4F8FA0D5D71E1A8D4A6E03";
+
+    /**
+     *  Constructor for the CompactValueTest object
+     *
+     *@param  testName  test name
+     */
+    public CompactValueTest(String testName) {
+        super(testName);
+    }
+
+    private static byte[] write(String value, String prefix) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        CompactValue.write(out, value, prefix);
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private static String read(byte[] bytes, String prefix) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String value = CompactValue.read(in, prefix);
+
+        assertEquals("bytes left over", 0, in.available());
+        return value;
+    }
+
+    private static void assertRoundTrip(String value, String prefix, boolean raw) throws IOException {
+        byte[] bytes = write(value, prefix);
+
+        assertEquals(value, raw ? 1 : 0, bytes[0]);
+        assertEquals(value, read(bytes, prefix));
+    }
+
+    /**
+     *  Ids with the prefix are written as raw bytes, with or without a
+     *  suffix.
+     */
+    public void testUuid() throws Exception {
+        assertRoundTrip("jxta://uuid-" + UUID, "jxta://", true);
+        assertRoundTrip("jxta://uuid-" + UUID + "/EndpointService:jxta-NetGroup/PeerView", "jxta://", true);
+        assertRoundTrip("urn:jxta:uuid-" + UUID, "urn:jxta:", true);
+        assertRoundTrip("uuid-" + UUID, "", true);
+
+        byte[] bytes = write("jxta://uuid-" + UUID, "jxta://");
+
+        // tag, length, id bytes and an empty UTF suffix.
+        assertEquals(1 + 1 + UUID.length() / 2 + 2, bytes.length);
+        assertEquals(UUID.length() / 2, bytes[1]);
+    }
+
+    /**
+     *  Values which are not upper case hex ids of an even length under the
+     *  prefix are written as strings.
+     */
+    public void testStrings() throws Exception {
+        assertRoundTrip("", "jxta://", false);
+        assertRoundTrip("tcp://10.0.0.1:9701", "jxta://", false);
+        assertRoundTrip("jxta://uuid-" + UUID, "urn:jxta:", false);
+        assertRoundTrip("jxta://uuid-abcdef", "jxta://", false);
+        assertRoundTrip("jxta://uuid-" + UUID.substring(1), "jxta://", false);
+        assertRoundTrip("jxta://uuid-", "jxta://", false);
+        assertRoundTrip("jxta://cbid-" + UUID, "jxta://", false);
+        assertRoundTrip("jxta://uuid-" + UUID + "\u00e9", "jxta://", true);
+
+        StringBuffer tooLong = new StringBuffer("uuid-");
+
+        for (int each = 0; each < 256; each++) {
+            tooLong.append("AB");
+        }
+        assertRoundTrip(tooLong.toString(), "", false);
+    }
+
+    /**
+     *  Unknown tags and truncated values are refused.
+     */
+    public void testMalformed() throws Exception {
+        try {
+            read(new byte[] { 2 }, "");
+            fail("accepted an unknown tag");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        byte[] bytes = write("jxta://uuid-" + UUID, "jxta://");
+        byte[] truncated = new byte[bytes.length - 3];
+
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        try {
+            read(truncated, "jxta://");
+            fail("accepted a truncated value");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    /**
+     *  The main program to test CompactValue
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(CompactValueTest.class);
+        return suite;
+    }
+}
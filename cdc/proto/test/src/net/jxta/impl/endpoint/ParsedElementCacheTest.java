@@ -0,0 +1,254 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.StringMessageElement;
+
+/**
+ *  A ParsedElementCache unit test
+ */
+public class ParsedElementCacheTest extends TestCase {
+
+    private final static String NS = "test";
+
+    private final static String NAME = "Header";
+
+    private final static MimeMediaType BINARY = new MimeMediaType("application", "x-test-header");
+
+    /**
+     *  A header holding a string. Counts its encodings.
+     */
+    private static class Header implements ParsedElementCache.Parsed {
+
+        String value;
+
+        int encodings = 0;
+
+        Header(String value) {
+            this.value = value;
+        }
+
+        public ParsedElementCache.Parsed copy() {
+            return new Header(value);
+        }
+
+        public MessageElement toElement(String name, boolean binary) throws IOException {
+            encodings++;
+            if (binary) {
+                return new ByteArrayMessageElement(name, BINARY, value.getBytes("UTF-8"), null);
+            }
+            return new StringMessageElement(name, value, null);
+        }
+
+        public boolean isBinary(MessageElement element) {
+            return BINARY.equals(element.getMimeType());
+        }
+    }
+
+    /**
+     *  Constructor for the ParsedElementCacheTest object
+     *
+     *@param  testName  test name
+     */
+    public ParsedElementCacheTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  A parsed header is returned only for the element it was parsed from.
+     */
+    public void testGetAndPut() throws Exception {
+        Message msg = new Message();
+
+        assertNull(ParsedElementCache.get(msg, NS, NAME));
+
+        MessageElement element = new StringMessageElement(NAME, "value", null);
+        Header header = new Header("value");
+
+        msg.addMessageElement(NS, element);
+        assertNull(ParsedElementCache.get(msg, NS, NAME));
+
+        ParsedElementCache.put(msg, NS, element, header);
+        assertSame(header, ParsedElementCache.get(msg, NS, NAME));
+        assertNull(ParsedElementCache.get(msg, "other", NAME));
+
+        // replaced by other means, the cached form is stale.
+        msg.replaceMessageElement(NS, new StringMessageElement(NAME, "other", null));
+        assertNull(ParsedElementCache.get(msg, NS, NAME));
+
+        msg.removeMessageElement(NS, msg.getMessageElement(NS, NAME));
+        assertNull(ParsedElementCache.get(msg, NS, NAME));
+    }
+
+    /**
+     *  setElement() writes the header in the requested form and caches it.
+     */
+    public void testSetElement() throws Exception {
+        Message msg = new Message();
+        Header header = new Header("value");
+
+        ParsedElementCache.setElement(msg, NS, NAME, header, true);
+        assertEquals(BINARY, msg.getMessageElement(NS, NAME).getMimeType());
+        assertSame(header, ParsedElementCache.get(msg, NS, NAME));
+
+        ParsedElementCache.setElement(msg, NS, NAME, header, false);
+        assertFalse(BINARY.equals(msg.getMessageElement(NS, NAME).getMimeType()));
+        assertEquals("value", msg.getMessageElement(NS, NAME).toString());
+        assertSame(header, ParsedElementCache.get(msg, NS, NAME));
+    }
+
+    /**
+     *  copy() gives a copy of a message its own copies of the headers.
+     */
+    public void testCopy() throws Exception {
+        Message msg = new Message();
+        Header header = new Header("value");
+
+        ParsedElementCache.setElement(msg, NS, NAME, header, false);
+
+        Message copy = (Message) msg.clone();
+
+        // properties are not cloned.
+        assertNull(ParsedElementCache.get(copy, NS, NAME));
+
+        ParsedElementCache.copy(msg, copy);
+
+        Header copied = (Header) ParsedElementCache.get(copy, NS, NAME);
+
+        assertNotNull(copied);
+        assertNotSame(header, copied);
+        assertEquals("value", copied.value);
+
+        copied.value = "changed";
+        assertEquals("value", header.value);
+        assertSame(header, ParsedElementCache.get(msg, NS, NAME));
+
+        // a copy whose element was replaced gets nothing.
+        Message other = (Message) msg.clone();
+
+        other.replaceMessageElement(NS, new StringMessageElement(NAME, "other", null));
+        ParsedElementCache.copy(msg, other);
+        assertNull(ParsedElementCache.get(other, NS, NAME));
+    }
+
+    /**
+     *  encode() re-encodes headers in copies of the message, each form at
+     *  most once, and leaves the message unchanged.
+     */
+    public void testEncode() throws Exception {
+        Message msg = new Message();
+        MessageElement xml = new StringMessageElement(NAME, "value", null);
+        Header header = new Header("value");
+
+        msg.addMessageElement(NS, xml);
+        ParsedElementCache.put(msg, NS, xml, header);
+
+        Message first = (Message) msg.clone();
+        Message second = (Message) msg.clone();
+        Message third = (Message) msg.clone();
+
+        ParsedElementCache.encode(msg, first, true);
+        ParsedElementCache.encode(msg, second, true);
+        ParsedElementCache.encode(msg, third, false);
+
+        assertEquals(BINARY, first.getMessageElement(NS, NAME).getMimeType());
+        assertSame(first.getMessageElement(NS, NAME), second.getMessageElement(NS, NAME));
+        assertSame(xml, third.getMessageElement(NS, NAME));
+        assertSame(xml, msg.getMessageElement(NS, NAME));
+        assertEquals(1, header.encodings);
+
+        // a copy whose element was replaced is left alone.
+        Message other = (Message) msg.clone();
+        MessageElement replaced = new StringMessageElement(NAME, "other", null);
+
+        other.replaceMessageElement(NS, replaced);
+        ParsedElementCache.encode(msg, other, true);
+        assertSame(replaced, other.getMessageElement(NS, NAME));
+    }
+
+    /**
+     *  The main program to test ParsedElementCache
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ParsedElementCacheTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A SenderQuotaEngine unit test
+ */
+public class SenderQuotaEngineTest extends TestCase {
+
+    private static final long BUDGET = 1024 * 1024;
+
+    private static final long MSG_SIZE = 64 * 1024;
+
+    /**
+     *  Constructor for the SenderQuotaEngineTest object
+     *
+     *@param  testName  test name
+     */
+    public SenderQuotaEngineTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  Queued messages are accounted for by sender and released.
+     */
+    public void testAccounting() {
+        SenderQuotaEngine engine = new SenderQuotaEngine(BUDGET, 4, 64);
+
+        SenderQuotaEngine.SenderAccount first = engine.obtain("tcp://a", 1000, false);
+        SenderQuotaEngine.SenderAccount second = engine.obtain("tcp://a", 3000, false);
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertNotNull(engine.obtain("tcp://b", 500, false));
+
+        assertEquals(4500, engine.getQueuedBytes());
+        assertEquals(2, engine.getActiveSenders());
+
+        SenderQuotaEngine.SenderMetrics metrics = engine.getSenderMetrics("tcp://a");
+
+        assertEquals("tcp://a", metrics.getSender());
+        assertEquals(4000, metrics.getQueuedBytes());
+        assertEquals(2, metrics.getQueuedMessages());
+        assertEquals(2, metrics.getAcceptedCount());
+
+        engine.release(first, 1000);
+        engine.release(first, 3000);
+
+        metrics = engine.getSenderMetrics("tcp://a");
+        assertEquals(0, metrics.getQueuedBytes());
+        assertEquals(4000, metrics.getPeakQueuedBytes());
+        assertEquals(1, engine.getActiveSenders());
+        assertEquals(500, engine.getQueuedBytes());
+
+        assertNull(engine.getSenderMetrics("tcp://unknown"));
+        assertEquals(2, engine.getSenderMetrics().length);
+    }
+
+    /**
+     *  Nothing is queued beyond the budget, and a refusal is a drop only on
+     *  the last attempt.
+     */
+    public void testBudget() {
+        SenderQuotaEngine engine = new SenderQuotaEngine(BUDGET, 1, 64);
+
+        assertNull(engine.obtain("tcp://a", BUDGET + 1, false));
+        assertEquals(0, engine.getDroppedCount());
+
+        assertNull(engine.obtain("tcp://a", BUDGET + 1, true));
+        assertEquals(1, engine.getDroppedCount());
+        assertEquals(1, engine.getSenderMetrics("tcp://a").getDroppedCount());
+
+        assertNotNull(engine.obtain("tcp://a", BUDGET, false));
+        assertNull(engine.obtain("tcp://b", 1, false));
+    }
+
+    /**
+     *  A busy sender may not take the part of the budget kept for the others.
+     */
+    public void testBusySenderLeavesRoom() {
+        SenderQuotaEngine engine = new SenderQuotaEngine(BUDGET, 4, 64);
+        long queued = 0;
+
+        while (null != engine.obtain("tcp://busy", MSG_SIZE, false)) {
+            queued += MSG_SIZE;
+            assertTrue(queued <= BUDGET);
+        }
+
+        assertTrue("busy sender used the whole budget", queued < BUDGET);
+        assertNotNull(engine.obtain("tcp://quiet", MSG_SIZE, false));
+    }
+
+    /**
+     *  The least recently active idle senders are forgotten first. Looking at
+     *  the metrics of a sender does not count as activity.
+     */
+    public void testForgetsIdleSenders() {
+        SenderQuotaEngine engine = new SenderQuotaEngine(BUDGET, 1, 2);
+
+        engine.release(engine.obtain("tcp://a", 100, false), 100);
+        engine.release(engine.obtain("tcp://b", 100, false), 100);
+
+        assertNotNull(engine.getSenderMetrics("tcp://a"));
+
+        SenderQuotaEngine.SenderAccount c = engine.obtain("tcp://c", 100, false);
+
+        assertNull(engine.getSenderMetrics("tcp://a"));
+        assertNotNull(engine.getSenderMetrics("tcp://b"));
+        assertNotNull(engine.getSenderMetrics("tcp://c"));
+
+        // a sender with messages queued is never forgotten.
+        engine.obtain("tcp://d", 100, false);
+        assertNotNull(engine.getSenderMetrics("tcp://c"));
+        assertSame(c, engine.obtain("tcp://c", 100, false));
+    }
+
+    /**
+     *  The main program to test SenderQuotaEngine
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(SenderQuotaEngineTest.class);
+        return suite;
+    }
+}
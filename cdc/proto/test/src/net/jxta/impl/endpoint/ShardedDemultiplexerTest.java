@@ -0,0 +1,324 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+
+/**
+ *  A ShardedDemultiplexer unit test
+ */
+public class ShardedDemultiplexerTest extends TestCase {
+
+    /**
+     *  Records the messages delivered, optionally holding the workers until
+     *  released.
+     */
+    private static class RecordingEndpoint extends EndpointServiceImpl {
+
+        final List delivered = Collections.synchronizedList(new ArrayList());
+
+        private boolean held = false;
+
+        /**
+         *  If not null, only the messages for this service are held.
+         */
+        private String heldService = null;
+
+        ShardedDemultiplexer stage = null;
+
+        synchronized void hold(boolean hold) {
+            held = hold;
+            heldService = null;
+            notifyAll();
+        }
+
+        synchronized void hold(String service) {
+            heldService = service;
+            held = true;
+        }
+
+        public void processIncomingMessage(Message msg, EndpointAddress srcAddress, EndpointAddress dstAddress) {
+            synchronized (this) {
+                while (held && ((null == heldService) || heldService.equals(dstAddress.getServiceName()))) {
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        return;
+                    }
+                }
+            }
+
+            delivered.add(srcAddress);
+
+            if ("loop".equals(dstAddress.getServiceName())) {
+                // a listener sending to itself from the worker thread.
+                stage.demux(new Message(), address("looped", 0), address("done", 0));
+            }
+        }
+    }
+
+    /**
+     *  Constructor for the ShardedDemultiplexerTest object
+     *
+     *@param  testName  test name
+     */
+    public ShardedDemultiplexerTest(String testName) {
+        super(testName);
+    }
+
+    private static EndpointAddress address(String source, int seq) {
+        return new EndpointAddress("test", "peer", source, Integer.toString(seq));
+    }
+
+    private static void waitFor(List delivered, int count) throws InterruptedException {
+        long until = System.currentTimeMillis() + 10000;
+
+        while ((delivered.size() < count) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     *  The messages of each service are delivered in the order they were
+     *  queued, whatever worker they are assigned to, even when they are read
+     *  from different connections.
+     */
+    public void testServiceOrder() throws Exception {
+        RecordingEndpoint endpoint = new RecordingEndpoint();
+        ShardedDemultiplexer stage = new ShardedDemultiplexer(endpoint, Thread.currentThread().getThreadGroup(), 4, 1000);
+        Object[] sources = new Object[16];
+
+        for (int each = 0; each < sources.length; each++) {
+            sources[each] = new Object();
+        }
+
+        try {
+            for (int seq = 0; seq < 50; seq++) {
+                for (int each = 0; each < sources.length; each++) {
+                    stage.demux(new Message(), address("src" + each, seq), address("dst" + each, 0), sources[seq % sources.length], null);
+                }
+            }
+
+            waitFor(endpoint.delivered, 50 * sources.length);
+            assertEquals(50 * sources.length, endpoint.delivered.size());
+
+            Map last = new HashMap();
+            Object[] delivered = endpoint.delivered.toArray();
+
+            for (int each = 0; each < delivered.length; each++) {
+                EndpointAddress src = (EndpointAddress) delivered[each];
+                int seq = Integer.parseInt(src.getServiceParameter());
+                Integer previous = (Integer) last.put(src.getServiceName(), new Integer(seq));
+
+                assertTrue("out of order for " + src.getServiceName(), (null == previous) ? (0 == seq) : (previous.intValue() + 1 == seq));
+            }
+        } finally {
+            stage.close();
+        }
+    }
+
+    /**
+     *  Messages are assigned to a worker by the service name and parameter
+     *  of their destination, and a slow service does not hold up the
+     *  services of the other workers.
+     */
+    public void testSlowService() throws Exception {
+        RecordingEndpoint endpoint = new RecordingEndpoint();
+        ShardedDemultiplexer stage = new ShardedDemultiplexer(endpoint, Thread.currentThread().getThreadGroup(), 4, 1000);
+
+        try {
+            assertEquals(stage.shard(address("svc", 1)), stage.shard(new EndpointAddress("other", "peer2", "svc", "1")));
+
+            String fast = null;
+
+            for (int each = 0; null == fast; each++) {
+                if (stage.shard(address("svc" + each, 0)) != stage.shard(address("slow", 0))) {
+                    fast = "svc" + each;
+                }
+            }
+
+            endpoint.hold("slow");
+
+            Object source = new Object();
+
+            stage.demux(new Message(), address("a", 0), address("slow", 0), source, null);
+            for (int seq = 0; seq < 10; seq++) {
+                stage.demux(new Message(), address("b", seq), address(fast, 0), source, null);
+            }
+
+            waitFor(endpoint.delivered, 10);
+            assertEquals(10, endpoint.delivered.size());
+
+            endpoint.hold(false);
+            waitFor(endpoint.delivered, 11);
+            assertEquals(11, endpoint.delivered.size());
+        } finally {
+            endpoint.hold(false);
+            stage.close();
+        }
+    }
+
+    /**
+     *  A caller which must not wait is told to stop once the queue is full,
+     *  its messages are kept, and it is resumed once the queue drains.
+     */
+    public void testPauseAndResume() throws Exception {
+        RecordingEndpoint endpoint = new RecordingEndpoint();
+        ShardedDemultiplexer stage = new ShardedDemultiplexer(endpoint, Thread.currentThread().getThreadGroup(), 1, 4);
+        final boolean[] resumed = new boolean[1];
+        Runnable resume = new Runnable() {
+            public void run() {
+                synchronized (resumed) {
+                    resumed[0] = true;
+                    resumed.notifyAll();
+                }
+            }
+        };
+        Object source = new Object();
+
+        try {
+            endpoint.hold(true);
+
+            int accepted = 0;
+            int seq = 0;
+
+            // the worker may have taken the first message before it blocked.
+            while (stage.demux(new Message(), address("src", seq++), address("dst", 0), source, resume)) {
+                accepted++;
+                assertTrue("never full", accepted < 10);
+            }
+
+            assertTrue(stage.getStallCount() > 0);
+
+            synchronized (resumed) {
+                assertFalse(resumed[0]);
+            }
+
+            endpoint.hold(false);
+
+            synchronized (resumed) {
+                long until = System.currentTimeMillis() + 10000;
+
+                while (!resumed[0] && (System.currentTimeMillis() < until)) {
+                    resumed.wait(100);
+                }
+                assertTrue("not resumed", resumed[0]);
+            }
+
+            waitFor(endpoint.delivered, seq);
+            assertEquals("refused message lost", seq, endpoint.delivered.size());
+        } finally {
+            endpoint.hold(false);
+            stage.close();
+        }
+    }
+
+    /**
+     *  A worker demultiplexing a message into a full queue does not wait for
+     *  itself.
+     */
+    public void testLoopbackFromWorker() throws Exception {
+        RecordingEndpoint endpoint = new RecordingEndpoint();
+        ShardedDemultiplexer stage = new ShardedDemultiplexer(endpoint, Thread.currentThread().getThreadGroup(), 1, 1);
+
+        endpoint.stage = stage;
+
+        try {
+            for (int seq = 0; seq < 20; seq++) {
+                stage.demux(new Message(), address("src", seq), new EndpointAddress("test", "peer", "loop", null));
+            }
+
+            waitFor(endpoint.delivered, 40);
+            assertEquals(40, endpoint.delivered.size());
+        } finally {
+            stage.close();
+        }
+    }
+
+    /**
+     *  The main program to test ShardedDemultiplexer
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ShardedDemultiplexerTest.class);
+        return suite;
+    }
+}
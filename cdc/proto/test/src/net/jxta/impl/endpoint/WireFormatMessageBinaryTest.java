@@ -0,0 +1,239 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+
+import net.jxta.impl.util.BufferPool;
+
+/**
+ *  A WireFormatMessageBinary unit test. Checks that elements which share a
+ *  pooled buffer never let the buffer be reused while it can still be read.
+ */
+public class WireFormatMessageBinaryTest extends TestCase {
+
+    private static final MimeMediaType appMsg = new MimeMediaType("application/x-jxta-msg");
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private BufferPool pool;
+
+    private byte[] content;
+
+    /**
+     *  Constructor for the WireFormatMessageBinaryTest object
+     *
+     *@param  testName  test name
+     */
+    public WireFormatMessageBinaryTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void setUp() {
+        pool = new BufferPool(64 * 1024, 1024 * 1024);
+
+        content = new byte[1000];
+        for (int each = 0; each < content.length; each++) {
+            content[each] = (byte) each;
+        }
+    }
+
+    /**
+     *  Serializes a message into a pooled buffer and reads it back as a
+     *  message sharing the buffer.
+     */
+    private Message sharedMessage(byte[] buffer) throws Exception {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new ByteArrayMessageElement("content", MimeMediaType.AOS, content, null));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        WireFormatMessageFactory.toWire(msg, appMsg, (MimeMediaType[]) null).sendToStream(out);
+
+        byte[] serialed = out.toByteArray();
+
+        System.arraycopy(serialed, 0, buffer, 0, serialed.length);
+
+        return WireFormatMessageFactory.fromBuffer(buffer, 0, serialed.length, appMsg, null, pool.lease(buffer));
+    }
+
+    /**
+     *  Collects garbage and returns true if the pool hands out the buffer.
+     */
+    private boolean reclaimed(byte[] buffer) throws InterruptedException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            System.gc();
+            Thread.sleep(20);
+
+            byte[] again = pool.acquire(BUFFER_SIZE);
+
+            if (again == buffer) {
+                return true;
+            }
+
+            pool.release(again);
+        }
+
+        return false;
+    }
+
+    /**
+     *  A stream of a shared element keeps the buffer out of the pool until it
+     *  has been fully read.
+     */
+    public void testStreamHoldsBuffer() throws Exception {
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+        InputStream stream = sharedMessage(buffer).getMessageElement("test", "content").getStream();
+
+        // the message and its lease are gone. Only the stream remains.
+        assertFalse(reclaimed(buffer));
+
+        byte[] read = new byte[content.length];
+        int got = 0;
+
+        while (got < read.length) {
+            int count = stream.read(read, got, read.length - got);
+
+            assertTrue(count > 0);
+            got += count;
+        }
+
+        assertEquals(-1, stream.read());
+
+        for (int each = 0; each < content.length; each++) {
+            assertEquals(content[each], read[each]);
+        }
+
+        // fully read; the stream no longer holds the buffer.
+        assertTrue(reclaimed(buffer));
+        stream.reset();
+        assertEquals(-1, stream.read());
+    }
+
+    /**
+     *  A closed stream gives up the buffer.
+     */
+    public void testClosedStreamReleases() throws Exception {
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+        InputStream stream = sharedMessage(buffer).getMessageElement("test", "content").getStream();
+
+        assertEquals(0, stream.read());
+        stream.close();
+
+        assertTrue(reclaimed(buffer));
+        assertEquals(-1, stream.read());
+    }
+
+    /**
+     *  The bytes of a shared element are a copy which stays valid once the
+     *  buffer is reused.
+     */
+    public void testGetBytesCopies() throws Exception {
+        byte[] buffer = pool.acquire(BUFFER_SIZE);
+        MessageElement element = sharedMessage(buffer).getMessageElement("test", "content");
+        byte[] bytes = element.getBytes(false);
+
+        assertTrue(bytes != buffer);
+        element = null;
+
+        assertTrue(reclaimed(buffer));
+
+        for (int each = 0; each < buffer.length; each++) {
+            buffer[each] = 0;
+        }
+
+        for (int each = 0; each < content.length; each++) {
+            assertEquals(content[each], bytes[each]);
+        }
+    }
+
+    /**
+     *  The main program to test WireFormatMessageBinary
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(WireFormatMessageBinaryTest.class);
+        return suite;
+    }
+}
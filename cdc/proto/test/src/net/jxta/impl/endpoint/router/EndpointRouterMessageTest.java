@@ -0,0 +1,287 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.router;
+
+import java.util.Vector;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.AccessPointAdvertisement;
+import net.jxta.protocol.RouteAdvertisement;
+
+/**
+ *  A EndpointRouterMessage unit test
+ */
+public class EndpointRouterMessageTest extends TestCase {
+
+    private final PeerID src = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+    private final PeerID dest = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+    /**
+     *  Constructor for the EndpointRouterMessageTest object
+     *
+     *@param  testName  test name
+     */
+    public EndpointRouterMessageTest(String testName) {
+        super(testName);
+    }
+
+    private static EndpointAddress address(PeerID pid) {
+        return new EndpointAddress("jxta", pid.getUniqueValue().toString(), "EndpointRouter", "jxta-NetGroup");
+    }
+
+    private static AccessPointAdvertisement hop(String address) {
+        AccessPointAdvertisement ap = (AccessPointAdvertisement)
+                                      AdvertisementFactory.newAdvertisement(AccessPointAdvertisement.getAdvertisementType());
+
+        ap.setPeerID(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID));
+        ap.addEndpointAddress(address);
+        return ap;
+    }
+
+    private static Vector hops(int count, String prefix) {
+        Vector hops = new Vector();
+
+        for (int each = 0; each < count; each++) {
+            hops.addElement(hop(prefix + each + ":9701"));
+        }
+
+        return hops;
+    }
+
+    /**
+     *  Fills a header with every field.
+     */
+    private EndpointRouterMessage fill(Message msg, boolean binary) {
+        EndpointRouterMessage erm = new EndpointRouterMessage(msg, false);
+
+        erm.setBinary(binary);
+        erm.setSrcAddress(address(src));
+        erm.setDestAddress(address(dest));
+        erm.setLastHop(src.getUniqueValue().toString());
+        erm.setForwardHops(hops(2, "tcp://10.0.0."));
+        erm.setReverseHops(hops(3, "tcp://10.0.1."));
+        erm.setRouteAdv(RouteAdvertisement.newRoute(dest, hops(1, "tcp://10.0.2.")));
+        erm.updateMessage();
+
+        return erm;
+    }
+
+    private static void assertSameHeader(EndpointRouterMessage expected, EndpointRouterMessage actual) {
+        assertTrue(actual.msgExists());
+        assertFalse(actual.isDirty());
+        assertEquals(expected.getSrcAddress(), actual.getSrcAddress());
+        assertEquals(expected.getDestAddress(), actual.getDestAddress());
+        assertEquals(expected.getLastHop(), actual.getLastHop());
+        assertEquals(expected.getForwardHops(), actual.getForwardHops());
+        assertEquals(expected.getReverseHops(), actual.getReverseHops());
+        assertEquals(expected.getRouteAdv(), actual.getRouteAdv());
+    }
+
+    /**
+     *  The XML form reads back and tells that the writer accepts the binary
+     *  form.
+     */
+    public void testXml() throws Exception {
+        Message msg = new Message();
+        EndpointRouterMessage written = fill(msg, false);
+        MessageElement element = msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME);
+
+        assertFalse(EndpointRouterMessage.BINARY_MIMETYPE.equals(element.getMimeType()));
+
+        EndpointRouterMessage read = new EndpointRouterMessage(msg, false);
+
+        assertSameHeader(written, read);
+        assertTrue(read.acceptsBinary());
+    }
+
+    /**
+     *  The binary form reads back, is smaller than XML and is answered in
+     *  kind.
+     */
+    public void testBinary() throws Exception {
+        Message xmlMsg = new Message();
+        Message msg = new Message();
+
+        fill(xmlMsg, false);
+
+        EndpointRouterMessage written = fill(msg, true);
+        MessageElement element = msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME);
+
+        assertEquals(EndpointRouterMessage.BINARY_MIMETYPE, element.getMimeType());
+        assertTrue(element.getByteLength() < xmlMsg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME).getByteLength());
+
+        EndpointRouterMessage read = new EndpointRouterMessage(msg, false);
+
+        assertSameHeader(written, read);
+        assertTrue(read.acceptsBinary());
+
+        // an updated header is written back in the binary form.
+        read.setLastHop(dest.getUniqueValue().toString());
+        read.updateMessage();
+        assertEquals(EndpointRouterMessage.BINARY_MIMETYPE,
+                     msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME).getMimeType());
+
+        // and may be switched to XML.
+        read.setBinary(false);
+        assertTrue(read.isDirty());
+        read.updateMessage();
+        assertFalse(EndpointRouterMessage.BINARY_MIMETYPE.equals(
+                        msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME).getMimeType()));
+        assertSameHeader(read, new EndpointRouterMessage(msg, false));
+    }
+
+    /**
+     *  A forwarded binary header keeps the sections it was received with
+     *  and prepends new reverse hops.
+     */
+    public void testForward() throws Exception {
+        Message msg = new Message();
+
+        fill(msg, true);
+
+        EndpointRouterMessage received = new EndpointRouterMessage(msg, false);
+        Vector reverse = received.getReverseHops();
+        AccessPointAdvertisement mine = hop("tcp://10.0.3.1:9701");
+
+        received.prependReverseHop(mine);
+        received.setLastHop(dest.getUniqueValue().toString());
+        received.updateMessage();
+
+        EndpointRouterMessage forwarded = new EndpointRouterMessage(msg, false);
+
+        reverse.add(0, mine);
+        assertEquals(reverse, forwarded.getReverseHops());
+        assertSameHeader(received, forwarded);
+
+        // sections replaced after reading are encoded again.
+        Vector forward = hops(4, "tcp://10.0.4.");
+
+        forwarded.setForwardHops(forward);
+        forwarded.setReverseHops(null);
+        forwarded.setRouteAdv(null);
+        forwarded.updateMessage();
+
+        EndpointRouterMessage again = new EndpointRouterMessage(msg, false);
+
+        assertEquals(forward, again.getForwardHops());
+        assertNull(again.getReverseHops());
+        assertNull(again.getRouteAdv());
+    }
+
+    /**
+     *  A binary header which cannot be read is reported as missing and
+     *  removed by the next update.
+     */
+    public void testMalformed() throws Exception {
+        Message msg = new Message();
+        byte[][] invalid = {
+            new byte[0],
+            new byte[] { 2, 0, 0, 0, 0, 0 },
+            new byte[] { 1, 1, 0 },
+            new byte[] { 1, 0, 0, 1 },
+            new byte[] { 1, 0, 0, 0, 0, 0, 7 },
+            new byte[] { 1, 8, 0, 0, 0, 0, 0, 0, 0, 9, 1, 2 }
+        };
+
+        for (int each = 0; each < invalid.length; each++) {
+            msg.replaceMessageElement(EndpointRouterMessage.MESSAGE_NS,
+                                      new ByteArrayMessageElement(EndpointRouterMessage.MESSAGE_NAME, EndpointRouterMessage.BINARY_MIMETYPE, invalid[each], null));
+
+            EndpointRouterMessage erm = new EndpointRouterMessage(msg, false);
+
+            assertFalse("invalid #" + each, erm.msgExists());
+            assertTrue("invalid #" + each, erm.isDirty());
+
+            erm.updateMessage();
+            assertNull("invalid #" + each, msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME));
+        }
+    }
+
+    /**
+     *  The main program to test EndpointRouterMessage
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(EndpointRouterMessageTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.PeerGroupID;
+
+import net.jxta.impl.endpoint.WireFormatMessage;
+import net.jxta.impl.endpoint.WireFormatMessageFactory;
+import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
+import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
+import net.jxta.impl.util.BufferPool;
+
+/**
+ *  A TcpFrameDecoder unit test
+ */
+public class TcpFrameDecoderTest extends TestCase {
+
+    private static final MimeMediaType appMsg = new MimeMediaType("application/x-jxta-msg");
+
+    private final BufferPool pool = new BufferPool(64 * 1024, 1024 * 1024);
+
+    /**
+     *  Constructor for the TcpFrameDecoderTest object
+     *
+     *@param  testName  test name
+     */
+    public TcpFrameDecoderTest(String testName) {
+        super(testName);
+    }
+
+    private static byte[] welcome() throws IOException {
+        EndpointAddress addr = new EndpointAddress("tcp", "127.0.0.1:9701", null, null);
+        WelcomeMessage welcome = new WelcomeMessage(addr, addr, IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID), false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        welcome.sendToStream(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] frame(String content, int extraHeaders) throws IOException {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new StringMessageElement("content", content, null));
+
+        WireFormatMessage serialed = WireFormatMessageFactory.toWire(msg, appMsg, (MimeMediaType[]) null);
+        MessagePackageHeader header = new MessagePackageHeader();
+
+        for (int each = 0; each < extraHeaders; each++) {
+            header.addHeader("x-test-" + each, ("value " + each).getBytes());
+        }
+
+        header.setContentTypeHeader(serialed.getMimeType());
+        header.setContentLengthHeader(serialed.getByteLength());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        header.sendToStream(out);
+        serialed.sendToStream(out);
+        return out.toByteArray();
+    }
+
+    private static String content(Message msg) {
+        MessageElement elem = msg.getMessageElement("test", "content");
+
+        assertNotNull("content element missing", elem);
+        return elem.toString();
+    }
+
+    /**
+     *  A welcome message followed by messages, fed a byte at a time.
+     */
+    public void testByteAtATime() throws Exception {
+        TcpFrameDecoder decoder = new TcpFrameDecoder(true, pool, 1024 * 1024);
+        TcpFrameDecoder.Frame frame = new TcpFrameDecoder.Frame();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        stream.write(welcome());
+        stream.write(frame("first", 0));
+        stream.write(frame("second", 3));
+
+        byte[] bytes = stream.toByteArray();
+        int welcomes = 0;
+        StringBuffer contents = new StringBuffer();
+
+        for (int each = 0; each < bytes.length; each++) {
+            assertEquals(1, decoder.decode(bytes, each, 1, frame));
+
+            if (null != frame.welcome) {
+                welcomes++;
+            }
+            if (null != frame.message) {
+                contents.append(content(frame.message)).append(' ');
+            }
+        }
+
+        assertEquals(1, welcomes);
+        assertNotNull(decoder.getWelcome());
+        assertEquals("first second ", contents.toString());
+        assertFalse(decoder.inFrame());
+    }
+
+    /**
+     *  Decoding stops after each frame so that the caller may act on it.
+     */
+    public void testStopsAfterEachFrame() throws Exception {
+        TcpFrameDecoder decoder = new TcpFrameDecoder(false, pool, 1024 * 1024);
+        TcpFrameDecoder.Frame frame = new TcpFrameDecoder.Frame();
+        byte[] first = frame("one", 0);
+        byte[] second = frame("two", 0);
+        byte[] both = new byte[first.length + second.length];
+
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        assertEquals(first.length, decoder.decode(both, 0, both.length, frame));
+        assertEquals("one", content(frame.message));
+        assertEquals(second.length, decoder.decode(both, first.length, second.length, frame));
+        assertEquals("two", content(frame.message));
+    }
+
+    /**
+     *  A header with many tuples, split at every position, is recognized
+     *  once it is complete and not before.
+     */
+    public void testLargeHeader() throws Exception {
+        byte[] bytes = frame("big", 2000);
+
+        for (int split = 1; split < bytes.length; split += 997) {
+            TcpFrameDecoder decoder = new TcpFrameDecoder(false, pool, 1024 * 1024);
+            TcpFrameDecoder.Frame frame = new TcpFrameDecoder.Frame();
+
+            assertEquals(split, decoder.decode(bytes, 0, split, frame));
+            assertNull(frame.message);
+            assertTrue(decoder.inFrame());
+            assertEquals(bytes.length - split, decoder.decode(bytes, split, bytes.length - split, frame));
+            assertEquals("big", content(frame.message));
+        }
+    }
+
+    /**
+     *  A declared body length above the limit is refused before any body
+     *  buffer is allocated.
+     */
+    public void testBodyTooLarge() throws Exception {
+        MessagePackageHeader header = new MessagePackageHeader();
+
+        header.setContentTypeHeader(appMsg);
+        header.setContentLengthHeader(Integer.MAX_VALUE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        header.sendToStream(out);
+
+        byte[] bytes = out.toByteArray();
+        TcpFrameDecoder decoder = new TcpFrameDecoder(false, pool, 1024 * 1024);
+
+        try {
+            decoder.decode(bytes, 0, bytes.length, new TcpFrameDecoder.Frame());
+            fail("accepted a body larger than the limit");
+        } catch (IOException expected) {
+            ;
+        }
+    }
+
+    /**
+     *  A negative header name length is a framing error.
+     */
+    public void testBadHeader() throws Exception {
+        TcpFrameDecoder decoder = new TcpFrameDecoder(false, pool, 1024 * 1024);
+
+        try {
+            decoder.decode(new byte[] { (byte) 0x90, 'x' }, 0, 2, new TcpFrameDecoder.Frame());
+            fail("accepted a bad header");
+        } catch (IOException expected) {
+            ;
+        }
+    }
+
+    /**
+     *  An unterminated welcome message is refused once it is too long.
+     */
+    public void testWelcomeTooLong() throws Exception {
+        TcpFrameDecoder decoder = new TcpFrameDecoder(true, pool, 1024 * 1024);
+        byte[] junk = new byte[8192];
+
+        java.util.Arrays.fill(junk, (byte) 'j');
+
+        try {
+            decoder.decode(junk, 0, junk.length, new TcpFrameDecoder.Frame());
+            fail("accepted an endless welcome");
+        } catch (IOException expected) {
+            ;
+        }
+    }
+
+    /**
+     *  The main program to test TcpFrameDecoder
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(TcpFrameDecoderTest.class);
+        return suite;
+    }
+}
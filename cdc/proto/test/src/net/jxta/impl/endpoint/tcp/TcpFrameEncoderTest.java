@@ -0,0 +1,194 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+
+import net.jxta.impl.endpoint.WireFormatMessageBinary;
+import net.jxta.impl.endpoint.WireFormatMessageFactory;
+import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
+import net.jxta.impl.util.BufferPool;
+
+/**
+ *  A TcpFrameEncoder unit test. Frames are encoded and then decoded by a
+ *  TcpFrameDecoder.
+ */
+public class TcpFrameEncoderTest extends TestCase {
+
+    private static final MimeMediaType appMsg = new MimeMediaType("application/x-jxta-msg");
+
+    private final BufferPool pool = new BufferPool(64 * 1024, 1024 * 1024);
+
+    /**
+     *  Constructor for the TcpFrameEncoderTest object
+     *
+     *@param  testName  test name
+     */
+    public TcpFrameEncoderTest(String testName) {
+        super(testName);
+    }
+
+    private static byte[] gather(ByteBuffer[] buffers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (int each = 0; each < buffers.length; each++) {
+            ByteBuffer buffer = buffers[each].duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+
+            buffer.get(bytes);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     *  Encodes a message with a slice of a larger array as its element and
+     *  checks the frame decodes to the same contents.
+     */
+    private void roundTrip(int headerSpace, int extraHeaders) throws Exception {
+        byte[] backing = new byte[3000];
+
+        for (int each = 0; each < backing.length; each++) {
+            backing[each] = (byte) (each * 7);
+        }
+
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new ByteArrayMessageElement("content", MimeMediaType.AOS, backing, 1000, 1500, null));
+
+        WireFormatMessageBinary serialed = (WireFormatMessageBinary) WireFormatMessageFactory.toWire(msg, appMsg, (MimeMediaType[]) null);
+        MessagePackageHeader header = new MessagePackageHeader();
+
+        for (int each = 0; each < extraHeaders; each++) {
+            header.addHeader("x-test-" + each, ("value " + each).getBytes());
+        }
+
+        header.setContentTypeHeader(serialed.getMimeType());
+        header.setContentLengthHeader(serialed.getByteLength());
+
+        ByteBuffer[] buffers = new TcpFrameEncoder(headerSpace).encode(header, serialed);
+        boolean viewOfSlice = false;
+
+        for (int each = 0; each < buffers.length; each++) {
+            if (buffers[each].isReadOnly() && (1500 == buffers[each].remaining())) {
+                viewOfSlice = true;
+            }
+        }
+
+        assertTrue("element contents were copied", viewOfSlice);
+
+        byte[] bytes = gather(buffers);
+        TcpFrameDecoder decoder = new TcpFrameDecoder(false, pool, 1024 * 1024);
+        TcpFrameDecoder.Frame frame = new TcpFrameDecoder.Frame();
+
+        assertEquals(bytes.length, decoder.decode(bytes, 0, bytes.length, frame));
+        assertNotNull(frame.message);
+
+        byte[] content = frame.message.getMessageElement("test", "content").getBytes(true);
+
+        assertEquals(1500, content.length);
+        for (int each = 0; each < content.length; each++) {
+            assertEquals(backing[1000 + each], content[each]);
+        }
+    }
+
+    /**
+     *  The package header fits in the header space.
+     */
+    public void testSlicedElement() throws Exception {
+        roundTrip(4096, 0);
+    }
+
+    /**
+     *  The package header is larger than the header space.
+     */
+    public void testLargeHeader() throws Exception {
+        roundTrip(256, 100);
+    }
+
+    /**
+     *  The main program to test TcpFrameEncoder
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(TcpFrameEncoderTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint.tcp;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.Messenger;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroup;
+import net.jxta.peergroup.PeerGroupID;
+
+import net.jxta.impl.endpoint.EndpointServiceImpl;
+import net.jxta.impl.endpoint.WireFormatMessage;
+import net.jxta.impl.endpoint.WireFormatMessageFactory;
+import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
+import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
+
+/**
+ *  A TcpSelectorPool unit test. A plain socket talks to a transport running
+ *  selector loops.
+ */
+public class TcpSelectorPoolTest extends TestCase {
+
+    private static final MimeMediaType appMsg = new MimeMediaType("application/x-jxta-msg");
+
+    private static final EndpointAddress serverAddress = new EndpointAddress("tcp", "127.0.0.1:0", null, null);
+
+    /**
+     *  A transport which does not need to be initialized by a peer group.
+     */
+    private static class TestTransport extends TcpTransport {
+
+        final List ready = Collections.synchronizedList(new ArrayList());
+
+        public EndpointAddress getPublicAddress() {
+            return (EndpointAddress) serverAddress.clone();
+        }
+
+        void messengerReadyEvent(Messenger newMessenger, EndpointAddress connAddr) {
+            ready.add(Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     *  Records the messages delivered, optionally holding delivery until
+     *  released.
+     */
+    private static class RecordingEndpoint extends EndpointServiceImpl {
+
+        final List delivered = Collections.synchronizedList(new ArrayList());
+
+        final List threads = Collections.synchronizedList(new ArrayList());
+
+        private boolean held = false;
+
+        synchronized void hold(boolean hold) {
+            held = hold;
+            notifyAll();
+        }
+
+        public void processIncomingMessage(Message msg, EndpointAddress srcAddress, EndpointAddress dstAddress) {
+            synchronized (this) {
+                while (held) {
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        return;
+                    }
+                }
+            }
+
+            delivered.add(msg.getMessageElement("test", "content").toString());
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+
+    private TestTransport transport;
+
+    private RecordingEndpoint endpoint;
+
+    private IncomingUnicastServer server;
+
+    /**
+     *  Constructor for the TcpSelectorPoolTest object
+     *
+     *@param  testName  test name
+     */
+    public TcpSelectorPoolTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        final PeerID peerID = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        final ThreadGroup threads = Thread.currentThread().getThreadGroup();
+
+        PeerGroup group = (PeerGroup) Proxy.newProxyInstance(PeerGroup.class.getClassLoader(), new Class[] { PeerGroup.class }, new InvocationHandler() {
+                              public Object invoke(Object proxy, Method method, Object[] args) {
+                                  String name = method.getName();
+
+                                  if ("getPeerID".equals(name)) {
+                                      return peerID;
+                                  } else if ("getPeerGroupID".equals(name)) {
+                                      return PeerGroupID.defaultNetPeerGroupID;
+                                  } else if ("getHomeThreadGroup".equals(name)) {
+                                      return threads;
+                                  }
+                                  return null;
+                              }
+                          });
+
+        endpoint = new RecordingEndpoint();
+
+        // the endpoint creates its hand-off stage in the thread group of the
+        // peer group.
+        Field groupField = EndpointServiceImpl.class.getDeclaredField("group");
+
+        groupField.setAccessible(true);
+        groupField.set(endpoint, group);
+
+        transport = new TestTransport();
+        transport.group = group;
+        transport.endpoint = endpoint;
+        transport.myThreadGroup = threads;
+        transport.selectorPool = new TcpSelectorPool(transport, 1);
+
+        server = new IncomingUnicastServer(transport, InetAddress.getByName("127.0.0.1"), 0, 0, 0);
+        assertTrue(server.start(threads));
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void tearDown() throws Exception {
+        endpoint.hold(false);
+        server.stop();
+        transport.selectorPool.close();
+        endpoint.stopApp();
+    }
+
+    /**
+     *  Connects to the server and exchanges welcome messages.
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getLocalSocketAddress().getPort());
+
+        socket.setSoTimeout(10000);
+
+        WelcomeMessage theirs = new WelcomeMessage(socket.getInputStream());
+
+        assertEquals(transport.group.getPeerID(), theirs.getPeerID());
+
+        EndpointAddress mine = new EndpointAddress("tcp", "127.0.0.1:" + socket.getLocalPort(), null, null);
+        WelcomeMessage welcome = new WelcomeMessage(mine, mine, IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID), false);
+        OutputStream out = socket.getOutputStream();
+
+        welcome.sendToStream(out);
+        out.flush();
+
+        return socket;
+    }
+
+    private static void send(OutputStream out, String content) throws IOException {
+        Message msg = new Message();
+
+        msg.addMessageElement(EndpointServiceImpl.MESSAGE_DESTINATION_NS, new StringMessageElement(EndpointServiceImpl.MESSAGE_DESTINATION_NAME, "tcp://127.0.0.1:0/test/param", null));
+        msg.addMessageElement(EndpointServiceImpl.MESSAGE_SOURCE_NS, new StringMessageElement(EndpointServiceImpl.MESSAGE_SOURCE_NAME, "tcp://127.0.0.1:1", null));
+        msg.addMessageElement("test", new StringMessageElement("content", content, null));
+
+        WireFormatMessage serialed = WireFormatMessageFactory.toWire(msg, appMsg, (MimeMediaType[]) null);
+        MessagePackageHeader header = new MessagePackageHeader();
+
+        header.setContentTypeHeader(serialed.getMimeType());
+        header.setContentLengthHeader(serialed.getByteLength());
+        header.sendToStream(out);
+        serialed.sendToStream(out);
+    }
+
+    private static void waitFor(List list, int count) throws InterruptedException {
+        long until = System.currentTimeMillis() + 20000;
+
+        while ((list.size() < count) && (System.currentTimeMillis() < until)) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     *  Accepted connections are announced, and their messages delivered in
+     *  order, by threads other than the selector loop.
+     */
+    public void testAcceptAndDeliver() throws Exception {
+        Socket socket = connect();
+
+        try {
+            waitFor(transport.ready, 1);
+            assertEquals(1, transport.ready.size());
+            assertEquals("TCP Unicast Server Connection Setup", transport.ready.get(0));
+
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            for (int each = 0; each < 10; each++) {
+                send(out, "msg" + each);
+            }
+            out.flush();
+
+            waitFor(endpoint.delivered, 10);
+            assertEquals(10, endpoint.delivered.size());
+
+            for (int each = 0; each < 10; each++) {
+                assertEquals("msg" + each, endpoint.delivered.get(each));
+                assertTrue("delivered by " + endpoint.threads.get(each), ((String) endpoint.threads.get(each)).startsWith("Endpoint Demux"));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     *  While the messages of one connection cannot be delivered, the selector
+     *  loop keeps serving the other connections and nothing is lost.
+     */
+    public void testBackpressurePausesOneConnection() throws Exception {
+        endpoint.hold(true);
+
+        Socket busy = connect();
+        Socket other = null;
+
+        try {
+            OutputStream out = new BufferedOutputStream(busy.getOutputStream());
+            int count = 500;
+
+            for (int each = 0; each < count; each++) {
+                send(out, "msg" + each);
+            }
+            out.flush();
+
+            waitFor(transport.ready, 1);
+
+            // the loop is not blocked: another connection gets through.
+            other = connect();
+            waitFor(transport.ready, 2);
+            assertEquals(2, transport.ready.size());
+            assertTrue(endpoint.getDemuxStage() == null);
+
+            endpoint.hold(false);
+
+            waitFor(endpoint.delivered, count);
+            assertEquals(count, endpoint.delivered.size());
+
+            for (int each = 0; each < count; each++) {
+                assertEquals("msg" + each, endpoint.delivered.get(each));
+            }
+        } finally {
+            busy.close();
+
+            if (null != other) {
+                other.close();
+            }
+        }
+    }
+
+    /**
+     *  The main program to test TcpSelectorPool
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(TcpSelectorPoolTest.class);
+        return suite;
+    }
+}
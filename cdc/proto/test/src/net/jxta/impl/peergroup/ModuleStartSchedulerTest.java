@@ -0,0 +1,393 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.peergroup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.Advertisement;
+import net.jxta.id.ID;
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.PeerGroup;
+import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
+
+/**
+ *  A ModuleStartScheduler unit test
+ */
+public class ModuleStartSchedulerTest extends TestCase {
+
+    /**
+     *  The names of the modules in the order their startApp returned.
+     */
+    private final List started = Collections.synchronizedList(new ArrayList());
+
+    /**
+     *  The threads which invoked startApp.
+     */
+    private final List threads = Collections.synchronizedList(new ArrayList());
+
+    /**
+     *  A module which returns a scripted sequence of results, repeating the
+     *  last one.
+     */
+    private class ScriptedModule implements Module {
+
+        final String name;
+
+        private final int[] results;
+
+        private final long delay;
+
+        int invocations = 0;
+
+        ScriptedModule(String name, int[] results, long delay) {
+            this.name = name;
+            this.results = results;
+            this.delay = delay;
+        }
+
+        ScriptedModule(String name) {
+            this(name, new int[] { Module.START_OK }, 0);
+        }
+
+        public void init(PeerGroup group, ID assignedID, Advertisement implAdv) {
+        }
+
+        public int startApp(String[] args) {
+            threads.add(Thread.currentThread());
+
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException woken) {
+                    Thread.interrupted();
+                }
+            }
+
+            int result;
+
+            synchronized (this) {
+                result = results[Math.min(invocations, results.length - 1)];
+                invocations++;
+            }
+
+            if (Module.START_OK == result) {
+                started.add(name);
+            }
+            return result;
+        }
+
+        public void stopApp() {
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     *  A module which declares the modules it depends upon.
+     */
+    private class DependentModule extends ScriptedModule implements ModuleDependencies {
+
+        private final ModuleClassID[] depends;
+
+        DependentModule(String name, ModuleClassID[] depends) {
+            super(name);
+            this.depends = depends;
+        }
+
+        public ModuleClassID[] getStartDependencies() {
+            return depends;
+        }
+    }
+
+    /**
+     *  Constructor for the ModuleStartSchedulerTest object
+     *
+     *@param  testName  test name
+     */
+    public ModuleStartSchedulerTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  A module starts only after the modules it depends upon, whether the
+     *  dependency is added or declared by the module.
+     */
+    public void testDependencyOrder() {
+        ModuleClassID first = IDFactory.newModuleClassID();
+        ModuleClassID second = IDFactory.newModuleClassID();
+        ModuleClassID third = IDFactory.newModuleClassID();
+        ModuleClassID independent = IDFactory.newModuleClassID();
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(new Object(), null, "test", 4);
+
+        scheduler.add(third, new DependentModule("third", new ModuleClassID[] { second }));
+        scheduler.add(second, new ScriptedModule("second"));
+        scheduler.add(first, new ScriptedModule("first", new int[] { Module.START_OK }, 50));
+        scheduler.add(independent, new ScriptedModule("independent"));
+        scheduler.addDependency(second, first);
+
+        scheduler.start(new String[0]);
+
+        assertEquals(4, started.size());
+        assertTrue(started.indexOf("first") < started.indexOf("second"));
+        assertTrue(started.indexOf("second") < started.indexOf("third"));
+        assertEquals(0, started.indexOf("independent"));
+        assertTrue(scheduler.getUnsettled().isEmpty());
+        assertEquals(Module.START_OK, scheduler.getResult(third));
+    }
+
+    /**
+     *  A module which fails releases the modules which depend upon it and is
+     *  reported as failed. Dependencies upon modules which are not part of
+     *  the set are ignored.
+     */
+    public void testFailedDependency() {
+        final List failures = Collections.synchronizedList(new ArrayList());
+        ModuleClassID failing = IDFactory.newModuleClassID();
+        ModuleClassID dependent = IDFactory.newModuleClassID();
+        ModuleClassID absent = IDFactory.newModuleClassID();
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(new Object(), null, "test", 2) {
+                                             protected void failed(ID id, Module module, int result) {
+                                                 failures.add(id);
+                                             }
+                                         };
+
+        scheduler.add(failing, new ScriptedModule("failing", new int[] { -1 }, 0));
+        scheduler.add(dependent, new DependentModule("dependent", new ModuleClassID[] { failing, absent }));
+
+        scheduler.start(new String[0]);
+
+        assertEquals(Collections.singletonList("dependent"), started);
+        assertEquals(Collections.singletonList(failing), failures);
+        assertEquals(-1, scheduler.getResult(failing));
+        assertEquals(-1, scheduler.getResult(absent));
+        assertTrue(scheduler.getUnsettled().isEmpty());
+    }
+
+    /**
+     *  Circular dependencies are ignored once nothing else is left to
+     *  start, so the modules involved are still started.
+     */
+    public void testCycle() {
+        ModuleClassID one = IDFactory.newModuleClassID();
+        ModuleClassID two = IDFactory.newModuleClassID();
+        ModuleClassID other = IDFactory.newModuleClassID();
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(new Object(), null, "test", 2);
+
+        scheduler.add(one, new ScriptedModule("one"));
+        scheduler.add(two, new ScriptedModule("two"));
+        scheduler.add(other, new ScriptedModule("other"));
+        scheduler.addDependency(one, two);
+        scheduler.addDependency(two, one);
+
+        scheduler.start(new String[0]);
+
+        assertEquals(3, started.size());
+        assertEquals(0, started.indexOf("other"));
+        assertTrue(scheduler.getUnsettled().isEmpty());
+    }
+
+    /**
+     *  A module which keeps reporting progress is invoked again a bounded
+     *  number of times and then given up, together with the stalled
+     *  modules. One which reports progress for a while and then starts
+     *  settles normally.
+     */
+    public void testStartAgainBound() {
+        ModuleClassID forever = IDFactory.newModuleClassID();
+        ModuleClassID stalled = IDFactory.newModuleClassID();
+        ModuleClassID eventually = IDFactory.newModuleClassID();
+        ScriptedModule foreverModule = new ScriptedModule("forever", new int[] { Module.START_AGAIN_PROGRESS }, 0);
+        ScriptedModule stalledModule = new ScriptedModule("stalled", new int[] { Module.START_AGAIN_STALLED }, 0);
+        ScriptedModule eventuallyModule = new ScriptedModule("eventually",
+                                                             new int[] { Module.START_AGAIN_PROGRESS, Module.START_AGAIN_PROGRESS, Module.START_OK },
+                                                             0);
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(new Object(), null, "test", 1);
+
+        scheduler.add(forever, foreverModule);
+        scheduler.add(stalled, stalledModule);
+        scheduler.add(eventually, eventuallyModule);
+
+        scheduler.start(new String[0]);
+
+        assertEquals(Collections.singletonList("eventually"), started);
+        assertEquals(3, eventuallyModule.invocations);
+
+        // invoked with "eventually", once more when it settled, then 1 + 2 * 2 rounds.
+        assertEquals(3 + 1 + 1 + 2 * 2, foreverModule.invocations);
+        assertEquals(foreverModule.invocations, stalledModule.invocations);
+
+        assertEquals(2, scheduler.getUnsettled().size());
+        assertTrue(scheduler.getUnsettled().containsKey(forever));
+        assertEquals(Module.START_AGAIN_PROGRESS, scheduler.getResult(forever));
+        assertEquals(Module.START_AGAIN_STALLED, scheduler.getResult(stalled));
+        assertEquals(Module.START_OK, scheduler.getResult(eventually));
+    }
+
+    /**
+     *  Modules which only stall are given up as soon as nothing else is left
+     *  to start.
+     */
+    public void testStalled() {
+        ModuleClassID stalled = IDFactory.newModuleClassID();
+        ScriptedModule stalledModule = new ScriptedModule("stalled", new int[] { Module.START_AGAIN_STALLED }, 0);
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(new Object(), null, "test", 2);
+
+        scheduler.add(stalled, stalledModule);
+
+        scheduler.start(new String[0]);
+
+        assertEquals(1, stalledModule.invocations);
+        assertTrue(scheduler.getUnsettled().containsKey(stalled));
+    }
+
+    /**
+     *  With a single thread the modules are started in order by the calling
+     *  thread, which may hold the monitor of the scheduler.
+     */
+    public void testSingleThread() {
+        Object lock = new Object();
+        ModuleClassID first = IDFactory.newModuleClassID();
+        ModuleClassID second = IDFactory.newModuleClassID();
+        ModuleClassID third = IDFactory.newModuleClassID();
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(lock, null, "test", 1);
+
+        scheduler.add(first, new ScriptedModule("first"));
+        scheduler.add(second, new ScriptedModule("second"));
+        scheduler.add(third, new ScriptedModule("third"));
+        scheduler.addDependency(first, third);
+
+        synchronized (lock) {
+            scheduler.start(new String[0]);
+        }
+
+        assertEquals(3, threads.size());
+        for (int each = 0; each < threads.size(); each++) {
+            assertSame(Thread.currentThread(), threads.get(each));
+        }
+
+        List expected = new ArrayList();
+
+        expected.add("second");
+        expected.add("third");
+        expected.add("first");
+        assertEquals(expected, started);
+    }
+
+    /**
+     *  With several threads the modules start on other threads, which may
+     *  use the monitor held by the caller while they start.
+     */
+    public void testThreads() {
+        final Object lock = new Object();
+        ModuleClassID first = IDFactory.newModuleClassID();
+        ModuleClassID second = IDFactory.newModuleClassID();
+        ModuleStartScheduler scheduler = new ModuleStartScheduler(lock, null, "test", 2);
+
+        scheduler.add(first, new ScriptedModule("first", new int[] { Module.START_OK }, 100));
+        scheduler.add(second, new ScriptedModule("second") {
+                          public int startApp(String[] args) {
+                              synchronized (lock) {
+                                  return super.startApp(args);
+                              }
+                          }
+                      });
+
+        long begin = System.currentTimeMillis();
+
+        synchronized (lock) {
+            scheduler.start(new String[0]);
+        }
+
+        assertEquals(2, started.size());
+        assertEquals("second", started.get(0));
+        assertTrue(System.currentTimeMillis() - begin < 1000);
+        for (int each = 0; each < threads.size(); each++) {
+            assertNotSame(Thread.currentThread(), threads.get(each));
+        }
+    }
+
+    /**
+     *  The main program to test ModuleStartScheduler
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ModuleStartSchedulerTest.class);
+        return suite;
+    }
+}
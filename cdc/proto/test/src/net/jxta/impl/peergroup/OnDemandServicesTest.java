@@ -0,0 +1,499 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.peergroup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.document.Advertisement;
+import net.jxta.id.ID;
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.PeerGroup;
+import net.jxta.platform.Module;
+import net.jxta.platform.ModuleClassID;
+import net.jxta.service.Service;
+
+/**
+ *  An OnDemandServices unit test
+ */
+public class OnDemandServicesTest extends TestCase {
+
+    /**
+     *  The interface of the test services.
+     */
+    public interface Counter extends Service {
+
+        int next();
+    }
+
+    /**
+     *  A service which returns a scripted sequence of start results,
+     *  repeating the last one.
+     */
+    private static class CounterService implements Counter {
+
+        private final int[] results;
+
+        private final Runnable whileStarting;
+
+        int starts = 0;
+
+        boolean running = false;
+
+        boolean stopped = false;
+
+        private int count = 0;
+
+        CounterService(int[] results, Runnable whileStarting) {
+            this.results = results;
+            this.whileStarting = whileStarting;
+        }
+
+        public void init(PeerGroup group, ID assignedID, Advertisement implAdv) {
+        }
+
+        public int startApp(String[] args) {
+            int result = results[Math.min(starts, results.length - 1)];
+
+            starts++;
+            if (null != whileStarting) {
+                whileStarting.run();
+            }
+            running = (Module.START_OK == result);
+            return result;
+        }
+
+        public void stopApp() {
+            running = false;
+            stopped = true;
+        }
+
+        public Service getInterface() {
+            return this;
+        }
+
+        public Advertisement getImplAdvertisement() {
+            return null;
+        }
+
+        public synchronized int next() {
+            if (!running) {
+                throw new IllegalStateException("not running");
+            }
+            return ++count;
+        }
+    }
+
+    /**
+     *  Loads a new CounterService from the descriptor, an int[] of start
+     *  results, and records the registered services.
+     */
+    private static class TestServices extends OnDemandServices {
+
+        final List loads = Collections.synchronizedList(new ArrayList());
+
+        final Map registered = Collections.synchronizedMap(new HashMap());
+
+        final Map whileStarting = Collections.synchronizedMap(new HashMap());
+
+        protected Module loadService(ModuleClassID classID, Object descriptor) {
+            CounterService service = new CounterService((int[]) descriptor, (Runnable) whileStarting.get(classID));
+
+            loads.add(service);
+            return service;
+        }
+
+        protected void register(ModuleClassID classID, Service service) {
+            registered.put(classID, service);
+        }
+
+        protected void unregister(ModuleClassID classID, Service service) {
+            registered.remove(classID);
+        }
+
+        Counter lookup(ID classID) {
+            load(classID);
+
+            Service service = (Service) registered.get(classID);
+
+            return (null == service) ? null : (Counter) getInterface(classID, service);
+        }
+    }
+
+    private final static int[] STARTS = { Module.START_OK };
+
+    private TestServices services;
+
+    private ModuleClassID first;
+
+    private ModuleClassID second;
+
+    /**
+     *  Constructor for the OnDemandServicesTest object
+     *
+     *@param  testName  test name
+     */
+    public OnDemandServicesTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void setUp() {
+        services = new TestServices();
+        first = IDFactory.newModuleClassID();
+        second = IDFactory.newModuleClassID();
+    }
+
+    /**
+     *  A service is only loaded and started when first requested, and only
+     *  once. Its interface object forwards to it but does not stop it.
+     */
+    public void testLazyLoad() {
+        services.add(first, STARTS);
+        services.add(second, STARTS);
+
+        assertTrue(services.isAvailable(first));
+        assertTrue(services.loads.isEmpty());
+
+        Counter counter = services.lookup(first);
+
+        assertEquals(1, services.loads.size());
+        assertFalse(services.isAvailable(first));
+        assertTrue(services.isAvailable(second));
+        assertEquals(1, counter.next());
+        assertSame(counter, counter.getInterface());
+        assertSame(counter, services.lookup(first));
+        assertEquals(1, services.loads.size());
+
+        counter.stopApp();
+        assertEquals(2, counter.next());
+
+        // Services which are not loaded on demand are handed out as is.
+        CounterService eager = new CounterService(STARTS, null);
+        ModuleClassID other = IDFactory.newModuleClassID();
+
+        assertSame(eager, services.getInterface(other, eager));
+        services.load(other);
+        assertEquals(1, services.loads.size());
+    }
+
+    /**
+     *  A thread requesting a service another thread is starting waits until
+     *  it has started.
+     */
+    public void testConcurrentRequest() throws Exception {
+        final Object gate = new Object();
+        final boolean[] released = new boolean[1];
+
+        services.add(first, STARTS);
+        services.whileStarting.put(first, new Runnable() {
+                                       public void run() {
+                                           synchronized (gate) {
+                                               gate.notifyAll();
+                                               while (!released[0]) {
+                                                   try {
+                                                       gate.wait();
+                                                   } catch (InterruptedException woken) {
+                                                       return;
+                                                   }
+                                               }
+                                           }
+                                       }
+                                   });
+
+        final Counter[] found = new Counter[2];
+        Thread loader = new Thread(new Runnable() {
+                                       public void run() {
+                                           found[0] = services.lookup(first);
+                                       }
+                                   });
+        Thread requester = new Thread(new Runnable() {
+                                          public void run() {
+                                              found[1] = services.lookup(first);
+                                          }
+                                      });
+
+        synchronized (gate) {
+            loader.start();
+            gate.wait(5000);
+        }
+
+        requester.start();
+        requester.join(200);
+        assertTrue(requester.isAlive());
+        assertNull(found[1]);
+
+        synchronized (gate) {
+            released[0] = true;
+            gate.notifyAll();
+        }
+
+        loader.join(5000);
+        requester.join(5000);
+        assertEquals(1, services.loads.size());
+        assertSame(found[0], found[1]);
+        assertEquals(1, found[1].next());
+    }
+
+    /**
+     *  Two threads each loading a service which requests the service the
+     *  other is loading do not wait for one another.
+     */
+    public void testCrossedRequests() throws Exception {
+        final Object gate = new Object();
+        final int[] starting = new int[1];
+        final Counter[] found = new Counter[2];
+
+        services.add(first, STARTS);
+        services.add(second, STARTS);
+        services.whileStarting.put(first, new Crossing(gate, starting, second, found, 0));
+        services.whileStarting.put(second, new Crossing(gate, starting, first, found, 1));
+
+        Thread one = new Thread(new Runnable() {
+                                    public void run() {
+                                        services.lookup(first);
+                                    }
+                                });
+        Thread two = new Thread(new Runnable() {
+                                    public void run() {
+                                        services.lookup(second);
+                                    }
+                                });
+
+        one.start();
+        two.start();
+        one.join(5000);
+        two.join(5000);
+
+        assertFalse(one.isAlive());
+        assertFalse(two.isAlive());
+        assertEquals(2, services.loads.size());
+        assertNotNull(found[0]);
+        assertNotNull(found[1]);
+    }
+
+    /**
+     *  Waits until both services are starting, then requests the other.
+     */
+    private class Crossing implements Runnable {
+
+        private final Object gate;
+
+        private final int[] starting;
+
+        private final ModuleClassID other;
+
+        private final Counter[] found;
+
+        private final int index;
+
+        Crossing(Object gate, int[] starting, ModuleClassID other, Counter[] found, int index) {
+            this.gate = gate;
+            this.starting = starting;
+            this.other = other;
+            this.found = found;
+            this.index = index;
+        }
+
+        public void run() {
+            synchronized (gate) {
+                starting[0]++;
+                gate.notifyAll();
+                while (starting[0] < 2) {
+                    try {
+                        gate.wait();
+                    } catch (InterruptedException woken) {
+                        return;
+                    }
+                }
+            }
+            found[index] = services.lookup(other);
+        }
+    }
+
+    /**
+     *  A service which asks to be started again is kept and started again on
+     *  the next request. One which fails is given up.
+     */
+    public void testStartAgain() {
+        services.add(first, new int[] {
+                         Module.START_AGAIN_PROGRESS, Module.START_AGAIN_PROGRESS, Module.START_AGAIN_PROGRESS,
+                         Module.START_AGAIN_STALLED, Module.START_OK
+                     });
+        services.add(second, new int[] { -1 });
+
+        // the first request gives up after a bounded number of attempts.
+        assertNull(services.lookup(first));
+        assertTrue(services.isAvailable(first));
+        assertTrue(services.registered.isEmpty());
+        assertEquals(3, ((CounterService) services.loads.get(0)).starts);
+
+        assertNull(services.lookup(first));
+        assertTrue(services.isAvailable(first));
+
+        Counter counter = services.lookup(first);
+
+        assertNotNull(counter);
+        assertEquals(1, services.loads.size());
+        assertEquals(5, ((CounterService) services.loads.get(0)).starts);
+        assertEquals(1, counter.next());
+
+        assertNull(services.lookup(second));
+        assertFalse(services.isAvailable(second));
+        assertNull(services.lookup(second));
+        assertEquals(2, services.loads.size());
+    }
+
+    /**
+     *  Hibernating stops the services. The interface objects obtained before
+     *  load them again when next invoked.
+     */
+    public void testReloadAfterHibernate() {
+        services.add(first, STARTS);
+        services.add(second, STARTS);
+
+        Counter counter = services.lookup(first);
+
+        services.lookup(second);
+        assertEquals(1, counter.next());
+        assertEquals(2, counter.next());
+
+        assertEquals(2, services.hibernate());
+
+        CounterService stopped = (CounterService) services.loads.get(0);
+
+        assertTrue(stopped.stopped);
+        assertTrue(services.registered.isEmpty());
+        assertTrue(services.isAvailable(first));
+        assertTrue(services.isAvailable(second));
+
+        assertEquals(1, counter.next());
+        assertEquals(3, services.loads.size());
+        assertNotSame(stopped, services.registered.get(first));
+        assertSame(counter, services.lookup(first));
+        assertFalse(services.registered.containsKey(second));
+
+        services.clear();
+        try {
+            counter.next();
+            fail("cleared service was invoked");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    /**
+     *  Services are loaded eagerly unless configured otherwise, and only the
+     *  sub-groups of the net peer group may load them on demand.
+     */
+    public void testEagerDefault() {
+        PeerGroup world = fakeGroup(null);
+        PeerGroup net = fakeGroup(world);
+
+        assertFalse(StdPeerGroup.DEFAULT_LAZY_SERVICES);
+        assertFalse(StdPeerGroup.isLazy(StdPeerGroup.DEFAULT_LAZY_SERVICES, net));
+        assertFalse(StdPeerGroup.isLazy(true, null));
+        assertFalse(StdPeerGroup.isLazy(true, world));
+        assertTrue(StdPeerGroup.isLazy(true, net));
+    }
+
+    private static PeerGroup fakeGroup(final PeerGroup parent) {
+        return (PeerGroup) Proxy.newProxyInstance(PeerGroup.class.getClassLoader(), new Class[] { PeerGroup.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getParentGroup".equals(method.getName())) {
+                            return parent;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     *  The main program to test OnDemandServices
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(OnDemandServicesTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.rendezvous;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ *  A MessageIdFilter unit test
+ */
+public class MessageIdFilterTest extends TestCase {
+
+    /**
+     *  Constructor for the MessageIdFilterTest object
+     *
+     *@param  testName  test name
+     */
+    public MessageIdFilterTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  An id is recorded once, later additions are duplicates.
+     */
+    public void testDuplicates() {
+        MessageIdFilter filter = new MessageIdFilter(10, 4 * TimeUtils.ASECOND);
+
+        assertTrue(filter.add("a"));
+        assertTrue(filter.add("b"));
+        assertFalse(filter.add("a"));
+        assertTrue(filter.contains("b"));
+        assertFalse(filter.contains("c"));
+
+        assertEquals(2, filter.size());
+        assertEquals(1, filter.getHits());
+        assertEquals(2, filter.getMisses());
+
+        filter.clear();
+        assertEquals(0, filter.size());
+        assertFalse(filter.contains("a"));
+        assertEquals(1, filter.getHits());
+    }
+
+    /**
+     *  Ids move to older buckets as time passes and are forgotten once they
+     *  are older than the window.
+     */
+    public void testRotation() {
+        MessageIdFilter filter = new MessageIdFilter(10, 4 * TimeUtils.ASECOND);
+
+        assertTrue(filter.add("a"));
+
+        TimeUtils.timeWarp(TimeUtils.ASECOND);
+        assertTrue(filter.contains("a"));
+        assertTrue(filter.add("b"));
+
+        TimeUtils.timeWarp(2 * TimeUtils.ASECOND);
+        assertTrue(filter.contains("a"));
+        assertTrue(filter.contains("b"));
+
+        // "a" is now older than the window
+        TimeUtils.timeWarp(TimeUtils.ASECOND);
+        assertFalse(filter.contains("a"));
+        assertTrue(filter.contains("b"));
+        assertEquals(1, filter.size());
+
+        TimeUtils.timeWarp(4 * TimeUtils.ASECOND);
+        assertFalse(filter.contains("b"));
+        assertEquals(0, filter.size());
+        assertEquals(0, filter.getEarlyRotations());
+    }
+
+    /**
+     *  A bucket which reaches its capacity is rotated before its interval
+     *  has elapsed, forgetting the oldest ids.
+     */
+    public void testEarlyRotation() {
+        // one message per second: the buckets hold the minimum of 16 ids
+        MessageIdFilter filter = new MessageIdFilter(1, 4 * TimeUtils.ASECOND);
+
+        for (int each = 0; each < 16; each++) {
+            assertTrue(filter.add(new Integer(each)));
+        }
+        assertEquals(0, filter.getEarlyRotations());
+
+        assertTrue(filter.add(new Integer(16)));
+        assertEquals(1, filter.getEarlyRotations());
+        assertTrue(filter.contains(new Integer(0)));
+
+        for (int each = 17; each < 64; each++) {
+            assertTrue(filter.add(new Integer(each)));
+        }
+        assertEquals(3, filter.getEarlyRotations());
+        assertEquals(64, filter.size());
+
+        // the first bucket is reused
+        assertTrue(filter.add(new Integer(64)));
+        assertEquals(4, filter.getEarlyRotations());
+        assertFalse(filter.contains(new Integer(0)));
+        assertFalse(filter.contains(new Integer(15)));
+        assertTrue(filter.contains(new Integer(16)));
+        assertEquals(49, filter.size());
+    }
+
+    /**
+     *  The main program to test MessageIdFilter
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(MessageIdFilterTest.class);
+        return suite;
+    }
+}
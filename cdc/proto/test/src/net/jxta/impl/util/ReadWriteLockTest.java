@@ -0,0 +1,282 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A ReadWriteLock unit test
+ */
+public class ReadWriteLockTest extends TestCase {
+
+    private ReadWriteLock lock;
+
+    /**
+     *  Acquires the read or the write lock and holds it until released.
+     */
+    private class Holder extends Thread {
+
+        private final boolean write;
+
+        private boolean acquired = false;
+
+        private boolean released = false;
+
+        Holder(boolean write) {
+            this.write = write;
+            setDaemon(true);
+        }
+
+        public void run() {
+            if (write) {
+                lock.writeLock();
+            } else {
+                lock.readLock();
+            }
+
+            synchronized (this) {
+                acquired = true;
+                notifyAll();
+
+                while (!released) {
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        break;
+                    }
+                }
+            }
+
+            if (write) {
+                lock.writeUnlock();
+            } else {
+                lock.readUnlock();
+            }
+        }
+
+        synchronized boolean awaitAcquired(long timeout) throws InterruptedException {
+            long until = TimeUtils.toAbsoluteTimeMillis(timeout);
+
+            while (!acquired && (TimeUtils.toRelativeTimeMillis(until) > 0)) {
+                wait(Math.max(1, TimeUtils.toRelativeTimeMillis(until)));
+            }
+            return acquired;
+        }
+
+        synchronized void release() {
+            released = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     *  Constructor for the ReadWriteLockTest object
+     *
+     *@param  testName  test name
+     */
+    public ReadWriteLockTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void setUp() {
+        lock = new ReadWriteLock();
+    }
+
+    /**
+     *  Readers share the lock.
+     */
+    public void testReadersShare() throws Exception {
+        Holder first = start(false);
+        Holder second = start(false);
+
+        assertTrue(first.awaitAcquired(1000));
+        assertTrue(second.awaitAcquired(1000));
+
+        first.release();
+        second.release();
+        first.join(1000);
+        second.join(1000);
+    }
+
+    /**
+     *  A writer waits for the readers and readers wait for the writer.
+     */
+    public void testWriterExcludes() throws Exception {
+        Holder reader = start(false);
+        assertTrue(reader.awaitAcquired(1000));
+
+        Holder writer = start(true);
+        assertFalse(writer.awaitAcquired(100));
+
+        reader.release();
+        assertTrue(writer.awaitAcquired(1000));
+
+        Holder lateReader = start(false);
+        assertFalse(lateReader.awaitAcquired(100));
+
+        writer.release();
+        assertTrue(lateReader.awaitAcquired(1000));
+
+        lateReader.release();
+        lateReader.join(1000);
+    }
+
+    /**
+     *  A waiting writer has priority over new readers.
+     */
+    public void testWaitingWriterFirst() throws Exception {
+        Holder reader = start(false);
+        assertTrue(reader.awaitAcquired(1000));
+
+        Holder writer = start(true);
+        assertFalse(writer.awaitAcquired(100));
+
+        Holder newReader = start(false);
+        assertFalse(newReader.awaitAcquired(100));
+
+        reader.release();
+        assertTrue(writer.awaitAcquired(1000));
+        assertFalse(newReader.awaitAcquired(100));
+
+        writer.release();
+        assertTrue(newReader.awaitAcquired(1000));
+
+        newReader.release();
+        newReader.join(1000);
+    }
+
+    /**
+     *  Releasing a lock which is not held fails.
+     */
+    public void testUnlockNotHeld() {
+        try {
+            lock.readUnlock();
+            fail("read lock was not held");
+        } catch (IllegalStateException expected) {
+            ;
+        }
+
+        try {
+            lock.writeUnlock();
+            fail("write lock was not held");
+        } catch (IllegalStateException expected) {
+            ;
+        }
+    }
+
+    /**
+     *  An interrupted waiter still acquires the lock and gets its interrupt
+     *  status back.
+     */
+    public void testInterruptedWaiter() throws Exception {
+        lock.writeLock();
+
+        final boolean[] result = new boolean[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                lock.readLock();
+                result[0] = Thread.currentThread().isInterrupted();
+                lock.readUnlock();
+            }
+        };
+
+        waiter.start();
+        Thread.sleep(50);
+        waiter.interrupt();
+        Thread.sleep(50);
+        assertTrue(waiter.isAlive());
+
+        lock.writeUnlock();
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+        assertTrue(result[0]);
+    }
+
+    private Holder start(boolean write) {
+        Holder holder = new Holder(write);
+
+        holder.start();
+        return holder;
+    }
+
+    /**
+     *  The main program to test ReadWriteLock
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(ReadWriteLockTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A TimingWheel unit test
+ */
+public class TimingWheelTest extends TestCase {
+
+    private TimingWheel wheel;
+
+    /**
+     *  Records its executions and optionally waits until released.
+     */
+    private static class RecordingTask extends ScheduledTask {
+
+        final List runs = Collections.synchronizedList(new ArrayList());
+
+        private final boolean blocking;
+
+        private boolean held;
+
+        RecordingTask(boolean blocking, boolean held) {
+            this.blocking = blocking;
+            this.held = held;
+        }
+
+        public void run() {
+            runs.add(new Long(TimeUtils.timeNow()));
+
+            synchronized (this) {
+                while (held) {
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        protected boolean mayBlock() {
+            return blocking;
+        }
+
+        synchronized void release() {
+            held = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     *  Constructor for the TimingWheelTest object
+     *
+     *@param  testName  test name
+     */
+    public TimingWheelTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  {@inheritDoc}
+     */
+    protected void tearDown() {
+        if (null != wheel) {
+            wheel.cancel();
+        }
+    }
+
+    private static void waitFor(List list, int count, long timeout) throws InterruptedException {
+        long until = TimeUtils.toAbsoluteTimeMillis(timeout);
+
+        while ((list.size() < count) && (TimeUtils.toRelativeTimeMillis(until) > 0)) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     *  A one time task runs once, not before its delay, including a delay
+     *  longer than one turn of the wheel.
+     */
+    public void testOneShot() throws Exception {
+        wheel = new TimingWheel("test", 10, 8, 1);
+
+        RecordingTask soon = new RecordingTask(false, false);
+        RecordingTask later = new RecordingTask(false, false);
+        long start = TimeUtils.timeNow();
+
+        wheel.schedule(soon, 30);
+        wheel.schedule(later, 250);
+        assertEquals(2, wheel.getScheduledCount());
+
+        waitFor(later.runs, 1, 5000);
+        Thread.sleep(50);
+
+        assertEquals(1, soon.runs.size());
+        assertEquals(1, later.runs.size());
+        assertTrue(((Long) soon.runs.get(0)).longValue() - start >= 30);
+        assertTrue(((Long) later.runs.get(0)).longValue() - start >= 250);
+        assertEquals(0, wheel.getScheduledCount());
+    }
+
+    /**
+     *  A cancelled task leaves the wheel at once and never runs. A task may
+     *  not be scheduled twice.
+     */
+    public void testCancel() throws Exception {
+        wheel = new TimingWheel("test", 10, 8, 1);
+
+        RecordingTask task = new RecordingTask(false, false);
+
+        wheel.schedule(task, 50);
+        assertTrue(task.cancel());
+        assertEquals(0, wheel.getScheduledCount());
+
+        Thread.sleep(150);
+        assertEquals(0, task.runs.size());
+
+        try {
+            wheel.schedule(task, 10);
+            fail("cancelled task was scheduled");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    /**
+     *  A repeating task runs until it is cancelled.
+     */
+    public void testRepeating() throws Exception {
+        wheel = new TimingWheel("test", 10, 8, 1);
+
+        RecordingTask task = new RecordingTask(false, false);
+
+        wheel.schedule(task, 10, 20);
+        waitFor(task.runs, 3, 5000);
+        assertTrue(task.cancel());
+
+        int runs = task.runs.size();
+
+        assertTrue(runs >= 3);
+        Thread.sleep(100);
+        assertTrue(task.runs.size() <= runs + 1);
+    }
+
+    /**
+     *  A task which throws does not stop the wheel.
+     */
+    public void testThrowingTask() throws Exception {
+        wheel = new TimingWheel("test", 10, 8, 1);
+
+        ScheduledTask thrower = new ScheduledTask() {
+                                    public void run() {
+                                        throw new RuntimeException("expected");
+                                    }
+                                };
+        RecordingTask task = new RecordingTask(false, false);
+
+        wheel.schedule(thrower, 10);
+        wheel.schedule(task, 50);
+        waitFor(task.runs, 1, 5000);
+        assertEquals(1, task.runs.size());
+    }
+
+    /**
+     *  Tasks which may block run in their own pool, bounded in size, and do
+     *  not hold up the other tasks of the wheel.
+     */
+    public void testBlockingTasks() throws Exception {
+        wheel = new TimingWheel("test", 10, 8, 1, 2);
+
+        RecordingTask[] blocked = new RecordingTask[3];
+
+        for (int each = 0; each < blocked.length; each++) {
+            blocked[each] = new RecordingTask(true, true);
+            wheel.schedule(blocked[each], 10);
+        }
+
+        waitFor(blocked, 2, 5000);
+        Thread.sleep(200);
+        assertEquals(2, running(blocked));
+        assertEquals(2, wheel.getBlockingWorkerCount());
+
+        RecordingTask task = new RecordingTask(false, false);
+
+        wheel.schedule(task, 10);
+        waitFor(task.runs, 1, 5000);
+        assertEquals(1, task.runs.size());
+
+        for (int each = 0; each < blocked.length; each++) {
+            if (!blocked[each].runs.isEmpty()) {
+                blocked[each].release();
+                break;
+            }
+        }
+
+        waitFor(blocked, 3, 5000);
+        assertEquals(3, running(blocked));
+
+        for (int each = 0; each < blocked.length; each++) {
+            blocked[each].release();
+        }
+    }
+
+    private static int running(RecordingTask[] tasks) {
+        int running = 0;
+
+        for (int each = 0; each < tasks.length; each++) {
+            running += tasks[each].runs.size();
+        }
+
+        return running;
+    }
+
+    private static void waitFor(RecordingTask[] tasks, int count, long timeout) throws InterruptedException {
+        long until = TimeUtils.toAbsoluteTimeMillis(timeout);
+
+        while ((running(tasks) < count) && (TimeUtils.toRelativeTimeMillis(until) > 0)) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     *  The main program to test TimingWheel
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(TimingWheelTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util.pipe.reliable;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  An AdaptiveFlowControl unit test
+ */
+public class AdaptiveFlowControlTest extends TestCase {
+
+    /**
+     *  Larger than any window of these tests.
+     */
+    private static final int REMOTE_QUEUE = 1000;
+
+    /**
+     *  Constructor for the AdaptiveFlowControlTest object
+     *
+     *@param  testName  test name
+     */
+    public AdaptiveFlowControlTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  The window doubles every RTT until the threshold, then grows by one
+     *  packet per window.
+     */
+    public void testSlowStart() {
+        AdaptiveFlowControl fc = new AdaptiveFlowControl(32, 64);
+
+        assertEquals(AdaptiveFlowControl.INITIAL_RWINDOW, fc.getRwindow());
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals(16, ack(fc, 8, 100, 100, false));
+        assertEquals(32, ack(fc, 16, 100, 100, false));
+
+        // congestion avoidance
+        assertEquals(32, ack(fc, 16, 100, 100, false));
+        assertEquals(33, ack(fc, 32, 100, 100, false));
+
+        // never beyond the remote queue
+        fc.ackEventBegin();
+        assertEquals(20, fc.ackEventEnd(20, 100, 100));
+    }
+
+    /**
+     *  Slow start ends once the RTT samples rise well above the smallest
+     *  one. Acks without an RTT sample do not end it.
+     */
+    public void testInflatedRTT() {
+        AdaptiveFlowControl fc = new AdaptiveFlowControl(64, 64);
+
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals(16, ack(fc, 8, 1000, 0, false));
+        assertEquals(32, ack(fc, 16, 1000, 0, false));
+        assertEquals(64, ack(fc, 32, 1000, 1000, false));
+
+        fc = new AdaptiveFlowControl(64, 64);
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals(16, ack(fc, 8, 500, 500, false));
+
+        // now in congestion avoidance
+        assertEquals(16, ack(fc, 8, 500, 100, false));
+        assertEquals(17, ack(fc, 16, 500, 100, false));
+    }
+
+    /**
+     *  A hole in a SACK list halves the window once per loss episode.
+     */
+    public void testSackHole() throws Exception {
+        AdaptiveFlowControl fc = new AdaptiveFlowControl(64, 64);
+
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals(16, ack(fc, 8, 100, 100, false));
+
+        assertEquals(8, ack(fc, 2, 60000, 100, true));
+
+        // same episode: the packets were sent with the larger window
+        assertEquals(8, ack(fc, 2, 60000, 100, true));
+        assertEquals(8, ack(fc, 0, 60000, 100, true));
+
+        // a later episode
+        Thread.sleep(20);
+        assertEquals(4, ack(fc, 2, 1, 100, true));
+    }
+
+    /**
+     *  An expired retransmission timer collapses the window and slow start
+     *  resumes up to half of the previous window.
+     */
+    public void testRTO() {
+        AdaptiveFlowControl fc = new AdaptiveFlowControl(64, 64);
+
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals(16, ack(fc, 8, 100, 100, false));
+
+        assertEquals(AdaptiveFlowControl.MIN_RWINDOW, fc.rtoExpired());
+        assertEquals(AdaptiveFlowControl.MIN_RWINDOW, fc.getRwindow());
+        assertEquals(0, fc.getPacingInterval());
+
+        assertEquals(4, ack(fc, 2, 100, 100, false));
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+
+        // congestion avoidance from the new threshold
+        assertEquals(9, ack(fc, 8, 100, 100, false));
+    }
+
+    /**
+     *  New packets are spread over the RTT, more tightly during slow start.
+     *  There is no pacing before the first RTT sample.
+     */
+    public void testPacing() {
+        AdaptiveFlowControl fc = new AdaptiveFlowControl(8, 64);
+
+        assertEquals(0, fc.getPacingInterval());
+        assertEquals(4, ack(fc, 0, 100, 0, false));
+        assertEquals(0, fc.getPacingInterval());
+
+        assertEquals(4, ack(fc, 0, 100, 100, false));
+        assertEquals((10 * 100) / (AdaptiveFlowControl.SLOW_START_PACING_GAIN * 4), fc.getPacingInterval());
+
+        assertEquals(8, ack(fc, 4, 100, 100, false));
+        assertEquals((10 * 100) / (AdaptiveFlowControl.AVOIDANCE_PACING_GAIN * 8), fc.getPacingInterval());
+    }
+
+    /**
+     *  Report an ack event.
+     *
+     *@param  fc      the flow control module
+     *@param  acked   number of packets acknowledged
+     *@param  aveRTT  the average RTT
+     *@param  lastRTT the RTT sample or 0
+     *@param  loss    if true a packet is reported missing
+     *@return         the new window
+     */
+    private static int ack(AdaptiveFlowControl fc, int acked, long aveRTT, long lastRTT, boolean loss) {
+        fc.ackEventBegin();
+        for (int i = 0; i < acked; i++) {
+            fc.packetACKed(i);
+        }
+        if (loss) {
+            fc.packetMissing(acked);
+        }
+        return fc.ackEventEnd(REMOTE_QUEUE, aveRTT, lastRTT);
+    }
+
+    /**
+     *  The main program to test AdaptiveFlowControl
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(AdaptiveFlowControlTest.class);
+        return suite;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util.pipe.reliable;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+/**
+ *  A RetransmitQueue unit test
+ */
+public class RetransmitQueueTest extends TestCase {
+
+    /**
+     *  Constructor for the RetransmitQueueTest object
+     *
+     *@param  testName  test name
+     */
+    public RetransmitQueueTest(String testName) {
+        super(testName);
+    }
+
+    /**
+     *  Entries are found by sequence number and the oldest is first.
+     */
+    public void testAddGetRemove() {
+        RetransmitQueue queue = new RetransmitQueue();
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.first());
+        assertNull(queue.get(1));
+        assertNull(queue.remove(1));
+
+        queue.add(1, "one");
+        queue.add(2, "two");
+        queue.add(5, "five");
+
+        assertEquals(3, queue.size());
+        assertEquals("one", queue.first());
+        assertEquals("two", queue.get(2));
+        assertNull(queue.get(3));
+        assertNull(queue.get(0));
+        assertNull(queue.get(6));
+
+        // a selective ACK leaves the oldest in place.
+        assertEquals("two", queue.remove(2));
+        assertNull(queue.remove(2));
+        assertEquals("one", queue.first());
+
+        // a cumulative ACK moves the oldest over the hole.
+        assertEquals("one", queue.remove(1));
+        assertEquals("five", queue.first());
+        assertEquals(1, queue.size());
+
+        assertEquals("five", queue.remove(5));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.first());
+    }
+
+    /**
+     *  Sequence numbers must increase.
+     */
+    public void testNotIncreasing() {
+        RetransmitQueue queue = new RetransmitQueue();
+
+        queue.add(10, "ten");
+
+        try {
+            queue.add(10, "again");
+            fail("added a sequence number twice");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        try {
+            queue.add(3, "three");
+            fail("added a lower sequence number");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // once empty any sequence number may start the queue again.
+        queue.remove(10);
+        queue.add(3, "three");
+        assertEquals("three", queue.first());
+    }
+
+    /**
+     *  next() skips holes, including whole words of the bitmap.
+     */
+    public void testNextSkipsHoles() {
+        RetransmitQueue queue = new RetransmitQueue();
+
+        queue.add(100, new Integer(100));
+        queue.add(101, new Integer(101));
+        queue.add(300, new Integer(300));
+        queue.add(301, new Integer(301));
+
+        assertEquals(new Integer(100), queue.next(0));
+        assertEquals(new Integer(101), queue.next(101));
+        assertEquals(new Integer(300), queue.next(102));
+        assertEquals(new Integer(301), queue.next(301));
+        assertNull(queue.next(302));
+
+        queue.remove(300);
+        assertEquals(new Integer(301), queue.next(102));
+    }
+
+    /**
+     *  The ring grows past its initial size, keeping entries which wrapped.
+     */
+    public void testGrow() {
+        RetransmitQueue queue = new RetransmitQueue();
+
+        // wrap the initial ring before growing it.
+        for (int seqnum = 1; seqnum <= 50; seqnum++) {
+            queue.add(seqnum, new Integer(seqnum));
+        }
+        for (int seqnum = 1; seqnum <= 40; seqnum++) {
+            queue.remove(seqnum);
+        }
+        for (int seqnum = 51; seqnum <= 1000; seqnum++) {
+            queue.add(seqnum, new Integer(seqnum));
+        }
+
+        assertEquals(960, queue.size());
+        assertEquals(new Integer(41), queue.first());
+
+        for (int seqnum = 41; seqnum <= 1000; seqnum++) {
+            assertEquals(new Integer(seqnum), queue.get(seqnum));
+        }
+    }
+
+    /**
+     *  clear() removes every entry.
+     */
+    public void testClear() {
+        RetransmitQueue queue = new RetransmitQueue();
+
+        for (int seqnum = 1; seqnum <= 100; seqnum++) {
+            queue.add(seqnum, new Integer(seqnum));
+        }
+
+        queue.clear();
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.first());
+        assertNull(queue.get(50));
+        assertNull(queue.next(1));
+
+        queue.add(101, "next");
+        assertEquals("next", queue.first());
+        assertEquals(1, queue.size());
+    }
+
+    /**
+     *  Random adds, cumulative and selective ACKs give the same results as
+     *  a sorted map.
+     */
+    public void testAgainstSortedMap() {
+        Random random = new Random(19);
+        RetransmitQueue queue = new RetransmitQueue();
+        SortedMap expected = new TreeMap();
+        int nextSeqnum = 1;
+
+        for (int round = 0; round < 20000; round++) {
+            int op = random.nextInt(10);
+
+            if ((op < 5) && (expected.size() < 500)) {
+                Integer seqnum = new Integer(nextSeqnum);
+
+                queue.add(nextSeqnum, seqnum);
+                expected.put(seqnum, seqnum);
+                nextSeqnum += 1 + ((0 == random.nextInt(8)) ? random.nextInt(100) : 0);
+            } else if ((op < 7) && !expected.isEmpty()) {
+                // cumulative ACK up to some sequence number.
+                int upTo = ((Integer) expected.firstKey()).intValue() + random.nextInt(8);
+
+                for (Iterator each = expected.headMap(new Integer(upTo + 1)).keySet().iterator(); each.hasNext();) {
+                    Integer seqnum = (Integer) each.next();
+
+                    assertEquals(seqnum, queue.remove(seqnum.intValue()));
+                    each.remove();
+                }
+            } else if (!expected.isEmpty()) {
+                // selective ACK somewhere in the window.
+                int first = ((Integer) expected.firstKey()).intValue();
+                int seqnum = first + random.nextInt(nextSeqnum - first);
+
+                assertEquals(expected.remove(new Integer(seqnum)), queue.remove(seqnum));
+            }
+
+            assertEquals(expected.size(), queue.size());
+            assertEquals(expected.isEmpty() ? null : expected.get(expected.firstKey()), queue.first());
+
+            int probe = nextSeqnum - 1 - random.nextInt(200);
+            SortedMap tail = expected.tailMap(new Integer(probe));
+
+            assertEquals(expected.get(new Integer(probe)), queue.get(probe));
+            assertEquals(tail.isEmpty() ? null : tail.get(tail.firstKey()), queue.next(probe));
+        }
+    }
+
+    /**
+     *  The main program to test RetransmitQueue
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(RetransmitQueueTest.class);
+        return suite;
+    }
+}
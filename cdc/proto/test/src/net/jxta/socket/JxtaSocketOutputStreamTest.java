@@ -0,0 +1,273 @@
+/*
+ *
+ * $Id$
+ *
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA"
+ *    must not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.socket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.textui.TestRunner;
+
+import net.jxta.impl.util.ScheduledTask;
+import net.jxta.impl.util.TimeUtils;
+import net.jxta.impl.util.TimingWheel;
+
+/**
+ *  A JxtaSocketOutputStream unit test
+ */
+public class JxtaSocketOutputStreamTest extends TestCase {
+
+    /**
+     *  Records the segments written and optionally blocks writers, as a
+     *  full reliable window does.
+     */
+    private static class RecordingSocket extends JxtaSocket {
+
+        final List segments = Collections.synchronizedList(new ArrayList());
+
+        final List writers = Collections.synchronizedList(new ArrayList());
+
+        volatile boolean unacknowledged = false;
+
+        private boolean windowFull = false;
+
+        protected void write(byte[] buf, int offset, int length) throws IOException {
+            writers.add(Thread.currentThread().getName());
+            synchronized (this) {
+                while (windowFull) {
+                    try {
+                        wait();
+                    } catch (InterruptedException woken) {
+                        throw new IOException("interrupted");
+                    }
+                }
+            }
+            segments.add(new String(buf, offset, length, "UTF-8"));
+        }
+
+        boolean hasUnacknowledgedData() {
+            return unacknowledged;
+        }
+
+        synchronized void setWindowFull(boolean full) {
+            windowFull = full;
+            notifyAll();
+        }
+    }
+
+    /**
+     *  Constructor for the JxtaSocketOutputStreamTest object
+     *
+     *@param  testName  test name
+     */
+    public JxtaSocketOutputStreamTest(String testName) {
+        super(testName);
+    }
+
+    private static void waitFor(List list, int count, long timeout) throws InterruptedException {
+        long until = TimeUtils.toAbsoluteTimeMillis(timeout);
+
+        while ((list.size() < count) && (TimeUtils.toRelativeTimeMillis(until) > 0)) {
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     *  Without unacknowledged data or without a deadline a flush sends at
+     *  once.
+     */
+    public void testFlushSendsAtOnce() throws Exception {
+        RecordingSocket socket = new RecordingSocket();
+        JxtaSocketOutputStream out = new JxtaSocketOutputStream(socket, 64, 5000);
+
+        out.write("abc".getBytes("UTF-8"));
+        out.flush();
+        assertEquals(1, socket.segments.size());
+
+        socket.unacknowledged = true;
+        out = new JxtaSocketOutputStream(socket, 64);
+        out.write("def".getBytes("UTF-8"));
+        out.flush();
+        assertEquals(2, socket.segments.size());
+        assertEquals("def", socket.segments.get(1));
+    }
+
+    /**
+     *  Flushed data is held while earlier data is unacknowledged and sent as
+     *  one segment when the deadline expires.
+     */
+    public void testHeldUntilDeadline() throws Exception {
+        RecordingSocket socket = new RecordingSocket();
+        JxtaSocketOutputStream out = new JxtaSocketOutputStream(socket, 64, 100);
+
+        socket.unacknowledged = true;
+        out.write("ab".getBytes("UTF-8"));
+        out.flush();
+        out.write("cd".getBytes("UTF-8"));
+        out.flush();
+        assertEquals(0, socket.segments.size());
+
+        waitFor(socket.segments, 1, 5000);
+        Thread.sleep(150);
+        assertEquals(1, socket.segments.size());
+        assertEquals("abcd", socket.segments.get(0));
+    }
+
+    /**
+     *  Held data is sent once the earlier data is acknowledged without
+     *  waiting for the deadline.
+     */
+    public void testSentWhenAcknowledged() throws Exception {
+        RecordingSocket socket = new RecordingSocket();
+        JxtaSocketOutputStream out = new JxtaSocketOutputStream(socket, 64, 60000);
+
+        socket.unacknowledged = true;
+        out.write("ab".getBytes("UTF-8"));
+        out.flush();
+        assertEquals(0, socket.segments.size());
+
+        socket.unacknowledged = false;
+        out.acknowledged();
+        out.acknowledged();
+
+        waitFor(socket.segments, 1, 5000);
+        Thread.sleep(100);
+        assertEquals(1, socket.segments.size());
+        assertEquals("ab", socket.segments.get(0));
+
+        // nothing is held any more.
+        out.acknowledged();
+        Thread.sleep(100);
+        assertEquals(1, socket.segments.size());
+    }
+
+    /**
+     *  A deadline flush blocked by a full window does not hold up the other
+     *  tasks of the shared timing wheel.
+     */
+    public void testBlockedFlushLeavesWheel() throws Exception {
+        RecordingSocket socket = new RecordingSocket();
+        JxtaSocketOutputStream out = new JxtaSocketOutputStream(socket, 64, 20);
+
+        socket.unacknowledged = true;
+        socket.setWindowFull(true);
+        out.write("ab".getBytes("UTF-8"));
+        out.flush();
+
+        // let the flush start and block.
+        waitFor(socket.writers, 1, 5000);
+        assertTrue((String) socket.writers.get(0), ((String) socket.writers.get(0)).indexOf("Blocking Worker") >= 0);
+
+        final List ran = Collections.synchronizedList(new ArrayList());
+
+        TimingWheel.getSharedInstance().schedule(new ScheduledTask() {
+                                                     public void run() {
+                                                         ran.add(this);
+                                                     }
+                                                 }, 10);
+
+        waitFor(ran, 1, 5000);
+        assertEquals(1, ran.size());
+        assertEquals(0, socket.segments.size());
+
+        socket.setWindowFull(false);
+        waitFor(socket.segments, 1, 5000);
+        assertEquals("ab", socket.segments.get(0));
+    }
+
+    /**
+     *  Closing the stream sends the held data.
+     */
+    public void testCloseSendsHeld() throws Exception {
+        RecordingSocket socket = new RecordingSocket();
+        JxtaSocketOutputStream out = new JxtaSocketOutputStream(socket, 64, 60000);
+
+        socket.unacknowledged = true;
+        out.write("ab".getBytes("UTF-8"));
+        out.flush();
+        assertEquals(0, socket.segments.size());
+
+        out.close();
+        assertEquals(1, socket.segments.size());
+        assertEquals("ab", socket.segments.get(0));
+    }
+
+    /**
+     *  The main program to test JxtaSocketOutputStream
+     *
+     *@param  argv           The command line arguments
+     *@exception  Exception  Description of the Exception
+     */
+    public static void main(String[] argv) throws Exception {
+        TestRunner.run(suite());
+    }
+
+    /**
+     *  A unit test suite for JUnit
+     *
+     *@return    The test suite
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite(JxtaSocketOutputStreamTest.class);
+        return suite;
+    }
+}
@@ -63,6 +63,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Vector;
 
 /**
  * This class represents a JXTA Message. A JXTA Message is composed of
@@ -250,8 +251,33 @@ public final class Message {
     static Message read(DataInputStream dis) 
         throws IOException {
 
+        return read(dis, dis.readByte());
+    }
+
+    /**
+     * Reads messages until the stream ends. The stream may only end
+     * between two messages.
+     *
+     * @param dis the stream to read from
+     * @param messages receives the messages read
+     */
+    static void readAll(DataInputStream dis, Vector messages) 
+        throws IOException {
+
+        int first;
+        while ((first = dis.read()) != -1) {
+            messages.addElement(read(dis, (byte) first));
+        }
+    }
+
+    private static Message read(DataInputStream dis, byte first) 
+        throws IOException {
+
         // read message signature
-        for (int i=0; i < JXTA_MESSAGE_HEADER.length(); i++) {
+        if (first != JXTA_MESSAGE_HEADER.charAt(0)) {
+            throw new IOException("Message header not found");
+        }
+        for (int i=1; i < JXTA_MESSAGE_HEADER.length(); i++) {
             if (dis.readByte() != JXTA_MESSAGE_HEADER.charAt(i)) {
                 throw new IOException("Message header not found");
             }
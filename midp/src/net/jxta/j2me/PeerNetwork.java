@@ -113,6 +113,11 @@ public final class PeerNetwork {
 
     private Vector sendMessageQueue = new Vector();
 
+    /** messages received in a batch but not yet returned by poll */
+    private Vector receivedMessageQueue = new Vector();
+
+    private boolean batchPolling = false;
+
     /** 
      * The default constructor is private. Use the createInstance
      * factory method instead.
@@ -454,6 +459,10 @@ public final class PeerNetwork {
      */
     public Message poll(int timeout) throws IOException {
 
+        if (batchPolling) {
+            return pollBatch(timeout);
+        }
+
         /* Send an empty message when there are no messages to
            send. This helps maintain persistent connections to the
            relay */
@@ -465,14 +474,45 @@ public final class PeerNetwork {
             sendMessageQueue.removeElementAt(0);
         }
 
-	// this is a good time to GC... we will be stuck for a while
-	// on IO and we may need room if we have a large incoming
-	// message
-	System.gc();
-
         return messenger.poll(timeout, outgoing);
     }
 
+    /**
+     * Enable or disable batched polling. When enabled, each round trip
+     * to the relay made by {@link #poll} carries all of the queued
+     * outgoing messages and the relay holds the response open to
+     * return every message pending for this Peer. The messages
+     * received are then returned one at a time by the following calls
+     * to {@link #poll} without contacting the relay.
+     *
+     * <p>Batched polling requires a relay which accepts several
+     * messages in a single request. It is disabled by default.</p>
+     *
+     * @param enabled <code>true</code> to enable batched polling
+     */
+    public void setBatchPolling(boolean enabled) {
+        batchPolling = enabled;
+    }
+
+    private Message pollBatch(int timeout) throws IOException {
+
+        if (receivedMessageQueue.isEmpty()) {
+            Message[] outgoing = new Message[sendMessageQueue.size()];
+            sendMessageQueue.copyInto(outgoing);
+            sendMessageQueue.removeAllElements();
+
+            messenger.poll(timeout, outgoing, receivedMessageQueue);
+
+            if (receivedMessageQueue.isEmpty()) {
+                return null;
+            }
+        }
+
+        Message msg = (Message) receivedMessageQueue.elementAt(0);
+        receivedMessageQueue.removeElementAt(0);
+        return msg;
+    }
+
     /**
      * Factory method, used to create an instance of a PeerNetwork.
      *
@@ -64,9 +64,11 @@
 // package-private, hence this hack
 package net.jxta.j2me;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import java.net.URL;
 import java.net.MalformedURLException;
@@ -96,10 +98,9 @@ final class HttpMessenger {
      * The duration that the client is willing to block for
      * more messages on the same connection (using
      * chunking). If set to -1, the connection closes after
-     * one message.
-     * TBD: Not Used
+     * one message. Only used for batched polls.
      */
-    //private static final int DEFAULT_CLIENT_WAIT_TIMEOUT = 2000;
+    private static final int DEFAULT_CLIENT_WAIT_TIMEOUT = 2000;
 
     /**
      * Requested lease duration.
@@ -119,6 +120,9 @@ final class HttpMessenger {
     private static final String COMMAND_GET_PID = "pid";
     private static final String UNKNOWN_PID = "unknown-unknown";
 
+    /** number of messages in the body of a batched poll **/
+    private static final String MESSAGE_COUNT_HEADER = "x-jxta-message-count";
+
     /** the relay that we are connecting to **/
     private String relayUrl = null;
 
@@ -131,12 +135,13 @@ final class HttpMessenger {
     private URL constructURL(String initRelayUrl, 
                              String command,
                              int timeout,
+                             int waitTimeout,
                              String pid) throws MalformedURLException {
 
         String url = initRelayUrl +                       // Relay URL (http://address:port)
                      "/" + pid + 
                      "?" + Integer.toString(timeout) +  // Relay Poll time - keeps connection alive
-                     "," + Integer.toString(-1) +         // lazytime out - always -1 for JXME peers
+                     "," + Integer.toString(waitTimeout) + // lazytime out - -1 unless batched
                      "," + initRelayUrl +                 // Relay URL (http://address:port)
                      "/" + ENDPOINT_SERVICE_ID +          // Endpoint Service's ID
                      "/" + RELAY_SERVICE_ID +             // Relay Service's ID
@@ -165,11 +170,13 @@ final class HttpMessenger {
             relay = constructURL(initRelayUrl, 
                                  COMMAND_GET_PID, 
                                  DEFAULT_CONNECT_POLL_TIMEOUT, 
+                                 -1,
                                  UNKNOWN_PID);
         } else {
             relay = constructURL(initRelayUrl, 
                                  COMMAND_CONNECT, 
                                  DEFAULT_CONNECT_POLL_TIMEOUT, 
+                                 -1,
                                  peerId);
         }
 
@@ -254,9 +261,10 @@ final class HttpMessenger {
         DataInputStream dis = null;
         DataOutputStream dos = null;
         URL relay = null;
+        boolean reusable = false;
         //System.out.println ("Polling... RelayURL: " + relayUrl);
         try {
-            relay = constructURL (relayUrl, "", timeout, peerId);
+            relay = constructURL (relayUrl, "", timeout, -1, peerId);
 
             conn = (HttpURLConnection) relay.openConnection();
             conn.setDoOutput(true);
@@ -277,27 +285,95 @@ final class HttpMessenger {
             }
             String contentLenStr = conn.getHeaderField("Content-Length");
             //System.out.println ("Con Length: " + contentLenStr);
-            if (contentLenStr == null) {
-                return null;
-            }
-            if ("0".equals(contentLenStr.trim())) {
-                return null;
-            }
 
             dis = new DataInputStream(conn.getInputStream());
-            msg = Message.read(dis);
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+            if (contentLenStr != null && !"0".equals(contentLenStr.trim())) {
+                msg = Message.read(dis);
             }
+            reusable = true;
+        } finally {
             if (dos != null) {
                 dos.close();
             }
             if (dis != null) {
                 dis.close();
             }
+            // closing the streams leaves the connection to the relay
+            // open for the next poll, only drop it after a failure
+            if (conn != null && !reusable) {
+                conn.disconnect();
+            }
         }
 
         return msg;
     }
+
+    /**
+     * Sends a batch of messages to the relay and receives all of the
+     * messages pending for this peer. The relay holds the request for
+     * up to <code>timeout</code> waiting for a first message and then
+     * for up to {@link #DEFAULT_CLIENT_WAIT_TIMEOUT} after each message
+     * it returns.
+     *
+     * @param timeout timeout in millis
+     * @param outgoing the messages to send, may be empty
+     * @param incoming receives the messages returned by the relay
+     */
+    synchronized void poll(int timeout, Message[] outgoing, Vector incoming) 
+        throws IOException {
+
+        HttpURLConnection conn = null;
+        DataInputStream dis = null;
+        DataOutputStream dos = null;
+        boolean reusable = false;
+        try {
+            URL relay = constructURL(relayUrl, "", timeout, 
+                                     DEFAULT_CLIENT_WAIT_TIMEOUT, peerId);
+
+            int size = 0;
+            for (int i=0; i < outgoing.length; i++) {
+                size += outgoing[i].getSize();
+            }
+
+            conn = (HttpURLConnection) relay.openConnection();
+            conn.setDoOutput(true);
+            conn.setDoInput(true);
+            conn.setRequestMethod("POST");
+            conn.setAllowUserInteraction(false);
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Content-Length", Integer.toString(size));
+            conn.setRequestProperty("Content-Type", Message.DEFAULT_MIME_TYPE);
+            conn.setRequestProperty(MESSAGE_COUNT_HEADER, 
+                                    Integer.toString(outgoing.length));
+            dos = new DataOutputStream(
+                new BufferedOutputStream(conn.getOutputStream()));
+            for (int i=0; i < outgoing.length; i++) {
+                outgoing[i].write(dos);
+            }
+            dos.flush();
+
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_OK &&
+                conn.getResponseCode() != 100) {
+                throw new IOException("HTTP Error: " + 
+                                       conn.getResponseCode() + " " +
+                                       conn.getResponseMessage());
+            }
+
+            // the relay streams messages until it has nothing more to
+            // send for the wait timeout
+            dis = new DataInputStream(conn.getInputStream());
+            Message.readAll(dis, incoming);
+            reusable = true;
+        } finally {
+            if (dos != null) {
+                dos.close();
+            }
+            if (dis != null) {
+                dis.close();
+            }
+            if (conn != null && !reusable) {
+                conn.disconnect();
+            }
+        }
+    }
 }
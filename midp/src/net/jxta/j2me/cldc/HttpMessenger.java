@@ -60,6 +60,7 @@ package net.jxta.j2me;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.HttpConnection;
@@ -89,10 +90,9 @@ final class HttpMessenger {
      * The duration that the client is willing to block for
      * more messages on the same connection (using
      * chunking). If set to -1, the connection closes after
-     * one message.
-     * TBD: Not Used
+     * one message. Only used for batched polls.
      */
-    //private static final int DEFAULT_CLIENT_WAIT_TIMEOUT = 2000;
+    private static final int DEFAULT_CLIENT_WAIT_TIMEOUT = 2000;
 
     /**
      * Requested lease duration.
@@ -108,6 +108,11 @@ final class HttpMessenger {
     private final static String COMMAND_GET_PID = "pid";
     private final static String UNKNOWN_PID = "unknown-unknown";
 
+    /**
+     * number of messages in the body of a batched poll
+     */
+    private final static String MESSAGE_COUNT_HEADER = "x-jxta-message-count";
+
     /**
      * the relay that we are connecting to *
      */
@@ -126,6 +131,7 @@ final class HttpMessenger {
     private String constructURL(String initRelayUrl,
             String command,
             int timeout,
+            int waitTimeout,
             String pid) {
 
         String url = initRelayUrl +
@@ -133,8 +139,8 @@ final class HttpMessenger {
         "/" + pid +
                 "?" + Integer.toString(timeout) +
         // Relay Poll time - keeps connection alive
-        "," + Integer.toString(-1) +
-        // lazytime out - always -1 for JXME peers
+        "," + Integer.toString(waitTimeout) +
+        // lazytime out - -1 unless batched
         "," + initRelayUrl +
         // Relay URL (http://address:port)
         "/" + ENDPOINT_SERVICE_ID +
@@ -176,11 +182,13 @@ final class HttpMessenger {
             relay = constructURL(initRelayUrl,
                     COMMAND_GET_PID,
                     DEFAULT_CONNECT_POLL_TIMEOUT,
+                    -1,
                     UNKNOWN_PID);
         } else {
             relay = constructURL(initRelayUrl,
                     COMMAND_CONNECT,
                     DEFAULT_CONNECT_POLL_TIMEOUT,
+                    -1,
                     peerId);
         }
 
@@ -264,7 +272,7 @@ final class HttpMessenger {
         String relay = null;
         System.out.println("Polling Interval: " + timeout);
         try {
-            relay = constructURL(relayUrl, "", timeout, peerId);
+            relay = constructURL(relayUrl, "", timeout, -1, peerId);
             conn = (HttpConnection) Connector.open(relay, Connector.READ_WRITE);
             conn.setRequestMethod(HttpConnection.POST);
             conn.setRequestProperty("Connection", "close");
@@ -306,5 +314,69 @@ final class HttpMessenger {
         }
         return msg;
     }
-}
 
+
+    /**
+     * Sends a batch of messages to the relay and receives all of the
+     * messages pending for this peer. The relay holds the request for
+     * up to <code>timeout</code> waiting for a first message and then
+     * for up to DEFAULT_CLIENT_WAIT_TIMEOUT after each message it
+     * returns.
+     *
+     * @param  timeout          timeout in millis
+     * @param  outgoing         the messages to send, may be empty
+     * @param  incoming         receives the messages returned by the relay
+     * @exception  IOException  if an i/o error occurs
+     */
+    synchronized void poll(int timeout, Message[] outgoing, Vector incoming)
+             throws IOException {
+
+        HttpConnection conn = null;
+        DataInputStream dis = null;
+        DataOutputStream dos = null;
+        try {
+            String relay = constructURL(relayUrl, "", timeout,
+                    DEFAULT_CLIENT_WAIT_TIMEOUT, peerId);
+
+            int size = 0;
+            for (int i = 0; i < outgoing.length; i++) {
+                size += outgoing[i].getSize();
+            }
+
+            conn = (HttpConnection) Connector.open(relay, Connector.READ_WRITE);
+            conn.setRequestMethod(HttpConnection.POST);
+            conn.setRequestProperty("Connection", "keep-alive");
+            conn.setRequestProperty("Content-Length", Integer.toString(size));
+            conn.setRequestProperty("Content-Type", DEFAULT_MIME_TYPE);
+            conn.setRequestProperty(MESSAGE_COUNT_HEADER,
+                    Integer.toString(outgoing.length));
+            if (size > 0) {
+                dos = conn.openDataOutputStream();
+                for (int i = 0; i < outgoing.length; i++) {
+                    outgoing[i].write(dos);
+                }
+            }
+            if (conn.getResponseCode() != HttpConnection.HTTP_OK &&
+                    conn.getResponseCode() != 100) {
+                throw new IOException("HTTP Error: " +
+                        conn.getResponseCode() + " " +
+                        conn.getResponseMessage());
+            }
+
+            // the relay streams messages until it has nothing more to
+            // send for the wait timeout
+            dis = conn.openDataInputStream();
+            Message.readAll(dis, incoming);
+        } finally {
+            if (dos != null) {
+                dos.close();
+            }
+            if (dis != null) {
+                dis.close();
+            }
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+}
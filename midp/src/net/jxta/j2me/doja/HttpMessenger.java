@@ -67,6 +67,7 @@ package net.jxta.j2me;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Vector;
 
 import javax.microedition.io.Connector;
 
@@ -212,4 +213,21 @@ final class HttpMessenger {
         }
         return msg;
     }
+
+    /**
+     * Batched poll. The DoJa relay protocol carries a single message in
+     * each direction so the messages are exchanged one request at a time.
+     */
+    synchronized void poll(int timeout, Message[] outgoing, Vector incoming) 
+        throws IOException {
+
+        int i = 0;
+        do {
+            Message msg = poll(timeout, 
+                               i < outgoing.length ? outgoing[i] : Message.EMPTY);
+            if (msg != null) {
+                incoming.addElement(msg);
+            }
+        } while (++i < outgoing.length);
+    }
 }
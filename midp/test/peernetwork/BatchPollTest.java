@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2001 Sun Microsystems, Inc.  All rights
+ * reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution,
+ *    if any, must include the following acknowledgment:
+ *       "This product includes software developed by the
+ *       Sun Microsystems, Inc. for Project JXTA."
+ *    Alternately, this acknowledgment may appear in the software itself,
+ *    if and wherever such third-party acknowledgments normally appear.
+ *
+ * 4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *    not be used to endorse or promote products derived from this
+ *    software without prior written permission. For written
+ *    permission, please contact Project JXTA at http://www.jxta.org.
+ *
+ * 5. Products derived from this software may not be called "JXTA",
+ *    nor may "JXTA" appear in their name, without prior written
+ *    permission of Sun.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL SUN MICROSYSTEMS OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF
+ * USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ *====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of Project JXTA.  For more
+ * information on Project JXTA, please see
+ * <http://www.jxta.org/>.
+ *
+ * This license is based on the BSD license adopted by the Apache Foundation.
+ *
+ */
+
+/**
+ * Unit positive test for batched PeerNetwork.poll(). Several requests are
+ * queued and must reach the relay in a single round trip, the messages
+ * returned by the relay must then be polled one at a time without further
+ * round trips. The relay is a local stand-in which holds polls and echoes
+ * the messages it receives back to the sender over persistent connections.
+ */
+
+package net.jxta.midp.test.peernetwork;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import net.jxta.j2me.Element;
+import net.jxta.j2me.Message;
+import net.jxta.j2me.PeerNetwork;
+
+public final class BatchPollTest {
+
+    static final int MESSAGES = 5;
+    static final int HOLD = 300;
+    static String testName = null;
+
+    private StandInRelay relay = null;
+    private PeerNetwork peer = null;
+    private boolean passed = true;
+
+    public BatchPollTest(String name) {
+	testName = name;
+	System.out.println("Test name: " + testName);
+    }
+
+    public void setUp() throws IOException {
+	relay = new StandInRelay();
+	peer = PeerNetwork.createInstance("batch");
+	peer.setBatchPolling(true);
+	peer.connect(relay.getUrl(), "uuid-BA7C4000000000000000000000000000003".getBytes());
+    }
+
+    public void runTest() throws IOException {
+	int[] requestIds = new int[MESSAGES];
+	for (int i=0; i < MESSAGES; i++) {
+	    Element[] elm = new Element[1];
+	    elm[0] = new Element("JxtaTalkSenderMessage", 
+				 ("message " + i).getBytes(), null, null);
+	    requestIds[i] = peer.send("uuid-pipe", new Message(elm));
+	}
+
+	int connections = relay.getConnections();
+	for (int i=0; i < MESSAGES; i++) {
+	    Message msg = peer.poll(HOLD);
+	    check("message " + i + " received", msg != null && 
+		  requestIds[i] == Integer.parseInt(getElement(msg, Message.REQUESTID_TAG)));
+	}
+	check("one round trip for the batch", relay.getRequests() == 1);
+
+	long start = System.currentTimeMillis();
+	check("empty poll", peer.poll(HOLD) == null);
+	check("empty poll held by the relay", System.currentTimeMillis() - start >= HOLD);
+	check("two round trips", relay.getRequests() == 2);
+	check("connection reused", relay.getConnections() == connections);
+    }
+
+    public void tearDown() throws IOException {
+	relay.close();
+	System.out.println("  " + (passed ? "PASSED" : "FAILED"));
+    }
+
+    private void check(String what, boolean ok) {
+	System.out.println("  " + what + (ok ? "" : " : FAILED"));
+	passed &= ok;
+    }
+
+    private static String getElement(Message msg, String name) {
+	for (int i=0; i < msg.getElementCount(); i++) {
+	    Element el = msg.getElement(i);
+	    if (name.equals(el.getName())) {
+		return new String(el.getData());
+	    }
+	}
+	return null;
+    }
+
+    static public void main(String args[]) throws IOException {
+	BatchPollTest test = new BatchPollTest("BatchPollTest");
+	test.setUp();
+	test.runTest();
+	test.tearDown();
+    }
+
+    /**
+     * A stand-in for the relay. Connect requests are granted, polls are
+     * held until there are messages pending for the peer or the poll
+     * timeout expires and every message received is queued back to the
+     * peer which sent it.
+     */
+    static final class StandInRelay implements Runnable {
+
+	private final ServerSocket server;
+	private byte[] pending = new byte[0];
+	private int connections = 0;
+	private int requests = 0;
+
+	StandInRelay() throws IOException {
+	    server = new ServerSocket(0);
+	    Thread thread = new Thread(this, "StandInRelay");
+	    thread.setDaemon(true);
+	    thread.start();
+	}
+
+	String getUrl() {
+	    return "http://127.0.0.1:" + server.getLocalPort();
+	}
+
+	synchronized int getConnections() {
+	    return connections;
+	}
+
+	synchronized int getRequests() {
+	    return requests;
+	}
+
+	void close() throws IOException {
+	    server.close();
+	}
+
+	public void run() {
+	    try {
+		while (true) {
+		    final Socket socket = server.accept();
+		    synchronized (this) {
+			connections++;
+		    }
+		    new Thread(new Runnable() {
+			public void run() {
+			    serve(socket);
+			}
+		    }).start();
+		}
+	    } catch (IOException closed) {
+	    }
+	}
+
+	private void serve(Socket socket) {
+	    try {
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		OutputStream out = socket.getOutputStream();
+		String line;
+
+		while ((line = readLine(in)) != null) {
+		    boolean post = line.startsWith("POST");
+		    int timeout = Integer.parseInt(line.substring(line.indexOf('?') + 1, line.indexOf(',')));
+		    int length = 0;
+
+		    while ((line = readLine(in)).length() > 0) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+			    length = Integer.parseInt(line.substring(15).trim());
+			}
+		    }
+
+		    byte[] body = new byte[length];
+		    in.readFully(body);
+
+		    byte[] reply = post ? poll(body, timeout) : new byte[0];
+		    out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + Message.DEFAULT_MIME_TYPE +
+			       "\r\nContent-Length: " + reply.length + "\r\n\r\n").getBytes());
+		    out.write(reply);
+		    out.flush();
+		}
+		socket.close();
+	    } catch (IOException failed) {
+	    }
+	}
+
+	private synchronized byte[] poll(byte[] body, int timeout) {
+	    requests++;
+
+	    byte[] all = new byte[pending.length + body.length];
+	    System.arraycopy(pending, 0, all, 0, pending.length);
+	    System.arraycopy(body, 0, all, pending.length, body.length);
+	    pending = all;
+
+	    long until = System.currentTimeMillis() + timeout;
+	    while (pending.length == 0) {
+		long wait = until - System.currentTimeMillis();
+		if (wait <= 0) {
+		    break;
+		}
+		try {
+		    wait(wait);
+		} catch (InterruptedException woken) {
+		}
+	    }
+
+	    byte[] reply = pending;
+	    pending = new byte[0];
+	    return reply;
+	}
+
+	private static String readLine(DataInputStream in) throws IOException {
+	    StringBuffer line = new StringBuffer();
+	    int c;
+	    while ((c = in.read()) != '\n') {
+		if (c == -1) {
+		    return null;
+		}
+		if (c != '\r') {
+		    line.append((char) c);
+		}
+	    }
+	    return line.toString();
+	}
+    }
+}